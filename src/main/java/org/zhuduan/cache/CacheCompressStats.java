@@ -0,0 +1,101 @@
+package org.zhuduan.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ *
+ * 每个@SimpleCache方法的压缩统计, 用于调整压缩阈值
+ * 		1.压缩次数、压缩前后的总字节数(压缩比)、压缩耗时
+ * 		2.压缩后没有变小而放弃压缩的次数
+ * 		3.解压次数和解压耗时
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月18日
+ *
+ */
+public final class CacheCompressStats {
+
+	private final AtomicLong	compressCount		=	new AtomicLong();		// 压缩后保存的次数
+
+	private final AtomicLong	skipCount			=	new AtomicLong();		// 压缩后没有变小, 保存原值的次数
+
+	private final AtomicLong	rawBytes			=	new AtomicLong();		// 压缩前的总字节数(只统计压缩后保存的值)
+
+	private final AtomicLong	compressedBytes		=	new AtomicLong();		// 压缩后的总字节数
+
+	private final AtomicLong	compressNanos		=	new AtomicLong();		// 压缩的总耗时(包括放弃压缩的情况)
+
+	private final AtomicLong	decompressCount		=	new AtomicLong();		// 解压次数
+
+	private final AtomicLong	decompressNanos		=	new AtomicLong();		// 解压的总耗时
+
+
+	void recordCompress(int rawLength, int compressedLength, long nanos){
+		compressCount.incrementAndGet();
+		rawBytes.addAndGet(rawLength);
+		compressedBytes.addAndGet(compressedLength);
+		compressNanos.addAndGet(nanos);
+	}
+
+	void recordSkip(long nanos){
+		skipCount.incrementAndGet();
+		compressNanos.addAndGet(nanos);
+	}
+
+	void recordDecompress(long nanos){
+		decompressCount.incrementAndGet();
+		decompressNanos.addAndGet(nanos);
+	}
+
+
+	/***
+	 * 压缩比: 压缩后的字节数 / 压缩前的字节数, 没有压缩过时返回1
+	 *
+	 * @return
+	 */
+	public double getCompressRatio(){
+		final long raw = rawBytes.get();
+		return raw > 0 ? (double) compressedBytes.get() / raw : 1.0D;
+	}
+
+	public long getCompressCount() {
+		return compressCount.get();
+	}
+
+	public long getSkipCount() {
+		return skipCount.get();
+	}
+
+	public long getRawBytes() {
+		return rawBytes.get();
+	}
+
+	public long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+
+	public long getCompressNanos() {
+		return compressNanos.get();
+	}
+
+	public long getDecompressCount() {
+		return decompressCount.get();
+	}
+
+	public long getDecompressNanos() {
+		return decompressNanos.get();
+	}
+
+
+	@Override
+	public String toString() {
+		final long compressTimes = compressCount.get() + skipCount.get();
+		final long decompressTimes = decompressCount.get();
+		return "compress:" + compressCount.get() + ", skip:" + skipCount.get()
+			 + ", ratio:" + String.format("%.3f", getCompressRatio())
+			 + ", avg compress us:" + (compressTimes > 0 ? compressNanos.get() / compressTimes / 1000 : 0)
+			 + ", decompress:" + decompressTimes
+			 + ", avg decompress us:" + (decompressTimes > 0 ? decompressNanos.get() / decompressTimes / 1000 : 0);
+	}
+}
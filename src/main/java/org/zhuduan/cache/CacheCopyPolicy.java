@@ -0,0 +1,23 @@
+package org.zhuduan.cache;
+
+/***
+ * 
+ * 本地对象缓存的复制策略（@SimpleCache的copyPolicy）
+ * 只有在使用本地缓存（LocalCacheStorageService的实现）时生效，命中时不需要解码
+ * 使用Redis等远程缓存时仍然按二进制的方式缓存
+ * 
+ * 
+ * @author	zhuhaifeng
+ * @date	2017年4月20日
+ *
+ */
+public enum CacheCopyPolicy {
+
+	NONE,					// 不使用对象缓存：编码成二进制后保存（默认）
+	
+	SHARE,					// 直接保存方法的返回值，所有命中共享同一个实例（适用于不可变的返回值）
+	
+	CLONE_ON_READ,			// 直接保存方法的返回值，每次命中返回一份深拷贝（调用方可以随意修改）
+	
+	SERIALIZE_ON_WRITE;		// 写入时通过codec编码再解码出一份副本保存，所有命中共享这份副本（方法之后修改返回值不会影响缓存）
+}
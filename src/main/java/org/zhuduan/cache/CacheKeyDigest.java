@@ -0,0 +1,127 @@
+package org.zhuduan.cache;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/***
+ *
+ * 对参数值直接计算128位的摘要(murmur3), 用于生成定长的缓存key
+ * 不需要先把参数拼接成字符串:
+ * 		1.基础类型、String、枚举直接写入hasher
+ * 		2.数组、List等有序的Collection按顺序递归写入每一个元素
+ * 		3.Set和Map的迭代顺序和equals无关(如HashSet的扩容、LinkedHashMap的插入顺序), 对每个元素(或者key和value)单独计算摘要后相加,
+ * 		  相等的Set/Map得到同样的摘要
+ * 		4.其它对象使用toString的结果(和普通key的规则一致)
+ * 每个值前面都会写入一个类型标记, 避免如 ("ab", "c") 和 ("a", "bc") 这类的冲突
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月10日
+ *
+ */
+final class CacheKeyDigest {
+
+	private static final HashFunction	HASH_FUNCTION	=	Hashing.murmur3_128();
+
+	// 值的类型标记
+	private static final byte	TYPE_NULL		=	0;
+	private static final byte	TYPE_STRING		=	1;
+	private static final byte	TYPE_LONG		=	2;
+	private static final byte	TYPE_DOUBLE		=	3;
+	private static final byte	TYPE_BOOLEAN	=	4;
+	private static final byte	TYPE_CHAR		=	5;
+	private static final byte	TYPE_ENUM		=	6;
+	private static final byte	TYPE_ARRAY		=	7;
+	private static final byte	TYPE_COLLECTION	=	8;
+	private static final byte	TYPE_MAP		=	9;
+	private static final byte	TYPE_OBJECT		=	10;
+	private static final byte	TYPE_SET		=	11;
+
+
+	private CacheKeyDigest(){
+	}
+
+
+	static Hasher newHasher(){
+		return HASH_FUNCTION.newHasher();
+	}
+
+
+	/***
+	 * 将一个值写入hasher
+	 *
+	 * @param hasher
+	 * @param value
+	 */
+	static void putValue(Hasher hasher, Object value){
+		if (value == null) {
+			hasher.putByte(TYPE_NULL);
+		} else if (value instanceof String) {
+			putString(hasher.putByte(TYPE_STRING), (String) value);
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			hasher.putByte(TYPE_LONG).putLong(((Number) value).longValue());
+		} else if (value instanceof Double || value instanceof Float) {
+			hasher.putByte(TYPE_DOUBLE).putDouble(((Number) value).doubleValue());
+		} else if (value instanceof Boolean) {
+			hasher.putByte(TYPE_BOOLEAN).putBoolean(((Boolean) value).booleanValue());
+		} else if (value instanceof Character) {
+			hasher.putByte(TYPE_CHAR).putChar(((Character) value).charValue());
+		} else if (value instanceof Enum) {
+			putString(hasher.putByte(TYPE_ENUM), ((Enum<?>) value).name());
+		} else if (value.getClass().isArray()) {
+			final int length = Array.getLength(value);
+			hasher.putByte(TYPE_ARRAY).putInt(length);
+			for (int i=0; i<length; i++) {
+				putValue(hasher, Array.get(value, i));
+			}
+		} else if (value instanceof Set) {
+			final Set<?> set = (Set<?>) value;
+			final long[] digestSum = new long[2];
+			for (Object element : set) {
+				final Hasher elementHasher = newHasher();
+				putValue(elementHasher, element);
+				addDigest(digestSum, elementHasher);
+			}
+			hasher.putByte(TYPE_SET).putInt(set.size()).putLong(digestSum[0]).putLong(digestSum[1]);
+		} else if (value instanceof Collection) {
+			final Collection<?> collection = (Collection<?>) value;
+			hasher.putByte(TYPE_COLLECTION).putInt(collection.size());
+			for (Object element : collection) {
+				putValue(hasher, element);
+			}
+		} else if (value instanceof Map) {
+			final Map<?, ?> map = (Map<?, ?>) value;
+			final long[] digestSum = new long[2];
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				final Hasher entryHasher = newHasher();
+				putValue(entryHasher, entry.getKey());
+				putValue(entryHasher, entry.getValue());
+				addDigest(digestSum, entryHasher);
+			}
+			hasher.putByte(TYPE_MAP).putInt(map.size()).putLong(digestSum[0]).putLong(digestSum[1]);
+		} else {
+			putString(hasher.putByte(TYPE_OBJECT), value.toString());
+		}
+	}
+
+
+	// 把一个元素的128位摘要按两个long累加到digestSum中(加法和顺序无关, 重复的元素也不会相互抵消)
+	private static void addDigest(long[] digestSum, Hasher elementHasher){
+		final ByteBuffer digest = ByteBuffer.wrap(elementHasher.hash().asBytes());
+		digestSum[0] += digest.getLong();
+		digestSum[1] += digest.getLong();
+	}
+
+
+	// 写入长度和字符, 不做编码转换
+	private static void putString(Hasher hasher, String value){
+		hasher.putInt(value.length()).putUnencodedChars(value);
+	}
+}
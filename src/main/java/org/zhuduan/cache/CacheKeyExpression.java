@@ -0,0 +1,347 @@
+package org.zhuduan.cache;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+
+import com.google.common.hash.Hasher;
+
+/***
+ *
+ * 编译后的缓存key表达式
+ * 当@SimpleCache的key中包含'#'时, key作为模板使用, 其中的表达式会被替换成对应参数(或参数属性)的值:
+ * 		1. #0, #1.id			按参数位置取值
+ * 		2. #user, #user.id		按参数名取值(需要编译时保留了参数名或调试信息)
+ * 		3. 属性使用public的getter(getXxx/isXxx)或者字段获取, 多级属性用'.'连接
+ * 表达式由字母、数字、'_'、'$'和'.'组成, 遇到其它字符结束, 因此建议用':'或者'-'分隔, 如: "user:#user.id:#1"
+ *
+ * 表达式在方法第一次调用时解析成MethodHandle的访问链, 之后生成key时不再有反射和字符串解析
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月6日
+ *
+ */
+final class CacheKeyExpression {
+
+	private static final char						EXPRESSION_BEGIN		=	'#';		// 表达式开始的标记
+
+	private static final ParameterNameDiscoverer	parameterNameDiscoverer	=	new DefaultParameterNameDiscoverer();
+
+	private static final MethodType					ACCESSOR_TYPE			=	MethodType.methodType(Object.class, Object.class);
+
+	private final Object[]	segments;		// 模板片段: String为字面量, ArgAccessor为参数访问链
+
+
+	private CacheKeyExpression(Object[] segments){
+		this.segments = segments;
+	}
+
+
+	/***
+	 * 判断注解中的key是否是表达式模板
+	 *
+	 * @param configKey
+	 * @return
+	 */
+	static boolean isExpression(String configKey){
+		return configKey != null && configKey.indexOf(EXPRESSION_BEGIN) >= 0;
+	}
+
+
+	/***
+	 * 将key模板解析成访问链
+	 *
+	 * @param configKey
+	 * @param method
+	 * @return
+	 * @throws CacheException 表达式中的参数或属性不存在时抛出
+	 */
+	static CacheKeyExpression compile(String configKey, Method method) throws CacheException {
+		return compile(configKey, method, method.getParameterTypes());
+	}
+
+
+	/***
+	 * 将key模板解析成访问链, 参数类型使用指定的类型(批量模式中集合参数按元素的类型解析)
+	 *
+	 * @param configKey
+	 * @param method
+	 * @param parameterTypes
+	 * @return
+	 * @throws CacheException 表达式中的参数或属性不存在时抛出
+	 */
+	static CacheKeyExpression compile(String configKey, Method method, Class<?>[] parameterTypes) throws CacheException {
+		final String[] parameterNames = getParameterNames(method);
+		final List<Object> segments = new ArrayList<>();
+		final StringBuilder literal = new StringBuilder();
+
+		int index = 0;
+		while (index < configKey.length()) {
+			char ch = configKey.charAt(index);
+			if (ch != EXPRESSION_BEGIN) {
+				literal.append(ch);
+				index++;
+				continue;
+			}
+
+			// 找到表达式的结束位置
+			int end = index + 1;
+			while (end < configKey.length() && isExpressionPart(configKey.charAt(end))) {
+				end++;
+			}
+			// 去掉末尾的'.'(如 "#0." 中的'.'当作字面量)
+			while (end > index + 1 && configKey.charAt(end - 1) == '.') {
+				end--;
+			}
+			if (end == index + 1) {
+				throw new CacheException(CacheConstants.EXCEPTION_KEY_EXPRESSION, "key表达式为空: " + configKey);
+			}
+
+			if (literal.length() > 0) {
+				segments.add(literal.toString());
+				literal.setLength(0);
+			}
+			segments.add(compileAccessor(configKey.substring(index + 1, end), parameterTypes, parameterNames, method));
+			index = end;
+		}
+		if (literal.length() > 0) {
+			segments.add(literal.toString());
+		}
+		return new CacheKeyExpression(segments.toArray());
+	}
+
+
+	/***
+	 * 将属性链(如 "id", "user.id")解析成访问链, 用于从对象中取值(批量模式中从返回的元素中取出对应的参数值)
+	 *
+	 * @param propertyPath
+	 * @param type
+	 * @return
+	 * @throws CacheException 属性不存在时抛出
+	 */
+	static CacheKeyExpression compileProperty(String propertyPath, Class<?> type) throws CacheException {
+		final String[] parts = propertyPath.split("\\.");
+		final MethodHandle[] getters = new MethodHandle[parts.length];
+		Class<?> currentType = type;
+		for (int i=0; i<parts.length; i++) {
+			MethodHandle getter = parts[i].isEmpty() ? null : findGetter(currentType, parts[i]);
+			if (getter == null) {
+				throw new CacheException(CacheConstants.EXCEPTION_KEY_EXPRESSION,
+						"属性不存在: " + propertyPath + " on " + type.getName());
+			}
+			currentType = getter.type().returnType();
+			getters[i] = getter.asType(ACCESSOR_TYPE);
+		}
+		return new CacheKeyExpression(new Object[]{new ArgAccessor(0, getters)});
+	}
+
+
+	/***
+	 * 取对象的属性值(只用于compileProperty生成的表达式)
+	 *
+	 * @param target
+	 * @return
+	 */
+	Object getPropertyValue(Object target) {
+		return ((ArgAccessor) segments[0]).getValue(new Object[]{target});
+	}
+
+
+	/***
+	 * 按模板将参数值写入sb
+	 *
+	 * @param sb
+	 * @param methodArgs
+	 */
+	void appendTo(StringBuilder sb, Object[] methodArgs) {
+		for (Object segment : segments) {
+			if (segment instanceof String) {
+				sb.append((String) segment);
+			} else {
+				appendValue(sb, ((ArgAccessor) segment).getValue(methodArgs));
+			}
+		}
+	}
+
+
+	/***
+	 * 将各个表达式的值写入hasher(用于生成摘要key)
+	 *
+	 * @param hasher
+	 * @param methodArgs
+	 */
+	void putTo(Hasher hasher, Object[] methodArgs) {
+		for (Object segment : segments) {
+			if (segment instanceof ArgAccessor) {
+				CacheKeyDigest.putValue(hasher, ((ArgAccessor) segment).getValue(methodArgs));
+			}
+		}
+	}
+
+
+	/***
+	 * 模板开头的字面量(如 "user:#user.id" 中的 "user:"), 没有时返回空串
+	 *
+	 * @return
+	 */
+	String getLiteralPrefix() {
+		return (segments.length > 0 && segments[0] instanceof String) ? (String) segments[0] : "";
+	}
+
+
+	// 写入值: 基础类型直接写入, 避免toString
+	static void appendValue(StringBuilder sb, Object value) {
+		if (value == null) {
+			sb.append("null");
+		} else if (value instanceof String) {
+			sb.append((String) value);
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			sb.append(((Number) value).longValue());
+		} else if (value instanceof Character) {
+			sb.append(((Character) value).charValue());
+		} else if (value instanceof Boolean) {
+			sb.append(((Boolean) value).booleanValue());
+		} else if (value instanceof Enum) {
+			sb.append(((Enum<?>) value).name());
+		} else {
+			sb.append(value.toString());
+		}
+	}
+
+
+	// 解析一个表达式: 参数(名字或位置) + 属性链
+	private static ArgAccessor compileAccessor(String expression, Class<?>[] parameterTypes, String[] parameterNames, Method method)
+			throws CacheException {
+		final String[] parts = expression.split("\\.");
+		final int argIndex = getArgIndex(parts[0], parameterNames, parameterTypes.length);
+		if (argIndex < 0) {
+			throw new CacheException(CacheConstants.EXCEPTION_KEY_EXPRESSION,
+					"key表达式中的参数不存在: #" + expression + " on " + method.toGenericString());
+		}
+
+		final MethodHandle[] getters = new MethodHandle[parts.length - 1];
+		Class<?> currentType = parameterTypes[argIndex];
+		for (int i=1; i<parts.length; i++) {
+			MethodHandle getter = findGetter(currentType, parts[i]);
+			if (getter == null) {
+				throw new CacheException(CacheConstants.EXCEPTION_KEY_EXPRESSION,
+						"key表达式中的属性不存在: #" + expression + " on " + currentType.getName());
+			}
+			currentType = getter.type().returnType();
+			getters[i - 1] = getter.asType(ACCESSOR_TYPE);
+		}
+		return new ArgAccessor(argIndex, getters);
+	}
+
+
+	// 参数位置: 数字直接使用, 否则按参数名查找
+	private static int getArgIndex(String name, String[] parameterNames, int parameterCount) {
+		if (Character.isDigit(name.charAt(0))) {
+			try {
+				int argIndex = Integer.parseInt(name);
+				return argIndex < parameterCount ? argIndex : -1;
+			} catch (NumberFormatException exception) {
+				return -1;
+			}
+		}
+		if (parameterNames != null) {
+			for (int i=0; i<parameterNames.length; i++) {
+				if (name.equals(parameterNames[i])) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+
+	// 查找属性的访问方法: getXxx > isXxx > 字段(包括父类的字段)
+	private static MethodHandle findGetter(Class<?> type, String property) {
+		final MethodHandles.Lookup lookup = MethodHandles.lookup();
+		final String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+		for (String getterName : new String[]{"get" + suffix, "is" + suffix}) {
+			try {
+				Method getter = type.getMethod(getterName);
+				if (getter.getReturnType() != void.class && !Modifier.isStatic(getter.getModifiers())) {
+					getter.setAccessible(true);
+					return lookup.unreflect(getter);
+				}
+			} catch (Exception exception) {
+				// 继续查找下一种方式
+			}
+		}
+		for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+			try {
+				Field field = clazz.getDeclaredField(property);
+				if (!Modifier.isStatic(field.getModifiers())) {
+					field.setAccessible(true);
+					return lookup.unreflectGetter(field);
+				}
+			} catch (Exception exception) {
+				// 继续查找父类
+			}
+		}
+		return null;
+	}
+
+
+	// 获取方法的参数名, 获取不到时只能使用参数位置
+	private static String[] getParameterNames(Method method) {
+		try {
+			return parameterNameDiscoverer.getParameterNames(method);
+		} catch (Exception exception) {
+			return null;
+		}
+	}
+
+
+	private static boolean isExpressionPart(char ch) {
+		return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$' || ch == '.';
+	}
+
+
+	/***
+	 *
+	 * 参数访问链: 取第argIndex个参数, 然后依次调用getters
+	 *
+	 */
+	private static final class ArgAccessor {
+
+		private final int				argIndex;
+
+		private final MethodHandle[]	getters;
+
+		ArgAccessor(int argIndex, MethodHandle[] getters) {
+			this.argIndex = argIndex;
+			this.getters = getters;
+		}
+
+		Object getValue(Object[] methodArgs) {
+			Object value = methodArgs[argIndex];
+			try {
+				for (MethodHandle getter : getters) {
+					if (value == null) {
+						return null;
+					}
+					value = (Object) getter.invokeExact(value);
+				}
+			} catch (RuntimeException exception) {
+				throw exception;
+			} catch (Throwable throwable) {
+				throw new IllegalStateException("key表达式取值失败: " + throwable.getMessage(), throwable);
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,640 @@
+package org.zhuduan.cache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.log4j.Logger;
+import org.zhuduan.cache.codec.CacheCodec;
+import org.zhuduan.cache.codec.CacheCodecFactory;
+import org.zhuduan.cache.storage.CacheStorageService;
+import org.zhuduan.cache.storage.LocalCacheStorageService;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+import org.zhuduan.utils.Log4jUtil;
+
+import com.google.common.hash.Hasher;
+
+/***
+ *
+ * 每个@SimpleCache方法对应的不可变执行计划
+ * 在方法第一次被调用时生成并缓存到SimpleCacheAspect中, 之后命中时不再做反射相关的工作:
+ * 		1.注解信息(key, expire)
+ * 		2.返回值的Class和泛型Type
+ * 		3.缓存key的前缀(类名 & 方法名 或者 注解中配置的key), 或者编译好的key表达式
+ * 		4.实际使用的CacheStorageService和CacheCodec
+ * 		5.批量模式下集合参数的类型、元素的类型，以及返回值中元素对应参数值的访问链
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年3月20日
+ *
+ */
+public final class CacheMethodPlan {
+
+	private static final char		DIGEST_SPLIT				=	'#';		// 摘要key中前缀和摘要之间的分隔符
+
+	private static final int		KEY_BUILDER_CAPACITY_MAX	=	4096;		// 线程复用的StringBuilder超过该容量则丢弃, 防止长key一直占用内存
+
+	// 每个线程复用一个StringBuilder来拼接key, 避免每次调用都重新分配
+	private static final ThreadLocal<StringBuilder> KEY_BUILDER = new ThreadLocal<StringBuilder>(){
+		@Override
+		protected StringBuilder initialValue(){
+			return new StringBuilder(128);
+		}
+	};
+
+	private static final Logger			sysLog					=	Log4jUtil.sysLog;		// 系统日志
+
+	private final Method				method;					// 被注解的方法
+
+	private final String				configKey;				// 注解中配置的key, 为空时使用类名 & 方法名
+
+	private final CacheKeyExpression	keyExpression;			// key中包含表达式时, 编译好的key表达式
+
+	private final boolean				cacheable;				// key表达式错误时为false, 直接执行方法不做缓存
+
+	private final boolean				hashKey;				// 是否使用摘要key(可读前缀 + 参数的128位摘要)
+
+	private final int					expire;					// 注解中配置的过期时间, 单位秒
+
+	private final int					refresh;				// 软过期时间, 单位秒, 0表示不开启
+
+	private final int					nullExpire;				// null结果的缓存时间, 单位秒, 0表示不缓存null
+
+	private final int					expireJitter;			// 过期时间的随机抖动百分比
+
+	private final double				earlyRefreshBeta;		// 提前概率刷新的beta参数, 小于等于0表示不开启
+
+	private final boolean				singleFlight;			// 未命中时是否合并并发请求
+
+	private final long					singleFlightTimeout;	// 合并请求时的最长等待时间, 单位毫秒
+
+	private final Class<?>				returnType;				// 方法返回值的Class
+
+	private final Type					genericReturnType;		// 方法返回值的泛型Type(用于反序列化List<T>等)
+
+	private final Class<?>				targetClass;			// 生成计划时的目标类
+
+	private final String				keyPrefix;				// 针对targetClass预先生成的key前缀
+
+	private final String				digestPrefix;			// 针对targetClass预先生成的摘要key前缀
+
+	private final CacheStorageService	cacheStorageService;	// 生成计划时的存储实现
+
+	private final CacheCodec			cacheCodec;				// 缓存值的编解码实现
+
+	private final int					compressThreshold;		// 压缩阈值, 单位字节, 0表示不压缩
+
+	private final CacheCompressStats	compressStats;			// 压缩统计
+
+	private final CacheCopyPolicy		copyPolicy;				// 本地对象缓存的复制策略, 不使用对象缓存时为NONE
+
+	private final int					batchArg;				// 批量模式下集合参数的位置, -1表示不开启
+
+	private final Class<?>				batchArgType;			// 批量模式下集合参数声明的类型(List/Set/Collection或者数组)
+
+	private final CacheKeyExpression	batchResultKey;			// 批量模式下List返回值中的元素对应参数值的访问链, 返回值为Map时为null
+
+	private final Type					valueType;				// 每个缓存值的泛型Type(批量模式下为返回值中元素的类型)
+
+	private final Class<?>				valueClass;				// 每个缓存值的Class
+
+
+	/***
+	 * 根据方法和目标类生成执行计划
+	 *
+	 * @param method
+	 * @param targetClass
+	 * @param cacheStorageService
+	 * @param defaultCodec 注解中没有配置codec时使用
+	 * @param defaultCompressThreshold 注解中没有配置压缩阈值时使用
+	 */
+	CacheMethodPlan(Method method, Class<?> targetClass, CacheStorageService cacheStorageService, 
+					CacheCodec defaultCodec, int defaultCompressThreshold){
+		final SimpleCache cacheAnnotation = method.getAnnotation(SimpleCache.class);
+		this.method = method;
+		this.configKey = cacheAnnotation.key();
+		CacheKeyExpression expression = null;
+		boolean planValid = true;				// 配置错误时该方法不使用缓存
+
+		// 批量模式: 集合参数按元素的类型解析key模板, 缓存值为返回值中元素的类型
+		final Class<?>[] parameterTypes = method.getParameterTypes().clone();
+		final int batchIndex = cacheAnnotation.batchArg();
+		Type elementValueType = method.getGenericReturnType();
+		CacheKeyExpression resultKey = null;
+		if (batchIndex >= 0) {
+			try {
+				if (batchIndex >= parameterTypes.length || !isBatchArgType(parameterTypes[batchIndex])) {
+					throw new CacheException(CacheConstants.EXCEPTION_INITIAL_PARAM, "batchArg需要是List/Set/Collection或者数组参数的位置");
+				}
+				parameterTypes[batchIndex] = parameterTypes[batchIndex].isArray() ? parameterTypes[batchIndex].getComponentType() 
+																		: rawClass(typeArgument(method.getGenericParameterTypes()[batchIndex], 0));
+				// 只接受明确声明的List/Map（Object、Iterable等也能接收ArrayList，但调用方并没有声明要List）
+				if (isBatchListType(method.getReturnType())) {
+					elementValueType = typeArgument(method.getGenericReturnType(), 0);
+					if (cacheAnnotation.batchResultKey().isEmpty()) {
+						throw new CacheException(CacheConstants.EXCEPTION_INITIAL_PARAM, "返回值为List时需要配置batchResultKey");
+					}
+					resultKey = CacheKeyExpression.compileProperty(cacheAnnotation.batchResultKey(), rawClass(elementValueType));
+				} else if (isBatchMapType(method.getReturnType())) {
+					elementValueType = typeArgument(method.getGenericReturnType(), 1);
+				} else {
+					throw new CacheException(CacheConstants.EXCEPTION_INITIAL_PARAM, "批量模式的返回值需要是List或者Map");
+				}
+			} catch (CacheException exception) {
+				// 防止缓存配置错误影响主业务逻辑，该方法不再使用缓存
+				planValid = false;
+				sysLog.error("batch config error, disable cache for " + method.toGenericString() + " : " + exception);
+			}
+		}
+		this.batchArg = batchIndex >= 0 ? batchIndex : -1;
+		this.batchArgType = batchIndex >= 0 && batchIndex < parameterTypes.length ? method.getParameterTypes()[batchIndex] : null;
+		this.batchResultKey = resultKey;
+		this.valueType = elementValueType;
+		this.valueClass = rawClass(elementValueType);
+
+		if (CacheKeyExpression.isExpression(configKey)) {
+			try {
+				expression = CacheKeyExpression.compile(configKey, method, parameterTypes);
+			} catch (CacheException exception) {
+				// 防止缓存配置错误影响主业务逻辑，该方法不再使用缓存
+				planValid = false;
+				sysLog.error("compile key expression failed, disable cache for " + method.toGenericString() + " : " + exception);
+			}
+		}
+		this.keyExpression = expression;
+		CacheCodec codec = defaultCodec;
+		if (cacheAnnotation.codec() != CacheCodec.class) {
+			try {
+				codec = CacheCodecFactory.getCodec(cacheAnnotation.codec());
+			} catch (CacheException exception) {
+				// 防止缓存配置错误影响主业务逻辑，该方法不再使用缓存
+				planValid = false;
+				sysLog.error("create codec failed, disable cache for " + method.toGenericString() + " : " + exception);
+			}
+		}
+		this.cacheCodec = codec;
+		this.compressThreshold = Math.max(cacheAnnotation.compressThreshold() >= 0 ? cacheAnnotation.compressThreshold() : defaultCompressThreshold, 0);
+		this.compressStats = new CacheCompressStats();
+		if (cacheAnnotation.copyPolicy() != CacheCopyPolicy.NONE && !(cacheStorageService instanceof LocalCacheStorageService)) {
+			// 远程缓存只能保存二进制的值
+			this.copyPolicy = CacheCopyPolicy.NONE;
+			sysLog.warn("copyPolicy only works with local cache, ignored for " + method.toGenericString());
+		} else {
+			this.copyPolicy = cacheAnnotation.copyPolicy();
+		}
+		this.cacheable = planValid;
+		this.hashKey = cacheAnnotation.hashKey();
+		this.expire = cacheAnnotation.expire();
+		this.refresh = (cacheAnnotation.refresh() > 0 && cacheAnnotation.refresh() < expire) ? cacheAnnotation.refresh() : 0;
+		this.nullExpire = Math.min(Math.max(cacheAnnotation.nullExpire(), 0), CacheStorageService.MAX_EXPIRE_SECONDS);
+		this.expireJitter = Math.min(Math.max(cacheAnnotation.expireJitter(), 0), 100);
+		this.earlyRefreshBeta = cacheAnnotation.earlyRefreshBeta();
+		this.singleFlight = cacheAnnotation.singleFlight();
+		this.singleFlightTimeout = cacheAnnotation.singleFlightTimeout();
+		this.returnType = method.getReturnType();
+		this.genericReturnType = method.getGenericReturnType();
+		this.targetClass = targetClass;
+		this.keyPrefix = generateKeyPrefix(targetClass);
+		this.digestPrefix = generateDigestPrefix(targetClass);
+		this.cacheStorageService = cacheStorageService;
+	}
+
+
+	/**
+	 * 生成缓存的key
+	 * 开启了hashKey时使用定长的摘要key, 否则使用可读的key
+	 *
+	 * @param targetClazz 实际调用的目标类
+	 * @param methodArgs
+	 * @return
+	 */
+	public String generateCacheKey(final Class<?> targetClazz, final Object[] methodArgs){
+		return hashKey ? generateDigestCacheKey(targetClazz, methodArgs) : generateReadableCacheKey(targetClazz, methodArgs);
+	}
+
+
+	/**
+	 * 用可读前缀 & 参数值的128位摘要作为缓存的key: 前缀#32位16进制摘要
+	 * 摘要直接对参数值计算, 不会先拼接成字符串
+	 *
+	 * @param targetClazz 实际调用的目标类
+	 * @param methodArgs
+	 * @return
+	 */
+	public String generateDigestCacheKey(final Class<?> targetClazz, final Object[] methodArgs){
+		final Hasher hasher = CacheKeyDigest.newHasher();
+		if(keyExpression != null){
+			keyExpression.putTo(hasher, methodArgs);
+		} else if(methodArgs != null){
+			for(Object arg : methodArgs) {
+				CacheKeyDigest.putValue(hasher, arg);
+			}
+		}
+
+		StringBuilder sb = getKeyBuilder();
+		sb.append((targetClazz == targetClass) ? digestPrefix : generateDigestPrefix(targetClazz))
+		  .append(DIGEST_SPLIT)
+		  .append(hasher.hash().toString());
+		return sb.toString();
+	}
+
+
+	/**
+	 * 用类名、方法名、参数值作为缓存的key
+	 * 注意：这里依赖的是参数值的ToString方法，也就是说如果不同参数值的ToString方法如果打印值相关，则会产生冲突
+	 *
+	 * @param targetClazz 实际调用的目标类
+	 * @param methodArgs
+	 * @return
+	 */
+	public String generateReadableCacheKey(final Class<?> targetClazz, final Object[] methodArgs){
+		// key表达式：按模板取参数值
+		if(keyExpression != null){
+			StringBuilder sb = getKeyBuilder();
+			keyExpression.appendTo(sb, methodArgs);
+			return sb.toString();
+		}
+		
+		// 配置了key且没有参数时直接返回, 不需要拼接
+		if(isConfigKey() && (methodArgs == null || methodArgs.length==0)){
+			return configKey;
+		}
+
+		// 同一个方法被不同的子类调用时(继承了注解), 前缀需要重新生成
+		final String prefix = (targetClazz == targetClass) ? keyPrefix : generateKeyPrefix(targetClazz);
+		if(methodArgs == null || methodArgs.length==0){
+			return prefix;
+		}
+
+		StringBuilder sb = getKeyBuilder();
+		sb.append(prefix);
+		for(Object arg : methodArgs) {
+			if(arg != null) {
+				// 参数名依赖于参数的toString方法，如果需要可以重载toString来处理
+				sb.append('_').append(arg.toString());
+			}
+		}
+		return sb.toString();
+	}
+
+
+	/***
+	 * 批量模式: 集合参数中的元素(去掉null和重复的元素, 保持原来的顺序)
+	 *
+	 * @param methodArgs
+	 * @return 集合参数为null时返回null
+	 */
+	public List<Object> getBatchElements(final Object[] methodArgs){
+		final Object batchValue = methodArgs[batchArg];
+		if (batchValue == null) {
+			return null;
+		}
+		final LinkedHashSet<Object> elements = new LinkedHashSet<>();
+		if (batchValue.getClass().isArray()) {
+			for (int i=0; i<Array.getLength(batchValue); i++) {
+				elements.add(Array.get(batchValue, i));
+			}
+		} else {
+			elements.addAll((Collection<?>) batchValue);
+		}
+		elements.remove(null);
+		return new ArrayList<>(elements);
+	}
+
+
+	/***
+	 * 批量模式: 每个元素对应的缓存key(把集合参数替换成单个元素后生成)
+	 *
+	 * @param targetClazz 实际调用的目标类
+	 * @param methodArgs
+	 * @param elements
+	 * @return 元素 -> 缓存key, 保持元素的顺序
+	 */
+	public Map<Object, String> generateBatchCacheKeys(final Class<?> targetClazz, final Object[] methodArgs, final List<Object> elements){
+		final Map<Object, String> cacheKeys = new LinkedHashMap<>();
+		final Object[] elementArgs = methodArgs.clone();
+		for (Object element : elements) {
+			elementArgs[batchArg] = element;
+			cacheKeys.put(element, generateCacheKey(targetClazz, elementArgs));
+		}
+		return cacheKeys;
+	}
+
+
+	/***
+	 * 批量模式: 把集合参数替换成指定的元素(类型和声明的参数一致), 用于只查询未命中的元素
+	 *
+	 * @param methodArgs
+	 * @param elements
+	 * @return 新的参数数组
+	 */
+	public Object[] replaceBatchElements(final Object[] methodArgs, final List<Object> elements){
+		final Object[] newArgs = methodArgs.clone();
+		if (batchArgType.isArray()) {
+			final Object array = Array.newInstance(batchArgType.getComponentType(), elements.size());
+			for (int i=0; i<elements.size(); i++) {
+				Array.set(array, i, elements.get(i));
+			}
+			newArgs[batchArg] = array;
+		} else if (isBatchListType(batchArgType)) {
+			newArgs[batchArg] = new ArrayList<>(elements);
+		} else {
+			newArgs[batchArg] = new LinkedHashSet<>(elements);
+		}
+		return newArgs;
+	}
+
+
+	/***
+	 * 批量模式: 把方法的返回值拆分成每个元素对应的值
+	 * 元素按String.valueOf匹配(参数为Long而返回的属性为Integer时也可以匹配)
+	 *
+	 * @param result 方法的返回值(List或者Map)
+	 * @return batchIdOf(元素) -> 值
+	 */
+	public Map<String, Object> splitBatchResult(final Object result){
+		final Map<String, Object> values = new HashMap<>();
+		if (result instanceof Map) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) result).entrySet()) {
+				if (entry.getKey() != null && entry.getValue() != null) {
+					values.put(batchIdOf(entry.getKey()), entry.getValue());
+				}
+			}
+		} else if (result instanceof Collection) {
+			for (Object value : (Collection<?>) result) {
+				final Object element = (value == null) ? null : batchResultKey.getPropertyValue(value);
+				if (element != null) {
+					values.put(batchIdOf(element), value);
+				}
+			}
+		}
+		return values;
+	}
+
+
+	/***
+	 * 批量模式: 按元素的顺序合并成方法的返回值(没有值的元素不出现在结果中)
+	 *
+	 * @param elements
+	 * @param values batchIdOf(元素) -> 值
+	 * @return List或者Map
+	 */
+	public Object mergeBatchResult(final List<Object> elements, final Map<String, Object> values){
+		if (batchResultKey == null) {
+			final Map<Object, Object> result = new LinkedHashMap<>();
+			for (Object element : elements) {
+				final Object value = values.get(batchIdOf(element));
+				if (value != null) {
+					result.put(element, value);
+				}
+			}
+			return result;
+		}
+		final List<Object> result = new ArrayList<>(elements.size());
+		for (Object element : elements) {
+			final Object value = values.get(batchIdOf(element));
+			if (value != null) {
+				result.add(value);
+			}
+		}
+		return result;
+	}
+
+
+	/***
+	 * 批量模式下匹配元素和返回值时使用的id
+	 *
+	 * @param element
+	 * @return
+	 */
+	public static String batchIdOf(final Object element){
+		return String.valueOf(element);
+	}
+
+
+	// 批量参数支持的类型: 数组, 或者List/Set/Collection(及ArrayList/HashSet/LinkedHashSet)
+	private static boolean isBatchArgType(Class<?> type){
+		return type.isArray() || isBatchListType(type) || isBatchSetType(type);
+	}
+
+
+	// 用ArrayList创建的集合类型(批量参数和List返回值)
+	private static boolean isBatchListType(Class<?> type){
+		return type == List.class || type == Collection.class || type == ArrayList.class;
+	}
+
+
+	// 用LinkedHashSet创建的集合类型(批量参数)
+	private static boolean isBatchSetType(Class<?> type){
+		return type == Set.class || type == HashSet.class || type == LinkedHashSet.class;
+	}
+
+
+	// 用LinkedHashMap创建的Map类型(Map返回值)
+	private static boolean isBatchMapType(Class<?> type){
+		return type == Map.class || type == HashMap.class || type == LinkedHashMap.class;
+	}
+
+
+	// 泛型参数(如 List<User> 中的User), 无法确定时返回Object
+	private static Type typeArgument(Type type, int index){
+		if (type instanceof ParameterizedType && ((ParameterizedType) type).getActualTypeArguments().length > index) {
+			return ((ParameterizedType) type).getActualTypeArguments()[index];
+		}
+		return Object.class;
+	}
+
+
+	// Type对应的Class, 无法确定时返回Object
+	private static Class<?> rawClass(Type type){
+		if (type instanceof Class) {
+			return (Class<?>) type;
+		} else if (type instanceof ParameterizedType) {
+			return rawClass(((ParameterizedType) type).getRawType());
+		} else if (type instanceof GenericArrayType) {
+			return Array.newInstance(rawClass(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+		}
+		return Object.class;
+	}
+
+
+	// 获取当前线程复用的StringBuilder
+	private static StringBuilder getKeyBuilder(){
+		StringBuilder sb = KEY_BUILDER.get();
+		if(sb.capacity() > KEY_BUILDER_CAPACITY_MAX){
+			sb = new StringBuilder(128);
+			KEY_BUILDER.set(sb);
+		}
+		sb.setLength(0);
+		return sb;
+	}
+
+
+	// 生成key前缀: 配置了key则直接使用, 否则以cache打头, 使用类名 & 方法名
+	private String generateKeyPrefix(Class<?> targetClazz){
+		if(isConfigKey()){
+			return configKey;
+		}
+		return "cache." + targetClazz.getSimpleName() + "_" + method.getName();
+	}
+
+
+	// 生成摘要key的前缀: key模板开头的字面量 > 配置的key > 类名 & 方法名
+	private String generateDigestPrefix(Class<?> targetClazz){
+		if(keyExpression != null){
+			if(keyExpression.getLiteralPrefix().length() > 0){
+				return keyExpression.getLiteralPrefix();
+			}
+		} else if(isConfigKey()){
+			return configKey;
+		}
+		return "cache." + targetClazz.getSimpleName() + "_" + method.getName();
+	}
+
+
+	private boolean isConfigKey(){
+		return configKey!=null && configKey.length()>0;
+	}
+
+
+	// getter
+	public Method getMethod() {
+		return method;
+	}
+
+	public String getConfigKey() {
+		return configKey;
+	}
+
+	public boolean isCacheable() {
+		return cacheable;
+	}
+
+	public boolean isHashKey() {
+		return hashKey;
+	}
+
+	public int getExpire() {
+		return expire;
+	}
+
+	public int getRefresh() {
+		return refresh;
+	}
+
+	/***
+	 * 获取本次写入实际使用的过期时间(加上随机抖动), 单位秒
+	 * 
+	 * @return
+	 */
+	public int nextExpire() {
+		if (expireJitter <= 0) {
+			return expire;
+		}
+		final int jitterMax = (int) (expire * (long) expireJitter / 100);
+		if (jitterMax <= 0) {
+			return expire;
+		}
+		return (int) Math.min((long) expire + ThreadLocalRandom.current().nextInt(jitterMax + 1), CacheStorageService.MAX_EXPIRE_SECONDS);
+	}
+
+	public int getNullExpire() {
+		return nullExpire;
+	}
+
+	public int getExpireJitter() {
+		return expireJitter;
+	}
+
+	public double getEarlyRefreshBeta() {
+		return earlyRefreshBeta;
+	}
+
+	public boolean isSingleFlight() {
+		return singleFlight;
+	}
+
+	public long getSingleFlightTimeout() {
+		return singleFlightTimeout;
+	}
+
+	public Class<?> getReturnType() {
+		return returnType;
+	}
+
+	public Type getGenericReturnType() {
+		return genericReturnType;
+	}
+
+	public Class<?> getTargetClass() {
+		return targetClass;
+	}
+
+	public String getKeyPrefix() {
+		return keyPrefix;
+	}
+
+	public CacheStorageService getCacheStorageService() {
+		return cacheStorageService;
+	}
+
+	public CacheCodec getCacheCodec() {
+		return cacheCodec;
+	}
+
+	public int getCompressThreshold() {
+		return compressThreshold;
+	}
+
+	public CacheCompressStats getCompressStats() {
+		return compressStats;
+	}
+
+	public CacheCopyPolicy getCopyPolicy() {
+		return copyPolicy;
+	}
+
+	public boolean isBatch() {
+		return batchArg >= 0;
+	}
+
+	public int getBatchArg() {
+		return batchArg;
+	}
+
+	/***
+	 * 每个缓存值的泛型Type(批量模式下为返回值中元素的类型, 否则为返回值的类型)
+	 * 
+	 * @return
+	 */
+	public Type getValueType() {
+		return valueType;
+	}
+
+	public Class<?> getValueClass() {
+		return valueClass;
+	}
+
+	/***
+	 * 是否直接在本地缓存中保存对象
+	 * 
+	 * @return
+	 */
+	public boolean isObjectMode() {
+		return copyPolicy != CacheCopyPolicy.NONE;
+	}
+}
@@ -0,0 +1,96 @@
+package org.zhuduan.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/***
+ *
+ * 缓存未命中时的请求合并(single-flight)
+ * 同一个cacheKey同时只有一个线程(leader)真正去执行方法, 其它并发的线程等待leader的结果并共享
+ * 		1.leader执行完成(或抛出异常)后会唤醒所有等待者, 并从flightMap中移除
+ * 		2.等待者超过等待时间后不再等待, 由调用方自行执行方法
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年3月22日
+ *
+ */
+final class CacheSingleFlight {
+
+	private final ConcurrentHashMap<String, Flight> flightMap = new ConcurrentHashMap<>();		// 正在执行中的加载
+
+
+	/***
+	 * 尝试成为cacheKey的leader
+	 *
+	 * @param cacheKey
+	 * @param flight 当前线程新建的flight
+	 * @return null表示当前线程成为leader; 否则返回正在执行中的flight
+	 */
+	Flight join(String cacheKey, Flight flight){
+		return flightMap.putIfAbsent(cacheKey, flight);
+	}
+
+
+	/***
+	 * leader完成加载后调用, 唤醒所有等待者
+	 *
+	 * @param cacheKey
+	 * @param flight
+	 */
+	void finish(String cacheKey, Flight flight){
+		flightMap.remove(cacheKey, flight);
+		flight.latch.countDown();
+	}
+
+
+	/***
+	 *
+	 * 一次正在执行的加载, 保存了leader的执行结果
+	 *
+	 */
+	static final class Flight {
+
+		private final CountDownLatch latch = new CountDownLatch(1);
+
+		private volatile Object value;			// 方法的返回值
+
+		private volatile byte[] cacheBytes;		// 编码之后的值(等待者用它反序列化出自己的对象, 避免共享同一个实例)
+
+		private volatile Throwable throwable;	// leader执行时抛出的异常
+
+
+		/***
+		 * 等待leader的结果
+		 *
+		 * @param timeoutMillis
+		 * @return true表示结果已经可用; false表示等待超时
+		 * @throws InterruptedException
+		 */
+		boolean await(long timeoutMillis) throws InterruptedException {
+			return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+
+		void setResult(Object value, byte[] cacheBytes){
+			this.value = value;
+			this.cacheBytes = cacheBytes;
+		}
+
+		void setThrowable(Throwable throwable){
+			this.throwable = throwable;
+		}
+
+		Object getValue() {
+			return value;
+		}
+
+		byte[] getCacheBytes() {
+			return cacheBytes;
+		}
+
+		Throwable getThrowable() {
+			return throwable;
+		}
+	}
+}
@@ -7,6 +7,8 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import org.zhuduan.cache.codec.CacheCodec;
+
 /***
  * 
  * SimpleCache的注解, 需要Cache的时候放一个此注解到方法之上
@@ -28,15 +30,122 @@ public @interface SimpleCache {
     /**
      * 缓存中的key
      * 如果为空(NULL | ""), 使用@Cache注解的类名 & 方法名 & 参数生成
+     * 如果包含'#', 作为key模板使用, 其中的表达式替换为参数的值, 如: "user:#user.id:#1"
+     * 		(#0按位置取参数, #user按参数名取参数, .id取参数的属性)
      * 
      * @return
      */
     String key() default "";
 	
+    /**
+     * 是否使用摘要key, 默认false
+     * 开启后key为: 可读前缀(类名 & 方法名, 或配置的key) + '#' + 参数值的128位摘要(32位16进制)
+     * 适用于参数很多或者参数toString很长的方法, 可以通过SimpleCacheAspect的keyDigestDebug打印完整key的对应关系
+     * 
+     * @return
+     */
+    boolean hashKey() default false;
+	
     /**
      * 缓存时间, 单位秒! 默认60秒
      * 
      * @return
      */
     int expire() default 60;    
-}
\ No newline at end of file
+    
+    /**
+     * 软过期时间, 单位秒! 默认0(不开启)
+     * 超过该时间后仍然返回缓存中的旧值, 同时在后台线程中重新执行方法刷新缓存
+     * expire仍然是缓存的实际过期时间, 因此需要小于expire才会生效
+     * 
+     * @return
+     */
+    int refresh() default 0;
+    
+    /**
+     * 方法返回null时的缓存时间(负缓存), 单位秒! 默认0(不缓存null)
+     * 开启后null结果会以一个固定的空值标记存入缓存, 命中时直接返回null
+     * 
+     * @return
+     */
+    int nullExpire() default 0;
+    
+    /**
+     * 过期时间的随机抖动百分比, 默认0(不抖动)
+     * 实际的过期时间为 expire + [0, expire * expireJitter / 100] 之间的随机值, 避免同一批写入的key同时过期
+     * 
+     * @return
+     */
+    int expireJitter() default 0;
+    
+    /**
+     * 提前概率刷新(XFetch)的beta参数, 默认0(不开启)
+     * 越接近过期时间、方法执行越慢, 越可能在过期前触发后台刷新; 一般取1.0, 大于1更倾向于提前刷新
+     * 
+     * @return
+     */
+    double earlyRefreshBeta() default 0;
+    
+    /**
+     * 是否开启未命中时的请求合并(single-flight)
+     * 开启后同一个key的并发未命中只会有一个线程去执行方法, 其它线程等待并共享其结果
+     * 
+     * @return
+     */
+    boolean singleFlight() default false;
+    
+    /**
+     * single-flight模式下等待其它线程加载结果的最长时间, 单位毫秒! 默认3000毫秒
+     * 超时后调用方自己执行方法
+     * 
+     * @return
+     */
+    long singleFlightTimeout() default 3000L;
+    
+    /**
+     * 缓存值的编解码实现, 默认使用SimpleCacheAspect中配置的codec(默认为BinaryCacheCodec)
+     * 需要和旧版本共享缓存数据或者直接查看缓存内容时, 可以使用FastjsonCacheCodec
+     * 
+     * @return
+     */
+    Class<? extends CacheCodec> codec() default CacheCodec.class;
+    
+    /**
+     * 压缩阈值, 单位字节! 默认-1(使用SimpleCacheAspect中配置的阈值, 默认16KB)
+     * 编码后超过该长度的值使用Deflater压缩后存储, 读取时自动解压; 0表示不压缩
+     * 
+     * @return
+     */
+    int compressThreshold() default -1;
+    
+    /**
+     * 本地对象缓存的复制策略, 默认NONE(编码成二进制后保存)
+     * 使用本地缓存时, 可以直接保存返回的对象, 命中时不需要解码:
+     * 		SHARE(共享同一个实例, 适用于不可变的值), CLONE_ON_READ(每次命中返回深拷贝), SERIALIZE_ON_WRITE(写入时复制一份并共享)
+     * 使用Redis等远程缓存时该配置不生效
+     * 
+     * @return
+     */
+    CacheCopyPolicy copyPolicy() default CacheCopyPolicy.NONE;
+    
+    /**
+     * 批量模式: 集合(List/Set/Collection)或者数组参数的位置, 默认-1(不开启)
+     * 开启后该参数中的每个元素对应一个缓存, key按照把该参数替换成单个元素生成(key模板中的#ids表示单个元素);
+     * 一次批量读取所有元素的缓存, 只用未命中的元素调用方法, 再按参数中的顺序(去重后)合并结果
+     * 方法的返回值需要声明为List(List/Collection/ArrayList)或者Map(Map/HashMap/LinkedHashMap), 其它类型(如Object)视为配置错误, 该方法不使用缓存:
+     * 		Map: key为参数中的元素
+     * 		List: 通过batchResultKey从返回的元素中取出对应的参数值
+     * 和单个查询的方法配置相同的key模板(如 "user:#0")和codec时, 两者共享缓存
+     * 批量模式下refresh、earlyRefreshBeta和singleFlight不生效
+     * 
+     * @return
+     */
+    int batchArg() default -1;
+    
+    /**
+     * 批量模式下List返回值中的元素对应参数值的属性, 如 "id", "user.id"
+     * 
+     * @return
+     */
+    String batchResultKey() default "";
+}
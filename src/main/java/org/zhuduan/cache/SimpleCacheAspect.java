@@ -1,7 +1,20 @@
 package org.zhuduan.cache;
 
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.aspectj.lang.ProceedingJoinPoint;
@@ -9,16 +22,36 @@ import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
 import org.springframework.stereotype.Component;
+import org.zhuduan.cache.codec.BinaryCacheCodec;
+import org.zhuduan.cache.codec.CacheCodec;
+import org.zhuduan.cache.codec.CacheObjectCopier;
+import org.zhuduan.cache.storage.BufferCacheStorageService;
+import org.zhuduan.cache.storage.CacheBatchValue;
+import org.zhuduan.cache.storage.CacheHotKeyDetector;
 import org.zhuduan.cache.storage.CacheStorageService;
+import org.zhuduan.cache.storage.LocalCacheStorageService;
+import org.zhuduan.cache.storage.ReloadableCacheStorageService;
+import org.zhuduan.cache.storage.impl.breaker.CacheStorageServiceCircuitBreakerImpl;
 import org.zhuduan.cache.storage.impl.guava.CacheStorageServiceExpireGuavaImpl;
 import org.zhuduan.cache.storage.impl.guava.CacheStorageServiceOriginGuavaImpl;
 import org.zhuduan.cache.storage.impl.local.CacheStorageServiceLocalImpl;
+import org.zhuduan.cache.storage.impl.redis.CacheRedisInvalidationBus;
 import org.zhuduan.cache.storage.impl.redis.CacheStorageServiceRedisImpl;
+import org.zhuduan.cache.storage.impl.tiered.CacheStorageServiceTieredImpl;
+import org.zhuduan.config.CircuitBreakerConfig;
+import org.zhuduan.config.OriginGuavaConfig;
+import org.zhuduan.config.RedisCacheConfig;
+import org.zhuduan.config.SimpleCacheConfig;
+import org.zhuduan.model.CacheValueModel;
 import org.zhuduan.utils.CacheException;
+import org.zhuduan.utils.CacheValueUtils;
 import org.zhuduan.utils.Log4jUtil;
 import org.zhuduan.utils.SerializeUtils;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import redis.clients.jedis.JedisCluster;
 
 
@@ -42,12 +75,42 @@ public class SimpleCacheAspect {
 	
 	private volatile boolean 		useGuava		=	false;			// 本地缓存是否使用guava
 	
-	private volatile boolean 		useGuavaOrigin	=	false;			// 是否直接使用原生的guava（key和value都是weakReference，但是不支持差异化的expiretime）
+	private volatile boolean 		useGuavaOrigin	=	false;			// 是否直接使用原生的guava（不支持差异化的expiretime）
+	
+	private volatile OriginGuavaConfig	originGuavaConfig	=	null;	// 原生guava的容量、过期和后台刷新配置（为null时使用默认值）
 	
 	private volatile JedisCluster	jedisCluster	=	null;			// 可以使用的JedisCluster（如果没有则会选择其他方式）
 	
+	private volatile RedisCacheConfig	redisCacheConfig	=	new RedisCacheConfig();	// Redis方案的管道模式、近端缓存、熔断和热点key配置
+	
+	private volatile CacheStorageService	assignedStorageService	=	null;	// 直接指定的存储实现（优先于其它参数，如堆外实现）
+	
     private static CacheStorageService cacheStorageService;				// 实际上用于缓存存储的实例类            
     
+    private static volatile CacheCodec defaultCacheCodec = new BinaryCacheCodec();	// 注解中没有配置codec时使用的编解码实现
+    
+    private static volatile int compressThreshold = SimpleCacheConfig.COMPRESS_THRESHOLD_BYTES;	// 注解中没有配置压缩阈值时使用的阈值（字节）
+    
+    private static volatile boolean keyDigestDebug = false;				// 是否打印摘要key和完整key的对应关系（用于排查问题）
+    
+    private static final ConcurrentHashMap<Method, CacheMethodPlan> methodPlanMap = new ConcurrentHashMap<>();	// 每个方法对应的执行计划
+    
+    private static final ConcurrentHashMap<Method, ConcurrentHashMap<Class<?>, CacheMethodPlan>> interfacePlanMap = new ConcurrentHashMap<>();	// 接口方法在每个目标类上对应的执行计划（JDK动态代理）
+    
+    private static final Object DECODE_FAILED = new Object();			// 解码失败的标记
+    
+    private static final CacheSingleFlight singleFlight = new CacheSingleFlight();		// 未命中时的请求合并
+    
+    private static final ConcurrentHashMap<String, Boolean> refreshingKeyMap = new ConcurrentHashMap<>();		// 正在后台刷新的key
+    
+    // 后台刷新缓存的线程池（有界队列，daemon线程）
+    private static final ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(
+    		SimpleCacheConfig.REFRESH_THREAD_NUM, SimpleCacheConfig.REFRESH_THREAD_NUM, 
+    		60L, TimeUnit.SECONDS, 
+    		new ArrayBlockingQueue<Runnable>(SimpleCacheConfig.REFRESH_QUEUE_SIZE),
+    		new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SimpleCache-refresh-%d").build(),
+    		new ThreadPoolExecutor.AbortPolicy());
+    
     
     /***
 	 * 实际的构造器： 会根据不同properities参数来装配不同的Storage实现
@@ -72,6 +135,21 @@ public class SimpleCacheAspect {
 	}
 	
 	
+	/***
+	 * 使用原生的GuavaCache方案，并指定容量、过期时间和refreshAfterWrite
+	 * 
+	 * @param originGuavaConfig
+	 */
+	public SimpleCacheAspect(OriginGuavaConfig originGuavaConfig){
+		this.useLocalCache = true;
+		this.useGuava = true;
+		this.useGuavaOrigin = true;
+		this.originGuavaConfig = originGuavaConfig;
+		
+		initial();
+	}
+	
+	
 	public SimpleCacheAspect(JedisCluster jedisclustr){
 		this.jedisCluster = jedisclustr;
 		
@@ -79,6 +157,51 @@ public class SimpleCacheAspect {
 	}
 	
 	
+	/***
+	 * 使用Redis方案，并指定是否使用管道模式（默认配置）
+	 * 
+	 * @param jedisclustr
+	 * @param redisPipelined
+	 */
+	public SimpleCacheAspect(JedisCluster jedisclustr, boolean redisPipelined){
+		this.jedisCluster = jedisclustr;
+		this.redisCacheConfig.setPipelined(redisPipelined);
+		
+		initial();
+	}
+	
+	
+	/***
+	 * 使用Redis方案，并通过RedisCacheConfig组合管道模式、近端缓存、熔断和热点key
+	 * 		近端缓存：本地L1（最多NEAR_CACHE_OBJECT_NUM_MAX个，过期时间不超过NEAR_CACHE_EXPIRE_SECONDS） + Redis L2
+	 * 		熔断时不再访问Redis，读取按未命中处理（直接执行方法）
+	 * 		热点key：统计读取频率（CacheHotKeyDetector），热点key的值在本地保存HOT_KEY_LOCAL_EXPIRE_MILLIS毫秒
+	 * 
+	 * @param jedisclustr
+	 * @param redisCacheConfig 为null时使用默认配置（同步模式，不使用近端缓存、熔断和热点key）
+	 */
+	public SimpleCacheAspect(JedisCluster jedisclustr, RedisCacheConfig redisCacheConfig){
+		this.jedisCluster = jedisclustr;
+		if ( null != redisCacheConfig ){
+			this.redisCacheConfig = redisCacheConfig;
+		}
+		
+		initial();
+	}
+	
+	
+	/***
+	 * 直接指定存储实现（如CacheStorageServiceOffHeapImpl，或者自己实现的CacheStorageService）
+	 * 
+	 * @param cacheStorageService
+	 */
+	public SimpleCacheAspect(CacheStorageService cacheStorageService){
+		this.assignedStorageService = cacheStorageService;
+		
+		initial();
+	}
+	
+	
 	public SimpleCacheAspect(){		
 		initial();
 	}
@@ -88,13 +211,23 @@ public class SimpleCacheAspect {
 	private void initial(){
 		// 根据不同的参数进行cacheAspect中的storage装配 --- 采用策略模式
 		synchronized (SimpleCacheAspect.class) {
+			// 如果直接指定了存储实现
+			if ( null != assignedStorageService ){
+				cacheStorageService = assignedStorageService;
+				cacheLog.info("采用了指定的" + assignedStorageService.getClass().getSimpleName() + "方案");
+			}
+			
 			// 如果采用本地缓存方案
-			if ( true == useLocalCache ){
+			else if ( true == useLocalCache ){
 				if ( true == useGuava ){
 					if ( true == useGuavaOrigin ){
-						//TODO: 做一个带有重载参数的
-						cacheStorageService = CacheStorageServiceOriginGuavaImpl.getInstance();
-						cacheLog.info("采用了原生的GuavaCache方案");
+						try {
+							cacheStorageService = CacheStorageServiceOriginGuavaImpl.getInstance(originGuavaConfig);
+							cacheLog.info("采用了原生的GuavaCache方案: " + ((CacheStorageServiceOriginGuavaImpl) cacheStorageService).getConfig());
+						} catch (CacheException e) {
+							cacheStorageService = CacheStorageServiceLocalImpl.getInstance();
+							cacheLog.error("原生guava的配置错误(" + e.getMessage() + ")，退化为默认的LocalImpl方案");
+						}
 					} else{					
 						cacheStorageService = CacheStorageServiceExpireGuavaImpl.getInstance();
 						cacheLog.info("采用了定义expireTime的GuavaCache方案");
@@ -111,7 +244,29 @@ public class SimpleCacheAspect {
 			else {
 				if ( jedisCluster != null ){			
 					try {
-						cacheStorageService = CacheStorageServiceRedisImpl.getInstance(jedisCluster);
+						final RedisCacheConfig config = (null != redisCacheConfig) ? redisCacheConfig : new RedisCacheConfig();
+						final CircuitBreakerConfig circuitBreakerConfig = config.getCircuitBreakerConfig();
+						cacheStorageService = CacheStorageServiceRedisImpl.getInstance(jedisCluster, config.getPipelineConfig());
+						// Redis实现是进程内的单例：按当前的配置打开或者关闭热点统计，不保留之前的配置留下的统计
+						final CacheStorageServiceRedisImpl redisImpl = (CacheStorageServiceRedisImpl) cacheStorageService;
+						if ( true == config.isHotKey() ){
+							if ( null == redisImpl.getHotKeyDetector() ){
+								redisImpl.setHotKeyDetector(new CacheHotKeyDetector());
+							}
+						} else {
+							redisImpl.setHotKeyDetector(null);
+						}
+						if ( null != circuitBreakerConfig ){
+							// 熔断只包装Redis，近端缓存的L1在熔断时仍然可用
+							cacheStorageService = new CacheStorageServiceCircuitBreakerImpl(cacheStorageService, circuitBreakerConfig, null);
+							cacheLog.info("Redis使用了熔断: " + circuitBreakerConfig);
+						}
+						if ( true == config.isNearCache() ){
+							cacheStorageService = new CacheStorageServiceTieredImpl(
+									CacheStorageServiceLocalImpl.getNearCacheInstance(), cacheStorageService, 
+									SimpleCacheConfig.NEAR_CACHE_EXPIRE_SECONDS, new CacheRedisInvalidationBus(jedisCluster));
+							cacheLog.info("采用了本地L1 + Redis L2的近端缓存方案");
+						}
 					} catch (CacheException e) {
 						cacheStorageService = CacheStorageServiceLocalImpl.getInstance();
 						cacheLog.error("捕获到jedisCluster为空，退化为默认的LocalImpl方案");
@@ -155,45 +310,700 @@ public class SimpleCacheAspect {
 	@Around("pointcut()")
 	public Object doAround(final ProceedingJoinPoint pjp) throws Throwable {
 		final long time_1 = System.currentTimeMillis();
-		final MethodSignature ms = (MethodSignature) pjp.getSignature();
-		final Method method = ms.getMethod();
-		final SimpleCache cacheAnnotation = method.getAnnotation(SimpleCache.class);
+		final Object target = pjp.getTarget();
+		final CacheMethodPlan plan = getMethodPlan(((MethodSignature) pjp.getSignature()).getMethod(), target.getClass());
+		if (!plan.isCacheable()) {
+			return pjp.proceed();
+		}
+		if (plan.isBatch()) {
+			return doBatch(pjp, plan, target.getClass());
+		}
 
 		// 获取注解信息
-		final String cacheKey = generateCacheKey(cacheAnnotation.key(), pjp);
-		final int expire = cacheAnnotation.expire();
-		final Class<?> cacheClazz = ((MethodSignature) pjp.getSignature()).getReturnType();
-		
-		final String cacheValue = cacheStorageService.getCache(cacheKey);
-		if (cacheValue != null) {
-			final Object cacheObj = SerializeUtils.deserialize(cacheValue, cacheClazz);
-			final long time_2 = System.currentTimeMillis();
-			cacheLog.info("hit cacheKey:" + cacheKey + ", cacheValueAlready:" + cacheValue+", ms:" + (time_2-time_1));
+		final String cacheKey = plan.generateCacheKey(target.getClass(), pjp.getArgs());
+		if (keyDigestDebug && plan.isHashKey()) {
+			cacheLog.info("digest cacheKey:" + cacheKey + " <- " + plan.generateReadableCacheKey(target.getClass(), pjp.getArgs()));
+		}
+		final CacheValueModel valueModel = getCacheValue(plan, cacheKey);
+		if (valueModel != null) {
+			// 命中了缓存的null结果
+			if (valueModel.isNullValue()) {
+				if (cacheLog.isInfoEnabled()) {
+					cacheLog.info("hit null cacheKey:" + cacheKey + ", ms:" + (System.currentTimeMillis()-time_1));
+				}
+				return null;
+			}
+			final Object cacheObj = readCacheObject(plan, cacheKey, valueModel);
+			if (cacheObj == DECODE_FAILED) {
+				// 无法解码的值（如类的字段发生了变化）当作未命中处理，重新加载后覆盖
+				return plan.isSingleFlight() ? loadInSingleFlight(pjp, plan, cacheKey) : loadAndCache(pjp, plan, cacheKey, null);
+			}
+			// 超过软过期时间，返回旧值的同时在后台刷新
+			// 或者按照XFetch的概率提前刷新
+			if (valueModel.isNeedRefresh(time_1) 
+					|| valueModel.isNeedEarlyRefresh(time_1, plan.getEarlyRefreshBeta(), 1.0D - ThreadLocalRandom.current().nextDouble())) {
+				refreshInBackground(pjp, plan, cacheKey);
+			}
+			if (cacheLog.isInfoEnabled()) {
+				final long time_2 = System.currentTimeMillis();
+				cacheLog.info("hit cacheKey:" + cacheKey + ", ms:" + (time_2-time_1));
+			}
 			return cacheObj;
 		} 
 		
 		// 未命中缓存，查询结果，并放到缓存中
+		if (!plan.isSingleFlight()) {
+			return loadAndCache(pjp, plan, cacheKey, null);
+		}
+		return loadInSingleFlight(pjp, plan, cacheKey);
+	}
+	
+	
+	/***
+	 * 批量查询方法：集合参数中的每个元素对应一个缓存key
+	 * 		1.一次批量读取所有元素的缓存
+	 * 		2.只用未命中的元素执行一次方法
+	 * 		3.一次批量写入查询到的值（以及没有查询到的元素的负缓存）
+	 * 		4.按元素的顺序合并命中的值和查询到的值
+	 * 批量模式下不支持refresh、earlyRefreshBeta和singleFlight
+	 * 
+	 * @param pjp
+	 * @param plan
+	 * @param targetClazz
+	 * @return
+	 * @throws Throwable
+	 */
+	private Object doBatch(final ProceedingJoinPoint pjp, final CacheMethodPlan plan, final Class<?> targetClazz) throws Throwable {
+		final long time_1 = System.currentTimeMillis();
+		final Object[] args = pjp.getArgs();
+		final List<Object> elements = plan.getBatchElements(args);
+		if (elements == null || elements.isEmpty()) {
+			return pjp.proceed();
+		}
+		final Map<Object, String> cacheKeys = plan.generateBatchCacheKeys(targetClazz, args, elements);
+		final Map<String, CacheValueModel> valueModels = getCacheValues(plan, cacheKeys.values());
+		
+		// 命中的值，以及需要重新查询的元素
+		final Map<String, Object> values = new HashMap<>();
+		final List<Object> missElements = new ArrayList<>();
+		for (Map.Entry<Object, String> entry : cacheKeys.entrySet()) {
+			final CacheValueModel valueModel = valueModels.get(entry.getValue());
+			if (valueModel == null) {
+				missElements.add(entry.getKey());
+				continue;
+			}
+			// 命中了缓存的null结果
+			if (valueModel.isNullValue()) {
+				continue;
+			}
+			final Object cacheObj = readCacheObject(plan, entry.getValue(), valueModel);
+			if (cacheObj == DECODE_FAILED) {
+				// 无法解码的值当作未命中处理，重新加载后覆盖
+				missElements.add(entry.getKey());
+			} else {
+				values.put(CacheMethodPlan.batchIdOf(entry.getKey()), cacheObj);
+			}
+		}
+		
+		// 未命中的元素执行一次方法，并批量放到缓存中
+		if (!missElements.isEmpty()) {
+			final long time_3 = System.currentTimeMillis();
+			final Map<String, Object> dbValues = plan.splitBatchResult(pjp.proceed(plan.replaceBatchElements(args, missElements)));
+			final long time_4 = System.currentTimeMillis();
+			setBatchCache(plan, cacheKeys, missElements, dbValues);
+			if (cacheLog.isInfoEnabled()) {
+				cacheLog.info("set batch cacheKeys:" + missElements.size() + ", found:" + dbValues.size() 
+							+ ", setCache ms:" + (System.currentTimeMillis() - time_4) + ", db ms:" + (time_4 - time_3));
+			}
+			values.putAll(dbValues);
+		}
+		if (cacheLog.isInfoEnabled()) {
+			cacheLog.info("hit batch cacheKeys:" + (elements.size() - missElements.size()) + "/" + elements.size() 
+						+ ", ms:" + (System.currentTimeMillis() - time_1));
+		}
+		return plan.mergeBatchResult(elements, values);
+	}
+	
+	
+	/***
+	 * 批量写入未命中的元素查询到的值，没有查询到值的元素按nullExpire写入负缓存
+	 * 
+	 * @param plan
+	 * @param cacheKeys 元素 -> 缓存key
+	 * @param missElements
+	 * @param dbValues batchIdOf(元素) -> 查询到的值
+	 */
+	private static void setBatchCache(final CacheMethodPlan plan, final Map<Object, String> cacheKeys, 
+										final List<Object> missElements, final Map<String, Object> dbValues) {
+		final Map<String, CacheBatchValue> cacheValues = new HashMap<>();
+		for (Object element : missElements) {
+			final String cacheKey = cacheKeys.get(element);
+			final Object dbExecuteValue = dbValues.get(CacheMethodPlan.batchIdOf(element));
+			if (dbExecuteValue == null) {
+				if (plan.getNullExpire() <= 0) {
+					continue;
+				}
+				if (plan.isObjectMode()) {
+					final CacheValueModel valueModel = new CacheValueModel();
+					valueModel.setNullValue(true);
+					setCacheObject(plan, cacheKey, valueModel, plan.getNullExpire(), null);
+				} else {
+					cacheValues.put(cacheKey, new CacheBatchValue(CacheValueUtils.NULL_VALUE, plan.getNullExpire()));
+				}
+			} else if (plan.isObjectMode()) {
+				final Object cacheObject = copyForWrite(plan, cacheKey, dbExecuteValue);
+				if (cacheObject != DECODE_FAILED) {
+					final CacheValueModel valueModel = new CacheValueModel();
+					valueModel.setCacheObject(cacheObject);
+					setCacheObject(plan, cacheKey, valueModel, plan.nextExpire(), null);
+				}
+			} else {
+				final byte[] cacheBytesSave = encode(plan, cacheKey, dbExecuteValue);
+				if (cacheBytesSave != null) {
+					cacheValues.put(cacheKey, new CacheBatchValue(wrapCacheBytes(plan, cacheBytesSave, new CacheValueModel()), plan.nextExpire()));
+				}
+			}
+		}
+		if (!cacheValues.isEmpty()) {
+			plan.getCacheStorageService().setAll(cacheValues);
+		}
+	}
+	
+	
+	/***
+	 * single-flight模式下的加载：同一个key只有一个线程去执行方法，其它线程等待并共享结果
+	 * 
+	 * @param pjp
+	 * @param plan
+	 * @param cacheKey
+	 * @return
+	 * @throws Throwable
+	 */
+	private Object loadInSingleFlight(final ProceedingJoinPoint pjp, final CacheMethodPlan plan, final String cacheKey) throws Throwable {
+		final CacheSingleFlight.Flight flight = new CacheSingleFlight.Flight();
+		final CacheSingleFlight.Flight runningFlight = singleFlight.join(cacheKey, flight);
+		
+		// 当前线程成为leader，执行方法并唤醒等待者
+		if (runningFlight == null) {
+			try {
+				return loadAndCache(pjp, plan, cacheKey, flight);
+			} catch (Throwable throwable) {
+				flight.setThrowable(throwable);
+				throw throwable;
+			} finally {
+				singleFlight.finish(cacheKey, flight);
+			}
+		}
+		
+		// 等待leader的结果，超时则自己执行
+		if (!runningFlight.await(plan.getSingleFlightTimeout())) {
+			cacheLog.warn("single flight wait timeout for cacheKey:" + cacheKey + ", timeout ms:" + plan.getSingleFlightTimeout());
+			return loadAndCache(pjp, plan, cacheKey, null);
+		}
+		if (runningFlight.getThrowable() != null) {
+			throw runningFlight.getThrowable();
+		}
+		// 使用编码后的值生成自己的对象，避免多个调用方共享同一个实例
+		if (runningFlight.getCacheBytes() != null) {
+			final Object cacheObj = decode(plan, cacheKey, ByteBuffer.wrap(runningFlight.getCacheBytes()));
+			if (cacheObj != DECODE_FAILED) {
+				return cacheObj;
+			}
+		}
+		if (runningFlight.getValue() == null) {
+			return null;
+		}
+		// 对象缓存：按复制策略使用leader保存的对象
+		if (plan.isObjectMode()) {
+			final Object cacheObj = copyForRead(plan, cacheKey, runningFlight.getValue());
+			return (cacheObj != DECODE_FAILED) ? cacheObj : loadAndCache(pjp, plan, cacheKey, null);
+		}
+		// 没有编码后的值（无法编码或者无法解码）：使用leader结果的深拷贝，无法复制时自己执行方法
+		try {
+			return CacheObjectCopier.deepCopy(runningFlight.getValue());
+		} catch (CacheException exception) {
+			cacheLog.warn("copy single flight result for cacheKey:" + cacheKey + " failed for: " + exception.getMessage());
+			return loadAndCache(pjp, plan, cacheKey, null);
+		}
+	}
+	
+	
+	/***
+	 * 在后台线程中重新执行方法并刷新缓存
+	 * 同一个key同时只会有一个刷新任务，刷新队列满时放弃本次刷新（下次命中时会再次尝试）
+	 * 
+	 * 注意：方法在后台线程中执行，调用线程中的ThreadLocal等上下文不可用
+	 * 
+	 * @param pjp
+	 * @param plan
+	 * @param cacheKey
+	 */
+	private void refreshInBackground(final ProceedingJoinPoint pjp, final CacheMethodPlan plan, final String cacheKey) {
+		if (refreshingKeyMap.putIfAbsent(cacheKey, Boolean.TRUE) != null) {
+			return;
+		}
+		try {
+			refreshExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						loadAndCache(pjp, plan, cacheKey, null);
+					} catch (Throwable throwable) {
+						cacheLog.error("refresh cacheKey:" + cacheKey + " failed for: " + throwable.getMessage());
+					} finally {
+						refreshingKeyMap.remove(cacheKey);
+					}
+				}
+			});
+		} catch (RejectedExecutionException exception) {
+			refreshingKeyMap.remove(cacheKey);
+			cacheLog.warn("refresh queue is full, skip refresh for cacheKey:" + cacheKey);
+		}
+	}
+	
+	
+	/***
+	 * 执行实际的方法，并将结果放入缓存
+	 * 
+	 * @param pjp
+	 * @param plan
+	 * @param cacheKey
+	 * @param flight 不为空时记录执行结果，供single-flight的等待者使用
+	 * @return
+	 * @throws Throwable
+	 */
+	private Object loadAndCache(final ProceedingJoinPoint pjp, final CacheMethodPlan plan, final String cacheKey, 
+								final CacheSingleFlight.Flight flight) throws Throwable {
+		final int expire = plan.nextExpire();
+		final ReloadableCacheStorageService.Reloader reloader = createReloader(pjp, plan);
 		final long time_3 = System.currentTimeMillis();
 		final Object dbExecuteValue = pjp.proceed();
+		Object flightValue = dbExecuteValue;
+		byte[] cacheBytesSave = null;
 		if (dbExecuteValue != null) {
 			final long time_4 = System.currentTimeMillis();
-			String cacheValueSave = SerializeUtils.serialize(dbExecuteValue);
+			// 带上软过期时间，以及提前概率刷新需要的过期时间和加载耗时
+			final CacheValueModel valueModel = new CacheValueModel();
+			if (plan.getRefresh() > 0) {
+				valueModel.setRefreshTimeLong(time_4 + plan.getRefresh() * 1000L);
+			}
+			if (plan.getEarlyRefreshBeta() > 0) {
+				valueModel.setExpireTimeLong(time_4 + expire * 1000L);
+				valueModel.setLoadCostLong(time_4 - time_3);
+			}
 			
-			// 过滤java.util.Collections$EmptyMap、EmptyIterator、EmptyListIterator等
-			// 主要是因为序列化的时候会造成问题
-			if(cacheValueSave.indexOf("java.util.Collections$Empty") >= 0){
-				cacheValueSave = cacheValueSave.replaceAll("java.util.Collections$EmptyListIterator", "java.util.LinkedList$ListItr");
-				cacheValueSave = cacheValueSave.replaceAll("java.util.Collections$EmptyMap", "java.util.HashMap");
-				cacheValueSave = cacheValueSave.replaceAll("java.util.Collections$EmptyIterator", "java.util.HashMap$KeyIterator");
+			if (plan.isObjectMode()) {
+				// 对象缓存：直接保存对象（或者写入时的副本），不需要编码
+				final Object cacheObject = copyForWrite(plan, cacheKey, dbExecuteValue);
+				if (cacheObject != DECODE_FAILED) {
+					valueModel.setCacheObject(cacheObject);
+					setCacheObject(plan, cacheKey, valueModel, expire, reloader);
+					flightValue = cacheObject;
+					if (cacheLog.isInfoEnabled()) {
+						cacheLog.info("set object cacheKey:" + cacheKey + ", copyPolicy:" + plan.getCopyPolicy() + ", expire s:" + expire 
+									+ ", setCache ms:" + (System.currentTimeMillis() - time_4) + ", db ms:" + (time_4 - time_3));
+					}
+				}
+			} else {
+				cacheBytesSave = setCacheBytes(plan, cacheKey, dbExecuteValue, valueModel, expire, reloader);
+				if (cacheBytesSave != null && cacheLog.isInfoEnabled()) {
+					cacheLog.info("set cacheKey:" + cacheKey + ", cacheBytes:" + cacheBytesSave.length + ", expire s:" + expire 
+								+ ", setCache ms:" + (System.currentTimeMillis() - time_4) + ", db ms:" + (time_4 - time_3));
+				}
 			}
-	
-			cacheStorageService.setCache(cacheKey, cacheValueSave, expire);
-			final long time_5 = System.currentTimeMillis();
-			cacheLog.info("set cacheKey:" + cacheKey+", cacheValueSave:"+cacheValueSave + ", expire s:" + expire 
-						+ ", setCache ms:" + (time_5 - time_4) + ", db ms:" + (time_4 - time_3));
+		} else if (plan.getNullExpire() > 0) {
+			// 负缓存：null结果使用固定的空值标记和单独的过期时间
+			if (plan.isObjectMode()) {
+				final CacheValueModel valueModel = new CacheValueModel();
+				valueModel.setNullValue(true);
+				setCacheObject(plan, cacheKey, valueModel, plan.getNullExpire(), reloader);
+			} else {
+				setCacheBytes(plan, cacheKey, CacheValueUtils.NULL_VALUE, plan.getNullExpire(), reloader);
+			}
+			if (cacheLog.isInfoEnabled()) {
+				cacheLog.info("set null cacheKey:" + cacheKey + ", expire s:" + plan.getNullExpire() 
+							+ ", db ms:" + (System.currentTimeMillis() - time_3));
+			}
+		}
+		if (flight != null) {
+			flight.setResult(flightValue, cacheBytesSave);
 		}
 		return dbExecuteValue;
 	}
+	
+	
+	/***
+	 * 存储实现开启了后台重新加载（如配置了refreshAfterWrite的OriginGuava）时，生成重新执行方法的Reloader
+	 * 
+	 * @param pjp
+	 * @param plan
+	 * @return 不需要时返回null
+	 */
+	private ReloadableCacheStorageService.Reloader createReloader(final ProceedingJoinPoint pjp, final CacheMethodPlan plan) {
+		if (!(plan.getCacheStorageService() instanceof ReloadableCacheStorageService)
+				|| !((ReloadableCacheStorageService) plan.getCacheStorageService()).isReloadEnabled()) {
+			return null;
+		}
+		return new ReloadableCacheStorageService.Reloader() {
+			@Override
+			public void reload(String cacheKey) throws Throwable {
+				loadAndCache(pjp, plan, cacheKey, null);
+			}
+		};
+	}
+	
+	
+	/***
+	 * 保存对象缓存（有Reloader时一起保存）
+	 * 
+	 * @param plan
+	 * @param cacheKey
+	 * @param cacheObject
+	 * @param expire
+	 * @param reloader
+	 */
+	private static void setCacheObject(final CacheMethodPlan plan, final String cacheKey, final Object cacheObject, 
+										final int expire, final ReloadableCacheStorageService.Reloader reloader) {
+		if (reloader != null) {
+			((ReloadableCacheStorageService) plan.getCacheStorageService()).setCacheObject(cacheKey, cacheObject, expire, reloader);
+		} else {
+			((LocalCacheStorageService) plan.getCacheStorageService()).setCacheObject(cacheKey, cacheObject, expire);
+		}
+	}
+	
+	
+	/***
+	 * 保存二进制的缓存（有Reloader时一起保存）
+	 * 
+	 * @param plan
+	 * @param cacheKey
+	 * @param cacheBytes
+	 * @param expire
+	 * @param reloader
+	 */
+	private static void setCacheBytes(final CacheMethodPlan plan, final String cacheKey, final byte[] cacheBytes, 
+										final int expire, final ReloadableCacheStorageService.Reloader reloader) {
+		if (reloader != null) {
+			((ReloadableCacheStorageService) plan.getCacheStorageService()).setCacheBytes(cacheKey, cacheBytes, expire, reloader);
+		} else {
+			plan.getCacheStorageService().setCacheBytes(cacheKey, cacheBytes, expire);
+		}
+	}
+	
+	
+	/***
+	 * 编码（超过阈值时压缩）之后保存到缓存中
+	 * 
+	 * @param plan
+	 * @param cacheKey
+	 * @param dbExecuteValue
+	 * @param valueModel 元信息
+	 * @param expire
+	 * @param reloader 不为空时和值一起保存
+	 * @return 编码后（压缩前）的值，无法编码时返回null
+	 */
+	private static byte[] setCacheBytes(final CacheMethodPlan plan, final String cacheKey, final Object dbExecuteValue, 
+										final CacheValueModel valueModel, final int expire, final ReloadableCacheStorageService.Reloader reloader) {
+		final byte[] cacheBytesSave = encode(plan, cacheKey, dbExecuteValue);
+		if (cacheBytesSave == null) {
+			return null;
+		}
+		setCacheBytes(plan, cacheKey, wrapCacheBytes(plan, cacheBytesSave, valueModel), expire, reloader);
+		return cacheBytesSave;
+	}
+	
+	
+	/***
+	 * 使用方法的codec编码
+	 * 
+	 * @param plan
+	 * @param cacheKey
+	 * @param dbExecuteValue
+	 * @return 无法编码时返回null
+	 */
+	private static byte[] encode(final CacheMethodPlan plan, final String cacheKey, final Object dbExecuteValue) {
+		try {
+			return plan.getCacheCodec().encode(dbExecuteValue);
+		} catch (CacheException exception) {
+			// 无法编码的返回值不做缓存
+			cacheLog.error("encode cacheKey:" + cacheKey + " failed for: " + exception.getMessage());
+			return null;
+		}
+	}
+	
+	
+	/***
+	 * 超过阈值时压缩，然后和元信息一起组装成存储的值
+	 * 
+	 * @param plan
+	 * @param cacheBytesSave 编码后的值
+	 * @param valueModel 元信息（压缩时会记录压缩标记和原始长度）
+	 * @return
+	 */
+	private static byte[] wrapCacheBytes(final CacheMethodPlan plan, final byte[] cacheBytesSave, final CacheValueModel valueModel) {
+		// 超过压缩阈值的值压缩后存储
+		byte[] cacheBytesPayload = cacheBytesSave;
+		if (plan.getCompressThreshold() > 0 && cacheBytesSave.length >= plan.getCompressThreshold()) {
+			final long compressBegin = System.nanoTime();
+			final byte[] compressedBytes = CacheValueUtils.compress(cacheBytesSave);
+			if (compressedBytes != null) {
+				plan.getCompressStats().recordCompress(cacheBytesSave.length, compressedBytes.length, System.nanoTime() - compressBegin);
+				valueModel.setCompressed(true);
+				valueModel.setRawLength(cacheBytesSave.length);
+				cacheBytesPayload = compressedBytes;
+			} else {
+				plan.getCompressStats().recordSkip(System.nanoTime() - compressBegin);
+			}
+		}
+		return CacheValueUtils.wrap(valueModel, cacheBytesPayload);
+	}
+	
+	
+	/***
+	 * 从缓存中获取值和元信息
+	 * 
+	 * @param plan
+	 * @param cacheKey
+	 * @return 未命中时返回null
+	 */
+	private static CacheValueModel getCacheValue(final CacheMethodPlan plan, final String cacheKey) {
+		if (plan.isObjectMode()) {
+			final Object cacheObject = ((LocalCacheStorageService) plan.getCacheStorageService()).getCacheObject(cacheKey);
+			return (cacheObject instanceof CacheValueModel) ? (CacheValueModel) cacheObject : null;
+		}
+		if (plan.getCacheStorageService() instanceof BufferCacheStorageService) {
+			// 零拷贝读取：直接解码堆外或者内存映射文件中的值
+			final ByteBuffer cacheBuffer = ((BufferCacheStorageService) plan.getCacheStorageService()).getCacheBuffer(cacheKey);
+			return cacheBuffer == null ? null : CacheValueUtils.unwrap(cacheBuffer);
+		}
+		final byte[] cacheBytes = plan.getCacheStorageService().getCacheBytes(cacheKey);
+		return cacheBytes == null ? null : CacheValueUtils.unwrap(cacheBytes);
+	}
+	
+	
+	/***
+	 * 批量获取值和元信息
+	 * 
+	 * @param plan
+	 * @param cacheKeys
+	 * @return 缓存key -> 值，只包含命中的key
+	 */
+	private static Map<String, CacheValueModel> getCacheValues(final CacheMethodPlan plan, final Collection<String> cacheKeys) {
+		final Map<String, CacheValueModel> valueModels = new HashMap<>();
+		if (plan.isObjectMode()) {
+			for (String cacheKey : cacheKeys) {
+				final CacheValueModel valueModel = getCacheValue(plan, cacheKey);
+				if (valueModel != null) {
+					valueModels.put(cacheKey, valueModel);
+				}
+			}
+			return valueModels;
+		}
+		final Map<String, byte[]> cacheBytesMap = plan.getCacheStorageService().getAll(cacheKeys);
+		if (cacheBytesMap == null) {
+			return valueModels;
+		}
+		for (Map.Entry<String, byte[]> entry : cacheBytesMap.entrySet()) {
+			final CacheValueModel valueModel = (entry.getValue() == null) ? null : CacheValueUtils.unwrap(entry.getValue());
+			if (valueModel != null) {
+				valueModels.put(entry.getKey(), valueModel);
+			}
+		}
+		return valueModels;
+	}
+	
+	
+	/***
+	 * 将缓存的值转换成返回给调用方的对象：对象缓存按复制策略处理，否则解压并解码
+	 * 
+	 * @param plan
+	 * @param cacheKey
+	 * @param valueModel
+	 * @return 失败时返回DECODE_FAILED
+	 */
+	private static Object readCacheObject(final CacheMethodPlan plan, final String cacheKey, final CacheValueModel valueModel) {
+		if (plan.isObjectMode()) {
+			return copyForRead(plan, cacheKey, valueModel.getCacheObject());
+		}
+		return valueModel.isCompressed() ? decompressAndDecode(plan, cacheKey, valueModel)
+										 : decode(plan, cacheKey, valueModel.getCacheBuffer());
+	}
+	
+	
+	/***
+	 * 对象缓存命中时的复制：CLONE_ON_READ返回深拷贝，其它策略直接返回保存的对象
+	 * 
+	 * @param plan
+	 * @param cacheKey
+	 * @param cacheObject
+	 * @return 复制失败时返回DECODE_FAILED
+	 */
+	private static Object copyForRead(final CacheMethodPlan plan, final String cacheKey, final Object cacheObject) {
+		if (plan.getCopyPolicy() != CacheCopyPolicy.CLONE_ON_READ) {
+			return cacheObject;
+		}
+		try {
+			return CacheObjectCopier.deepCopy(cacheObject);
+		} catch (CacheException exception) {
+			cacheLog.warn("copy cacheKey:" + cacheKey + " failed for: " + exception.getMessage());
+			return DECODE_FAILED;
+		}
+	}
+	
+	
+	/***
+	 * 对象缓存写入时的复制：
+	 * 		SERIALIZE_ON_WRITE通过codec编码再解码出一份副本
+	 * 		CLONE_ON_READ保存一份深拷贝（返回值还会交给调用方，调用方的修改不能影响缓存）
+	 * 		SHARE直接保存返回值
+	 * 
+	 * @param plan
+	 * @param cacheKey
+	 * @param dbExecuteValue
+	 * @return 复制失败时返回DECODE_FAILED（此时不做缓存）
+	 */
+	private static Object copyForWrite(final CacheMethodPlan plan, final String cacheKey, final Object dbExecuteValue) {
+		try {
+			switch (plan.getCopyPolicy()) {
+				case SERIALIZE_ON_WRITE:
+					return decode(plan, cacheKey, ByteBuffer.wrap(plan.getCacheCodec().encode(dbExecuteValue)));
+				case CLONE_ON_READ:
+					return CacheObjectCopier.deepCopy(dbExecuteValue);
+				default:
+					return dbExecuteValue;
+			}
+		} catch (CacheException exception) {
+			cacheLog.error("copy cacheKey:" + cacheKey + " failed for: " + exception.getMessage());
+			return DECODE_FAILED;
+		}
+	}
+	
+	
+	/***
+	 * 解压并解码缓存的值，同时记录解压的耗时
+	 * 
+	 * @param plan
+	 * @param cacheKey
+	 * @param valueModel
+	 * @return
+	 */
+	private static Object decompressAndDecode(final CacheMethodPlan plan, final String cacheKey, final CacheValueModel valueModel) {
+		final long decompressBegin = System.nanoTime();
+		try {
+			CacheValueUtils.decompress(valueModel);
+		} catch (CacheException exception) {
+			cacheLog.warn("decompress cacheKey:" + cacheKey + " failed for: " + exception.getMessage());
+			return DECODE_FAILED;
+		}
+		plan.getCompressStats().recordDecompress(System.nanoTime() - decompressBegin);
+		return decode(plan, cacheKey, valueModel.getCacheBuffer());
+	}
+	
+	
+	/***
+	 * 使用方法的codec解码缓存的值
+	 * 解码失败、或者解码出的类型和方法的返回值（批量模式下为返回值中的元素）不匹配时返回DECODE_FAILED
+	 * 
+	 * @param plan
+	 * @param cacheKey
+	 * @param cacheBuffer
+	 * @return
+	 */
+	private static Object decode(final CacheMethodPlan plan, final String cacheKey, final ByteBuffer cacheBuffer) {
+		try {
+			final Object cacheObj = plan.getCacheCodec().decode(cacheBuffer, plan.getValueType());
+			if (cacheObj != null && !plan.getValueClass().isPrimitive() && !plan.getValueClass().isInstance(cacheObj)) {
+				cacheLog.warn("decode cacheKey:" + cacheKey + " type mismatch: " + cacheObj.getClass().getName() 
+							+ " is not " + plan.getValueClass().getName());
+				return DECODE_FAILED;
+			}
+			return cacheObj;
+		} catch (Exception exception) {
+			cacheLog.warn("decode cacheKey:" + cacheKey + " failed for: " + exception.getMessage());
+			return DECODE_FAILED;
+		}
+	}
+	
+	
+	/***
+	 * 获取方法对应的执行计划, 第一次调用时生成并缓存
+	 * 之后的调用只需要一次Map查找即可
+	 * 使用JDK动态代理时切点的方法是接口的方法, 注解需要从目标类的实现方法上读取,
+	 * 同一个接口方法的不同实现类有各自的注解配置, 因此按目标类分别生成执行计划
+	 * 
+	 * @param method
+	 * @param targetClass
+	 * @return
+	 */
+	private static CacheMethodPlan getMethodPlan(Method method, Class<?> targetClass){
+		if (method.getDeclaringClass().isInterface()) {
+			return getInterfaceMethodPlan(method, targetClass);
+		}
+		CacheMethodPlan plan = methodPlanMap.get(method);
+		if (plan != null){
+			return plan;
+		}
+		plan = new CacheMethodPlan(method, targetClass, cacheStorageService, defaultCacheCodec, compressThreshold);
+		CacheMethodPlan existPlan = methodPlanMap.putIfAbsent(method, plan);
+		if (existPlan != null){
+			return existPlan;
+		}
+		cacheLog.info("生成方法的缓存执行计划: " + method.toGenericString());
+		return plan;
+	}
+	
+	
+	// 接口方法的执行计划: 按目标类的实现方法生成
+	private static CacheMethodPlan getInterfaceMethodPlan(Method method, Class<?> targetClass){
+		ConcurrentHashMap<Class<?>, CacheMethodPlan> classPlanMap = interfacePlanMap.get(method);
+		if (classPlanMap == null) {
+			final ConcurrentHashMap<Class<?>, CacheMethodPlan> newClassPlanMap = new ConcurrentHashMap<>();
+			classPlanMap = interfacePlanMap.putIfAbsent(method, newClassPlanMap);
+			if (classPlanMap == null) {
+				classPlanMap = newClassPlanMap;
+			}
+		}
+		CacheMethodPlan plan = classPlanMap.get(targetClass);
+		if (plan != null){
+			return plan;
+		}
+		final Method targetMethod = AopUtils.getMostSpecificMethod(method, targetClass);
+		plan = new CacheMethodPlan(targetMethod, targetClass, cacheStorageService, defaultCacheCodec, compressThreshold);
+		CacheMethodPlan existPlan = classPlanMap.putIfAbsent(targetClass, plan);
+		if (existPlan != null){
+			return existPlan;
+		}
+		cacheLog.info("生成方法的缓存执行计划: " + targetMethod.toGenericString());
+		return plan;
+	}
+	
+	
+	// 清空已经生成的执行计划
+	private static void clearMethodPlans(){
+		methodPlanMap.clear();
+		interfacePlanMap.clear();
+	}
+
+
+	/***
+	 * 获取开启了压缩的方法的压缩统计（方法签名 -> 统计）
+	 * 执行计划重新生成（如更换了存储实现）后统计会重新开始
+	 * 
+	 * @return
+	 */
+	public static Map<String, CacheCompressStats> getCompressStats() {
+		Map<String, CacheCompressStats> compressStatsMap = new TreeMap<>();
+		final List<CacheMethodPlan> plans = new ArrayList<>(methodPlanMap.values());
+		for (ConcurrentHashMap<Class<?>, CacheMethodPlan> classPlanMap : interfacePlanMap.values()) {
+			plans.addAll(classPlanMap.values());
+		}
+		for (CacheMethodPlan plan : plans) {
+			if (plan.getCompressThreshold() > 0) {
+				compressStatsMap.put(plan.getMethod().toGenericString(), plan.getCompressStats());
+			}
+		}
+		return compressStatsMap;
+	}
 
 
 	// getter & setter
@@ -203,6 +1013,28 @@ public class SimpleCacheAspect {
 
 	public static void setCacheStorageService(CacheStorageService cacheStorageService) {
 		SimpleCacheAspect.cacheStorageService = cacheStorageService;
+		// 存储实现变化后, 已经生成的执行计划需要重新生成
+		clearMethodPlans();
+	}
+
+	public static CacheCodec getDefaultCacheCodec() {
+		return defaultCacheCodec;
+	}
+
+	public static void setDefaultCacheCodec(CacheCodec defaultCacheCodec) {
+		SimpleCacheAspect.defaultCacheCodec = defaultCacheCodec;
+		// 默认codec变化后, 已经生成的执行计划需要重新生成
+		clearMethodPlans();
+	}
+
+	public static int getCompressThreshold() {
+		return compressThreshold;
+	}
+
+	public static void setCompressThreshold(int compressThreshold) {
+		SimpleCacheAspect.compressThreshold = compressThreshold;
+		// 默认阈值变化后, 已经生成的执行计划需要重新生成
+		clearMethodPlans();
 	}
 
 	public boolean isUseLocalCache() {
@@ -229,6 +1061,14 @@ public class SimpleCacheAspect {
 		this.useGuavaOrigin = useGuavaOrigin;
 	}
 
+	public OriginGuavaConfig getOriginGuavaConfig() {
+		return originGuavaConfig;
+	}
+
+	public void setOriginGuavaConfig(OriginGuavaConfig originGuavaConfig) {
+		this.originGuavaConfig = originGuavaConfig;
+	}
+
 	public JedisCluster getJedisCluster() {
 		return jedisCluster;
 	}
@@ -237,61 +1077,27 @@ public class SimpleCacheAspect {
 		this.jedisCluster = jedisCluster;
 	}
 
+	public RedisCacheConfig getRedisCacheConfig() {
+		return redisCacheConfig;
+	}
+
+	public void setRedisCacheConfig(RedisCacheConfig redisCacheConfig) {
+		this.redisCacheConfig = redisCacheConfig;
+	}
+
+	public boolean isKeyDigestDebug() {
+		return keyDigestDebug;
+	}
+
+	public void setKeyDigestDebug(boolean keyDigestDebug) {
+		SimpleCacheAspect.keyDigestDebug = keyDigestDebug;
+	}
+
 	public static Logger getCachelog() {
 		return cacheLog;
 	}
 
 
-	/**
-	 * 用类名、方法名、参数值作为缓存的key
-	 * 注意：这里依赖的是参数值的ToString方法，也就是说如果不同参数值的ToString方法如果打印值相关，则会产生冲突
-	 * 
-	 * @param pjp
-	 * @return
-	 */
-	private static final String generateCacheKey(final String configKey, final ProceedingJoinPoint pjp){
-		final Object[] methodArgs = pjp.getArgs();  
-		if(configKey!=null && configKey.length()>0){
-			return generateCacheKey(configKey, methodArgs);
-		}
-		StringBuilder sb = new StringBuilder();
-		String className = pjp.getTarget().getClass().getSimpleName();  
-        String methodName = pjp.getSignature().getName();  
-        sb.append("cache.");  //以cache打头!
-        sb.append(className);
-        sb.append("_");
-        sb.append(methodName);
-        for(Object arg : methodArgs) {  
-            if(arg != null) {  
-            	// 参数名依赖于参数的toString方法，如果需要可以重载toString来处理
-                sb.append("_").append(arg.toString());  
-            }  
-        }  
-        return sb.toString(); 
-	}
-	
-	
-	/**
-	 * 用类名、方法名、参数名作为缓存的key
-	 * 
-	 * @param pjp
-	 * @return
-	 */
-	private static final String generateCacheKey(String configKey, Object[] methodArgs){
-		if(methodArgs == null || methodArgs.length==0){
-			return configKey;
-		}
-        StringBuilder sb = new StringBuilder();
-        sb.append(configKey);
-        for(Object arg : methodArgs) {  
-            if(arg != null) {  
-                sb.append("_").append(arg.toString());  
-            }  
-        }  
-        return sb.toString();
-	}
-	
-	
 	public static void main(String[] args) {
 //		List<Integer> list = new ArrayList<>();
 //		List<Integer> list2 = (List)Collections.emptyList();
@@ -0,0 +1,993 @@
+package org.zhuduan.cache.codec;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSequentialList;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+
+/***
+ *
+ * 紧凑的二进制编解码实现（默认的codec）
+ * 		1.第一个字节为MAGIC，解码时如果不是MAGIC，默认解码失败（切面当作未命中处理）；
+ * 		  构造时打开isFastjsonFallback后按FastjsonCacheCodec解析（方便从fastJson平滑切换，此时受fastJson的autoType配置保护，不经过下面的受信任类检查）
+ * 		2.每个值以一个字节的类型标记开头，整数使用zigzag变长编码，字符串使用UTF-8
+ * 		3.普通对象按字段（包括父类字段，不包括static和transient）写入，类名在一次编码中只写一次，
+ * 		    同时写入字段的指纹，类的字段发生变化后旧的缓存会解码失败（由切面当作未命中处理）
+ * 		4.List/Set/Map只支持常用的实现类型（ArrayList、LinkedList、HashSet、LinkedHashSet、HashMap、LinkedHashMap、ConcurrentHashMap，
+ * 		  以及自然顺序的TreeSet/TreeMap），和只能通过接口使用的非public的JDK实现（如Arrays.asList、Collections.unmodifiableList，解码成ArrayList等）；
+ * 		  带Comparator的SortedSet/SortedMap、EnumSet、CopyOnWriteArrayList等其它实现编码失败（切面不做缓存），不会解码成另一种类型
+ * 		5.JDK中的类型只支持上面列出的常用类型（以及UUID、java.sql的日期时间），不使用JDK序列化
+ * 		6.普通对象、数组和List/Set/Map被引用多次时只写入一次，之后写入引用的编号（支持循环引用）
+ * 		7.解码时只创建受信任的类的对象：方法返回值类型中（包括泛型参数和字段类型，递归）出现的类及其子类，
+ * 		  以及类名以allowedClassPrefixes开头的类（如返回值中的字段声明为接口或Object时，需要通过构造器配置实现类所在的包）
+ * 		  其它的类解码失败（切面当作未命中处理），缓存中被写入的数据不能用来创建任意的对象；
+ * 		  枚举和对象数组元素的类型同样检查（JDK中的类只用来取枚举常量和创建数组，不创建对象，因此允许）
+ *
+ * 注意：嵌套超过MAX_DEPTH层时编码失败（切面不做缓存），解码时同样限制层数，不会因为栈溢出影响主业务逻辑
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月15日
+ *
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+	public static final byte	MAGIC				=	(byte) 0xB1;		// 编码结果的第一个字节（UTF-8的JSON不会以该字节开头）
+
+	private static final Charset	UTF_8			=	Charset.forName("UTF-8");
+
+	private static final int	OUTPUT_CAPACITY_MAX	=	64 * 1024;			// 线程复用的输出缓冲超过该容量则丢弃
+
+	private static final int	MAX_DEPTH			=	512;				// 最多的嵌套层数
+
+	// 值的类型标记
+	private static final byte	TAG_NULL			=	0;
+	private static final byte	TAG_TRUE			=	1;
+	private static final byte	TAG_FALSE			=	2;
+	private static final byte	TAG_INT				=	3;
+	private static final byte	TAG_LONG			=	4;
+	private static final byte	TAG_SHORT			=	5;
+	private static final byte	TAG_BYTE			=	6;
+	private static final byte	TAG_CHAR			=	7;
+	private static final byte	TAG_FLOAT			=	8;
+	private static final byte	TAG_DOUBLE			=	9;
+	private static final byte	TAG_STRING			=	10;
+	private static final byte	TAG_BYTES			=	11;
+	private static final byte	TAG_DATE			=	12;
+	private static final byte	TAG_BIG_DECIMAL		=	13;
+	private static final byte	TAG_BIG_INTEGER		=	14;
+	private static final byte	TAG_ENUM			=	15;
+	private static final byte	TAG_LIST			=	16;
+	private static final byte	TAG_SET				=	17;
+	private static final byte	TAG_MAP				=	18;
+	private static final byte	TAG_PRIMITIVE_ARRAY	=	19;
+	private static final byte	TAG_OBJECT_ARRAY	=	20;
+	private static final byte	TAG_OBJECT			=	21;
+	private static final byte	TAG_REFERENCE		=	23;					// 之前写过的对象
+	private static final byte	TAG_UUID			=	24;
+	private static final byte	TAG_SQL_TIMESTAMP	=	25;
+	private static final byte	TAG_SQL_DATE		=	26;
+	private static final byte	TAG_SQL_TIME		=	27;
+
+	// List/Set/Map的实现类型
+	private static final byte	KIND_ARRAY_LIST		=	0;
+	private static final byte	KIND_LINKED_LIST	=	1;
+	private static final byte	KIND_HASH_SET		=	2;
+	private static final byte	KIND_LINKED_SET		=	3;
+	private static final byte	KIND_TREE_SET		=	4;
+	private static final byte	KIND_HASH_MAP		=	5;
+	private static final byte	KIND_LINKED_MAP		=	6;
+	private static final byte	KIND_TREE_MAP		=	7;
+	private static final byte	KIND_CONCURRENT_MAP	=	8;
+
+	// 基础类型数组的元素类型
+	private static final Class<?>[]	PRIMITIVE_TYPES	=	{boolean.class, byte.class, char.class, short.class,
+														 int.class, long.class, float.class, double.class};
+
+	// 每个线程复用一个输出缓冲
+	private static final ThreadLocal<Output> OUTPUT = new ThreadLocal<Output>(){
+		@Override
+		protected Output initialValue(){
+			return new Output(256);
+		}
+	};
+
+	private final FastjsonCacheCodec fastjsonCacheCodec = new FastjsonCacheCodec();		// 兼容fastJson写入的值
+
+	private final boolean		isFastjsonFallback;									// 不是MAGIC开头的值是否按fastJson解析
+
+	private final String[]		allowedClassPrefixes;								// 额外信任的类名前缀
+
+	private final ConcurrentHashMap<Type, Set<Class<?>>> trustedClassMap = new ConcurrentHashMap<>();	// 返回值类型 -> 受信任的类
+
+
+	public BinaryCacheCodec() {
+		this(new String[0]);
+	}
+
+
+	/***
+	 * 通过CacheCodecFactory.registerCodec或者SimpleCacheAspect.setDefaultCacheCodec使用
+	 *
+	 * @param allowedClassPrefixes 除了返回值类型中出现的类之外，额外信任的类名前缀（如"com.xxx.model."）
+	 */
+	public BinaryCacheCodec(String... allowedClassPrefixes) {
+		this(false, allowedClassPrefixes);
+	}
+
+
+	/***
+	 * 从FastjsonCacheCodec切换过来时使用，缓存中旧的值过期之后可以换回不兼容的构造器
+	 *
+	 * @param isFastjsonFallback 不是MAGIC开头的值是否按fastJson解析（不经过受信任类的检查）
+	 * @param allowedClassPrefixes 除了返回值类型中出现的类之外，额外信任的类名前缀（如"com.xxx.model."）
+	 */
+	public BinaryCacheCodec(boolean isFastjsonFallback, String... allowedClassPrefixes) {
+		this.isFastjsonFallback = isFastjsonFallback;
+		this.allowedClassPrefixes = allowedClassPrefixes.clone();
+	}
+
+
+	@Override
+	public byte[] encode(Object cacheObject) throws CacheException {
+		Output output = OUTPUT.get();
+		if (output.buffer.length > OUTPUT_CAPACITY_MAX) {
+			output = new Output(256);
+			OUTPUT.set(output);
+		}
+		output.reset();
+		try {
+			output.writeByte(MAGIC);
+			new Encoder(output).writeValue(cacheObject);
+			return output.toByteArray();
+		} catch (CacheException exception) {
+			throw exception;
+		} catch (Exception exception) {
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_ENCODE, "binary encode failed for: " + exception);
+		} catch (StackOverflowError error) {
+			// 层数限制之内也可能溢出（如线程栈很小），同样按编码失败处理
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_ENCODE, "binary encode failed for: " + error);
+		}
+	}
+
+
+	@Override
+	public Object decode(ByteBuffer cacheBuffer, Type type) throws CacheException {
+		if (!cacheBuffer.hasRemaining() || cacheBuffer.get(cacheBuffer.position()) != MAGIC) {
+			if (isFastjsonFallback) {
+				return fastjsonCacheCodec.decode(cacheBuffer, type);
+			}
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "binary decode failed for: not binary codec format");
+		}
+		final ByteBuffer input = cacheBuffer.duplicate();
+		input.get();
+		try {
+			Object cacheObject = new Decoder(input, getTrustedClasses(type), allowedClassPrefixes).readValue();
+			if (input.hasRemaining()) {
+				throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "binary decode failed for: unexpected trailing bytes");
+			}
+			return cacheObject;
+		} catch (CacheException exception) {
+			throw exception;
+		} catch (Exception exception) {
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "binary decode failed for: " + exception);
+		} catch (StackOverflowError error) {
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "binary decode failed for: " + error);
+		}
+	}
+
+
+	// 返回值类型中出现的类（每个类型只解析一次）
+	private Set<Class<?>> getTrustedClasses(Type type) {
+		if (type == null) {
+			return new HashSet<>();
+		}
+		Set<Class<?>> trustedClasses = trustedClassMap.get(type);
+		if (trustedClasses == null) {
+			trustedClasses = new HashSet<>();
+			collectClasses(type, trustedClasses);
+			Set<Class<?>> existClasses = trustedClassMap.putIfAbsent(type, trustedClasses);
+			if (existClasses != null) {
+				trustedClasses = existClasses;
+			}
+		}
+		return trustedClasses;
+	}
+
+
+	// 递归收集类型、泛型参数和字段类型中的非JDK类（类型变量无法确定实际的类，跳过）
+	private static void collectClasses(Type type, Set<Class<?>> classes) {
+		if (type instanceof Class) {
+			Class<?> clazz = (Class<?>) type;
+			while (clazz.isArray()) {
+				clazz = clazz.getComponentType();
+			}
+			if (clazz.isPrimitive() || CacheClassLayout.isPlatformClass(clazz) || !classes.add(clazz)) {
+				return;
+			}
+			final Field[] fields = CacheClassLayout.getLayout(clazz).getFields();
+			if (fields != null) {
+				for (Field field : fields) {
+					collectClasses(field.getGenericType(), classes);
+				}
+			}
+		} else if (type instanceof ParameterizedType) {
+			collectClasses(((ParameterizedType) type).getRawType(), classes);
+			for (Type argumentType : ((ParameterizedType) type).getActualTypeArguments()) {
+				collectClasses(argumentType, classes);
+			}
+		} else if (type instanceof GenericArrayType) {
+			collectClasses(((GenericArrayType) type).getGenericComponentType(), classes);
+		} else if (type instanceof WildcardType) {
+			for (Type boundType : ((WildcardType) type).getUpperBounds()) {
+				collectClasses(boundType, classes);
+			}
+		}
+	}
+
+
+	private static Class<?> loadClass(String className) throws ClassNotFoundException {
+		for (int i=0; i<PRIMITIVE_TYPES.length; i++) {
+			if (PRIMITIVE_TYPES[i].getName().equals(className)) {
+				return PRIMITIVE_TYPES[i];
+			}
+		}
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		if (classLoader != null) {
+			try {
+				return Class.forName(className, false, classLoader);
+			} catch (ClassNotFoundException exception) {
+				// 使用codec自身的ClassLoader再尝试一次
+			}
+		}
+		return Class.forName(className, false, BinaryCacheCodec.class.getClassLoader());
+	}
+
+
+	/***
+	 *
+	 * 一次编码的状态：输出缓冲、已经写过的类和对象
+	 *
+	 */
+	private static final class Encoder {
+
+		private final Output output;
+
+		private final Map<Class<?>, Integer> classIds = new HashMap<>();		// 枚举、数组元素等类的编号
+
+		private final Map<Class<?>, Integer> layoutIds = new HashMap<>();		// 普通对象类的编号
+
+		private final IdentityHashMap<Object, Integer> objectIds = new IdentityHashMap<>();	// 对象、数组和集合的编号
+
+		private int depth;													// 当前的嵌套层数
+
+		Encoder(Output output) {
+			this.output = output;
+		}
+
+		void writeValue(Object value) throws Exception {
+			if (++depth > MAX_DEPTH) {
+				throw new CacheException(CacheConstants.EXCEPTION_CODEC_ENCODE, "binary encode failed for: nested deeper than " + MAX_DEPTH);
+			}
+			try {
+				writeTaggedValue(value);
+			} finally {
+				depth--;
+			}
+		}
+
+		private void writeTaggedValue(Object value) throws Exception {
+			if (value == null) {
+				output.writeByte(TAG_NULL);
+				return;
+			}
+			final Class<?> clazz = value.getClass();
+			if (clazz == String.class) {
+				output.writeByte(TAG_STRING);
+				output.writeString((String) value);
+			} else if (clazz == Integer.class) {
+				output.writeByte(TAG_INT);
+				output.writeVarLong(zigzag(((Integer) value).intValue()));
+			} else if (clazz == Long.class) {
+				output.writeByte(TAG_LONG);
+				output.writeVarLong(zigzag(((Long) value).longValue()));
+			} else if (clazz == Boolean.class) {
+				output.writeByte(((Boolean) value).booleanValue() ? TAG_TRUE : TAG_FALSE);
+			} else if (clazz == Double.class) {
+				output.writeByte(TAG_DOUBLE);
+				output.writeLong(Double.doubleToRawLongBits(((Double) value).doubleValue()));
+			} else if (clazz == Float.class) {
+				output.writeByte(TAG_FLOAT);
+				output.writeInt(Float.floatToRawIntBits(((Float) value).floatValue()));
+			} else if (clazz == Short.class) {
+				output.writeByte(TAG_SHORT);
+				output.writeVarLong(zigzag(((Short) value).shortValue()));
+			} else if (clazz == Byte.class) {
+				output.writeByte(TAG_BYTE);
+				output.writeByte(((Byte) value).byteValue());
+			} else if (clazz == Character.class) {
+				output.writeByte(TAG_CHAR);
+				output.writeVarLong(((Character) value).charValue());
+			} else if (clazz == byte[].class) {
+				final byte[] bytes = (byte[]) value;
+				output.writeByte(TAG_BYTES);
+				output.writeVarLong(bytes.length);
+				output.writeBytes(bytes, 0, bytes.length);
+			} else if (clazz == Date.class) {
+				output.writeByte(TAG_DATE);
+				output.writeVarLong(zigzag(((Date) value).getTime()));
+			} else if (clazz == Timestamp.class) {
+				output.writeByte(TAG_SQL_TIMESTAMP);
+				output.writeVarLong(zigzag(((Timestamp) value).getTime()));
+				output.writeVarLong(((Timestamp) value).getNanos());
+			} else if (clazz == java.sql.Date.class) {
+				output.writeByte(TAG_SQL_DATE);
+				output.writeVarLong(zigzag(((Date) value).getTime()));
+			} else if (clazz == Time.class) {
+				output.writeByte(TAG_SQL_TIME);
+				output.writeVarLong(zigzag(((Date) value).getTime()));
+			} else if (clazz == UUID.class) {
+				output.writeByte(TAG_UUID);
+				output.writeLong(((UUID) value).getMostSignificantBits());
+				output.writeLong(((UUID) value).getLeastSignificantBits());
+			} else if (clazz == BigDecimal.class) {
+				output.writeByte(TAG_BIG_DECIMAL);
+				output.writeString(((BigDecimal) value).toString());
+			} else if (clazz == BigInteger.class) {
+				final byte[] bytes = ((BigInteger) value).toByteArray();
+				output.writeByte(TAG_BIG_INTEGER);
+				output.writeVarLong(bytes.length);
+				output.writeBytes(bytes, 0, bytes.length);
+			} else if (value instanceof Enum) {
+				output.writeByte(TAG_ENUM);
+				writeClass(((Enum<?>) value).getDeclaringClass());
+				output.writeString(((Enum<?>) value).name());
+			} else if (value instanceof Map) {
+				writeMap((Map<?, ?>) value);
+			} else if (value instanceof Set) {
+				writeSet((Set<?>) value);
+			} else if (value instanceof Collection) {
+				if (writeReference(value)) {
+					return;
+				}
+				final Collection<?> collection = (Collection<?>) value;
+				output.writeByte(TAG_LIST);
+				output.writeByte(listKind(collection));
+				writeElements(collection);
+			} else if (clazz.isArray()) {
+				writeArray(value, clazz.getComponentType());
+			} else if (!CacheClassLayout.isPlatformClass(clazz) && CacheClassLayout.getLayout(clazz).isReflectable()) {
+				writeObject(value, CacheClassLayout.getLayout(clazz));
+			} else {
+				throw new CacheException(CacheConstants.EXCEPTION_CODEC_ENCODE, "binary codec not support type: " + clazz.getName());
+			}
+		}
+
+		private void writeSet(Set<?> set) throws Exception {
+			if (writeReference(set)) {
+				return;
+			}
+			output.writeByte(TAG_SET);
+			output.writeByte(setKind(set));
+			writeElements(set);
+		}
+
+		private void writeMap(Map<?, ?> map) throws Exception {
+			if (writeReference(map)) {
+				return;
+			}
+			output.writeByte(TAG_MAP);
+			output.writeByte(mapKind(map));
+			output.writeVarLong(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				writeValue(entry.getKey());
+				writeValue(entry.getValue());
+			}
+		}
+
+		// 解码时的实现类型：和原来的类型相同，或者原来的类型只能通过接口使用
+		private static byte listKind(Collection<?> collection) throws CacheException {
+			final Class<?> clazz = collection.getClass();
+			if (clazz == ArrayList.class) {
+				return KIND_ARRAY_LIST;
+			} else if (clazz == LinkedList.class) {
+				return KIND_LINKED_LIST;
+			} else if (isInterfaceOnly(clazz) && !(collection instanceof Queue)) {
+				return KIND_ARRAY_LIST;
+			}
+			throw unsupportedCollection(clazz);
+		}
+
+		private static byte setKind(Set<?> set) throws CacheException {
+			final Class<?> clazz = set.getClass();
+			if (clazz == HashSet.class) {
+				return KIND_HASH_SET;
+			} else if (clazz == LinkedHashSet.class) {
+				return KIND_LINKED_SET;
+			} else if (clazz != TreeSet.class && !isInterfaceOnly(clazz)) {
+				throw unsupportedCollection(clazz);
+			} else if (!(set instanceof SortedSet)) {
+				return KIND_LINKED_SET;
+			} else if (((SortedSet<?>) set).comparator() == null) {
+				return KIND_TREE_SET;
+			}
+			// 解码时无法还原Comparator
+			throw unsupportedCollection(clazz);
+		}
+
+		private static byte mapKind(Map<?, ?> map) throws CacheException {
+			final Class<?> clazz = map.getClass();
+			if (clazz == HashMap.class) {
+				return KIND_HASH_MAP;
+			} else if (clazz == LinkedHashMap.class) {
+				return KIND_LINKED_MAP;
+			} else if (clazz == ConcurrentHashMap.class) {
+				return KIND_CONCURRENT_MAP;
+			} else if (clazz != TreeMap.class && !isInterfaceOnly(clazz)) {
+				throw unsupportedCollection(clazz);
+			} else if (map instanceof SortedMap) {
+				if (((SortedMap<?, ?>) map).comparator() == null && !(map instanceof ConcurrentMap)) {
+					return KIND_TREE_MAP;
+				}
+				throw unsupportedCollection(clazz);
+			} else if (map instanceof ConcurrentMap) {
+				return KIND_CONCURRENT_MAP;
+			}
+			return KIND_LINKED_MAP;
+		}
+
+		// 非public的JDK实现（如Arrays.asList、Collections.unmodifiableList、HashMap.keySet）只能声明为接口，解码成常用的实现类型不影响使用
+		// 父类是public的实现（如EnumSet的RegularEnumSet）可能被声明为父类，不能替换
+		private static boolean isInterfaceOnly(Class<?> clazz) {
+			if (Modifier.isPublic(clazz.getModifiers()) || !CacheClassLayout.isPlatformClass(clazz)) {
+				return false;
+			}
+			Class<?> superClass = clazz.getSuperclass();
+			while (!Modifier.isPublic(superClass.getModifiers())) {
+				superClass = superClass.getSuperclass();
+			}
+			return superClass == Object.class || superClass == AbstractCollection.class || superClass == AbstractList.class
+				   || superClass == AbstractSequentialList.class || superClass == AbstractSet.class || superClass == AbstractMap.class;
+		}
+
+		private static CacheException unsupportedCollection(Class<?> clazz) {
+			return new CacheException(CacheConstants.EXCEPTION_CODEC_ENCODE, "binary codec not support collection type: " + clazz.getName());
+		}
+
+		private void writeElements(Collection<?> collection) throws Exception {
+			// 先复制一份，避免并发修改时size和元素个数不一致
+			final Object[] elements = collection.toArray();
+			output.writeVarLong(elements.length);
+			for (Object element : elements) {
+				writeValue(element);
+			}
+		}
+
+		private void writeArray(Object array, Class<?> componentType) throws Exception {
+			final int length = Array.getLength(array);
+			if (componentType.isPrimitive()) {
+				output.writeByte(TAG_PRIMITIVE_ARRAY);
+				output.writeByte((byte) Arrays.asList(PRIMITIVE_TYPES).indexOf(componentType));
+				output.writeVarLong(length);
+				for (int i=0; i<length; i++) {
+					writePrimitive(componentType, Array.get(array, i));
+				}
+				return;
+			}
+			if (writeReference(array)) {
+				return;
+			}
+			output.writeByte(TAG_OBJECT_ARRAY);
+			writeClass(componentType);
+			output.writeVarLong(length);
+			for (int i=0; i<length; i++) {
+				writeValue(Array.get(array, i));
+			}
+		}
+
+		private void writeObject(Object value, CacheClassLayout layout) throws Exception {
+			if (writeReference(value)) {
+				return;
+			}
+			output.writeByte(TAG_OBJECT);
+			Integer layoutId = layoutIds.get(layout.getClazz());
+			if (layoutId != null) {
+				output.writeVarLong(layoutId.intValue() + 1);
+			} else {
+				output.writeVarLong(0);
+				output.writeString(layout.getClazz().getName());
+				output.writeInt(layout.getFingerprint());
+				layoutIds.put(layout.getClazz(), layoutIds.size());
+			}
+			for (Field field : layout.getFields()) {
+				if (field.getType().isPrimitive()) {
+					writePrimitive(field.getType(), field.get(value));
+				} else {
+					writeValue(field.get(value));
+				}
+			}
+		}
+
+		// 基础类型不写类型标记
+		private void writePrimitive(Class<?> type, Object value) {
+			if (type == int.class) {
+				output.writeVarLong(zigzag(((Integer) value).intValue()));
+			} else if (type == long.class) {
+				output.writeVarLong(zigzag(((Long) value).longValue()));
+			} else if (type == boolean.class) {
+				output.writeByte(((Boolean) value).booleanValue() ? (byte) 1 : (byte) 0);
+			} else if (type == double.class) {
+				output.writeLong(Double.doubleToRawLongBits(((Double) value).doubleValue()));
+			} else if (type == float.class) {
+				output.writeInt(Float.floatToRawIntBits(((Float) value).floatValue()));
+			} else if (type == short.class) {
+				output.writeVarLong(zigzag(((Short) value).shortValue()));
+			} else if (type == byte.class) {
+				output.writeByte(((Byte) value).byteValue());
+			} else {
+				output.writeVarLong(((Character) value).charValue());
+			}
+		}
+
+		// 已经写过的对象只写入编号，否则分配编号（和解码时创建对象的顺序一致）
+		private boolean writeReference(Object value) {
+			final Integer objectId = objectIds.get(value);
+			if (objectId != null) {
+				output.writeByte(TAG_REFERENCE);
+				output.writeVarLong(objectId.intValue());
+				return true;
+			}
+			objectIds.put(value, objectIds.size());
+			return false;
+		}
+
+		private void writeClass(Class<?> clazz) {
+			Integer classId = classIds.get(clazz);
+			if (classId != null) {
+				output.writeVarLong(classId.intValue() + 1);
+				return;
+			}
+			output.writeVarLong(0);
+			output.writeString(clazz.getName());
+			classIds.put(clazz, classIds.size());
+		}
+	}
+
+
+	/***
+	 *
+	 * 一次解码的状态：输入、已经读过的类和对象
+	 *
+	 */
+	private static final class Decoder {
+
+		private final ByteBuffer input;
+
+		private final List<Class<?>> classes = new ArrayList<>();
+
+		private final List<CacheClassLayout> layouts = new ArrayList<>();
+
+		private final List<Object> objects = new ArrayList<>();				// 按编号保存已经创建的对象、数组和集合
+
+		private final Set<Class<?>> trustedClasses;							// 返回值类型中出现的类
+
+		private final String[] allowedClassPrefixes;
+
+		private int depth;
+
+		Decoder(ByteBuffer input, Set<Class<?>> trustedClasses, String[] allowedClassPrefixes) {
+			this.input = input;
+			this.trustedClasses = trustedClasses;
+			this.allowedClassPrefixes = allowedClassPrefixes;
+		}
+
+		Object readValue() throws Exception {
+			if (++depth > MAX_DEPTH) {
+				throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "binary decode failed for: nested deeper than " + MAX_DEPTH);
+			}
+			try {
+				return readTaggedValue();
+			} finally {
+				depth--;
+			}
+		}
+
+		private Object readTaggedValue() throws Exception {
+			final byte tag = input.get();
+			switch (tag) {
+				case TAG_NULL:
+					return null;
+				case TAG_TRUE:
+					return Boolean.TRUE;
+				case TAG_FALSE:
+					return Boolean.FALSE;
+				case TAG_INT:
+					return Integer.valueOf((int) unzigzag(readVarLong()));
+				case TAG_LONG:
+					return Long.valueOf(unzigzag(readVarLong()));
+				case TAG_SHORT:
+					return Short.valueOf((short) unzigzag(readVarLong()));
+				case TAG_BYTE:
+					return Byte.valueOf(input.get());
+				case TAG_CHAR:
+					return Character.valueOf((char) readVarLong());
+				case TAG_FLOAT:
+					return Float.valueOf(Float.intBitsToFloat(input.getInt()));
+				case TAG_DOUBLE:
+					return Double.valueOf(Double.longBitsToDouble(input.getLong()));
+				case TAG_STRING:
+					return readString();
+				case TAG_BYTES:
+					return readBytes();
+				case TAG_DATE:
+					return new Date(unzigzag(readVarLong()));
+				case TAG_SQL_TIMESTAMP:
+					final Timestamp timestamp = new Timestamp(unzigzag(readVarLong()));
+					timestamp.setNanos((int) readVarLong());
+					return timestamp;
+				case TAG_SQL_DATE:
+					return new java.sql.Date(unzigzag(readVarLong()));
+				case TAG_SQL_TIME:
+					return new Time(unzigzag(readVarLong()));
+				case TAG_UUID:
+					return new UUID(input.getLong(), input.getLong());
+				case TAG_BIG_DECIMAL:
+					return new BigDecimal(readString());
+				case TAG_BIG_INTEGER:
+					return new BigInteger(readBytes());
+				case TAG_ENUM:
+					return readEnum();
+				case TAG_LIST:
+					return readList();
+				case TAG_SET:
+					return readSet();
+				case TAG_MAP:
+					return readMap();
+				case TAG_PRIMITIVE_ARRAY:
+					return readPrimitiveArray();
+				case TAG_OBJECT_ARRAY:
+					return readObjectArray();
+				case TAG_OBJECT:
+					return readObject();
+				case TAG_REFERENCE:
+					return readReference();
+				default:
+					throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "binary decode failed for: unknown tag " + tag);
+			}
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private Object readEnum() throws Exception {
+			final Class enumClazz = readClass();
+			if (!enumClazz.isEnum()) {
+				throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "binary decode failed for: not enum " + enumClazz.getName());
+			}
+			return Enum.valueOf(enumClazz, readString());
+		}
+
+		private Object readList() throws Exception {
+			final byte kind = input.get();
+			final int size = readSize();
+			final List<Object> list = (kind == KIND_LINKED_LIST) ? new LinkedList<>() : new ArrayList<>(size);
+			objects.add(list);
+			for (int i=0; i<size; i++) {
+				list.add(readValue());
+			}
+			return list;
+		}
+
+		private Object readSet() throws Exception {
+			final byte kind = input.get();
+			final int size = readSize();
+			final Set<Object> set;
+			if (kind == KIND_HASH_SET) {
+				set = new HashSet<>(Math.max(16, (int) (size / .75f) + 1));
+			} else if (kind == KIND_TREE_SET) {
+				set = new TreeSet<>();
+			} else {
+				set = new LinkedHashSet<>(Math.max(16, (int) (size / .75f) + 1));
+			}
+			objects.add(set);
+			for (int i=0; i<size; i++) {
+				set.add(readValue());
+			}
+			return set;
+		}
+
+		private Object readMap() throws Exception {
+			final byte kind = input.get();
+			final int size = readSize();
+			final int capacity = Math.max(16, (int) (size / .75f) + 1);
+			final Map<Object, Object> map;
+			if (kind == KIND_HASH_MAP) {
+				map = new HashMap<>(capacity);
+			} else if (kind == KIND_TREE_MAP) {
+				map = new TreeMap<>();
+			} else if (kind == KIND_CONCURRENT_MAP) {
+				map = new ConcurrentHashMap<>(capacity);
+			} else {
+				map = new LinkedHashMap<>(capacity);
+			}
+			objects.add(map);
+			for (int i=0; i<size; i++) {
+				Object key = readValue();
+				map.put(key, readValue());
+			}
+			return map;
+		}
+
+		private Object readPrimitiveArray() throws Exception {
+			final Class<?> componentType = PRIMITIVE_TYPES[input.get()];
+			final int length = readSize();
+			final Object array = Array.newInstance(componentType, length);
+			for (int i=0; i<length; i++) {
+				Array.set(array, i, readPrimitive(componentType));
+			}
+			return array;
+		}
+
+		private Object readObjectArray() throws Exception {
+			final Class<?> componentType = readClass();
+			final int length = readSize();
+			final Object array = Array.newInstance(componentType, length);
+			objects.add(array);
+			for (int i=0; i<length; i++) {
+				Array.set(array, i, readValue());
+			}
+			return array;
+		}
+
+		private Object readObject() throws Exception {
+			final int layoutRef = (int) readVarLong();
+			final CacheClassLayout layout;
+			if (layoutRef > 0) {
+				layout = layouts.get(layoutRef - 1);
+			} else {
+				layout = CacheClassLayout.getLayout(checkTrusted(loadClass(readString())));
+				if (input.getInt() != layout.getFingerprint()) {
+					throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE,
+											 "binary decode failed for: fields changed of " + layout.getClazz().getName());
+				}
+				layouts.add(layout);
+			}
+			final Object value = layout.newInstance();
+			objects.add(value);
+			for (Field field : layout.getFields()) {
+				if (field.getType().isPrimitive()) {
+					field.set(value, readPrimitive(field.getType()));
+				} else {
+					field.set(value, readValue());
+				}
+			}
+			return value;
+		}
+
+		// 只创建返回值类型中出现的类（及其子类）和allowedClassPrefixes中的类的对象
+		private Class<?> checkTrusted(Class<?> clazz) throws CacheException {
+			if (!CacheClassLayout.isPlatformClass(clazz)) {
+				if (trustedClasses.contains(clazz)) {
+					return clazz;
+				}
+				for (String classPrefix : allowedClassPrefixes) {
+					if (clazz.getName().startsWith(classPrefix)) {
+						return clazz;
+					}
+				}
+				for (Class<?> trustedClass : trustedClasses) {
+					if (trustedClass.isAssignableFrom(clazz)) {
+						return clazz;
+					}
+				}
+			}
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "binary decode failed for: untrusted class " + clazz.getName());
+		}
+
+		// 枚举和对象数组元素的类型：JDK中的类只用来取枚举常量或者创建数组，其它的类和普通对象一样检查
+		private Class<?> checkTrustedType(Class<?> clazz) throws CacheException {
+			Class<?> componentType = clazz;
+			while (componentType.isArray()) {
+				componentType = componentType.getComponentType();
+			}
+			if (componentType.isPrimitive() || CacheClassLayout.isPlatformClass(componentType)) {
+				return clazz;
+			}
+			checkTrusted(componentType);
+			return clazz;
+		}
+
+		private Object readReference() throws CacheException {
+			final long objectId = readVarLong();
+			if (objectId < 0 || objectId >= objects.size()) {
+				throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "binary decode failed for: bad reference " + objectId);
+			}
+			return objects.get((int) objectId);
+		}
+
+		private Object readPrimitive(Class<?> type) {
+			if (type == int.class) {
+				return Integer.valueOf((int) unzigzag(readVarLong()));
+			} else if (type == long.class) {
+				return Long.valueOf(unzigzag(readVarLong()));
+			} else if (type == boolean.class) {
+				return Boolean.valueOf(input.get() != 0);
+			} else if (type == double.class) {
+				return Double.valueOf(Double.longBitsToDouble(input.getLong()));
+			} else if (type == float.class) {
+				return Float.valueOf(Float.intBitsToFloat(input.getInt()));
+			} else if (type == short.class) {
+				return Short.valueOf((short) unzigzag(readVarLong()));
+			} else if (type == byte.class) {
+				return Byte.valueOf(input.get());
+			} else {
+				return Character.valueOf((char) readVarLong());
+			}
+		}
+
+		private Class<?> readClass() throws Exception {
+			final int classRef = (int) readVarLong();
+			if (classRef > 0) {
+				return classes.get(classRef - 1);
+			}
+			final Class<?> clazz = checkTrustedType(loadClass(readString()));
+			classes.add(clazz);
+			return clazz;
+		}
+
+		private String readString() throws CacheException {
+			final int length = readSize();
+			if (input.hasArray()) {
+				String value = new String(input.array(), input.arrayOffset() + input.position(), length, UTF_8);
+				input.position(input.position() + length);
+				return value;
+			}
+			byte[] bytes = new byte[length];
+			input.get(bytes);
+			return new String(bytes, UTF_8);
+		}
+
+		private byte[] readBytes() throws CacheException {
+			byte[] bytes = new byte[readSize()];
+			input.get(bytes);
+			return bytes;
+		}
+
+		// 长度不能超过剩余的字节数，防止错误的数据导致分配过大的内存
+		private int readSize() throws CacheException {
+			final long size = readVarLong();
+			if (size < 0 || size > input.remaining()) {
+				throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "binary decode failed for: bad size " + size);
+			}
+			return (int) size;
+		}
+
+		private long readVarLong() {
+			long value = 0L;
+			int shift = 0;
+			while (true) {
+				final byte current = input.get();
+				value |= (long) (current & 0x7F) << shift;
+				if ((current & 0x80) == 0) {
+					return value;
+				}
+				shift += 7;
+			}
+		}
+	}
+
+
+	/***
+	 *
+	 * 可复用的输出缓冲
+	 *
+	 */
+	private static final class Output {
+
+		private byte[] buffer;
+
+		private int size;
+
+		Output(int capacity) {
+			this.buffer = new byte[capacity];
+		}
+
+		void reset() {
+			size = 0;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, size);
+		}
+
+		void writeByte(byte value) {
+			ensureCapacity(1);
+			buffer[size++] = value;
+		}
+
+		void writeBytes(byte[] bytes, int offset, int length) {
+			ensureCapacity(length);
+			System.arraycopy(bytes, offset, buffer, size, length);
+			size += length;
+		}
+
+		void writeInt(int value) {
+			ensureCapacity(4);
+			buffer[size++] = (byte) (value >>> 24);
+			buffer[size++] = (byte) (value >>> 16);
+			buffer[size++] = (byte) (value >>> 8);
+			buffer[size++] = (byte) value;
+		}
+
+		void writeLong(long value) {
+			writeInt((int) (value >>> 32));
+			writeInt((int) value);
+		}
+
+		void writeVarLong(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[size++] = (byte) value;
+		}
+
+		void writeString(String value) {
+			final byte[] bytes = value.getBytes(UTF_8);
+			writeVarLong(bytes.length);
+			writeBytes(bytes, 0, bytes.length);
+		}
+
+		private void ensureCapacity(int length) {
+			if (size + length > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + length));
+			}
+		}
+	}
+
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
@@ -0,0 +1,145 @@
+package org.zhuduan.cache.codec;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.objenesis.Objenesis;
+import org.springframework.objenesis.ObjenesisStd;
+import org.springframework.objenesis.instantiator.ObjectInstantiator;
+
+/***
+ *
+ * 普通对象的字段布局（BinaryCacheCodec编码和CacheObjectCopier复制时使用）
+ * 		1.父类的字段在前，同一个类的字段按名字排序，不包括static和transient字段
+ * 		2.字段名和类型的指纹，用于发现类的字段变化
+ * 		3.有无参构造器时使用构造器创建对象，否则使用objenesis
+ * 每个类只解析一次
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月20日
+ *
+ */
+final class CacheClassLayout {
+
+	private static final Objenesis	objenesis	=	new ObjenesisStd(true);		// 没有无参构造器时用于创建对象
+
+	private static final ConcurrentHashMap<Class<?>, CacheClassLayout> layoutMap = new ConcurrentHashMap<>();	// 类的字段布局
+
+	private final Class<?>			clazz;
+
+	private Field[]					fields;
+
+	private int						fingerprint;		// 字段名和类型的指纹
+
+	private Constructor<?>			constructor;		// 无参构造器
+
+	private ObjectInstantiator<?>	instantiator;		// 没有无参构造器时使用
+
+	private boolean					reflectable;		// 字段是否都可以反射访问
+
+
+	private CacheClassLayout(Class<?> clazz) {
+		this.clazz = clazz;
+		try {
+			List<Class<?>> hierarchy = new ArrayList<>();
+			for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+				hierarchy.add(0, current);
+			}
+			List<Field> fieldList = new ArrayList<>();
+			int hash = 1;
+			for (Class<?> current : hierarchy) {
+				Field[] declaredFields = current.getDeclaredFields();
+				Arrays.sort(declaredFields, FIELD_COMPARATOR);
+				for (Field field : declaredFields) {
+					if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+						continue;
+					}
+					field.setAccessible(true);
+					fieldList.add(field);
+					hash = 31 * hash + field.getName().hashCode();
+					hash = 31 * hash + field.getType().getName().hashCode();
+				}
+			}
+			this.fields = fieldList.toArray(new Field[fieldList.size()]);
+			this.fingerprint = hash;
+			try {
+				this.constructor = clazz.getDeclaredConstructor();
+				this.constructor.setAccessible(true);
+			} catch (NoSuchMethodException exception) {
+				this.instantiator = objenesis.getInstantiatorOf(clazz);
+			}
+			this.reflectable = !clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers());
+		} catch (RuntimeException exception) {
+			// 无法反射(如模块的访问限制)，使用其它方式处理
+			this.reflectable = false;
+		}
+	}
+
+
+	/***
+	 * 获取类的字段布局
+	 *
+	 * @param clazz
+	 * @return
+	 */
+	static CacheClassLayout getLayout(Class<?> clazz) {
+		CacheClassLayout layout = layoutMap.get(clazz);
+		if (layout == null) {
+			layout = new CacheClassLayout(clazz);
+			CacheClassLayout existLayout = layoutMap.putIfAbsent(clazz, layout);
+			if (existLayout != null) {
+				layout = existLayout;
+			}
+		}
+		return layout;
+	}
+
+
+	/***
+	 * JDK和javax中的类(除了常见类型之外)不使用字段反射
+	 *
+	 * @param clazz
+	 * @return
+	 */
+	static boolean isPlatformClass(Class<?> clazz) {
+		final String name = clazz.getName();
+		return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.") || name.startsWith("com.sun.");
+	}
+
+
+	Object newInstance() throws Exception {
+		return constructor != null ? constructor.newInstance() : instantiator.newInstance();
+	}
+
+	boolean isReflectable() {
+		return reflectable;
+	}
+
+	Class<?> getClazz() {
+		return clazz;
+	}
+
+	Field[] getFields() {
+		return fields;
+	}
+
+	int getFingerprint() {
+		return fingerprint;
+	}
+
+
+	// 字段按名字排序
+	private static final Comparator<Field> FIELD_COMPARATOR = new Comparator<Field>() {
+		@Override
+		public int compare(Field field1, Field field2) {
+			return field1.getName().compareTo(field2.getName());
+		}
+	};
+}
@@ -0,0 +1,42 @@
+package org.zhuduan.cache.codec;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+
+import org.zhuduan.utils.CacheException;
+
+/***
+ * 
+ * 缓存值的编解码接口（SPI）
+ * 负责把方法的返回值编码成byte[]存入CacheStorageService，以及把缓存中的值解码成对象
+ * 		1.可以在SimpleCacheAspect中配置全局默认的codec，也可以在@SimpleCache中针对方法单独配置
+ * 		2.实现类需要是线程安全的，并且提供public的无参构造器（由CacheCodecFactory创建单例）
+ * 
+ * 
+ * @author	zhuhaifeng
+ * @date	2017年4月15日
+ *
+ */
+public interface CacheCodec {
+
+	/**
+	 * 将对象编码成byte[]
+	 * 
+	 * @param cacheObject 不为null
+	 * @return
+	 * @throws CacheException
+	 */
+	byte[] encode(Object cacheObject) throws CacheException;
+	
+	
+	/**
+	 * 将缓存的值解码成对象
+	 * 读取的范围是cacheBuffer的position到limit，buffer可能是只读的（如直接指向内存映射的文件）
+	 * 
+	 * @param cacheBuffer
+	 * @param type 方法返回值的类型(带泛型信息)
+	 * @return
+	 * @throws CacheException
+	 */
+	Object decode(ByteBuffer cacheBuffer, Type type) throws CacheException;
+}
@@ -0,0 +1,53 @@
+package org.zhuduan.cache.codec;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+
+/***
+ * 
+ * 获取CacheCodec的实例：每个实现类只会创建一个实例
+ * 
+ * 
+ * @author	zhuhaifeng
+ * @date	2017年4月15日
+ *
+ */
+public class CacheCodecFactory {
+
+	private static final ConcurrentHashMap<Class<? extends CacheCodec>, CacheCodec> codecMap = new ConcurrentHashMap<>();
+	
+	
+	/***
+	 * 获取codecClazz对应的单例
+	 * 
+	 * @param codecClazz
+	 * @return
+	 * @throws CacheException 无法创建实例时抛出
+	 */
+	public static CacheCodec getCodec(Class<? extends CacheCodec> codecClazz) throws CacheException {
+		CacheCodec codec = codecMap.get(codecClazz);
+		if (codec != null) {
+			return codec;
+		}
+		try {
+			codec = codecClazz.getDeclaredConstructor().newInstance();
+		} catch (Exception exception) {
+			throw new CacheException(CacheConstants.EXCEPTION_INITIAL_PARAM, "can not create codec " + codecClazz.getName() 
+									 + " for: " + exception.getMessage());
+		}
+		CacheCodec existCodec = codecMap.putIfAbsent(codecClazz, codec);
+		return existCodec == null ? codec : existCodec;
+	}
+	
+	
+	/***
+	 * 注册一个已经创建好的codec实例（如需要参数构造的codec）
+	 * 
+	 * @param codec
+	 */
+	public static void registerCodec(CacheCodec codec) {
+		codecMap.put(codec.getClass(), codec);
+	}
+}
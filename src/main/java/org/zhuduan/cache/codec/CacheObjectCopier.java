@@ -0,0 +1,264 @@
+package org.zhuduan.cache.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+
+/***
+ *
+ * 对象的深拷贝（本地对象缓存CLONE_ON_READ时使用），不经过序列化和解析
+ * 		1.String、包装类型、BigDecimal、枚举等不可变的值直接共享
+ * 		2.数组、Collection/Map逐个元素复制，复制后的类型和原来的类型完全相同（方法声明的返回值可能是具体的类型，如CopyOnWriteArrayList、EnumMap）
+ * 		  通过该类型的public无参构造方法创建（有序的集合和PriorityQueue通过带Comparator的构造方法，保留Comparator），EnumSet/EnumMap通过copyOf/EnumMap(map)
+ * 		  没有这样的构造方法时（如Arrays.asList、Collections.unmodifiableList），实现了Serializable的使用JDK序列化复制，否则复制失败
+ * 		3.普通对象按CacheClassLayout逐个字段复制，同一个对象被引用多次时复制后仍然是同一个对象（支持循环引用）
+ * 		4.JDK中无法反射的类型，如果实现了Serializable则使用JDK序列化复制
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月20日
+ *
+ */
+public final class CacheObjectCopier {
+
+	private static final ConcurrentHashMap<Class<?>, Constructor<?>>	CONSTRUCTORS	=	new ConcurrentHashMap<>();	// 集合类型的无参构造方法
+
+
+	private CacheObjectCopier() {
+	}
+
+
+	/***
+	 * 深拷贝一个对象
+	 *
+	 * @param value
+	 * @return
+	 * @throws CacheException 对象中包含无法复制的类型时抛出
+	 */
+	public static Object deepCopy(Object value) throws CacheException {
+		try {
+			return copy(value, new IdentityHashMap<Object, Object>());
+		} catch (CacheException exception) {
+			throw exception;
+		} catch (Exception exception) {
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_COPY, "deep copy failed for: " + exception);
+		}
+	}
+
+
+	private static Object copy(Object value, IdentityHashMap<Object, Object> copied) throws Exception {
+		if (value == null || isImmutable(value)) {
+			return value;
+		}
+		Object copy = copied.get(value);
+		if (copy != null) {
+			return copy;
+		}
+
+		final Class<?> clazz = value.getClass();
+		if (clazz == Date.class) {
+			copy = new Date(((Date) value).getTime());
+			copied.put(value, copy);
+		} else if (value instanceof Map) {
+			copy = copyMap((Map<?, ?>) value, copied);
+		} else if (value instanceof Collection) {
+			copy = copyCollection((Collection<?>) value, copied);
+		} else if (clazz.isArray()) {
+			copy = copyArray(value, clazz.getComponentType(), copied);
+		} else if (!CacheClassLayout.isPlatformClass(clazz) && CacheClassLayout.getLayout(clazz).isReflectable()) {
+			final CacheClassLayout layout = CacheClassLayout.getLayout(clazz);
+			copy = layout.newInstance();
+			copied.put(value, copy);
+			for (Field field : layout.getFields()) {
+				field.set(copy, field.getType().isPrimitive() ? field.get(value) : copy(field.get(value), copied));
+			}
+		} else if (value instanceof Serializable) {
+			copy = copySerializable(value);
+			copied.put(value, copy);
+		} else {
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_COPY, "deep copy not support type: " + clazz.getName());
+		}
+		return copy;
+	}
+
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object copyCollection(Collection<?> collection, IdentityHashMap<Object, Object> copied) throws Exception {
+		final Class<?> clazz = collection.getClass();
+		final Collection<Object> copy;
+		if (clazz == ArrayList.class) {
+			copy = new ArrayList<>(collection.size());
+		} else if (clazz == HashSet.class) {
+			copy = new HashSet<>(Math.max(16, (int) (collection.size() / .75f) + 1));
+		} else if (collection instanceof EnumSet) {
+			// 元素都是枚举（不可变），直接复制
+			copy = EnumSet.copyOf((EnumSet) collection);
+			copied.put(collection, copy);
+			return copy;
+		} else {
+			copy = (Collection<Object>) newInstance(clazz, comparatorOf(collection), collection.size());
+			if (copy == null) {
+				return copyUnconstructable(collection, copied);
+			}
+		}
+		copied.put(collection, copy);
+		final Object[] elements = collection.toArray();
+		for (int i=0; i<elements.length; i++) {
+			elements[i] = copy(elements[i], copied);
+		}
+		// 一次addAll（CopyOnWriteArrayList等逐个add时每次都会复制数组）
+		copy.addAll(Arrays.asList(elements));
+		return copy;
+	}
+
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object copyMap(Map<?, ?> map, IdentityHashMap<Object, Object> copied) throws Exception {
+		final Class<?> clazz = map.getClass();
+		final Map<Object, Object> copy;
+		if (clazz == HashMap.class) {
+			copy = new HashMap<>(Math.max(16, (int) (map.size() / .75f) + 1));
+		} else if (map instanceof EnumMap) {
+			// key都是枚举：先复制一份，再替换成复制后的value
+			copy = new EnumMap((EnumMap) map);
+			copied.put(map, copy);
+			for (Map.Entry<Object, Object> entry : copy.entrySet()) {
+				entry.setValue(copy(entry.getValue(), copied));
+			}
+			return copy;
+		} else {
+			copy = (Map<Object, Object>) newInstance(clazz, map instanceof SortedMap ? ((SortedMap<?, ?>) map).comparator() : null, map.size());
+			if (copy == null) {
+				return copyUnconstructable(map, copied);
+			}
+		}
+		copied.put(map, copy);
+		for (Map.Entry<?, ?> entry : new ArrayList<Map.Entry<?, ?>>(map.entrySet())) {
+			copy.put(copy(entry.getKey(), copied), copy(entry.getValue(), copied));
+		}
+		return copy;
+	}
+
+
+	// 有序的集合和PriorityQueue需要保留的Comparator（自然顺序时为null）
+	private static Comparator<?> comparatorOf(Collection<?> collection) {
+		if (collection instanceof SortedSet) {
+			return ((SortedSet<?>) collection).comparator();
+		} else if (collection instanceof PriorityQueue) {
+			return ((PriorityQueue<?>) collection).comparator();
+		} else if (collection instanceof PriorityBlockingQueue) {
+			return ((PriorityBlockingQueue<?>) collection).comparator();
+		}
+		return null;
+	}
+
+
+	/***
+	 * 通过public的构造方法创建同样类型的空集合：有Comparator时使用(Comparator)或者(int, Comparator)，否则使用无参构造方法
+	 *
+	 * @return 没有这样的构造方法时返回null
+	 */
+	private static Object newInstance(Class<?> clazz, Comparator<?> comparator, int size) throws Exception {
+		if (!Modifier.isPublic(clazz.getModifiers()) || Modifier.isAbstract(clazz.getModifiers())) {
+			return null;
+		}
+		if (comparator == null) {
+			Constructor<?> constructor = CONSTRUCTORS.get(clazz);
+			if (constructor == null) {
+				try {
+					constructor = clazz.getConstructor();
+				} catch (NoSuchMethodException exception) {
+					return null;
+				}
+				CONSTRUCTORS.put(clazz, constructor);
+			}
+			return constructor.newInstance();
+		}
+		try {
+			return clazz.getConstructor(Comparator.class).newInstance(comparator);
+		} catch (NoSuchMethodException exception) {
+			// Java 7的PriorityQueue没有(Comparator)的构造方法
+		}
+		try {
+			return clazz.getConstructor(int.class, Comparator.class).newInstance(Math.max(size, 1), comparator);
+		} catch (NoSuchMethodException exception) {
+			return null;
+		}
+	}
+
+
+	// 无法通过构造方法创建同样类型的集合（如Arrays.asList、Collections.unmodifiableList）：只能通过JDK序列化复制，否则复制失败
+	private static Object copyUnconstructable(Object value, IdentityHashMap<Object, Object> copied) throws Exception {
+		if (!(value instanceof Serializable)) {
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_COPY, "deep copy not support type: " + value.getClass().getName());
+		}
+		final Object copy = copySerializable(value);
+		copied.put(value, copy);
+		return copy;
+	}
+
+
+	private static Object copyArray(Object array, Class<?> componentType, IdentityHashMap<Object, Object> copied) throws Exception {
+		final int length = Array.getLength(array);
+		final Object copy = Array.newInstance(componentType, length);
+		copied.put(array, copy);
+		if (componentType.isPrimitive()) {
+			System.arraycopy(array, 0, copy, 0, length);
+			return copy;
+		}
+		for (int i=0; i<length; i++) {
+			Array.set(copy, i, copy(Array.get(array, i), copied));
+		}
+		return copy;
+	}
+
+
+	private static Object copySerializable(Object value) throws Exception {
+		ByteArrayOutputStream bytesOutput = new ByteArrayOutputStream(128);
+		ObjectOutputStream objectOutput = new ObjectOutputStream(bytesOutput);
+		objectOutput.writeObject(value);
+		objectOutput.close();
+		ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(bytesOutput.toByteArray()));
+		try {
+			return objectInput.readObject();
+		} finally {
+			objectInput.close();
+		}
+	}
+
+
+	// 不可变的值不需要复制
+	private static boolean isImmutable(Object value) {
+		return value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Boolean
+			|| value instanceof Double || value instanceof Float || value instanceof Short || value instanceof Byte
+			|| value instanceof Character || value instanceof BigDecimal || value instanceof BigInteger
+			|| value instanceof Enum || value instanceof Class;
+	}
+}
@@ -0,0 +1,46 @@
+package org.zhuduan.cache.codec;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+import org.zhuduan.utils.SerializeUtils;
+
+/***
+ * 
+ * 使用fastJson的编解码实现（带WriteClassName的JSON, UTF-8编码）
+ * 和之前版本写入缓存的String格式完全兼容，适用于需要和旧版本共享缓存数据、或者需要直接查看缓存内容的场景
+ * 
+ * 
+ * @author	zhuhaifeng
+ * @date	2017年4月15日
+ *
+ */
+public class FastjsonCacheCodec implements CacheCodec {
+
+	@Override
+	public byte[] encode(Object cacheObject) throws CacheException {
+		try {
+			return SerializeUtils.serializeToBytes(cacheObject);
+		} catch (Exception exception) {
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_ENCODE, "fastjson encode failed for: " + exception.getMessage());
+		}
+	}
+
+	
+	@Override
+	public Object decode(ByteBuffer cacheBuffer, Type type) throws CacheException {
+		try {
+			if (cacheBuffer.hasArray()) {
+				return SerializeUtils.deserialize(cacheBuffer.array(), cacheBuffer.arrayOffset() + cacheBuffer.position(), 
+												  cacheBuffer.remaining(), type);
+			}
+			byte[] cacheBytes = new byte[cacheBuffer.remaining()];
+			cacheBuffer.duplicate().get(cacheBytes);
+			return SerializeUtils.deserialize(cacheBytes, 0, cacheBytes.length, type);
+		} catch (Exception exception) {
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "fastjson decode failed for: " + exception.getMessage());
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package org.zhuduan.cache.storage;
+
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/***
+ * 
+ * 以二进制存储值的CacheStorageService的基类
+ * 本地的存储实现内部只保存byte[]，String的读写通过UTF-8编码转换成byte[]的读写
+ * 批量操作默认逐个调用单个key的方法（本地实现没有网络往返），有更好的批量方式的实现可以覆盖
+ * 
+ * 
+ * @author	zhuhaifeng
+ * @date	2017年4月15日
+ *
+ */
+public abstract class AbstractCacheStorageService implements CacheStorageService {
+
+	protected static final Charset	UTF_8	=	Charset.forName("UTF-8");
+	
+	
+	@Override
+	public String getCache(String cacheKey) {
+		byte[] cacheBytes = getCacheBytes(cacheKey);
+		return cacheBytes == null ? null : new String(cacheBytes, UTF_8);
+	}
+
+	
+	@Override
+	public Boolean setCache(String cacheKey, String cacheValue, int expireTimeSeconds) {
+		return setCacheBytes(cacheKey, cacheValue == null ? null : cacheValue.getBytes(UTF_8), expireTimeSeconds);
+	}
+
+	
+	@Override
+	public Map<String, byte[]> getAll(Collection<String> cacheKeys) {
+		final Map<String, byte[]> result = new HashMap<>();
+		if (cacheKeys == null) {
+			return result;
+		}
+		for (String cacheKey : cacheKeys) {
+			final byte[] cacheBytes = getCacheBytes(cacheKey);
+			if (cacheBytes != null) {
+				result.put(cacheKey, cacheBytes);
+			}
+		}
+		return result;
+	}
+	
+	
+	@Override
+	public Boolean setAll(Map<String, CacheBatchValue> cacheValues) {
+		if (cacheValues == null) {
+			return false;
+		}
+		boolean result = true;
+		for (Map.Entry<String, CacheBatchValue> entry : cacheValues.entrySet()) {
+			if (!CacheBatchValue.isValid(entry.getKey(), entry.getValue())) {
+				result = false;
+				continue;
+			}
+			result &= Boolean.TRUE.equals(setCacheBytes(entry.getKey(), entry.getValue().getCacheBytes(), entry.getValue().getExpireTimeSeconds()));
+		}
+		return result;
+	}
+	
+	
+	@Override
+	public Boolean deleteAll(Collection<String> cacheKeys) {
+		if (cacheKeys == null) {
+			return false;
+		}
+		boolean result = true;
+		for (String cacheKey : cacheKeys) {
+			result &= Boolean.TRUE.equals(deleteCache(cacheKey));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,26 @@
+package org.zhuduan.cache.storage;
+
+import java.nio.ByteBuffer;
+
+/***
+ * 
+ * 可以直接返回ByteBuffer的缓存扩展接口（零拷贝读取）
+ * 值保存在堆外或者内存映射的文件中时，读取不需要先复制成byte[]，可以直接交给CacheCodec解码
+ * 		1.返回的buffer是只读的，读取范围为position到limit
+ * 		2.buffer指向的内容之后不会被修改（追加写），调用方可以在任意时间内读取
+ * 
+ * 
+ * @author	zhuhaifeng
+ * @date	2017年4月30日
+ *
+ */
+public interface BufferCacheStorageService extends CacheStorageService {
+
+    /**
+     * 获取缓存值的只读视图
+     * 
+     * @param cacheKey
+     * @return 不存在或者已过期时返回null
+     */
+    ByteBuffer getCacheBuffer(String cacheKey);
+}
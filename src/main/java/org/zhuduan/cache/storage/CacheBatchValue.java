@@ -0,0 +1,65 @@
+package org.zhuduan.cache.storage;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.zhuduan.utils.Log4jUtil;
+
+/***
+ * 
+ * 批量写入（CacheStorageService.setAll）时的一个值：二进制的值和它自己的过期时间
+ * 
+ * 
+ * @author	zhuhaifeng
+ * @date	2017年5月9日
+ *
+ */
+public final class CacheBatchValue {
+
+	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志
+
+	private final byte[]			cacheBytes;							// 缓存value
+
+	private final int				expireTimeSeconds;					// 过期时间, 单位秒!
+
+
+	public CacheBatchValue(byte[] cacheBytes, int expireTimeSeconds) {
+		this.cacheBytes = cacheBytes;
+		this.expireTimeSeconds = expireTimeSeconds;
+	}
+
+
+	/***
+	 * 校验key、值和过期时间（和setCacheBytes的校验一致），不合法时记录日志并返回false
+	 * 
+	 * @param cacheKey
+	 * @param cacheValue
+	 * @return
+	 */
+	public static boolean isValid(String cacheKey, CacheBatchValue cacheValue) {
+		if(StringUtils.isEmpty(cacheKey)){
+			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+			return false;
+		}
+		if(cacheValue == null || cacheValue.cacheBytes == null || cacheValue.cacheBytes.length == 0){
+			svcLog.warn(Log4jUtil.getCallLocation() + " empty value for key: " + cacheKey);
+			return false;
+		}
+		if(cacheValue.expireTimeSeconds <= 0){
+			svcLog.warn(Log4jUtil.getCallLocation() + " too small expire time for key: " + cacheKey);
+			return false;
+		} else if (cacheValue.expireTimeSeconds > CacheStorageService.MAX_EXPIRE_SECONDS){
+			svcLog.warn(Log4jUtil.getCallLocation() + " too high expire time for key: " + cacheKey);
+			return false;
+		}
+		return true;
+	}
+
+
+	public byte[] getCacheBytes() {
+		return cacheBytes;
+	}
+
+	public int getExpireTimeSeconds() {
+		return expireTimeSeconds;
+	}
+}
@@ -0,0 +1,251 @@
+package org.zhuduan.cache.storage;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.apache.log4j.Logger;
+import org.zhuduan.utils.CacheException;
+import org.zhuduan.utils.Log4jUtil;
+
+/***
+ *
+ * 本地实现中incrCacheKey使用的计数器（作为缓存的值保存，和其它缓存一样过期和淘汰）
+ * 		1.没有竞争时只CAS一个base字段；CAS失败（出现竞争）后才创建2个按线程分段的cells，之后每个线程只修改自己的分段
+ * 		  分段上的CAS再失败时分段个数翻倍（最多STRIPE_NUM个，和LongAdder一样），没有竞争的计数器不会占用分段的内存
+ * 		  每个分段独占一个缓存行（PADDING个long），避免多核之间的伪共享，热点计数器也可以随核数扩展
+ * 		2.计数器的值为base和所有分段的和：并发修改时返回的只是一个近似的快照，但是最终的值是准确的
+ * 		3.drain()返回上次drain之后累加的增量，用于批量同步到Redis等远程实现（flush）
+ * 		4.sizeOf()返回按已经创建的分段估算的字节数；计入缓存容量的是写入缓存时的大小（weighedSize()），保证写入和删除时加减的值一致
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月4日
+ *
+ */
+public final class CacheCounter {
+
+	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
+
+	private static final int		PADDING			=	16;					// 每个分段占用的long个数（128字节，相邻的缓存行预取也不会伪共享）
+
+	private static final int		STRIPE_NUM		=	Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), 64) * 2 - 1);
+
+	private static final int		INITIAL_STRIPE_NUM	=	Math.min(2, STRIPE_NUM);	// 第一次出现竞争时创建的分段个数
+
+	private static final int		VALUE_INDEX		=	PADDING / 2;		// 分段的值在缓存行中的位置（前后都是填充）
+
+	private static final int		SHALLOW_SIZE	=	48;					// 对象本身的字节数（对象头12 + int 4 + long 8 * 3 + 引用4，按8字节对齐）
+
+	private static final int		CELL_SIZE		=	16 + 16 + PADDING * 8;	// 一个分段的字节数（AtomicLongArray + long[]）
+
+	private static final AtomicLongFieldUpdater<CacheCounter>	BASE_UPDATER	=	AtomicLongFieldUpdater.newUpdater(CacheCounter.class, "base");
+
+	private final int				expireTimeSeconds;					// 创建时的过期时间（flush到远程实现时使用）
+
+	private volatile long			base;								// 没有竞争时直接累加的值
+
+	private volatile AtomicLongArray[]	cells;							// 出现竞争后按线程分段累加的值（个数为2的幂）
+
+	private long					drainedValue;						// 已经drain的值（只在drain中修改）
+
+	private volatile long			weighedSize		=	-1L;				// 写入缓存时计入容量的字节数
+
+
+	/***
+	 *
+	 * @param expireTimeSeconds 过期时间, 单位秒
+	 */
+	public CacheCounter(int expireTimeSeconds) {
+		this.expireTimeSeconds = expireTimeSeconds;
+	}
+
+
+	/***
+	 * 累加
+	 *
+	 * @param delta
+	 * @return 累加后的值（并发时为近似值）
+	 */
+	public long add(long delta) {
+		AtomicLongArray[] currentCells = cells;
+		if (currentCells == null) {
+			final long currentBase = base;
+			if (BASE_UPDATER.compareAndSet(this, currentBase, currentBase + delta)) {
+				return currentBase + delta;
+			}
+			// 出现竞争，之后都在分段上累加
+			currentCells = initialCells();
+		}
+		final int hash = hashOf(Thread.currentThread().getId());
+		final AtomicLongArray cell = currentCells[hash & (currentCells.length - 1)];
+		final long currentValue = cell.get(VALUE_INDEX);
+		if (!cell.compareAndSet(VALUE_INDEX, currentValue, currentValue + delta)) {
+			// 分段上也出现竞争，分段个数翻倍后累加到新的分段上
+			currentCells = growCells(currentCells);
+			currentCells[hash & (currentCells.length - 1)].getAndAdd(VALUE_INDEX, delta);
+		}
+		return sum();
+	}
+
+
+	/***
+	 * 当前的值
+	 *
+	 * @return
+	 */
+	public long sum() {
+		long sum = base;
+		final AtomicLongArray[] currentCells = cells;
+		if (currentCells != null) {
+			for (AtomicLongArray cell : currentCells) {
+				sum += cell.get(VALUE_INDEX);
+			}
+		}
+		return sum;
+	}
+
+
+	/***
+	 * 获取上次drain之后累加的增量
+	 * 分段只增不减，因此这次没有读到的并发累加会在下次drain时返回，不会重复也不会丢失
+	 *
+	 * @return
+	 */
+	public synchronized long drain() {
+		final long value = sum();
+		final long delta = value - drainedValue;
+		drainedValue = value;
+		return delta;
+	}
+
+
+	/***
+	 * 同步失败时归还drain的增量（下次drain时重新返回）
+	 *
+	 * @param delta
+	 */
+	public synchronized void undrain(long delta) {
+		drainedValue -= delta;
+	}
+
+
+	public int getExpireTimeSeconds() {
+		return expireTimeSeconds;
+	}
+
+
+	/***
+	 * 估算的字节数（按已经创建的分段计算）
+	 *
+	 * @return
+	 */
+	public long sizeOf() {
+		final AtomicLongArray[] currentCells = cells;
+		if (currentCells == null) {
+			return SHALLOW_SIZE;
+		}
+		return SHALLOW_SIZE + ((16 + currentCells.length * 4 + 7) & ~7) + (long) currentCells.length * CELL_SIZE;
+	}
+
+
+	/***
+	 * 计入缓存容量的字节数：第一次调用（写入缓存时）的sizeOf()，之后分段增加也不再变化
+	 * 		缓存在写入时加上、删除时减去这个值，两次的值必须一致
+	 *
+	 * @return
+	 */
+	public long weighedSize() {
+		long size = weighedSize;
+		if (size < 0L) {
+			synchronized (this) {
+				size = weighedSize;
+				if (size < 0L) {
+					size = sizeOf();
+					weighedSize = size;
+				}
+			}
+		}
+		return size;
+	}
+
+
+	@Override
+	public String toString() {
+		return String.valueOf(sum());
+	}
+
+
+	/***
+	 * 把计数器的增量批量同步到远程实现（如Redis）
+	 * 每个计数器只调用一次incrCacheKey（本地累加了多少次都只同步一次增量）
+	 * 抛出异常或者返回null都当作同步失败（Redis等FailureReportingCacheStorageService使用出错时抛出异常的incrCacheKeyOrThrow），失败的增量归还给计数器，下次flush时重试
+	 *
+	 * @param counters 需要同步的计数器
+	 * @param targetStorageService 同步的目标实现
+	 * @return 同步成功的计数器个数
+	 */
+	public static int flush(Map<String, CacheCounter> counters, CacheStorageService targetStorageService) {
+		int count = 0;
+		for (Map.Entry<String, CacheCounter> entry : counters.entrySet()) {
+			final CacheCounter counter = entry.getValue();
+			final long delta = counter.drain();
+			if (delta == 0L) {
+				continue;
+			}
+			try {
+				if (incr(targetStorageService, entry.getKey(), delta, counter.getExpireTimeSeconds()) != null) {
+					count++;
+					continue;
+				}
+			} catch (Exception exception) {
+				// 防止缓存崩溃,影响主业务逻辑
+				sysLog.error(Log4jUtil.getCallLocation() + " flush counter fail for key: " + entry.getKey() + " , " + exception.getMessage());
+			}
+			counter.undrain(delta);
+		}
+		return count;
+	}
+
+
+	// 同步一个增量：能报告失败的实现（如Redis）使用出错时抛出异常的自增（incrCacheKey出错时返回0，会被当作同步成功）
+	static Long incr(CacheStorageService targetStorageService, String cacheKey, long delta, int expireTimeSeconds) throws CacheException {
+		if (targetStorageService instanceof FailureReportingCacheStorageService) {
+			return ((FailureReportingCacheStorageService) targetStorageService).incrCacheKeyOrThrow(cacheKey, delta, expireTimeSeconds);
+		}
+		return targetStorageService.incrCacheKey(cacheKey, delta, expireTimeSeconds);
+	}
+
+
+	// 按线程id选择分段的hash（和分段个数-1按位与得到分段）
+	private static int hashOf(long threadId) {
+		final int hash = (int) (threadId ^ (threadId >>> 32)) * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+
+	private synchronized AtomicLongArray[] initialCells() {
+		if (cells == null) {
+			final AtomicLongArray[] newCells = new AtomicLongArray[INITIAL_STRIPE_NUM];
+			for (int i=0; i<newCells.length; i++) {
+				newCells[i] = new AtomicLongArray(PADDING);
+			}
+			cells = newCells;
+		}
+		return cells;
+	}
+
+
+	// 分段个数翻倍：已有的分段原样保留（只复制引用，不会丢失并发的累加），其它线程已经扩容时直接使用新的分段
+	private synchronized AtomicLongArray[] growCells(AtomicLongArray[] currentCells) {
+		if (cells == currentCells && currentCells.length < STRIPE_NUM) {
+			final AtomicLongArray[] newCells = Arrays.copyOf(currentCells, currentCells.length * 2);
+			for (int i=currentCells.length; i<newCells.length; i++) {
+				newCells[i] = new AtomicLongArray(PADDING);
+			}
+			cells = newCells;
+		}
+		return cells;
+	}
+}
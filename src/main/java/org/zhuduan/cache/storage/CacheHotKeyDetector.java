@@ -0,0 +1,302 @@
+package org.zhuduan.cache.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.zhuduan.config.SimpleCacheConfig;
+
+/***
+ *
+ * 热点key的统计（按时间窗口的Count-Min Sketch + Space-Saving的top-K）
+ * 		1.每次访问在Count-Min Sketch中累加（每个key对应4个计数器，估计值取最小值），每个窗口开始时所有计数器减半，历史的访问逐渐衰减
+ * 		2.估计值超过top-K中最小计数的key进入top-K，替换掉计数最小的key（Space-Saving）
+ * 		  只有替换时需要加锁，已经在top-K中的key只更新自己的计数
+ * 		3.一个窗口内新增的访问次数达到hotThreshold的key为热点，热点状态保持到下一个窗口结束
+ * 		4.getHotKeys()返回top-K的key、当前窗口的计数和每秒的访问次数
+ *
+ * 注意：为了不在每次访问时加锁或者CAS，计数器的累加没有同步，并发时计数会略微偏少（只用于判断热点，不需要精确）
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月21日
+ *
+ */
+public final class CacheHotKeyDetector {
+
+	private static final long[]		SEEDS		=	{0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+	private static final int		DEPTH		=	SEEDS.length;
+
+	private final int				width;								// 每一行计数器的个数（2的幂）
+
+	private final int				topK;								// 统计的热点key个数
+
+	private final int				hotThreshold;						// 一个窗口内达到该访问次数的key为热点
+
+	private final long				windowMillis;						// 统计窗口的毫秒数
+
+	private final int[]				table;								// 计数器（DEPTH行，每行width个）
+
+	private volatile long			windowStartMillis;					// 当前窗口的开始时间
+
+	private final AtomicBoolean		rotating		=	new AtomicBoolean(false);
+
+	private final ConcurrentHashMap<String, HotKey>	topKeys	=	new ConcurrentHashMap<>();	// Space-Saving的top-K
+
+	private volatile int			admitCount		=	1;				// 进入top-K需要超过的估计值（top-K满时为其中的最小计数）
+
+
+	public CacheHotKeyDetector() {
+		this(SimpleCacheConfig.HOT_KEY_SKETCH_WIDTH, SimpleCacheConfig.HOT_KEY_TOP_K,
+			SimpleCacheConfig.HOT_KEY_THRESHOLD, SimpleCacheConfig.HOT_KEY_WINDOW_MILLIS);
+	}
+
+
+	/***
+	 *
+	 * @param width 每一行计数器的个数（向上取2的幂）
+	 * @param topK 统计的热点key个数
+	 * @param hotThreshold 一个窗口内达到该访问次数的key为热点
+	 * @param windowMillis 统计窗口的毫秒数
+	 */
+	public CacheHotKeyDetector(int width, int topK, int hotThreshold, long windowMillis) {
+		this.width = 1 << (32 - Integer.numberOfLeadingZeros(Math.max(width, 16) - 1));
+		this.topK = Math.max(topK, 1);
+		this.hotThreshold = Math.max(hotThreshold, 1);
+		this.windowMillis = Math.max(windowMillis, 1L);
+		this.table = new int[DEPTH * this.width];
+		this.windowStartMillis = System.currentTimeMillis();
+	}
+
+
+	/***
+	 * 记录一次key的访问
+	 *
+	 * @param cacheKey
+	 */
+	public void record(String cacheKey) {
+		if (cacheKey == null) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		if (now - windowStartMillis >= windowMillis) {
+			rotate(now);
+		}
+
+		// Count-Min Sketch累加，估计值取最小值
+		final int[] counters = table;
+		final int hash = spread(cacheKey.hashCode());
+		int estimate = Integer.MAX_VALUE;
+		for (int i=0; i<DEPTH; i++) {
+			final int index = i * width + indexOf(hash, i);
+			final int count = counters[index] + 1;
+			counters[index] = count;
+			estimate = Math.min(estimate, count);
+		}
+
+		// 已经在top-K中的key只更新自己的计数
+		final HotKey hotKey = topKeys.get(cacheKey);
+		if (hotKey != null) {
+			hotKey.update(estimate, hotThreshold);
+		} else if (estimate > admitCount) {
+			admit(cacheKey, estimate);
+		}
+	}
+
+
+	/***
+	 * 是否是热点key（当前窗口或者上一个窗口的访问次数达到hotThreshold）
+	 *
+	 * @param cacheKey
+	 * @return
+	 */
+	public boolean isHot(String cacheKey) {
+		final HotKey hotKey = (cacheKey == null) ? null : topKeys.get(cacheKey);
+		return hotKey != null && hotKey.hot;
+	}
+
+
+	/***
+	 * 当前top-K的key，按每秒的访问次数从大到小排序
+	 *
+	 * @return 快照
+	 */
+	public List<HotKey> getHotKeys() {
+		final long elapsedMillis = Math.max(System.currentTimeMillis() - windowStartMillis, 1L);
+		final List<HotKey> hotKeys = new ArrayList<>(topKeys.size());
+		for (HotKey hotKey : topKeys.values()) {
+			final double currentRate = (hotKey.count - hotKey.base) * 1000.0D / Math.min(elapsedMillis, windowMillis);
+			hotKeys.add(new HotKey(hotKey.key, hotKey.count - hotKey.base, Math.max(hotKey.rate, currentRate), hotKey.hot));
+		}
+		Collections.sort(hotKeys, new Comparator<HotKey>() {
+			@Override
+			public int compare(HotKey hotKey1, HotKey hotKey2) {
+				return Double.compare(hotKey2.rate, hotKey1.rate);
+			}
+		});
+		return hotKeys;
+	}
+
+
+	// 估计值超过top-K中的最小计数时替换（Space-Saving）
+	private synchronized void admit(String cacheKey, int estimate) {
+		if (topKeys.containsKey(cacheKey)) {
+			return;
+		}
+		if (topKeys.size() >= topK) {
+			HotKey minKey = null;
+			for (HotKey hotKey : topKeys.values()) {
+				if (minKey == null || hotKey.count < minKey.count || (hotKey.count == minKey.count && hotKey.rate < minKey.rate)) {
+					minKey = hotKey;
+				}
+			}
+			if (minKey.count >= estimate) {
+				admitCount = minKey.count;
+				return;
+			}
+			topKeys.remove(minKey.key);
+		}
+		final HotKey hotKey = new HotKey(cacheKey, 0, 0.0D, false);
+		hotKey.update(estimate, hotThreshold);
+		topKeys.put(cacheKey, hotKey);
+		if (topKeys.size() >= topK) {
+			admitCount = minCount();
+		}
+	}
+
+
+	// 开始新的窗口：计数器减半（空闲了多个窗口时每个窗口减半一次），top-K记录上一个窗口的访问速度和热点状态
+	void rotate(long now) {
+		if (!rotating.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			final long elapsedMillis = now - windowStartMillis;
+			if (elapsedMillis < windowMillis) {
+				return;
+			}
+			final int shift = (int) Math.min(elapsedMillis / windowMillis, 31L);
+			for (int i=0; i<table.length; i++) {
+				table[i] = table[i] >>> shift;
+			}
+			synchronized (this) {
+				for (HotKey hotKey : topKeys.values()) {
+					final int windowCount = hotKey.count - hotKey.base;
+					hotKey.rate = windowCount * 1000.0D / elapsedMillis;
+					hotKey.hot = windowCount >= hotThreshold && shift == 1;
+					hotKey.count = hotKey.count >>> shift;
+					hotKey.base = hotKey.count;
+				}
+				admitCount = (topKeys.size() >= topK) ? minCount() : 1;
+			}
+			windowStartMillis = now;
+		} finally {
+			rotating.set(false);
+		}
+	}
+
+
+	// top-K中的最小计数
+	private int minCount() {
+		int minCount = Integer.MAX_VALUE;
+		for (HotKey hotKey : topKeys.values()) {
+			minCount = Math.min(minCount, hotKey.count);
+		}
+		return minCount;
+	}
+
+
+	private int indexOf(int hash, int i) {
+		long index = (hash + SEEDS[i]) * SEEDS[i];
+		index += index >>> 32;
+		return ((int) index) & (width - 1);
+	}
+
+
+	private static int spread(int hash) {
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		return (hash >>> 16) ^ hash;
+	}
+
+
+	public int getTopK() {
+		return topK;
+	}
+
+
+	@Override
+	public String toString() {
+		return "CacheHotKeyDetector [topK=" + topK + ", hotThreshold=" + hotThreshold + ", windowMillis=" + windowMillis
+				+ ", tracked=" + topKeys.size() + "]";
+	}
+
+
+	/***
+	 *
+	 * top-K中的一个key
+	 *
+	 */
+	public static final class HotKey {
+
+		private final String		key;
+
+		private volatile int		count;				// 衰减后的访问次数（估计值）
+
+		private volatile int		base;				// 当前窗口开始时的count
+
+		private volatile double		rate;				// 每秒的访问次数（上一个窗口，快照中为两个窗口中较大的值）
+
+		private volatile boolean	hot;				// 是否是热点
+
+
+		HotKey(String key, int count, double rate, boolean hot) {
+			this.key = key;
+			this.count = count;
+			this.rate = rate;
+			this.hot = hot;
+		}
+
+
+		// 更新计数，当前窗口新增的访问次数达到阈值时成为热点
+		private void update(int estimate, int hotThreshold) {
+			if (estimate > count) {
+				count = estimate;
+			}
+			if (!hot && count - base >= hotThreshold) {
+				hot = true;
+			}
+		}
+
+
+		public String getKey() {
+			return key;
+		}
+
+		/***
+		 * 当前窗口的访问次数（估计值）
+		 * 
+		 * @return
+		 */
+		public int getCount() {
+			return count - base;
+		}
+
+		public double getRate() {
+			return rate;
+		}
+
+		public boolean isHot() {
+			return hot;
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + String.format("%.1f", rate) + "/s" + (hot ? "(hot)" : "");
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package org.zhuduan.cache.storage;
+
+import java.util.Collection;
+
+/***
+ *
+ * 多个节点之间广播缓存失效消息的通道（如Redis的pub/sub）
+ * 用于近端缓存：每个节点在远程缓存前面有一层本地缓存，某个节点写入或者删除key时通知其它节点删除本地的旧值
+ * 		1.消息是尽力送达的：发送失败或者订阅断开期间的消息会丢失，因此本地缓存仍需要较短的过期时间兜底
+ * 		2.订阅断开后重新订阅成功时会调用Listener.onInvalidateAll，由本地缓存自行清空
+ * 		3.节点自己发送的消息不会回调自己的Listener
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月20日
+ *
+ */
+public interface CacheInvalidationBus {
+
+    /**
+     * 广播一批key失效（失败时只记录日志，不影响主流程）
+     *
+     * @param cacheKeys
+     */
+    void publish(Collection<String> cacheKeys);
+
+
+    /**
+     * 注册接收其它节点失效消息的Listener（第一次注册时开始订阅）
+     *
+     * @param listener
+     */
+    void subscribe(Listener listener);
+
+
+    /**
+     * 停止订阅
+     *
+     */
+    void close();
+
+
+    /***
+     *
+     * 接收失效消息（在订阅线程中回调，需要尽快返回）
+     *
+     */
+    interface Listener {
+
+    	/***
+    	 * 其它节点写入或者删除了这些key
+    	 *
+    	 * @param cacheKeys
+    	 */
+    	void onInvalidate(Collection<String> cacheKeys);
+
+
+    	/***
+    	 * 订阅断开后重新订阅成功（期间的消息可能已经丢失）
+    	 *
+    	 */
+    	void onInvalidateAll();
+    }
+}
@@ -0,0 +1,186 @@
+package org.zhuduan.cache.storage;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.apache.log4j.Logger;
+import org.zhuduan.config.SimpleCacheConfig;
+import org.zhuduan.utils.Log4jUtil;
+
+/***
+ *
+ * 堆内存压力的监控：本地缓存不再使用SoftReference，内存紧张时由这里通知各个本地实现主动释放一部分缓存
+ * 		1.对支持阈值的堆内存池（一般为老年代）设置CollectionUsageThreshold（最大值的MEMORY_PRESSURE_THRESHOLD_RATIO）
+ * 		  GC之后使用量仍然超过阈值时，JVM发出通知，此时按注册顺序调用所有的Listener
+ * 		2.每个Listener按自己的淘汰顺序释放MEMORY_PRESSURE_SHED_RATIO比例的缓存
+ * 		3.使用GC之后的使用量判断，避免把还没有回收的垃圾当作压力
+ *
+ * 注意：通知在JMX的通知线程中执行，Listener中不能有耗时太长的操作
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月3日
+ *
+ */
+public final class CacheMemoryPressureMonitor {
+
+	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
+	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志
+
+	private volatile static CacheMemoryPressureMonitor INSTANCE; 			// 声明成 volatile 的实例
+
+	private final List<Listener>	listeners		=	new CopyOnWriteArrayList<>();
+
+	private final AtomicLong		pressureCount	=	new AtomicLong();	// 收到内存压力通知的次数
+
+	private final AtomicLong		shedCount		=	new AtomicLong();	// 因为内存压力释放的缓存个数
+
+	private volatile boolean		isMonitoring;						// 是否找到了可以监控的内存池
+
+
+	/***
+	 * 通过单例模式来获取CacheMemoryPressureMonitor的实例（第一次获取时开始监控）
+	 *
+	 * @return
+	 */
+	public static CacheMemoryPressureMonitor getInstance() {
+		// 二重锁检验，来防止多线程导致的线程安全问题
+		if (INSTANCE == null) {
+			synchronized (CacheMemoryPressureMonitor.class) {
+				if (INSTANCE == null) {
+					INSTANCE = new CacheMemoryPressureMonitor();
+				}
+			}
+		}
+		return INSTANCE;
+	}
+
+
+	/***
+	 * 注册内存紧张时需要释放缓存的Listener
+	 *
+	 * @param listener
+	 */
+	public void addListener(Listener listener) {
+		if (listener != null) {
+			listeners.add(listener);
+		}
+	}
+
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+
+	/***
+	 * 通知所有的Listener按比例释放缓存（JVM发出通知时调用，也可以手动调用）
+	 *
+	 * @param ratio 需要释放的比例(0,1]
+	 * @return 释放的缓存个数
+	 */
+	public long shed(double ratio) {
+		long count = 0L;
+		for (Listener listener : listeners) {
+			try {
+				count += listener.onMemoryPressure(ratio);
+			} catch (Exception exception) {
+				// 一个Listener出错不影响其它的Listener
+				sysLog.error(Log4jUtil.getCallLocation() + " memory pressure listener fail for : " + exception.getMessage());
+			}
+		}
+		shedCount.addAndGet(count);
+		return count;
+	}
+
+
+	public long getPressureCount() {
+		return pressureCount.get();
+	}
+
+
+	public long getShedCount() {
+		return shedCount.get();
+	}
+
+
+	// 当前注册的Listener个数
+	public int getListenerCount() {
+		return listeners.size();
+	}
+
+
+	public boolean isMonitoring() {
+		return isMonitoring;
+	}
+
+
+	// 收到GC之后使用量超过阈值的通知
+	private void onNotification(Notification notification) {
+		if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+			return;
+		}
+		pressureCount.incrementAndGet();
+		final long count = shed(SimpleCacheConfig.MEMORY_PRESSURE_SHED_RATIO);
+		svcLog.warn("heap memory pressure, shed cache num : " + count);
+	}
+
+
+	/***
+	 * 私有的构造器：为支持阈值的堆内存池设置阈值，并注册通知
+	 *
+	 */
+	private CacheMemoryPressureMonitor() {
+		for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (memoryPool.getType() != MemoryType.HEAP || !memoryPool.isCollectionUsageThresholdSupported()
+					|| !memoryPool.isUsageThresholdSupported()) {
+				// 只监控老年代（新生代的使用量随时都可能很高，不能作为压力的判断）
+				continue;
+			}
+			final MemoryUsage usage = memoryPool.getUsage();
+			if (usage == null || usage.getMax() <= 0L) {
+				continue;
+			}
+			memoryPool.setCollectionUsageThreshold((long) (usage.getMax() * SimpleCacheConfig.MEMORY_PRESSURE_THRESHOLD_RATIO));
+			isMonitoring = true;
+			svcLog.info("monitor memory pool " + memoryPool.getName() + " with threshold " + memoryPool.getCollectionUsageThreshold());
+		}
+		if (isMonitoring) {
+			((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(new NotificationListener() {
+				@Override
+				public void handleNotification(Notification notification, Object handback) {
+					onNotification(notification);
+				}
+			}, null, null);
+		} else {
+			svcLog.warn("no heap memory pool supports usage threshold, memory pressure monitor disabled");
+		}
+	}
+
+
+	/***
+	 *
+	 * 内存紧张时释放缓存的回调
+	 *
+	 */
+	public interface Listener {
+
+		/***
+		 * 按比例释放缓存
+		 *
+		 * @param ratio 需要释放的比例(0,1]
+		 * @return 释放的缓存个数
+		 */
+		long onMemoryPressure(double ratio);
+	}
+}
@@ -1,5 +1,8 @@
 package org.zhuduan.cache.storage;
 
+import java.util.Collection;
+import java.util.Map;
+
 import org.zhuduan.utils.CacheException;
 
 /***
@@ -40,6 +43,26 @@ public interface CacheStorageService {
     Boolean setCache(String cacheKey, String cacheValue, int expireTimeSeconds);
     
     
+    /**
+     * 获取二进制的缓存
+     * 
+     * @param cacheKey
+     * @return
+     */
+    byte[] getCacheBytes(String cacheKey);
+    
+    
+    /**
+     * 设置二进制的缓存, 返回true成功, false失败!
+     * 
+     * @param cacheKey
+     * @param cacheBytes
+     * @param expireTimeSeconds 过期时间, 单位秒!
+     * @return
+     */
+    Boolean setCacheBytes(String cacheKey, byte[] cacheBytes, int expireTimeSeconds);
+    
+    
     /**
      * 检查KEY是否存在
      * 
@@ -58,6 +81,35 @@ public interface CacheStorageService {
     Boolean deleteCache(String cacheKey);
 
     
+    /**
+     * 批量获取二进制的缓存
+     * 单个key的语义和getCacheBytes一致，各个实现使用自己的批量方式（如Redis按slot分组的MGET）
+     * 
+     * @param cacheKeys
+     * @return 命中的key和值（不存在、已过期的key不在结果中）, 出错时返回空的Map
+     */
+    Map<String, byte[]> getAll(Collection<String> cacheKeys);
+    
+    
+    /**
+     * 批量设置二进制的缓存（每个值有自己的过期时间）, 全部成功时返回true!
+     * 单个key的语义和setCacheBytes一致：不合法的值不会写入，其它的值照常写入
+     * 
+     * @param cacheValues key和对应的值
+     * @return
+     */
+    Boolean setAll(Map<String, CacheBatchValue> cacheValues);
+    
+    
+    /**
+     * 批量删除cacheKey, 全部成功时返回true!
+     * 
+     * @param cacheKeys
+     * @return
+     */
+    Boolean deleteAll(Collection<String> cacheKeys);
+
+    
     /**
      * 以step步长, cacheKey的自增, 过期时间为expireTimeSeconds秒
      * 
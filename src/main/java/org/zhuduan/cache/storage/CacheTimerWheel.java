@@ -0,0 +1,262 @@
+package org.zhuduan.cache.storage;
+
+/***
+ *
+ * 分层时间轮：用于本地缓存的过期清理，每个元素的调度、取消和到期处理都是O(1)的（分摊）
+ * 		1.共5层，每层的一个格子分别约为1秒、65秒、70分钟、18.6小时、6.2天（都是2的幂次毫秒数）
+ * 		  第0层64格(约65秒)，第1层64格(约70分钟)，第2层16格(约18.6小时)，第3层8格(约6.2天)，第4层只有1格，保存更久之后过期的元素
+ * 		2.元素按距离过期的时间放入对应层的格子，时间推进时处理走过的格子：
+ * 		  已经过期的元素交给ExpireListener处理，没有过期的（高层的格子精度较低）重新放入更低层的格子
+ * 		3.因此元素会在过期后最多约1秒（第0层的精度 + 推进的间隔）内被处理
+ *
+ * 注意：不是线程安全的，调用方需要自己加锁
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月26日
+ *
+ */
+public final class CacheTimerWheel<K> {
+
+	private static final int[]	BUCKETS		=	{64, 64, 16, 8, 1};
+
+	private static final long[]	SPANS		=	{
+		1L << 10,			// 1.02秒
+		1L << 16,			// 65.5秒
+		1L << 22,			// 69.9分钟
+		1L << 26,			// 18.6小时
+		1L << 29,			// 6.2天
+		1L << 29			// 第4层只有1格，和上一层相同
+	};
+
+	private static final int[]	SHIFT		=	{10, 16, 22, 26, 29};
+
+	private final Timer<K>[][]	wheel;					// 每个格子是一个双向循环链表的头节点
+
+	private long				currentTime;			// 上一次推进到的时间(毫秒)
+
+	private long				size;					// 时间轮中的元素个数
+
+
+	/***
+	 *
+	 * @param currentTime 当前时间(毫秒)
+	 */
+	@SuppressWarnings("unchecked")
+	public CacheTimerWheel(long currentTime) {
+		this.currentTime = currentTime;
+		this.wheel = (Timer<K>[][]) new Timer<?>[BUCKETS.length][];
+		for (int i=0; i<BUCKETS.length; i++) {
+			wheel[i] = (Timer<K>[]) new Timer<?>[BUCKETS[i]];
+			for (int j=0; j<BUCKETS[i]; j++) {
+				wheel[i][j] = new Timer<>(null, 0L);
+			}
+		}
+	}
+
+
+	/***
+	 * 添加一个在expireTime过期的元素
+	 *
+	 * @param key
+	 * @param expireTime 过期时间(毫秒)
+	 * @return 用于之后重新调度或者取消的句柄
+	 */
+	public Timer<K> schedule(K key, long expireTime) {
+		final Timer<K> timer = new Timer<>(key, expireTime);
+		link(findBucket(expireTime), timer);
+		size++;
+		return timer;
+	}
+
+
+	/***
+	 * 修改元素的过期时间
+	 *
+	 * @param timer
+	 * @param expireTime 新的过期时间(毫秒)
+	 */
+	public void reschedule(Timer<K> timer, long expireTime) {
+		if (timer.next == null) {
+			// 已经被取消或者处理过，不再调度
+			return;
+		}
+		unlink(timer);
+		timer.expireTime = expireTime;
+		link(findBucket(expireTime), timer);
+	}
+
+
+	/***
+	 * 取消元素的调度（元素被删除时调用）
+	 *
+	 * @param timer
+	 */
+	public void cancel(Timer<K> timer) {
+		if (timer != null && timer.next != null) {
+			unlink(timer);
+			size--;
+		}
+	}
+
+
+	/***
+	 * 推进时间轮到当前时间，处理所有已经过期的元素
+	 *
+	 * @param now 当前时间(毫秒)
+	 * @param listener 元素过期时的回调
+	 * @return 本次被处理为过期的元素个数
+	 */
+	public int advance(long now, ExpireListener<K> listener) {
+		final long previousTime = currentTime;
+		currentTime = now;
+		int expiredCount = 0;
+		for (int i=0; i<SHIFT.length; i++) {
+			final long previousTicks = previousTime >>> SHIFT[i];
+			final long currentTicks = now >>> SHIFT[i];
+			if (currentTicks - previousTicks <= 0L) {
+				// 低层没有走过一格时，高层更不会
+				break;
+			}
+			expiredCount += expire(i, previousTicks, currentTicks - previousTicks, listener);
+		}
+		return expiredCount;
+	}
+
+
+	public long size() {
+		return size;
+	}
+
+
+	// 处理第index层中走过的格子
+	private int expire(int index, long previousTicks, long deltaTicks, ExpireListener<K> listener) {
+		final Timer<K>[] timerWheel = wheel[index];
+		final int mask = timerWheel.length - 1;
+		// 走过的格子和当前的格子：当前格子中的元素还没有到期，但是剩余时间已经小于这一层的精度，需要放入更低层
+		final int steps = (int) Math.min(deltaTicks + 1, timerWheel.length);
+		final int start = (int) (previousTicks & mask);
+		final int end = start + steps;
+
+		int expiredCount = 0;
+		for (int i=start; i<end; i++) {
+			final Timer<K> sentinel = timerWheel[i & mask];
+			if (sentinel.next == sentinel) {
+				continue;
+			}
+			// 先把整个格子摘下来，避免重新调度的元素又回到这个格子里被重复处理
+			Timer<K> timer = sentinel.next;
+			sentinel.prev.next = null;
+			sentinel.prev = sentinel;
+			sentinel.next = sentinel;
+
+			while (timer != null) {
+				final Timer<K> next = timer.next;
+				timer.prev = null;
+				timer.next = null;
+				if (timer.expireTime - currentTime > 0L) {
+					// 还没有到期（高层的格子精度较低），放入更低层的格子
+					link(findBucket(timer.expireTime), timer);
+				} else {
+					final long actualExpireTime = listener.onExpire(timer.key, currentTime);
+					if (actualExpireTime - currentTime > 0L) {
+						// 过期时间已经被延长，重新调度
+						timer.expireTime = actualExpireTime;
+						link(findBucket(actualExpireTime), timer);
+					} else {
+						size--;
+						expiredCount++;
+					}
+				}
+				timer = next;
+			}
+		}
+		return expiredCount;
+	}
+
+
+	// 按距离过期的时间选择层，按过期时间选择格子
+	// 已经过期的元素放入当前的格子，下一次推进时处理
+	private Timer<K> findBucket(long expireTime) {
+		final long time = Math.max(expireTime, currentTime);
+		final long duration = time - currentTime;
+		final int length = wheel.length - 1;
+		for (int i=0; i<length; i++) {
+			if (duration < SPANS[i + 1]) {
+				final long ticks = time >>> SHIFT[i];
+				return wheel[i][(int) (ticks & (wheel[i].length - 1))];
+			}
+		}
+		return wheel[length][0];
+	}
+
+
+	// 加到格子的末尾
+	private static <K> void link(Timer<K> sentinel, Timer<K> timer) {
+		timer.prev = sentinel.prev;
+		timer.next = sentinel;
+		sentinel.prev.next = timer;
+		sentinel.prev = timer;
+	}
+
+
+	private static <K> void unlink(Timer<K> timer) {
+		timer.prev.next = timer.next;
+		timer.next.prev = timer.prev;
+		timer.prev = null;
+		timer.next = null;
+	}
+
+
+	/***
+	 *
+	 * 时间轮中的一个元素
+	 *
+	 */
+	public static final class Timer<K> {
+
+		private final K		key;
+
+		private long		expireTime;			// 过期时间(毫秒)
+
+		private Timer<K>	prev;
+
+		private Timer<K>	next;				// 为null时表示不在时间轮中
+
+		private Timer(K key, long expireTime) {
+			this.key = key;
+			this.expireTime = expireTime;
+			// 头节点指向自己
+			if (key == null) {
+				this.prev = this;
+				this.next = this;
+			}
+		}
+
+		public K getKey() {
+			return key;
+		}
+
+		public long getExpireTime() {
+			return expireTime;
+		}
+	}
+
+
+	/***
+	 *
+	 * 元素到期时的回调
+	 *
+	 */
+	public interface ExpireListener<K> {
+
+		/***
+		 * 处理到期的元素
+		 *
+		 * @param key
+		 * @param now 当前时间(毫秒)
+		 * @return 元素实际的过期时间：晚于now时重新调度（比如过期时间被延长了），否则认为已经过期并从时间轮中移除
+		 */
+		long onExpire(K key, long now);
+	}
+}
@@ -0,0 +1,266 @@
+package org.zhuduan.cache.storage;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/***
+ *
+ * 估算本地缓存中一条数据占用的堆内存字节数（用于按字节数限制本地缓存的容量）
+ * 		1.按64位JVM、开启压缩指针估算：对象头12字节、引用4字节、按8字节对齐
+ * 		2.byte[]和String直接按长度计算；直接保存的对象（LocalCacheStorageService）通过反射遍历字段估算
+ * 		  JDK的集合类通过迭代元素估算，遍历的对象个数超过MAX_VISIT_OBJECTS时按已遍历部分的平均大小推算
+ * 		3.incrCacheKey的计数器（CacheCounter）按写入缓存时的大小计算（CacheCounter.weighedSize()，之后分段增加也不变）
+ * 		4.ENTRY_OVERHEAD为每条数据在Map、淘汰策略和时间轮中的节点的固定开销
+ *
+ * 注意：只是估算值，和实际占用会有一定的偏差（不计算被多个缓存共享的对象）
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月2日
+ *
+ */
+public final class CacheWeigher {
+
+	public static final int		ENTRY_OVERHEAD			=	128;		// 每条数据的固定开销（Map节点、淘汰策略的节点、时间轮的节点）
+
+	private static final int	OBJECT_HEADER			=	12;
+	private static final int	ARRAY_HEADER			=	16;
+	private static final int	REFERENCE_SIZE			=	4;
+	private static final int	STRING_SHALLOW_SIZE		=	24;
+
+	private static final int	MAX_VISIT_OBJECTS		=	10000;		// 估算一个对象时最多遍历的对象个数
+
+	private static final ConcurrentHashMap<Class<?>, ClassLayout>	LAYOUTS	=	new ConcurrentHashMap<>();
+
+
+	private CacheWeigher() {
+	}
+
+
+	/***
+	 * 二进制值的权重
+	 *
+	 * @param cacheKey
+	 * @param cacheBytes
+	 * @return 字节数
+	 */
+	public static int weigh(String cacheKey, byte[] cacheBytes) {
+		return clamp(ENTRY_OVERHEAD + sizeOfString(cacheKey) + sizeOfBytes(cacheBytes));
+	}
+
+
+	/***
+	 * 缓存值的权重（byte[]或者任意对象）
+	 *
+	 * @param cacheKey
+	 * @param cacheValue
+	 * @return 字节数
+	 */
+	public static int weigh(String cacheKey, Object cacheValue) {
+		return clamp(ENTRY_OVERHEAD + sizeOfString(cacheKey) + sizeOf(cacheValue));
+	}
+
+
+	/***
+	 * 估算对象（包括引用的所有对象）占用的字节数
+	 *
+	 * @param object
+	 * @return 字节数
+	 */
+	public static long sizeOf(Object object) {
+		if (object == null) {
+			return 0L;
+		}
+		if (object instanceof byte[]) {
+			return sizeOfBytes((byte[]) object);
+		}
+		if (object instanceof String) {
+			return sizeOfString((String) object);
+		}
+		if (object instanceof CacheCounter) {
+			return ((CacheCounter) object).weighedSize();
+		}
+
+		final IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<>();
+		final ArrayDeque<Object> pending = new ArrayDeque<>();
+		visited.put(object, Boolean.TRUE);
+		pending.add(object);
+		long size = 0L;
+		int visitCount = 0;
+		while (!pending.isEmpty()) {
+			if (visitCount >= MAX_VISIT_OBJECTS) {
+				// 对象太多时按已遍历部分的平均大小推算剩余部分
+				return size + (size / visitCount) * pending.size();
+			}
+			size += shallowSizeAndExpand(pending.poll(), visited, pending);
+			visitCount++;
+		}
+		return size;
+	}
+
+
+	// 对象本身的大小，并把引用的对象加入待遍历的队列
+	private static long shallowSizeAndExpand(Object object, IdentityHashMap<Object, Boolean> visited, ArrayDeque<Object> pending) {
+		final Class<?> clazz = object.getClass();
+		if (object instanceof String) {
+			return sizeOfString((String) object);
+		}
+		if (clazz.isArray()) {
+			final Class<?> componentType = clazz.getComponentType();
+			final int length = Array.getLength(object);
+			if (componentType.isPrimitive()) {
+				return align(ARRAY_HEADER + (long) length * primitiveSize(componentType));
+			}
+			final Object[] array = (Object[]) object;
+			for (Object element : array) {
+				enqueue(element, visited, pending);
+			}
+			return align(ARRAY_HEADER + (long) length * REFERENCE_SIZE);
+		}
+		if (object instanceof Collection && isJdkClass(clazz)) {
+			// JDK的集合类无法反射访问内部字段，按元素个数估算每个元素的节点开销
+			final Collection<?> collection = (Collection<?>) object;
+			for (Object element : collection) {
+				enqueue(element, visited, pending);
+			}
+			return align(OBJECT_HEADER + 24) + (long) collection.size() * (REFERENCE_SIZE + 16);
+		}
+		if (object instanceof Map && isJdkClass(clazz)) {
+			final Map<?, ?> map = (Map<?, ?>) object;
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				enqueue(entry.getKey(), visited, pending);
+				enqueue(entry.getValue(), visited, pending);
+			}
+			return align(OBJECT_HEADER + 32) + (long) map.size() * (REFERENCE_SIZE + 32);
+		}
+
+		final ClassLayout layout = layoutOf(clazz);
+		for (Field field : layout.referenceFields) {
+			try {
+				enqueue(field.get(object), visited, pending);
+			} catch (Exception exception) {
+				// 无法访问的字段不计算
+			}
+		}
+		return layout.shallowSize;
+	}
+
+
+	private static void enqueue(Object object, IdentityHashMap<Object, Boolean> visited, ArrayDeque<Object> pending) {
+		if (object != null && !(object instanceof Class) && visited.put(object, Boolean.TRUE) == null) {
+			pending.add(object);
+		}
+	}
+
+
+	// 每个类的字段布局只计算一次
+	private static ClassLayout layoutOf(Class<?> clazz) {
+		ClassLayout layout = LAYOUTS.get(clazz);
+		if (layout == null) {
+			layout = new ClassLayout(clazz);
+			final ClassLayout existLayout = LAYOUTS.putIfAbsent(clazz, layout);
+			if (existLayout != null) {
+				layout = existLayout;
+			}
+		}
+		return layout;
+	}
+
+
+	private static boolean isJdkClass(Class<?> clazz) {
+		final String className = clazz.getName();
+		return className.startsWith("java.") || className.startsWith("javax.") || className.startsWith("sun.");
+	}
+
+
+	private static long sizeOfBytes(byte[] bytes) {
+		return bytes == null ? 0L : align(ARRAY_HEADER + (long) bytes.length);
+	}
+
+
+	private static long sizeOfString(String string) {
+		// 按Latin-1的紧凑字符串估算，非Latin-1字符按每个字符2字节
+		return string == null ? 0L : STRING_SHALLOW_SIZE + align(ARRAY_HEADER + (long) string.length() * (isLatin1(string) ? 1 : 2));
+	}
+
+
+	private static boolean isLatin1(String string) {
+		for (int i=0; i<string.length(); i++) {
+			if (string.charAt(i) > 0xff) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	private static int primitiveSize(Class<?> type) {
+		if (type == long.class || type == double.class) {
+			return 8;
+		}
+		if (type == int.class || type == float.class) {
+			return 4;
+		}
+		if (type == short.class || type == char.class) {
+			return 2;
+		}
+		return 1;
+	}
+
+
+	private static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+
+
+	private static int clamp(long size) {
+		return (int) Math.min(size, Integer.MAX_VALUE);
+	}
+
+
+	/***
+	 *
+	 * 一个类的对象大小和需要继续遍历的引用字段
+	 *
+	 */
+	private static final class ClassLayout {
+
+		private final long		shallowSize;
+
+		private final Field[]	referenceFields;
+
+		ClassLayout(Class<?> clazz) {
+			long size = OBJECT_HEADER;
+			final List<Field> fields = new ArrayList<>();
+			for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+				for (Field field : current.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers())) {
+						continue;
+					}
+					if (field.getType().isPrimitive()) {
+						size += primitiveSize(field.getType());
+						continue;
+					}
+					size += REFERENCE_SIZE;
+					// JDK内部的字段（如Integer、BigDecimal的内部）不能反射访问时，只计算引用本身
+					try {
+						field.setAccessible(true);
+						fields.add(field);
+					} catch (RuntimeException exception) {
+						// 忽略无法访问的字段
+					}
+				}
+			}
+			this.shallowSize = align(size);
+			this.referenceFields = fields.toArray(new Field[fields.size()]);
+		}
+	}
+}
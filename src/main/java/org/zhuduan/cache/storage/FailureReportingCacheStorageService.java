@@ -0,0 +1,55 @@
+package org.zhuduan.cache.storage;
+
+import org.zhuduan.utils.CacheException;
+
+/***
+ *
+ * 可以报告操作失败的存储实现扩展接口（如Redis实现）
+ * 这类实现为了不影响业务逻辑，出错时只记录日志并按未命中/false返回，调用方无法区分"不存在"和"出错"
+ * 包装它的实现（如CacheStorageServiceCircuitBreakerImpl）通过FailureListener得知每次失败
+ * 		1.同步调用的失败在调用线程中回调（回调完成之后方法才返回）
+ * 		2.write-behind的请求（如Redis的管道模式）在后台线程中回调
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public interface FailureReportingCacheStorageService extends CacheStorageService {
+
+    /**
+     * 设置接收失败的Listener（为null时不再报告）
+     *
+     * @param failureListener
+     */
+    void setFailureListener(FailureListener failureListener);
+
+
+    /**
+     * 自增：和incrCacheKey相同，但是失败时抛出异常（incrCacheKey出错时返回0，无法和结果为0区分）
+     * 供CacheCounter.flush和熔断器判断这次自增是否成功
+     *
+     * @param cacheKey
+     * @param incrStep
+     * @param expireTimeSeconds
+     * @return 返回增长后的值
+     * @throws CacheException 参数错误或者操作失败
+     */
+    Long incrCacheKeyOrThrow(String cacheKey, long incrStep, int expireTimeSeconds) throws CacheException;
+
+
+    /***
+     *
+     * 接收存储实现的失败（需要尽快返回，不能抛出异常）
+     *
+     */
+    interface FailureListener {
+
+    	/***
+    	 * 一次操作失败（出错或者超时）
+    	 *
+    	 * @param exception
+    	 */
+    	void onFailure(Exception exception);
+    }
+}
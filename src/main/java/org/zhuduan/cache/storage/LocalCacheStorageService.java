@@ -0,0 +1,35 @@
+package org.zhuduan.cache.storage;
+
+/***
+ * 
+ * 本地（同一个JVM内）缓存的扩展接口
+ * 除了二进制的值之外，还可以直接保存对象，命中时不需要任何解码
+ * 		1.对象和二进制的值共用同一个存储空间和过期策略，同一个key只会保存其中一种
+ * 		2.保存的对象会被直接返回给调用方，是否需要复制由调用方（SimpleCacheAspect的CacheCopyPolicy）决定
+ * 
+ * 
+ * @author	zhuhaifeng
+ * @date	2017年4月20日
+ *
+ */
+public interface LocalCacheStorageService extends CacheStorageService {
+
+    /**
+     * 获取缓存的对象
+     * 
+     * @param cacheKey
+     * @return 不存在、已过期或者该key保存的是二进制的值时返回null
+     */
+    Object getCacheObject(String cacheKey);
+    
+    
+    /**
+     * 设置缓存的对象, 返回true成功, false失败!
+     * 
+     * @param cacheKey
+     * @param cacheObject
+     * @param expireTimeSeconds 过期时间, 单位秒!
+     * @return
+     */
+    Boolean setCacheObject(String cacheKey, Object cacheObject, int expireTimeSeconds);
+}
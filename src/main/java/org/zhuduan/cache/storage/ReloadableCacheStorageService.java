@@ -0,0 +1,65 @@
+package org.zhuduan.cache.storage;
+
+/***
+ * 
+ * 可以在后台重新加载的本地缓存扩展接口（如开启了refreshAfterWrite的OriginGuava）
+ * 保存缓存值的同时保存一个Reloader，缓存写入超过一定时间后再被读取时，由存储实现在后台线程中调用Reloader重新加载
+ * 		1.读取方直接拿到旧值，不会因为刷新而阻塞（不会变成一次未命中）
+ * 		2.Reloader需要在调用线程中通过同一个实现的setCacheBytes/setCacheObject写入新值，存储实现会把它作为本次刷新的结果
+ * 		3.Reloader会和缓存值一起保存，不能引用太大的对象
+ * 
+ * 
+ * @author	zhuhaifeng
+ * @date	2017年5月6日
+ *
+ */
+public interface ReloadableCacheStorageService extends LocalCacheStorageService {
+
+    /**
+     * 是否开启了后台重新加载（没有开启时不需要传入Reloader）
+     * 
+     * @return
+     */
+    boolean isReloadEnabled();
+    
+    
+    /**
+     * 设置二进制的缓存, 同时保存重新加载的方法
+     * 
+     * @param cacheKey
+     * @param cacheBytes
+     * @param expireTimeSeconds 过期时间, 单位秒!
+     * @param reloader
+     * @return
+     */
+    Boolean setCacheBytes(String cacheKey, byte[] cacheBytes, int expireTimeSeconds, Reloader reloader);
+    
+    
+    /**
+     * 设置缓存的对象, 同时保存重新加载的方法
+     * 
+     * @param cacheKey
+     * @param cacheObject
+     * @param expireTimeSeconds 过期时间, 单位秒!
+     * @param reloader
+     * @return
+     */
+    Boolean setCacheObject(String cacheKey, Object cacheObject, int expireTimeSeconds, Reloader reloader);
+    
+    
+    /***
+     * 
+     * 重新加载一个缓存
+     * 
+     */
+    interface Reloader {
+    	
+    	/***
+    	 * 重新执行方法，并通过setCacheBytes/setCacheObject写入新值（在存储实现的后台线程中调用）
+    	 * 
+    	 * @param cacheKey
+    	 * @throws Throwable
+    	 */
+    	void reload(String cacheKey) throws Throwable;
+    }
+}
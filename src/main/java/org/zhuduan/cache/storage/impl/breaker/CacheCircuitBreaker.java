@@ -0,0 +1,294 @@
+package org.zhuduan.cache.storage.impl.breaker;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.zhuduan.config.CircuitBreakerConfig;
+import org.zhuduan.utils.Log4jUtil;
+
+/***
+ *
+ * 熔断器的状态机
+ * 		1.CLOSED：正常调用，按秒分桶统计最近windowSeconds秒的调用次数、失败次数和慢调用次数，整个窗口或者当前这一秒达到阈值时进入OPEN
+ * 		2.OPEN：所有调用直接短路，openMillis之后第一个调用把状态改为HALF_OPEN
+ * 		3.HALF_OPEN：只放行halfOpenProbes次探测调用，其它的仍然短路；探测全部成功时回到CLOSED，任意一次失败或者慢调用时回到OPEN
+ *
+ * CLOSED状态下tryAcquire只读一次volatile，统计和状态切换在锁内完成（相对于一次远程调用的耗时可以忽略）
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月22日
+ *
+ */
+public final class CacheCircuitBreaker {
+
+	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
+	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志
+
+	/***
+	 * 熔断器的状态
+	 *
+	 */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String			name;								// 被保护的存储实现（用于日志）
+
+	private final long				latencyBudgetNanos;					// 每次操作的耗时预算
+
+	private final int				windowSeconds;
+
+	private final int				minimumCalls;
+
+	private final double			failureRateThreshold;
+
+	private final double			slowCallRateThreshold;
+
+	private final long				openMillis;
+
+	private final int				halfOpenProbes;
+
+	private volatile State			state			=	State.CLOSED;
+
+	// 按秒分桶的滑动窗口（在锁内访问）
+	private final long[]			bucketSeconds;
+
+	private final int[]				bucketCalls;
+
+	private final int[]				bucketFailures;
+
+	private final int[]				bucketSlowCalls;
+
+	// 熔断和半开的状态
+	private volatile long			openedAtMillis;						// 最近一次进入OPEN的时间
+
+	private volatile long			notClosedSinceMillis;				// 离开CLOSED的时间（用于统计熔断的总时长）
+
+	private final AtomicInteger		probePermits	=	new AtomicInteger();	// 半开状态下剩余的探测次数
+
+	private int						probeSuccesses;						// 半开状态下成功的探测次数（在锁内访问）
+
+	// 统计
+	private final AtomicLong		callCount		=	new AtomicLong();
+
+	private final AtomicLong		failureCount	=	new AtomicLong();
+
+	private final AtomicLong		slowCallCount	=	new AtomicLong();
+
+	private final AtomicLong		shortCircuitCount	=	new AtomicLong();
+
+	private final AtomicLong		tripCount		=	new AtomicLong();
+
+	private final AtomicLong		openMillisTotal	=	new AtomicLong();	// 已经结束的熔断（OPEN + HALF_OPEN）的总时长
+
+
+	CacheCircuitBreaker(String name, CircuitBreakerConfig config) {
+		this.name = name;
+		this.latencyBudgetNanos = Math.max(config.getLatencyBudgetMillis(), 1L) * 1000000L;
+		this.windowSeconds = Math.max(config.getWindowSeconds(), 1);
+		this.minimumCalls = Math.max(config.getMinimumCalls(), 1);
+		this.failureRateThreshold = config.getFailureRateThreshold();
+		this.slowCallRateThreshold = config.getSlowCallRateThreshold();
+		this.openMillis = Math.max(config.getOpenMillis(), 1L);
+		this.halfOpenProbes = Math.max(config.getHalfOpenProbes(), 1);
+		this.bucketSeconds = new long[windowSeconds];
+		this.bucketCalls = new int[windowSeconds];
+		this.bucketFailures = new int[windowSeconds];
+		this.bucketSlowCalls = new int[windowSeconds];
+	}
+
+
+	/***
+	 * 是否可以调用被保护的实现（返回false时短路）
+	 *
+	 * @return
+	 */
+	boolean tryAcquire() {
+		if (state == State.CLOSED) {
+			return true;
+		}
+		if (state == State.OPEN) {
+			if (System.currentTimeMillis() - openedAtMillis < openMillis) {
+				shortCircuitCount.incrementAndGet();
+				return false;
+			}
+			toHalfOpen();
+		}
+		// 半开状态只放行有限的探测
+		if (state == State.CLOSED || (state == State.HALF_OPEN && probePermits.getAndDecrement() > 0)) {
+			return true;
+		}
+		shortCircuitCount.incrementAndGet();
+		return false;
+	}
+
+
+	/***
+	 * 记录一次放行的调用的结果
+	 *
+	 * @param elapsedNanos 耗时
+	 * @param failed 是否抛出了异常
+	 */
+	void onResult(long elapsedNanos, boolean failed) {
+		final boolean slow = elapsedNanos > latencyBudgetNanos;
+		callCount.incrementAndGet();
+		if (failed) {
+			failureCount.incrementAndGet();
+		}
+		if (slow) {
+			slowCallCount.incrementAndGet();
+		}
+		final State current = state;
+		if (current == State.CLOSED) {
+			record(slow, failed);
+		} else if (current == State.HALF_OPEN) {
+			probe(slow || failed);
+		}
+		// OPEN状态下结束的调用（熔断之前发出的）不再统计
+	}
+
+
+	// CLOSED状态：记录到滑动窗口，达到阈值时熔断
+	private synchronized void record(boolean slow, boolean failed) {
+		if (state != State.CLOSED) {
+			return;
+		}
+		final long nowMillis = System.currentTimeMillis();
+		final long second = nowMillis / 1000L;
+		final int index = (int) (second % windowSeconds);
+		if (bucketSeconds[index] != second) {
+			bucketSeconds[index] = second;
+			bucketCalls[index] = 0;
+			bucketFailures[index] = 0;
+			bucketSlowCalls[index] = 0;
+		}
+		bucketCalls[index]++;
+		if (failed) {
+			bucketFailures[index]++;
+		}
+		if (slow) {
+			bucketSlowCalls[index]++;
+		}
+
+		int calls = 0, failures = 0, slowCalls = 0;
+		for (int i=0; i<windowSeconds; i++) {
+			if (second - bucketSeconds[i] < windowSeconds) {
+				calls += bucketCalls[i];
+				failures += bucketFailures[i];
+				slowCalls += bucketSlowCalls[i];
+			}
+		}
+		// 后端变慢时吞吐量骤降，窗口内之前的大量正常调用会把比例拉低，因此当前这一秒单独达到阈值时也熔断
+		if (exceeds(calls, failures, slowCalls)) {
+			notClosedSinceMillis = nowMillis;
+			toOpen(nowMillis, "calls:" + calls + ", failures:" + failures + ", slowCalls:" + slowCalls);
+		} else if (exceeds(bucketCalls[index], bucketFailures[index], bucketSlowCalls[index])) {
+			notClosedSinceMillis = nowMillis;
+			toOpen(nowMillis, "last second calls:" + bucketCalls[index] + ", failures:" + bucketFailures[index]
+							+ ", slowCalls:" + bucketSlowCalls[index]);
+		}
+	}
+
+
+	// 调用次数足够且失败率或者慢调用率达到阈值
+	private boolean exceeds(int calls, int failures, int slowCalls) {
+		return calls >= minimumCalls && (failures >= calls * failureRateThreshold || slowCalls >= calls * slowCallRateThreshold);
+	}
+
+
+	// HALF_OPEN状态：探测失败时重新熔断，全部成功时恢复
+	private synchronized void probe(boolean failed) {
+		if (state != State.HALF_OPEN) {
+			return;
+		}
+		final long nowMillis = System.currentTimeMillis();
+		if (failed) {
+			toOpen(nowMillis, "half-open probe failed");
+		} else if (++probeSuccesses >= halfOpenProbes) {
+			clearWindow();
+			state = State.CLOSED;
+			openMillisTotal.addAndGet(nowMillis - notClosedSinceMillis);
+			svcLog.info("circuit breaker closed for " + name + ", open ms:" + (nowMillis - notClosedSinceMillis));
+		}
+	}
+
+
+	private synchronized void toHalfOpen() {
+		if (state == State.OPEN && System.currentTimeMillis() - openedAtMillis >= openMillis) {
+			probeSuccesses = 0;
+			probePermits.set(halfOpenProbes);
+			state = State.HALF_OPEN;
+			svcLog.info("circuit breaker half-open for " + name);
+		}
+	}
+
+
+	// 在锁内调用
+	private void toOpen(long nowMillis, String reason) {
+		clearWindow();
+		openedAtMillis = nowMillis;
+		state = State.OPEN;
+		tripCount.incrementAndGet();
+		sysLog.warn("circuit breaker open for " + name + ", " + reason + ", retry after ms:" + openMillis);
+	}
+
+
+	private void clearWindow() {
+		Arrays.fill(bucketSeconds, 0L);
+		Arrays.fill(bucketCalls, 0);
+		Arrays.fill(bucketFailures, 0);
+		Arrays.fill(bucketSlowCalls, 0);
+	}
+
+
+	public State getState() {
+		return state;
+	}
+
+
+	public long getCallCount() {
+		return callCount.get();
+	}
+
+
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+
+	public long getSlowCallCount() {
+		return slowCallCount.get();
+	}
+
+
+	public long getShortCircuitCount() {
+		return shortCircuitCount.get();
+	}
+
+
+	public long getTripCount() {
+		return tripCount.get();
+	}
+
+
+	/***
+	 * 熔断（OPEN + HALF_OPEN）的总时长，包括当前还没有恢复的熔断
+	 *
+	 * @return 毫秒
+	 */
+	public long getOpenMillisTotal() {
+		final long openMillisNow = (state == State.CLOSED) ? 0L : System.currentTimeMillis() - notClosedSinceMillis;
+		return openMillisTotal.get() + openMillisNow;
+	}
+
+
+	@Override
+	public String toString() {
+		return "CacheCircuitBreaker [name=" + name + ", state=" + state + ", calls=" + callCount + ", failures=" + failureCount
+				+ ", slowCalls=" + slowCallCount + ", shortCircuits=" + shortCircuitCount + ", trips=" + tripCount
+				+ ", openMillisTotal=" + getOpenMillisTotal() + "]";
+	}
+}
@@ -0,0 +1,456 @@
+package org.zhuduan.cache.storage.impl.breaker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.zhuduan.cache.storage.CacheBatchValue;
+import org.zhuduan.cache.storage.CacheStorageService;
+import org.zhuduan.cache.storage.FailureReportingCacheStorageService;
+import org.zhuduan.config.CircuitBreakerConfig;
+import org.zhuduan.config.SimpleCacheConfig;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+import org.zhuduan.utils.Log4jUtil;
+
+/***
+ *
+ * 带熔断的CacheStorageService：包装一个存储实现（一般为Redis），在它变慢或者出错时不再调用
+ * 		1.每次调用统计耗时，超过latencyBudgetMillis算作慢调用，抛出异常算作失败（异常会被捕获，按未命中/写入失败返回）
+ * 		  被保护的实现是FailureReportingCacheStorageService时（如Redis实现，出错时不抛出异常），它报告的失败同样算作失败
+ * 		2.失败率或者慢调用率达到阈值时熔断：之后的调用直接短路，读取返回未命中（切面会直接执行方法），写入返回false
+ * 		  配置了fallback（如本地实现）时短路的调用交给fallback
+ * 		3.熔断openMillis之后放行少量探测调用，全部成功时恢复
+ * 		4.短路或者失败的写入和删除，记录下key（最多CIRCUIT_BREAKER_REPLAY_KEYS_MAX个）：
+ * 		  之后放行的调用先在被保护的实现中删除这些key（每次最多CIRCUIT_BREAKER_REPLAY_BATCH个），避免恢复后读到熔断之前的旧值
+ * 		  删除的结果不计入熔断器的统计，只统计调用方本身的操作（半开状态下一次探测只算一次结果）
+ * 		  记录的key超过上限时，之后短路的写入和删除返回false（不再交给fallback），旧值只能等待过期
+ * 		5.getCircuitBreaker()可以查看状态、短路次数、熔断次数和熔断的总时长
+ *
+ * 注意：熔断之前的调用仍然会阻塞到底层客户端的超时（如Jedis的soTimeout），耗时预算只用于判断慢调用
+ * 		熔断之后调用不再阻塞，因此最多只有最开始的minimumCalls次左右的调用受到影响
+ * 		write-behind的写入（如Redis的管道模式）在后台失败时只算作失败，不知道对应的key，因此不会记录
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月22日
+ *
+ */
+public class CacheStorageServiceCircuitBreakerImpl implements CacheStorageService {
+
+	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
+	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志
+
+	private final CacheStorageService	storageService;					// 被保护的存储实现
+
+	private final CacheStorageService	fallbackStorageService;			// 熔断时使用的存储实现，为null时直接短路
+
+	private final CacheCircuitBreaker	circuitBreaker;
+
+	private final ThreadLocal<Boolean>	callFailed		=	new ThreadLocal<>();	// 当前线程的调用中被保护的实现是否报告了失败（不在调用中时为null）
+
+	private final ConcurrentHashMap<String, Long>	pendingKeys	=	new ConcurrentHashMap<>();	// 需要在被保护的实现中删除的key和记录的序号
+
+	private final AtomicLong			pendingSequence	=	new AtomicLong();		// 记录key的序号（删除之后又重新记录的key不会被误清除）
+
+	private final AtomicBoolean			replaying		=	new AtomicBoolean();	// 是否正在删除记录的key（同时只有一个线程删除）
+
+	private final AtomicLong			droppedKeyCount	=	new AtomicLong();		// 超过上限没有记录的key个数
+
+
+	public CacheStorageServiceCircuitBreakerImpl(CacheStorageService storageService) throws CacheException {
+		this(storageService, new CircuitBreakerConfig(), null);
+	}
+
+
+	/***
+	 *
+	 * @param storageService 被保护的存储实现
+	 * @param config 熔断的配置，为null时使用默认值
+	 * @param fallbackStorageService 熔断时使用的存储实现（如CacheStorageServiceLocalImpl），为null时直接短路
+	 * @throws CacheException storageService为空时抛出
+	 */
+	public CacheStorageServiceCircuitBreakerImpl(CacheStorageService storageService, CircuitBreakerConfig config,
+												CacheStorageService fallbackStorageService) throws CacheException {
+		if (storageService == null) {
+			throw new CacheException(CacheConstants.EXCEPTION_INITIAL_PARAM, "circuit breaker impl中storageService不能为空");
+		}
+		final CircuitBreakerConfig breakerConfig = (config == null) ? new CircuitBreakerConfig() : config;
+		this.storageService = storageService;
+		this.fallbackStorageService = fallbackStorageService;
+		this.circuitBreaker = new CacheCircuitBreaker(storageService.getClass().getSimpleName(), breakerConfig);
+		if (storageService instanceof FailureReportingCacheStorageService) {
+			((FailureReportingCacheStorageService) storageService).setFailureListener(new FailureReportingCacheStorageService.FailureListener() {
+				@Override
+				public void onFailure(Exception exception) {
+					if (callFailed.get() != null) {
+						callFailed.set(Boolean.TRUE);
+					} else {
+						// 不在调用线程中（如write-behind的请求），单独算作一次失败的调用
+						circuitBreaker.onResult(0L, true);
+					}
+				}
+			});
+		}
+		svcLog.info("circuit breaker impl protect " + storageService.getClass().getSimpleName() + " with " + breakerConfig
+					+ (fallbackStorageService == null ? "" : ", fallback to " + fallbackStorageService.getClass().getSimpleName()));
+	}
+
+
+	@Override
+	public String getCache(String cacheKey) {
+		if (!acquire()) {
+			return fallbackStorageService == null ? null : fallbackStorageService.getCache(cacheKey);
+		}
+		final long begin = beginCall();
+		try {
+			final String result = storageService.getCache(cacheKey);
+			endCall(begin);
+			return result;
+		} catch (RuntimeException exp) {
+			onFailure(begin, exp);
+		}
+		return null;
+	}
+
+
+	@Override
+	public Boolean setCache(String cacheKey, String cacheValue, int expireTimeSeconds) {
+		if (!acquire()) {
+			final boolean recorded = record(cacheKey);
+			return fallbackStorageService != null && recorded && Boolean.TRUE.equals(fallbackStorageService.setCache(cacheKey, cacheValue, expireTimeSeconds));
+		}
+		final long begin = beginCall();
+		try {
+			final Boolean result = storageService.setCache(cacheKey, cacheValue, expireTimeSeconds);
+			if (endCall(begin)) {
+				record(cacheKey);
+			}
+			return result;
+		} catch (RuntimeException exp) {
+			onFailure(begin, exp);
+			record(cacheKey);
+		}
+		return false;
+	}
+
+
+	@Override
+	public byte[] getCacheBytes(String cacheKey) {
+		if (!acquire()) {
+			return fallbackStorageService == null ? null : fallbackStorageService.getCacheBytes(cacheKey);
+		}
+		final long begin = beginCall();
+		try {
+			final byte[] result = storageService.getCacheBytes(cacheKey);
+			endCall(begin);
+			return result;
+		} catch (RuntimeException exp) {
+			onFailure(begin, exp);
+		}
+		return null;
+	}
+
+
+	@Override
+	public Boolean setCacheBytes(String cacheKey, byte[] cacheBytes, int expireTimeSeconds) {
+		if (!acquire()) {
+			final boolean recorded = record(cacheKey);
+			return fallbackStorageService != null && recorded && Boolean.TRUE.equals(fallbackStorageService.setCacheBytes(cacheKey, cacheBytes, expireTimeSeconds));
+		}
+		final long begin = beginCall();
+		try {
+			final Boolean result = storageService.setCacheBytes(cacheKey, cacheBytes, expireTimeSeconds);
+			if (endCall(begin)) {
+				record(cacheKey);
+			}
+			return result;
+		} catch (RuntimeException exp) {
+			onFailure(begin, exp);
+			record(cacheKey);
+		}
+		return false;
+	}
+
+
+	@Override
+	public Boolean isCacheKeyExists(String cacheKey) {
+		if (!acquire()) {
+			return fallbackStorageService == null ? false : fallbackStorageService.isCacheKeyExists(cacheKey);
+		}
+		final long begin = beginCall();
+		try {
+			final Boolean result = storageService.isCacheKeyExists(cacheKey);
+			endCall(begin);
+			return result;
+		} catch (RuntimeException exp) {
+			onFailure(begin, exp);
+		}
+		return false;
+	}
+
+
+	/**
+     * 删除：短路或者失败时记录key，恢复后再从被保护的实现中删除
+     * 没有fallback时返回false（被保护的实现中还没有删除）
+     *
+     * @param cacheKey
+     * @return
+     */
+	@Override
+	public Boolean deleteCache(String cacheKey) {
+		if (!acquire()) {
+			final boolean recorded = record(cacheKey);
+			return fallbackStorageService != null && recorded && Boolean.TRUE.equals(fallbackStorageService.deleteCache(cacheKey));
+		}
+		final long begin = beginCall();
+		try {
+			final Boolean result = storageService.deleteCache(cacheKey);
+			if (endCall(begin)) {
+				record(cacheKey);
+			}
+			return result;
+		} catch (RuntimeException exp) {
+			onFailure(begin, exp);
+			record(cacheKey);
+		}
+		return false;
+	}
+
+
+	@Override
+	public Map<String, byte[]> getAll(Collection<String> cacheKeys) {
+		if (!acquire()) {
+			return fallbackStorageService == null ? new HashMap<String, byte[]>() : fallbackStorageService.getAll(cacheKeys);
+		}
+		final long begin = beginCall();
+		try {
+			final Map<String, byte[]> result = storageService.getAll(cacheKeys);
+			endCall(begin);
+			return result;
+		} catch (RuntimeException exp) {
+			onFailure(begin, exp);
+		}
+		return new HashMap<>();
+	}
+
+
+	@Override
+	public Boolean setAll(Map<String, CacheBatchValue> cacheValues) {
+		final Collection<String> cacheKeys = (cacheValues == null) ? null : cacheValues.keySet();
+		if (!acquire()) {
+			final boolean recorded = recordAll(cacheKeys);
+			return fallbackStorageService != null && recorded && Boolean.TRUE.equals(fallbackStorageService.setAll(cacheValues));
+		}
+		final long begin = beginCall();
+		try {
+			final Boolean result = storageService.setAll(cacheValues);
+			if (endCall(begin)) {
+				recordAll(cacheKeys);
+			}
+			return result;
+		} catch (RuntimeException exp) {
+			onFailure(begin, exp);
+			recordAll(cacheKeys);
+		}
+		return false;
+	}
+
+
+	@Override
+	public Boolean deleteAll(Collection<String> cacheKeys) {
+		if (!acquire()) {
+			final boolean recorded = recordAll(cacheKeys);
+			return fallbackStorageService != null && recorded && Boolean.TRUE.equals(fallbackStorageService.deleteAll(cacheKeys));
+		}
+		final long begin = beginCall();
+		try {
+			final Boolean result = storageService.deleteAll(cacheKeys);
+			if (endCall(begin)) {
+				recordAll(cacheKeys);
+			}
+			return result;
+		} catch (RuntimeException exp) {
+			onFailure(begin, exp);
+			recordAll(cacheKeys);
+		}
+		return false;
+	}
+
+
+    /**
+     * 自增：熔断时交给fallback，没有fallback时抛出异常（和Redis实现出错时一致，调用方据此重试）
+     * 计数器的key不记录（恢复后删除会丢失被保护的实现中已经累加的值）
+     *
+     * @param cacheKey
+     * @param incrStep
+     * @param expireTimeSeconds
+     * @return
+     * @throws CacheException 熔断、被保护的实现出错或者不支持自增时抛出（只有不支持自增不算作失败）
+     */
+	@Override
+	public Long incrCacheKey(String cacheKey, long incrStep, int expireTimeSeconds) throws CacheException {
+		if (!acquire()) {
+			if (fallbackStorageService == null) {
+				throw new CacheException(CacheConstants.EXCEPTION_STORAGE_OPERATION, "circuit breaker is open");
+			}
+			return fallbackStorageService.incrCacheKey(cacheKey, incrStep, expireTimeSeconds);
+		}
+		final long begin = beginCall();
+		try {
+			// 被保护的实现出错时返回0（如Redis），需要使用出错时抛出异常的自增才能区分
+			final Long result = (storageService instanceof FailureReportingCacheStorageService)
+					? ((FailureReportingCacheStorageService) storageService).incrCacheKeyOrThrow(cacheKey, incrStep, expireTimeSeconds)
+					: storageService.incrCacheKey(cacheKey, incrStep, expireTimeSeconds);
+			endCall(begin);
+			return result;
+		} catch (CacheException exp) {
+			callFailed.remove();
+			circuitBreaker.onResult(System.nanoTime() - begin, exp.getErrCode() == CacheConstants.EXCEPTION_STORAGE_OPERATION);
+			throw exp;
+		} catch (RuntimeException exp) {
+			onFailure(begin, exp);
+			throw new CacheException(CacheConstants.EXCEPTION_STORAGE_OPERATION, exp.getMessage());
+		}
+	}
+
+
+	// 是否可以调用被保护的实现；可以调用时先删除之前记录的key
+	private boolean acquire() {
+		if (!circuitBreaker.tryAcquire()) {
+			return false;
+		}
+		if (!pendingKeys.isEmpty()) {
+			replay();
+		}
+		return true;
+	}
+
+
+	// 在被保护的实现中删除记录的key（一次最多CIRCUIT_BREAKER_REPLAY_BATCH个），成功后清除记录
+	// 删除不算作一次调用：结果不报告给熔断器，出错时保留记录等下一次调用再删除
+	private void replay() {
+		if (!replaying.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			final Map<String, Long> batch = new HashMap<>();
+			for (Map.Entry<String, Long> entry : pendingKeys.entrySet()) {
+				if (batch.size() >= SimpleCacheConfig.CIRCUIT_BREAKER_REPLAY_BATCH) {
+					break;
+				}
+				batch.put(entry.getKey(), entry.getValue());
+			}
+			callFailed.set(Boolean.FALSE);
+			try {
+				storageService.deleteAll(new ArrayList<>(batch.keySet()));
+				if (Boolean.TRUE.equals(callFailed.get())) {
+					return;
+				}
+			} catch (RuntimeException exp) {
+				sysLog.error(Log4jUtil.getCallLocation() + " circuit breaker impl replay failed for: " + exp.getMessage());
+				return;
+			} finally {
+				callFailed.remove();
+			}
+			for (Map.Entry<String, Long> entry : batch.entrySet()) {
+				pendingKeys.remove(entry.getKey(), entry.getValue());
+			}
+			svcLog.info("circuit breaker impl deleted " + batch.size() + " keys written during open, remain: " + pendingKeys.size());
+		} finally {
+			replaying.set(false);
+		}
+	}
+
+
+	// 记录没有写入（或者删除）被保护的实现的key，超过上限时返回false
+	private boolean record(String cacheKey) {
+		if (cacheKey == null) {
+			return true;
+		}
+		if (pendingKeys.size() >= SimpleCacheConfig.CIRCUIT_BREAKER_REPLAY_KEYS_MAX && !pendingKeys.containsKey(cacheKey)) {
+			if (droppedKeyCount.getAndIncrement() == 0L) {
+				sysLog.error(Log4jUtil.getCallLocation() + " circuit breaker impl pending keys exceed: " + SimpleCacheConfig.CIRCUIT_BREAKER_REPLAY_KEYS_MAX);
+			}
+			return false;
+		}
+		pendingKeys.put(cacheKey, pendingSequence.incrementAndGet());
+		return true;
+	}
+
+
+	private boolean recordAll(Collection<String> cacheKeys) {
+		if (cacheKeys == null) {
+			return true;
+		}
+		boolean result = true;
+		for (String cacheKey : cacheKeys) {
+			result &= record(cacheKey);
+		}
+		return result;
+	}
+
+
+	// 开始一次调用被保护的实现
+	private long beginCall() {
+		callFailed.set(Boolean.FALSE);
+		return System.nanoTime();
+	}
+
+
+	// 调用正常返回：记录结果，返回被保护的实现是否报告了失败
+	private boolean endCall(long begin) {
+		final boolean failed = Boolean.TRUE.equals(callFailed.get());
+		callFailed.remove();
+		circuitBreaker.onResult(System.nanoTime() - begin, failed);
+		return failed;
+	}
+
+
+	// 记录失败，异常不再抛出（防止缓存崩溃影响主业务逻辑）
+	private void onFailure(long begin, RuntimeException exp) {
+		callFailed.remove();
+		circuitBreaker.onResult(System.nanoTime() - begin, true);
+		sysLog.error(Log4jUtil.getCallLocation() + " circuit breaker impl caught error for: " + exp.getMessage());
+	}
+
+
+	public CacheStorageService getStorageService() {
+		return storageService;
+	}
+
+
+	public CacheStorageService getFallbackStorageService() {
+		return fallbackStorageService;
+	}
+
+
+	public CacheCircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+
+	/***
+	 * 记录的还没有从被保护的实现中删除的key个数
+	 *
+	 * @return
+	 */
+	public int getPendingKeyCount() {
+		return pendingKeys.size();
+	}
+
+
+	/***
+	 * 超过CIRCUIT_BREAKER_REPLAY_KEYS_MAX没有记录的key个数
+	 *
+	 * @return
+	 */
+	public long getDroppedKeyCount() {
+		return droppedKeyCount.get();
+	}
+}
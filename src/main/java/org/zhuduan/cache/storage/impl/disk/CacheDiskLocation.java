@@ -0,0 +1,69 @@
+package org.zhuduan.cache.storage.impl.disk;
+
+/***
+ *
+ * 内存中的索引：key对应的数据所在的文件和位置
+ * 不可变，索引的更新通过替换整个对象完成（比较时使用对象本身，所以不需要重写equals）
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月30日
+ *
+ */
+final class CacheDiskLocation {
+
+	private final CacheDiskSegment	segment;
+
+	private final int				offset;				// 数据在文件中的位置
+
+	private final int				size;				// 数据的总长度
+
+	private final int				keyLength;
+
+	private final int				valueLength;
+
+	private final long				expireTime;			// 过期的时间点(毫秒)
+
+
+	CacheDiskLocation(CacheDiskSegment segment, int offset, int size, int keyLength, int valueLength, long expireTime) {
+		this.segment = segment;
+		this.offset = offset;
+		this.size = size;
+		this.keyLength = keyLength;
+		this.valueLength = valueLength;
+		this.expireTime = expireTime;
+	}
+
+
+	boolean isExpired(long now) {
+		return now > expireTime;
+	}
+
+	boolean isAt(CacheDiskSegment segment, int offset) {
+		return this.segment == segment && this.offset == offset;
+	}
+
+	int getValueOffset() {
+		return offset + CacheDiskSegment.HEADER_SIZE + keyLength;
+	}
+
+	CacheDiskSegment getSegment() {
+		return segment;
+	}
+
+	int getOffset() {
+		return offset;
+	}
+
+	int getSize() {
+		return size;
+	}
+
+	int getValueLength() {
+		return valueLength;
+	}
+
+	long getExpireTime() {
+		return expireTime;
+	}
+}
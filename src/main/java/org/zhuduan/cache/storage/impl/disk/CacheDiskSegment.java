@@ -0,0 +1,254 @@
+package org.zhuduan.cache.storage.impl.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ *
+ * CacheStorageServiceDiskImpl的一个数据文件：整个文件通过内存映射读写，只追加不修改
+ * 		每条数据的格式：[int 总长度][int key长度][int value长度(-1表示删除标记)][long 过期时间][key][value]
+ * 		写入时最后写总长度，总长度为0表示文件在这里结束（进程中途退出时没有写完的数据会被忽略）
+ *
+ * 注意：追加只在CacheStorageServiceDiskImpl的写锁内执行；读取不加锁（数据写入之后不会再修改）
+ * 		删除文件时不主动解除映射，仍在读取的buffer可以继续使用，映射在buffer被GC时释放
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月30日
+ *
+ */
+final class CacheDiskSegment {
+
+	static final int			OFFSET_SIZE			=	0;
+	static final int			OFFSET_KEY_LENGTH	=	4;
+	static final int			OFFSET_VALUE_LENGTH	=	8;
+	static final int			OFFSET_EXPIRE		=	12;
+	static final int			HEADER_SIZE			=	20;
+
+	static final int			TOMBSTONE			=	-1;			// value长度为-1表示删除标记
+
+	private static final Charset	UTF_8			=	Charset.forName("UTF-8");
+
+	private final long			id;						// 文件的序号，越大越新
+
+	private final File			file;
+
+	private final RandomAccessFile	randomAccessFile;
+
+	private final MappedByteBuffer	buffer;
+
+	private final ByteBuffer	writeBuffer;			// 写入使用的视图（只在写锁内使用）
+
+	private final int			capacity;
+
+	private volatile int		writePosition;			// 已经写入的字节数
+
+	private volatile long		maxExpireTime;			// 文件中最晚的过期时间，之前的时间整个文件都可以删除
+
+	private final AtomicLong	liveBytes	=	new AtomicLong();	// 仍然被索引指向的数据字节数
+
+	private volatile boolean	deleted;
+
+
+	private CacheDiskSegment(long id, File file, int capacity) throws IOException {
+		this.id = id;
+		this.file = file;
+		this.capacity = capacity;
+		this.randomAccessFile = new RandomAccessFile(file, "rw");
+		if (randomAccessFile.length() < capacity) {
+			randomAccessFile.setLength(capacity);
+		}
+		this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		this.writeBuffer = buffer.duplicate();
+	}
+
+
+	/***
+	 * 创建新的数据文件
+	 *
+	 * @param directory
+	 * @param id
+	 * @param capacity 文件的字节数
+	 * @return
+	 * @throws IOException
+	 */
+	static CacheDiskSegment create(File directory, long id, int capacity) throws IOException {
+		return new CacheDiskSegment(id, new File(directory, fileName(id)), capacity);
+	}
+
+
+	/***
+	 * 打开已经存在的数据文件（重启时恢复）
+	 *
+	 * @param file
+	 * @param id
+	 * @return
+	 * @throws IOException
+	 */
+	static CacheDiskSegment open(File file, long id) throws IOException {
+		final long length = file.length();
+		if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+			throw new IOException("bad segment file length: " + length);
+		}
+		return new CacheDiskSegment(id, file, (int) length);
+	}
+
+
+	static String fileName(long id) {
+		return String.format("segment-%016d.data", id);
+	}
+
+
+	/***
+	 * 追加一条数据
+	 *
+	 * @param keyBytes
+	 * @param valueBytes 为null时写入删除标记
+	 * @param expireTime 过期的时间点(毫秒)
+	 * @return 数据的位置，剩余空间不足时返回-1
+	 */
+	int append(byte[] keyBytes, byte[] valueBytes, long expireTime) {
+		final int valueLength = (valueBytes == null) ? 0 : valueBytes.length;
+		final int size = HEADER_SIZE + keyBytes.length + valueLength;
+		final int offset = writePosition;
+		if (offset + size > capacity) {
+			return -1;
+		}
+		writeBuffer.putInt(offset + OFFSET_KEY_LENGTH, keyBytes.length);
+		writeBuffer.putInt(offset + OFFSET_VALUE_LENGTH, (valueBytes == null) ? TOMBSTONE : valueLength);
+		writeBuffer.putLong(offset + OFFSET_EXPIRE, expireTime);
+		writeBuffer.position(offset + HEADER_SIZE);
+		writeBuffer.put(keyBytes);
+		if (valueBytes != null) {
+			writeBuffer.put(valueBytes);
+			maxExpireTime = Math.max(maxExpireTime, expireTime);
+		}
+		// 最后写入总长度，表示这条数据已经完整
+		writeBuffer.putInt(offset + OFFSET_SIZE, size);
+		writePosition = offset + size;
+		return offset;
+	}
+
+
+	/***
+	 * 从头扫描已经写入的数据，用于重启时恢复writePosition
+	 *
+	 * @return 完整的数据结束的位置
+	 */
+	int scanEnd() {
+		int offset = 0;
+		while (offset + HEADER_SIZE <= capacity) {
+			final int size = buffer.getInt(offset + OFFSET_SIZE);
+			if (size < HEADER_SIZE || offset + size > capacity) {
+				break;
+			}
+			offset += size;
+		}
+		return offset;
+	}
+
+
+	// 以下为读取offset位置的数据
+	int recordSize(int offset) {
+		return buffer.getInt(offset + OFFSET_SIZE);
+	}
+
+	int keyLength(int offset) {
+		return buffer.getInt(offset + OFFSET_KEY_LENGTH);
+	}
+
+	int valueLength(int offset) {
+		return buffer.getInt(offset + OFFSET_VALUE_LENGTH);
+	}
+
+	long expireTime(int offset) {
+		return buffer.getLong(offset + OFFSET_EXPIRE);
+	}
+
+	String readKey(int offset) {
+		final byte[] keyBytes = new byte[keyLength(offset)];
+		final ByteBuffer view = buffer.duplicate();
+		view.position(offset + HEADER_SIZE);
+		view.get(keyBytes);
+		return new String(keyBytes, UTF_8);
+	}
+
+
+	/***
+	 * 获取一段数据的只读视图（不复制）
+	 *
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	ByteBuffer slice(int offset, int length) {
+		final ByteBuffer view = buffer.asReadOnlyBuffer();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice();
+	}
+
+
+	/***
+	 * 关闭并删除文件（可以重复调用）
+	 *
+	 */
+	synchronized boolean delete() {
+		if (deleted) {
+			return true;
+		}
+		deleted = true;
+		close();
+		return file.delete();
+	}
+
+
+	/***
+	 * 关闭文件但不删除（可以重复调用），已经映射的buffer仍然可以读取
+	 *
+	 */
+	synchronized void close() {
+		try {
+			randomAccessFile.close();
+		} catch (IOException exception) {
+			// 关闭失败不影响之后的删除或者重新打开
+		}
+	}
+
+
+	long getId() {
+		return id;
+	}
+
+	int getCapacity() {
+		return capacity;
+	}
+
+	int getWritePosition() {
+		return writePosition;
+	}
+
+	void setWritePosition(int writePosition) {
+		this.writePosition = writePosition;
+	}
+
+	long getMaxExpireTime() {
+		return maxExpireTime;
+	}
+
+	void updateMaxExpireTime(long expireTime) {
+		if (expireTime > maxExpireTime) {
+			maxExpireTime = expireTime;
+		}
+	}
+
+	AtomicLong getLiveBytes() {
+		return liveBytes;
+	}
+}
@@ -0,0 +1,53 @@
+package org.zhuduan.cache.storage.impl.disk;
+
+import org.apache.log4j.Logger;
+import org.zhuduan.config.SimpleCacheConfig;
+import org.zhuduan.utils.Log4jUtil;
+
+
+/***
+ * 
+ * 声明为守护线程：  用于周期性整理DiskImpl的数据文件
+ * 
+ * 		每隔DISK_COMPACT_INTERVAL_SECONDS调用一次CacheStorageServiceDiskImpl.compact
+ * 		整个文件都已经过期时直接删除，有效数据比例过低时把有效数据复制到最新的文件后删除，从而回收磁盘空间
+ * 		DiskImpl调用close()时中断该线程
+ * 
+ */
+public class CacheStorageServiceDiskCompactThread extends Thread {
+	
+	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
+	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志	
+	
+	private boolean isCompact = true;		// 用于标识守护线程是否周期性进行整理
+	
+	private final CacheStorageServiceDiskImpl diskImpl;		// 需要整理的DiskImpl
+	
+	
+	CacheStorageServiceDiskCompactThread(CacheStorageServiceDiskImpl diskImpl){
+		super("SimpleCache-disk-compact");
+		this.diskImpl = diskImpl;
+		this.isCompact = (diskImpl != null);
+	}
+	
+	
+	@Override
+	public void run(){
+		while(true==isCompact){
+			try {
+				Thread.sleep(SimpleCacheConfig.DISK_COMPACT_INTERVAL_SECONDS * 1000L);
+				// 作出整理的动作（只在有文件被删除时打印日志）
+				int removeSegmentCount = diskImpl.compact(System.currentTimeMillis());
+				if (removeSegmentCount > 0 && svcLog.isDebugEnabled()){
+					svcLog.debug("this round remove segment num : " + removeSegmentCount);
+				}
+			} catch (InterruptedException exception) {
+				// DiskImpl已经close
+				return;
+			} catch (Exception exception) {
+				// 如果出错，则需要catch到错误，避免影响主流程
+				sysLog.error(Log4jUtil.getCallLocation() + " run method fail for : " + exception.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,741 @@
+package org.zhuduan.cache.storage.impl.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.zhuduan.cache.storage.AbstractCacheStorageService;
+import org.zhuduan.cache.storage.BufferCacheStorageService;
+import org.zhuduan.config.SimpleCacheConfig;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+import org.zhuduan.utils.Log4jUtil;
+
+import com.google.common.base.Strings;
+
+/***
+ *
+ * CacheStorageService的磁盘实现：用于数据总量超过内存、但是重新计算代价很高的缓存（如报表的汇总结果）
+ * 		1.数据追加写入到内存映射的数据文件(CacheDiskSegment)中，写满后切换到新的文件，key到位置的索引保存在内存中
+ * 		2.读取时直接返回指向映射文件的只读ByteBuffer（BufferCacheStorageService），SimpleCacheAspect直接解码，不需要复制
+ * 		3.覆盖和删除只修改索引（删除会追加一条删除标记），旧的数据由CacheStorageServiceDiskCompactThread整理：
+ * 		  整个文件都已经过期时直接删除文件；有效数据比例低于DISK_COMPACT_LIVE_RATIO时，把有效数据复制到最新的文件后删除
+ * 		4.总大小超过容量时，删除最早的文件（FIFO）
+ * 		5.启动时扫描目录中已有的数据文件重建索引，因此重启后之前的缓存仍然可以使用（目录通过文件锁保证只被一个实例使用）
+ * 		  同一个进程中的实例通过LOCKED_DIRECTORIES检查：同一个进程再打开一次锁文件并关闭时，操作系统会释放这个进程在该文件上的所有锁
+ * 		6.close()停止整理线程、关闭数据文件并释放目录的文件锁，之后的写入返回false；关闭的是单例时，之后的getInstance()会重新恢复
+ * 		可以单独使用，也可以作为CacheStorageServiceTieredImpl的L2，放在内存实现的后面
+ *
+ * 注意：只是缓存，写入后不会调用force刷盘，机器宕机时可能丢失最近的数据
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月30日
+ *
+ */
+public class CacheStorageServiceDiskImpl extends AbstractCacheStorageService implements BufferCacheStorageService {
+
+	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
+	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志
+
+	private static final Pattern	SEGMENT_FILE_PATTERN	=	Pattern.compile("segment-(\\d+)\\.data");
+
+	private volatile static CacheStorageServiceDiskImpl INSTANCE; 			// 声明成 volatile 的实例
+
+	private static final Set<String>	LOCKED_DIRECTORIES	=	Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());	// 当前进程中已经打开的目录
+
+	private final File				directory;							// 数据目录
+
+	private final long				capacityBytes;						// 所有数据文件的最大字节数
+
+	private final int				segmentBytes;						// 每个数据文件的字节数
+
+	private final ConcurrentHashMap<String, CacheDiskLocation>	index	=	new ConcurrentHashMap<>();	// key到数据位置的索引
+
+	private final List<CacheDiskSegment>	segments	=	new CopyOnWriteArrayList<>();	// 所有的数据文件（按序号从旧到新）
+
+	private final ReentrantLock		writeLock	=	new ReentrantLock();	// 追加写入的锁
+
+	private volatile CacheDiskSegment	activeSegment;					// 正在写入的文件
+
+	private long					nextSegmentId;						// 下一个文件的序号（只在写锁内修改）
+
+	private final FileLock			directoryLock;						// 目录的文件锁
+
+	private final String			lockedDirectory;					// 在LOCKED_DIRECTORIES中的目录路径
+
+	private final CacheStorageServiceDiskCompactThread	compactThread;	// 整理数据文件的守护线程
+
+	private final AtomicBoolean		closed			=	new AtomicBoolean();	// 是否已经close
+
+	// 统计
+	private final AtomicLong		hitCount		=	new AtomicLong();
+
+	private final AtomicLong		missCount		=	new AtomicLong();
+
+	private final AtomicLong		evictionCount	=	new AtomicLong();
+
+	private final AtomicLong		expiredCount	=	new AtomicLong();
+
+	private final AtomicLong		compactionCount	=	new AtomicLong();
+
+
+	/***
+	 * 通过单例模式来获取CacheStorageServiceDiskImpl的实例（使用默认的目录和容量）
+	 *
+	 * @return
+	 * @throws CacheException 目录无法使用时抛出
+	 */
+    public static CacheStorageServiceDiskImpl getInstance() throws CacheException {
+    	return getInstance(SimpleCacheConfig.DISK_CACHE_DIR, SimpleCacheConfig.DISK_CAPACITY_BYTES);
+    }
+
+
+    /***
+	 * 通过单例模式来获取CacheStorageServiceDiskImpl的实例
+	 * 注意：单例只会创建一次，之后传入的参数不再生效
+	 *
+	 * @param directoryPath 数据目录
+	 * @param capacityBytes 最多使用的磁盘字节数
+	 * @return
+	 * @throws CacheException 目录无法使用时抛出
+	 */
+    public static CacheStorageServiceDiskImpl getInstance(String directoryPath, Long capacityBytes) throws CacheException {
+    	// 检验入参
+    	if (Strings.isNullOrEmpty(directoryPath)){
+    		svcLog.warn("disk impl中directoryPath传入值有错误,使用了默认值");
+    		directoryPath = SimpleCacheConfig.DISK_CACHE_DIR;
+    	}
+    	if (null==capacityBytes || capacityBytes.longValue()<SimpleCacheConfig.DISK_SEGMENT_BYTES){
+    		svcLog.warn("disk impl中capacityBytes传入值有错误,使用了默认值");
+    		capacityBytes = SimpleCacheConfig.DISK_CAPACITY_BYTES;
+		}
+
+        // 二重锁检验，来防止多线程导致的线程安全问题
+    	if (INSTANCE == null) {
+            synchronized (CacheStorageServiceDiskImpl.class) {
+                if (INSTANCE == null) {
+                	INSTANCE = new CacheStorageServiceDiskImpl(new File(directoryPath), capacityBytes, SimpleCacheConfig.DISK_SEGMENT_BYTES);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+
+	/**
+	 * 获取缓存值的只读视图（直接指向映射的文件，不复制）
+	 *
+	 * @param cacheKey
+	 * @return null if error occur
+	 */
+	@Override
+	public ByteBuffer getCacheBuffer(String cacheKey) {
+		if(Strings.isNullOrEmpty(cacheKey)){
+			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+			return null;
+		}
+		final CacheDiskLocation location = getValidLocation(cacheKey);
+		if (location == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return location.getSegment().slice(location.getValueOffset(), location.getValueLength());
+	}
+
+
+    /**
+     * 获取二进制的缓存（从映射的文件中复制一份）
+     *
+     * @param cacheKey
+     * @return null if error occur
+     */
+	@Override
+	public byte[] getCacheBytes(String cacheKey) {
+		final ByteBuffer cacheBuffer = getCacheBuffer(cacheKey);
+		if (cacheBuffer == null) {
+			return null;
+		}
+		final byte[] cacheBytes = new byte[cacheBuffer.remaining()];
+		cacheBuffer.get(cacheBytes);
+		return cacheBytes;
+	}
+
+
+	/**
+     * 设置二进制的缓存: 返回true成功, false失败
+     *
+     * @param cacheKey 缓存key
+     * @param cacheBytes 缓存value
+     * @param expireTimeSeconds 过期时间, 单位秒!
+     * @return
+     */
+	@Override
+	public Boolean setCacheBytes(String cacheKey, byte[] cacheBytes, int expireTimeSeconds) {
+		if(StringUtils.isEmpty(cacheKey)){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+    		return false;
+    	}
+    	if(cacheBytes == null || cacheBytes.length == 0){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " empty value for key: " + cacheKey);
+    		return false;
+    	}
+    	if(expireTimeSeconds <= 0){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " too small expire time for key: " + cacheKey);
+    		return false;
+    	} else if (expireTimeSeconds > MAX_EXPIRE_SECONDS){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " too high expire time for key: " + cacheKey);
+    		return false;
+    	}
+    	if (closed.get()) {
+    		svcLog.warn(Log4jUtil.getCallLocation() + " disk impl is closed, key: " + cacheKey);
+    		return false;
+    	}
+    	final byte[] keyBytes = cacheKey.getBytes(UTF_8);
+    	if ((long) CacheDiskSegment.HEADER_SIZE + keyBytes.length + cacheBytes.length > segmentBytes) {
+    		svcLog.warn(Log4jUtil.getCallLocation() + " value too large for disk segment, key: " + cacheKey + " size: " + cacheBytes.length);
+    		return false;
+    	}
+    	writeLock.lock();
+    	try{
+    		final CacheDiskLocation location = append(keyBytes, cacheBytes, System.currentTimeMillis() + expireTimeSeconds*1000L);
+    		putLocation(cacheKey, location);
+    		return true;
+    	} catch (Exception exp){
+    		// 防止缓存崩溃,影响主业务逻辑
+    		sysLog.error(Log4jUtil.getCallLocation() + " disk impl error for: " + exp.getMessage());
+    	} finally {
+    		writeLock.unlock();
+    	}
+    	return false;
+	}
+
+
+    /**
+     * 检查KEY是否存在
+     *
+     * @param cacheKey
+     * @return
+     */
+	@Override
+	public Boolean isCacheKeyExists(String cacheKey) {
+		if(Strings.isNullOrEmpty(cacheKey)){
+			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+			return false;
+		}
+		return getValidLocation(cacheKey) != null;
+	}
+
+
+	/**
+     * 删除指定cacheKey（追加删除标记，重启后也不会恢复）
+     *
+     * @param cacheKey
+     * @return
+     */
+	@Override
+	public Boolean deleteCache(String cacheKey) {
+		if(Strings.isNullOrEmpty(cacheKey)){
+			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+			return false;
+		}
+		if (closed.get()) {
+			svcLog.warn(Log4jUtil.getCallLocation() + " disk impl is closed, key: " + cacheKey);
+			return false;
+		}
+		writeLock.lock();
+		try{
+			final CacheDiskLocation location = index.remove(cacheKey);
+			if (location != null) {
+				location.getSegment().getLiveBytes().addAndGet(-location.getSize());
+				append(cacheKey.getBytes(UTF_8), null, 0L);
+			}
+			return true;
+		} catch (Exception exp){
+			sysLog.error(Log4jUtil.getCallLocation() + " disk impl error for: " + exp.getMessage());
+		} finally {
+			writeLock.unlock();
+		}
+		return false;
+	}
+
+
+    /**
+     * 以step步长, cacheKey的自增, 过期时间为expireTimeSeconds秒
+     *
+     * @param cacheKey
+     * @param incrStep  以incrStep步长自增
+     * @param expireTimeSeconds  过期时间, 单位秒!
+     * @return 返回增长后的值, or 0 if error occur
+     * @throws CacheException
+     */
+	@Override
+	public Long incrCacheKey(String cacheKey, long incrStep, int expireTimeSeconds) throws CacheException {
+		throw new CacheException(CacheConstants.EXCEPTION_NOT_SUPPORT_METHOD, "Disk的实现中不支持值的增加功能");
+	}
+
+
+	/***
+	 * 整理数据文件（由CacheStorageServiceDiskCompactThread周期性调用）
+	 * 		1.文件中所有数据都已经过期时，直接删除文件
+	 * 		2.有效数据的比例低于DISK_COMPACT_LIVE_RATIO时，把有效数据复制到最新的文件，然后删除文件
+	 *
+	 * @param now 当前时间(毫秒)
+	 * @return 删除的文件个数
+	 */
+	int compact(long now) {
+		int removeCount = 0;
+		for (CacheDiskSegment segment : segments) {
+			if (closed.get()) {
+				break;
+			}
+			if (segment == activeSegment) {
+				continue;
+			}
+			final boolean isAllExpired = segment.getMaxExpireTime() < now;
+			if (isAllExpired && !hasOlderSegment(segment)) {
+				// 整个文件都已经过期（更早的文件都已经删除时，删除标记也不需要保留）
+				dropSegment(segment, false);
+				removeCount++;
+			} else if (isAllExpired || segment.getLiveBytes().get() < segment.getWritePosition() * SimpleCacheConfig.DISK_COMPACT_LIVE_RATIO) {
+				compactSegment(segment, now);
+				removeCount++;
+			}
+		}
+		return removeCount;
+	}
+
+
+	// 统计信息
+	/***
+	 * 当前索引中的key个数（包括还没有被删除的过期数据）
+	 *
+	 * @return
+	 */
+	public long getSize() {
+		return index.size();
+	}
+
+
+	public long getCapacityBytes() {
+		return capacityBytes;
+	}
+
+
+	/***
+	 * 所有数据文件已经写入的字节数（包括已经被覆盖、删除但是还没有整理的数据）
+	 *
+	 * @return
+	 */
+	public long getUsedBytes() {
+		long usedBytes = 0L;
+		for (CacheDiskSegment segment : segments) {
+			usedBytes += segment.getWritePosition();
+		}
+		return usedBytes;
+	}
+
+
+	/***
+	 * 仍然有效的数据的字节数
+	 *
+	 * @return
+	 */
+	public long getLiveBytes() {
+		long liveBytes = 0L;
+		for (CacheDiskSegment segment : segments) {
+			liveBytes += segment.getLiveBytes().get();
+		}
+		return liveBytes;
+	}
+
+
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+
+	/***
+	 * 因为超过容量删除最早的文件而被淘汰的key个数
+	 *
+	 * @return
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+
+	/***
+	 * 整理（复制有效数据后删除）的文件个数
+	 *
+	 * @return
+	 */
+	public long getCompactionCount() {
+		return compactionCount.get();
+	}
+
+
+	/***
+	 * 命中率，没有请求时返回1
+	 *
+	 * @return
+	 */
+	public double getHitRate() {
+		final long hits = hitCount.get();
+		final long requestCount = hits + missCount.get();
+		return requestCount == 0 ? 1.0D : (double) hits / requestCount;
+	}
+
+
+	// 获取未过期的位置，过期时直接从索引中删除
+	private CacheDiskLocation getValidLocation(String cacheKey) {
+		final CacheDiskLocation location = index.get(cacheKey);
+		if (location == null) {
+			return null;
+		}
+		if (location.isExpired(System.currentTimeMillis())) {
+			if (index.remove(cacheKey, location)) {
+				location.getSegment().getLiveBytes().addAndGet(-location.getSize());
+				expiredCount.incrementAndGet();
+			}
+			return null;
+		}
+		return location;
+	}
+
+
+	// 更新索引，并维护新旧文件的有效字节数（在写锁内调用）
+	private void putLocation(String cacheKey, CacheDiskLocation location) {
+		location.getSegment().getLiveBytes().addAndGet(location.getSize());
+		final CacheDiskLocation oldLocation = index.put(cacheKey, location);
+		if (oldLocation != null) {
+			oldLocation.getSegment().getLiveBytes().addAndGet(-oldLocation.getSize());
+		}
+	}
+
+
+	// 追加到正在写入的文件，写满时切换新的文件（在写锁内调用）
+	private CacheDiskLocation append(byte[] keyBytes, byte[] valueBytes, long expireTime) throws IOException {
+		if (closed.get()) {
+			throw new IOException("disk impl is closed: " + directory);
+		}
+		int offset = activeSegment.append(keyBytes, valueBytes, expireTime);
+		if (offset < 0) {
+			rollSegment();
+			offset = activeSegment.append(keyBytes, valueBytes, expireTime);
+		}
+		final int valueLength = (valueBytes == null) ? 0 : valueBytes.length;
+		return new CacheDiskLocation(activeSegment, offset, CacheDiskSegment.HEADER_SIZE + keyBytes.length + valueLength,
+									 keyBytes.length, valueLength, expireTime);
+	}
+
+
+	// 切换到新的文件，超过容量时删除最早的文件（在写锁内调用）
+	private void rollSegment() throws IOException {
+		final CacheDiskSegment segment = CacheDiskSegment.create(directory, nextSegmentId++, segmentBytes);
+		segments.add(segment);
+		activeSegment = segment;
+		while ((long) segments.size() * segmentBytes > capacityBytes && segments.size() > 1) {
+			dropSegment(segments.get(0), true);
+		}
+	}
+
+
+	// 把文件中仍然有效的数据复制到最新的文件，然后删除文件
+	private void compactSegment(CacheDiskSegment segment, long now) {
+		final boolean keepTombstone = hasOlderSegment(segment);
+		final int end = segment.getWritePosition();
+		int offset = 0;
+		while (offset < end && segments.contains(segment)) {
+			final int size = segment.recordSize(offset);
+			final String cacheKey = segment.readKey(offset);
+			if (segment.valueLength(offset) == CacheDiskSegment.TOMBSTONE) {
+				// 更早的文件中可能还有这个key的旧数据，需要保留删除标记，避免重启后恢复
+				if (keepTombstone && !index.containsKey(cacheKey)) {
+					writeLock.lock();
+					try {
+						append(cacheKey.getBytes(UTF_8), null, 0L);
+					} catch (Exception exp) {
+						sysLog.error(Log4jUtil.getCallLocation() + " disk compact error for: " + exp.getMessage());
+					} finally {
+						writeLock.unlock();
+					}
+				}
+			} else {
+				final CacheDiskLocation location = index.get(cacheKey);
+				if (location != null && location.isAt(segment, offset)) {
+					if (location.isExpired(now)) {
+						if (index.remove(cacheKey, location)) {
+							segment.getLiveBytes().addAndGet(-size);
+							expiredCount.incrementAndGet();
+						}
+					} else {
+						moveRecord(cacheKey, location);
+					}
+				}
+			}
+			offset += size;
+		}
+		// close之后有效数据可能没有复制完，保留文件
+		if (!closed.get() && segments.remove(segment)) {
+			segment.delete();
+			compactionCount.incrementAndGet();
+		}
+	}
+
+
+	// 把一条有效的数据复制到最新的文件
+	private void moveRecord(String cacheKey, CacheDiskLocation location) {
+		final byte[] valueBytes = new byte[location.getValueLength()];
+		location.getSegment().slice(location.getValueOffset(), location.getValueLength()).get(valueBytes);
+		writeLock.lock();
+		try {
+			// 复制的过程中可能已经被覆盖或者删除
+			if (index.get(cacheKey) == location) {
+				putLocation(cacheKey, append(cacheKey.getBytes(UTF_8), valueBytes, location.getExpireTime()));
+			}
+		} catch (Exception exp) {
+			sysLog.error(Log4jUtil.getCallLocation() + " disk compact error for: " + exp.getMessage());
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+
+	// 删除文件，以及索引中指向这个文件的key
+	private void dropSegment(CacheDiskSegment segment, boolean isEviction) {
+		if (!segments.remove(segment)) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		final int end = segment.getWritePosition();
+		int offset = 0;
+		while (offset < end) {
+			if (segment.valueLength(offset) != CacheDiskSegment.TOMBSTONE) {
+				final String cacheKey = segment.readKey(offset);
+				final CacheDiskLocation location = index.get(cacheKey);
+				if (location != null && location.isAt(segment, offset) && index.remove(cacheKey, location)) {
+					if (isEviction && !location.isExpired(now)) {
+						evictionCount.incrementAndGet();
+					} else {
+						expiredCount.incrementAndGet();
+					}
+				}
+			}
+			offset += segment.recordSize(offset);
+		}
+		if (!segment.delete()) {
+			sysLog.error(Log4jUtil.getCallLocation() + " disk impl delete segment file failed, id: " + segment.getId());
+		}
+	}
+
+
+	private boolean hasOlderSegment(CacheDiskSegment segment) {
+		for (CacheDiskSegment otherSegment : segments) {
+			if (otherSegment.getId() < segment.getId()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	// 启动时按序号从旧到新扫描已有的数据文件，重建索引
+	private void recover() throws IOException {
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+		final long now = System.currentTimeMillis();
+		for (File file : files) {
+			final Matcher matcher = SEGMENT_FILE_PATTERN.matcher(file.getName());
+			if (!matcher.matches()) {
+				continue;
+			}
+			final long id = Long.parseLong(matcher.group(1));
+			final CacheDiskSegment segment;
+			try {
+				segment = CacheDiskSegment.open(file, id);
+			} catch (IOException exception) {
+				sysLog.error(Log4jUtil.getCallLocation() + " disk impl skip bad segment file: " + file.getName() + " for: " + exception.getMessage());
+				continue;
+			}
+			final int end = segment.scanEnd();
+			int offset = 0;
+			while (offset < end) {
+				final int size = segment.recordSize(offset);
+				final String cacheKey = segment.readKey(offset);
+				final int valueLength = segment.valueLength(offset);
+				final long expireTime = segment.expireTime(offset);
+				if (valueLength != CacheDiskSegment.TOMBSTONE) {
+					segment.updateMaxExpireTime(expireTime);
+				}
+				if (valueLength != CacheDiskSegment.TOMBSTONE && expireTime >= now) {
+					putLocation(cacheKey, new CacheDiskLocation(segment, offset, size, size - CacheDiskSegment.HEADER_SIZE - valueLength,
+																valueLength, expireTime));
+				} else {
+					// 删除标记或者已经过期：更早的数据也不再有效
+					final CacheDiskLocation oldLocation = index.remove(cacheKey);
+					if (oldLocation != null) {
+						oldLocation.getSegment().getLiveBytes().addAndGet(-oldLocation.getSize());
+					}
+				}
+				offset += size;
+			}
+			segment.setWritePosition(end);
+			segments.add(segment);
+			nextSegmentId = Math.max(nextSegmentId, id + 1);
+		}
+	}
+
+
+	/***
+	 * 停止整理线程，关闭所有数据文件并释放目录的文件锁（重复调用没有影响）
+	 * 之后的写入和删除返回false，已经读取到的buffer仍然可以使用
+	 * 关闭的是单例时，之后的getInstance()会创建新的实例并从目录中恢复
+	 *
+	 */
+	public void close() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		compactThread.interrupt();
+		writeLock.lock();
+		try {
+			for (CacheDiskSegment segment : segments) {
+				segment.close();
+			}
+			directoryLock.release();
+			directoryLock.channel().close();
+		} catch (IOException exception) {
+			sysLog.error(Log4jUtil.getCallLocation() + " disk impl close error for: " + exception.getMessage());
+		} finally {
+			LOCKED_DIRECTORIES.remove(lockedDirectory);
+			writeLock.unlock();
+		}
+		synchronized (CacheStorageServiceDiskImpl.class) {
+			if (INSTANCE == this) {
+				INSTANCE = null;
+			}
+		}
+		svcLog.info("disk impl closed: " + directory);
+	}
+
+
+	private static void closeQuietly(RandomAccessFile file) {
+		if (file == null) {
+			return;
+		}
+		try {
+			file.close();
+		} catch (IOException exception) {
+			sysLog.error(Log4jUtil.getCallLocation() + " disk impl close lock file error for: " + exception.getMessage());
+		}
+	}
+
+
+	/***
+	 * 构造器（一般通过getInstance()使用单例）
+	 * 注意：每个实例都会启动一个整理线程并锁住目录，不再使用时需要调用close()
+	 *
+	 * @param directory
+	 * @param capacityBytes
+	 * @param segmentBytes
+	 * @throws CacheException
+	 */
+	CacheStorageServiceDiskImpl(File directory, long capacityBytes, int segmentBytes) throws CacheException {
+		this.directory = directory;
+		this.capacityBytes = capacityBytes;
+		this.segmentBytes = segmentBytes;
+		String directoryPath = null;
+		RandomAccessFile lockFile = null;
+		boolean initialized = false;
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("can not create directory " + directory);
+			}
+			// 同一个目录只能被一个实例使用：同一个进程中先检查LOCKED_DIRECTORIES（不能再打开锁文件），其它进程持有锁时tryLock返回null
+			final String canonicalPath = directory.getCanonicalPath();
+			if (!LOCKED_DIRECTORIES.add(canonicalPath)) {
+				throw new IOException("directory is in use: " + directory);
+			}
+			directoryPath = canonicalPath;
+			lockFile = new RandomAccessFile(new File(directory, ".lock"), "rw");
+			FileLock lock;
+			try {
+				lock = lockFile.getChannel().tryLock();
+			} catch (OverlappingFileLockException exception) {
+				lock = null;
+			}
+			if (lock == null) {
+				throw new IOException("directory is in use: " + directory);
+			}
+			this.directoryLock = lock;
+			this.lockedDirectory = directoryPath;
+			recover();
+			if (segments.isEmpty()) {
+				writeLock.lock();
+				try {
+					rollSegment();
+				} finally {
+					writeLock.unlock();
+				}
+			} else {
+				// 继续写入最新的文件
+				activeSegment = segments.get(segments.size() - 1);
+			}
+			initialized = true;
+		} catch (IOException exception) {
+			throw new CacheException(CacheConstants.EXCEPTION_INITIAL_PARAM, "disk impl initial failed for: " + exception.getMessage());
+		} finally {
+			if (!initialized) {
+				// 初始化失败：关闭已经打开的数据文件和锁文件（关闭锁文件同时释放文件锁）
+				for (CacheDiskSegment segment : segments) {
+					segment.close();
+				}
+				closeQuietly(lockFile);
+				if (directoryPath != null) {
+					LOCKED_DIRECTORIES.remove(directoryPath);
+				}
+			}
+		}
+		svcLog.info("disk impl recovered " + index.size() + " keys from " + segments.size() + " segments in " + directory);
+
+		// 启动整理数据文件的守护线程
+		this.compactThread = new CacheStorageServiceDiskCompactThread(this);
+		compactThread.setDaemon(true);
+		compactThread.start();
+	}
+}
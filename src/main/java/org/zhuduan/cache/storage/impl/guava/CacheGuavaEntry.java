@@ -0,0 +1,61 @@
+package org.zhuduan.cache.storage.impl.guava;
+
+import org.zhuduan.cache.storage.CacheTimerWheel;
+
+/***
+ *
+ * ExpireGuava中保存的一条缓存：值和过期的时间点
+ * 		值为byte[]（二进制的值）或者直接保存的对象，过期时间为基本类型
+ * 		同时保存了key和时间轮中的Timer，过期时由时间轮主动删除，不需要等到下次读取或者被淘汰
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月3日
+ *
+ */
+final class CacheGuavaEntry {
+
+	static final int			SHALLOW_SIZE	=	72;			// 对象本身和时间轮中Timer的字节数（对象头12 + 引用4*3 + long 8 + boolean 1，对齐后40；Timer 32）
+
+	private final String		key;
+
+	private final Object		value;						// byte[]或者直接保存的对象
+
+	private final long			expireTime;					// 过期的时间点(毫秒)
+
+	private volatile boolean	removed;					// 是否已经从Guava中删除（删除后需要从时间轮中取消）
+
+	CacheTimerWheel.Timer<CacheGuavaEntry>	timer;			// 时间轮中的句柄（只在ExpireGuava的timerLock内访问）
+
+
+	CacheGuavaEntry(String key, Object value, long expireTime) {
+		this.key = key;
+		this.value = value;
+		this.expireTime = expireTime;
+	}
+
+
+	boolean isExpired(long now) {
+		return now > expireTime;
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	Object getValue() {
+		return value;
+	}
+
+	long getExpireTime() {
+		return expireTime;
+	}
+
+	boolean isRemoved() {
+		return removed;
+	}
+
+	void markRemoved() {
+		this.removed = true;
+	}
+}
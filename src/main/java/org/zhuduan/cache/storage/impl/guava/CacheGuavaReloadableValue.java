@@ -0,0 +1,36 @@
+package org.zhuduan.cache.storage.impl.guava;
+
+import org.zhuduan.cache.storage.ReloadableCacheStorageService;
+
+/***
+ *
+ * 开启了refreshAfterWrite的OriginGuava中保存的一条缓存：值和重新加载它的Reloader
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月6日
+ *
+ */
+final class CacheGuavaReloadableValue {
+
+	static final int			SHALLOW_SIZE	=	16;			// 对象本身的字节数（对象头12 + 引用4*2，对齐后16；不计算Reloader引用的对象）
+
+	private final Object		value;						// byte[]或者直接保存的对象
+
+	private final ReloadableCacheStorageService.Reloader	reloader;
+
+
+	CacheGuavaReloadableValue(Object value, ReloadableCacheStorageService.Reloader reloader) {
+		this.value = value;
+		this.reloader = reloader;
+	}
+
+
+	Object getValue() {
+		return value;
+	}
+
+	ReloadableCacheStorageService.Reloader getReloader() {
+		return reloader;
+	}
+}
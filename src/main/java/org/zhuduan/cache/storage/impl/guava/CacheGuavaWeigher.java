@@ -0,0 +1,70 @@
+package org.zhuduan.cache.storage.impl.guava;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.zhuduan.cache.storage.CacheWeigher;
+
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/***
+ *
+ * Guava实现使用的Weigher：按CacheWeigher估算的字节数限制容量（CacheBuilder.maximumWeight），同时统计当前的总字节数
+ * 		1.Guava在写入时调用weigh，此时累加字节数；删除（包括覆盖、淘汰、过期）时通过RemovalListener减去
+ * 		2.CacheGuavaEntry、CacheGuavaReloadableValue包装的值额外计算包装对象本身的字节数
+ * 		3.按个数限制容量时（countLimit），返回给Guava的权重固定为1，但仍然统计估算的字节数
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月2日
+ *
+ */
+final class CacheGuavaWeigher<V> implements Weigher<String, V>, RemovalListener<String, V> {
+
+	private final AtomicLong	weightedSize	=	new AtomicLong();		// 当前的总字节数
+
+	private final boolean		countLimit;								// 是否按个数限制容量
+
+
+	CacheGuavaWeigher() {
+		this(false);
+	}
+
+
+	CacheGuavaWeigher(boolean countLimit) {
+		this.countLimit = countLimit;
+	}
+
+
+	@Override
+	public int weigh(String cacheKey, V cacheValue) {
+		final int weight = weightOf(cacheKey, cacheValue);
+		weightedSize.addAndGet(weight);
+		return countLimit ? 1 : weight;
+	}
+
+
+	@Override
+	public void onRemoval(RemovalNotification<String, V> notification) {
+		if (notification.getValue() != null) {
+			weightedSize.addAndGet(-weightOf(notification.getKey(), notification.getValue()));
+		}
+	}
+
+
+	long getWeightedSize() {
+		return Math.max(weightedSize.get(), 0L);
+	}
+
+
+	private static int weightOf(String cacheKey, Object cacheValue) {
+		if (cacheValue instanceof CacheGuavaEntry) {
+			return CacheWeigher.weigh(cacheKey, ((CacheGuavaEntry) cacheValue).getValue()) + CacheGuavaEntry.SHALLOW_SIZE;
+		}
+		if (cacheValue instanceof CacheGuavaReloadableValue) {
+			return CacheWeigher.weigh(cacheKey, ((CacheGuavaReloadableValue) cacheValue).getValue()) + CacheGuavaReloadableValue.SHALLOW_SIZE;
+		}
+		return CacheWeigher.weigh(cacheKey, cacheValue);
+	}
+}
@@ -0,0 +1,52 @@
+package org.zhuduan.cache.storage.impl.guava;
+
+import org.apache.log4j.Logger;
+import org.zhuduan.config.SimpleCacheConfig;
+import org.zhuduan.utils.Log4jUtil;
+
+
+/***
+ * 
+ * 声明为守护线程：  用于周期性清理ExpireGuava中的过期数据
+ * 
+ * 		每个tick（GUARD_THREAD_TICK_MILLIS）推进一次ExpireGuava的时间轮，只处理到期的对象，不需要遍历整个Guava缓存
+ * 		因此过期的对象会在过期后大约1~2秒内被删除，不会一直占用内存直到被读取或者按容量淘汰
+ * 
+ * 
+ * @author	zhuhaifeng
+ * @date	2017年5月5日
+ *
+ */
+class CacheStorageServiceExpireGuavaGuardThread extends Thread {
+	
+	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
+	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志	
+	
+	private final CacheStorageServiceExpireGuavaImpl expireGuavaImpl;		// 需要清理的ExpireGuava
+	
+	
+	CacheStorageServiceExpireGuavaGuardThread(CacheStorageServiceExpireGuavaImpl expireGuavaImpl){
+		super("SimpleCache-expireGuava-guard");
+		this.expireGuavaImpl = expireGuavaImpl;
+	}
+	
+	
+	@Override
+	public void run(){
+		while (true) {
+			try {
+				// 推进时间轮（Guava缓存为空时也需要推进，保证时间轮的时间是最新的）
+				int cleanObjCount = expireGuavaImpl.expire(System.currentTimeMillis());
+				if (cleanObjCount > 0 && svcLog.isDebugEnabled()){
+					svcLog.debug("this tick clean obj num in expire guava : " + cleanObjCount);
+				}
+				Thread.sleep(SimpleCacheConfig.GUARD_THREAD_TICK_MILLIS);
+			} catch (InterruptedException exception) {
+				return;
+			} catch (Exception exception) {
+				// 如果出错，则需要catch到错误，避免影响主流程
+				sysLog.error(Log4jUtil.getCallLocation() + " run method fail for : " + exception.getMessage());
+			}
+		}
+	}
+}
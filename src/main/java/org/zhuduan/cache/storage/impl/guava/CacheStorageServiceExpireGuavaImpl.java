@@ -1,38 +1,95 @@
 package org.zhuduan.cache.storage.impl.guava;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.zhuduan.cache.storage.AbstractCacheStorageService;
+import org.zhuduan.cache.storage.CacheBatchValue;
+import org.zhuduan.cache.storage.CacheCounter;
+import org.zhuduan.cache.storage.CacheMemoryPressureMonitor;
 import org.zhuduan.cache.storage.CacheStorageService;
+import org.zhuduan.cache.storage.CacheTimerWheel;
+import org.zhuduan.cache.storage.LocalCacheStorageService;
 import org.zhuduan.config.SimpleCacheConfig;
-import org.zhuduan.model.CacheInfoModel;
-import org.zhuduan.utils.CacheConstants;
 import org.zhuduan.utils.CacheException;
 import org.zhuduan.utils.Log4jUtil;
 
 import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 
 /***
  * 
  * 使用GuavaCache来缓存信息
- * 但是通过将String包装成CacheInfoModel实现了get前先验证数据是否过期，来实现不同key可以用不同的过期时间设置
+ * 但是通过将值包装成CacheGuavaEntry（值和过期的时间点）来实现不同key可以用不同的过期时间设置
  * 其中在使用GuavaCache时：
  * 		1.因为自定义了过期时间，因此没有涉及guava自身的expire time（Access和Write都是）
- * 		2.为了应对极端场景，使用了guava的SoftReference设置（可能会带来缓存命中稍差，但是能有效在缓存吃紧情况下保证程序健壮性）
+ * 		  每条缓存写入时放入分层时间轮（CacheTimerWheel），守护线程每个tick推进一次，过期后大约1~2秒内主动删除
+ * 		  （不需要等到下次读取或者被淘汰）；读取和isCacheKeyExists时也会校验过期时间，不会返回过期的数据
+ * 		2.不使用SoftReference（GC的开销更大而且淘汰不可预期），内存紧张时由CacheMemoryPressureMonitor通知，主动释放一部分缓存
+ * 		3.同时支持直接保存对象（LocalCacheStorageService），对象和二进制的值使用同样的过期策略
+ * 		4.按CacheWeigher估算的字节数限制容量（默认为SimpleCacheConfig.EXPIRE_GUAVACACHE_MAXIMUM_BYTES），超过时由Guava按LRU淘汰
+ * 		5.incrCacheKey使用按线程分段的计数器（CacheCounter），可以通过flushCounters批量同步到Redis
+ * 		6.批量操作使用Guava的getAllPresent、putAll和invalidateAll
+ * 		7.每个实例有一个推进时间轮的守护线程，并注册到CacheMemoryPressureMonitor：
+ * 		  一般通过getInstance()使用单例；直接构造的实例不再使用时需要调用close()，停止守护线程并取消注册
  * 
  * 
  * @author	zhuhaifeng
  * @date	2017年2月23日
  *
  */
-public class CacheStorageServiceExpireGuavaImpl implements CacheStorageService {
+public class CacheStorageServiceExpireGuavaImpl extends AbstractCacheStorageService implements LocalCacheStorageService {
 
 	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
 	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志
 
-	private volatile Cache<String,CacheInfoModel> guavaCache;				// 内部使用的Guava缓存
+	private volatile Cache<String,CacheGuavaEntry> guavaCache;				// 内部使用的Guava缓存
+	
+	private final CacheGuavaWeigher<CacheGuavaEntry> guavaWeigher = new CacheGuavaWeigher<>();	// 估算每个缓存的字节数，并统计总字节数
+	
+	private final long				maximumBytes;							// 可以使用的最大内存字节数
+	
+	private static final int		TIMER_BUFFER_DRAIN_THRESHOLD	=	1024;	// 待调度的缓存超过该数量时由写线程尝试处理
+	
+	// 过期的时间轮，只能在timerLock内访问
+	private final ReentrantLock		timerLock		=	new ReentrantLock();
+	
+	private final CacheTimerWheel<CacheGuavaEntry>	timerWheel	=	new CacheTimerWheel<>(System.currentTimeMillis());
+	
+	private final CacheTimerWheel.ExpireListener<CacheGuavaEntry>	expireListener	=	new CacheTimerWheel.ExpireListener<CacheGuavaEntry>() {
+		@Override
+		public long onExpire(CacheGuavaEntry cacheEntry, long now) {
+			return onTimerExpire(cacheEntry, now);
+		}
+	};
+	
+	// 写入和删除的缓存先放入队列，由守护线程（或者队列太长时由写线程）统一在时间轮中调度和取消
+	private final ConcurrentLinkedQueue<CacheGuavaEntry>	timerBuffer	=	new ConcurrentLinkedQueue<>();
+	
+	private final AtomicInteger		pendingTimers	=	new AtomicInteger();
+	
+	private final AtomicLong		expiredCount	=	new AtomicLong();		// 因为过期而被时间轮删除的总次数
+	
+	private final CacheStorageServiceExpireGuavaGuardThread	expireGuardThread;		// 推进时间轮的守护线程
+	
+	private final CacheMemoryPressureMonitor.Listener		memoryPressureListener;	// 内存紧张时释放缓存的Listener
+	
+	private final AtomicBoolean		closed			=	new AtomicBoolean();	// 是否已经close
 	
 	private volatile static CacheStorageServiceExpireGuavaImpl INSTANCE; 	// 单例模式，声明成 volatile 的实例	
 	
@@ -44,11 +101,29 @@ public class CacheStorageServiceExpireGuavaImpl implements CacheStorageService {
 	 * @throws CacheException
 	 */
     public static CacheStorageServiceExpireGuavaImpl getInstance() {
+    	return getInstance(SimpleCacheConfig.EXPIRE_GUAVACACHE_MAXIMUM_BYTES);
+    }
+    
+    
+    /***
+	 * 通过单例模式来获取CacheStorageServiceExpireGuavaImpl的实例
+	 * 注意：单例只会创建一次，之后传入的maximumBytes不再生效
+	 * 
+	 * @param maximumBytes 可以使用的最大内存字节数（按CacheWeigher估算）
+	 * @return
+	 */
+    public static CacheStorageServiceExpireGuavaImpl getInstance(Long maximumBytes) {
+    	// 检验入参
+    	if (null==maximumBytes || maximumBytes.longValue()<=0L){
+    		svcLog.warn("expire guava中maximumBytes传入值有错误,使用了默认值");
+    		maximumBytes = SimpleCacheConfig.EXPIRE_GUAVACACHE_MAXIMUM_BYTES;
+		}
+    	
         // 二重锁检验，来防止多线程导致的线程安全问题
     	if (INSTANCE == null) {                         
             synchronized (CacheStorageServiceExpireGuavaImpl.class) {
                 if (INSTANCE == null) {
-                	INSTANCE = new CacheStorageServiceExpireGuavaImpl();
+                	INSTANCE = new CacheStorageServiceExpireGuavaImpl(maximumBytes);
                 }
             }
         }
@@ -57,42 +132,76 @@ public class CacheStorageServiceExpireGuavaImpl implements CacheStorageService {
 	
     
 	@Override
-	public String getCache(String cacheKey) {
+	public byte[] getCacheBytes(String cacheKey) {
+		Object cacheValue = getValidValue(cacheKey);
+		return (cacheValue instanceof byte[]) ? (byte[]) cacheValue : null;
+	}
+	
+	
+	@Override
+	public Object getCacheObject(String cacheKey) {
+		Object cacheValue = getValidValue(cacheKey);
+		if (cacheValue instanceof CacheCounter) {
+			// incrCacheKey的计数器返回当前的值
+			return ((CacheCounter) cacheValue).sum();
+		}
+		return (cacheValue instanceof byte[]) ? null : cacheValue;
+	}
+	
+	
+	// 获取未过期的缓存值，过期时直接清理
+	private Object getValidValue(String cacheKey) {
 		if(Strings.isNullOrEmpty(cacheKey)){
 			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
 			return null;
 		}		
-		CacheInfoModel infoModel = guavaCache.getIfPresent(cacheKey);		
+		CacheGuavaEntry cacheEntry = guavaCache.getIfPresent(cacheKey);		
 		// key本身不存在
-		if ( infoModel==null ){
+		if ( cacheEntry==null ){
 			return null;
 		}
 		
-		// 如果信息不存在或者已经过期
-		if ( infoModel.getCacheValue()==null
-				|| infoModel.getCacheBeginTimeLong()==null
-				|| infoModel.getCacheExpireTimeLong()==null 
-				|| ((System.currentTimeMillis() - infoModel.getCacheBeginTimeLong())>infoModel.getCacheExpireTimeLong()))
-		{
-			guavaCache.invalidate(cacheKey);
-			svcLog.info("clean obj in expire guava for key : " + cacheKey);
+		// 如果已经过期
+		if ( cacheEntry.isExpired(System.currentTimeMillis()) ){
+			// 时间轮还没有处理到（最多1~2秒），直接删除
+			guavaCache.asMap().remove(cacheKey, cacheEntry);
 			return null;
 		}
-		return infoModel.getCacheValue();
+		return cacheEntry.getValue();
 	}
 
 	
 	@Override
-	public Boolean setCache(String cacheKey, String cacheValue, int expireTimeSeconds) {
+	public Boolean setCacheBytes(String cacheKey, byte[] cacheBytes, int expireTimeSeconds) {
 		if(StringUtils.isEmpty(cacheKey)){
     		// 直接返回设置不成功，避免导致业务逻辑出错
     		svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
     		return false;
     	}
-    	if(StringUtils.isEmpty(cacheValue)){
+    	if(cacheBytes == null || cacheBytes.length == 0){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " empty value for key: " + cacheKey);
+    		return false;
+    	}
+    	return putValue(cacheKey, cacheBytes, expireTimeSeconds);
+	}
+	
+	
+	@Override
+	public Boolean setCacheObject(String cacheKey, Object cacheObject, int expireTimeSeconds) {
+		if(StringUtils.isEmpty(cacheKey)){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+    		return false;
+    	}
+    	if(cacheObject == null){
     		svcLog.warn(Log4jUtil.getCallLocation() + " empty value for key: " + cacheKey);
     		return false;
     	}
+    	return putValue(cacheKey, cacheObject, expireTimeSeconds);
+	}
+	
+	
+	// 校验过期时间，并保存缓存值（byte[]或者对象）
+	private Boolean putValue(String cacheKey, Object cacheValue, int expireTimeSeconds) {
     	if(expireTimeSeconds <= 0){
     		svcLog.warn(Log4jUtil.getCallLocation() + " too small expire time for key: " + cacheKey);
     		return false;
@@ -102,13 +211,9 @@ public class CacheStorageServiceExpireGuavaImpl implements CacheStorageService {
     	}
 		
     	try{
-    		// 将缓存信息封装起来
-    		CacheInfoModel cacheInfoModel = new CacheInfoModel();
-    		cacheInfoModel.setCacheValue(cacheValue);
-    		cacheInfoModel.setCacheExpireTimeLong((expireTimeSeconds*1000L));
-    		cacheInfoModel.setCacheBeginTimeLong(System.currentTimeMillis());
-    		
-    		guavaCache.put(cacheKey, cacheInfoModel);
+    		final CacheGuavaEntry cacheEntry = new CacheGuavaEntry(cacheKey, cacheValue, System.currentTimeMillis() + expireTimeSeconds*1000L);
+    		guavaCache.put(cacheKey, cacheEntry);
+    		afterWrite(cacheEntry);
     		return true;
     	} catch (Exception exp){ 
     		// 防止缓存崩溃,影响主业务逻辑
@@ -120,32 +225,360 @@ public class CacheStorageServiceExpireGuavaImpl implements CacheStorageService {
 	
 	@Override
 	public Boolean isCacheKeyExists(String cacheKey) {
-		CacheInfoModel infoModel = guavaCache.getIfPresent(cacheKey);
-		if (null == infoModel || null == infoModel.getCacheValue()){
-			return false;
-		}
-		return true;
+		// 过期的缓存认为不存在
+		return getValidValue(cacheKey) != null;
 	}
 
 	
 	@Override
 	public Boolean deleteCache(String cacheKey) {
+		if(StringUtils.isEmpty(cacheKey)){
+			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+			return false;
+		}
 		guavaCache.invalidate(cacheKey);
 		return true;
 	}
 
 	
 	@Override
-	public Long incrCacheKey(String cacheKey, long incrStep, int expireTimeSeconds) throws CacheException {
-		throw new CacheException(CacheConstants.EXCEPTION_NOT_SUPPORT_METHOD, "ExpireGuava的实现中不支持值的增加功能");
+	public Map<String, byte[]> getAll(Collection<String> cacheKeys) {
+		final Map<String, byte[]> result = new HashMap<>();
+		final List<String> validKeys = validKeys(cacheKeys);
+		if (validKeys.isEmpty()) {
+			return result;
+		}
+		final long now = System.currentTimeMillis();
+		for (Map.Entry<String, CacheGuavaEntry> entry : guavaCache.getAllPresent(validKeys).entrySet()) {
+			final CacheGuavaEntry cacheEntry = entry.getValue();
+			if (cacheEntry.isExpired(now)) {
+				// 时间轮还没有处理到，直接删除
+				guavaCache.asMap().remove(entry.getKey(), cacheEntry);
+				continue;
+			}
+			if (cacheEntry.getValue() instanceof byte[]) {
+				result.put(entry.getKey(), (byte[]) cacheEntry.getValue());
+			}
+		}
+		return result;
+	}
+	
+	
+	@Override
+	public Boolean setAll(Map<String, CacheBatchValue> cacheValues) {
+		if (cacheValues == null) {
+			return false;
+		}
+		boolean result = true;
+		final long now = System.currentTimeMillis();
+		final Map<String, CacheGuavaEntry> cacheEntries = new HashMap<>();
+		for (Map.Entry<String, CacheBatchValue> entry : cacheValues.entrySet()) {
+			final CacheBatchValue cacheValue = entry.getValue();
+			if (!CacheBatchValue.isValid(entry.getKey(), cacheValue)) {
+				result = false;
+				continue;
+			}
+			cacheEntries.put(entry.getKey(), new CacheGuavaEntry(entry.getKey(), cacheValue.getCacheBytes(), now + cacheValue.getExpireTimeSeconds()*1000L));
+		}
+		try{
+			guavaCache.putAll(cacheEntries);
+			for (CacheGuavaEntry cacheEntry : cacheEntries.values()) {
+				afterWrite(cacheEntry);
+			}
+		} catch (Exception exp){ 
+			// 防止缓存崩溃,影响主业务逻辑
+			sysLog.error(Log4jUtil.getCallLocation() + " expire guava error for: " + exp.getMessage());
+			return false;
+		}
+		return result;
+	}
+	
+	
+	@Override
+	public Boolean deleteAll(Collection<String> cacheKeys) {
+		final List<String> validKeys = validKeys(cacheKeys);
+		guavaCache.invalidateAll(validKeys);
+		return cacheKeys != null && validKeys.size() == cacheKeys.size();
+	}
+	
+	
+	// 去掉空的key（Guava的批量方法不接受null）
+	private static List<String> validKeys(Collection<String> cacheKeys) {
+		final List<String> validKeys = new ArrayList<>(cacheKeys == null ? 0 : cacheKeys.size());
+		if (cacheKeys == null) {
+			return validKeys;
+		}
+		for (String cacheKey : cacheKeys) {
+			if(Strings.isNullOrEmpty(cacheKey)){
+				svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+				continue;
+			}
+			validKeys.add(cacheKey);
+		}
+		return validKeys;
+	}
+	
+	
+	/**
+     * 以step步长, cacheKey的自增, 过期时间为expireTimeSeconds秒
+     * 		计数器（CacheCounter）作为缓存值保存，过期时间只在创建计数器时设置（之后的自增不会延长过期时间）
+     * 		key已经保存了其它的值时不自增，返回0
+     * 
+     * @param cacheKey
+     * @param incrStep  以incrStep步长自增
+     * @param expireTimeSeconds  过期时间, 单位秒!
+     * @return 返回增长后的值（并发自增时为近似值）, or 0 if error occur
+     */
+	@Override
+	public Long incrCacheKey(String cacheKey, long incrStep, int expireTimeSeconds) {
+		if(StringUtils.isEmpty(cacheKey)){
+			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+			return 0L;
+		}
+		if(expireTimeSeconds <= 0){
+			svcLog.warn(Log4jUtil.getCallLocation() + " too small expire time for key: " + cacheKey);
+			return 0L;
+		} else if (expireTimeSeconds > MAX_EXPIRE_SECONDS){
+			svcLog.warn(Log4jUtil.getCallLocation() + " too high expire time for key: " + cacheKey);
+			return 0L;
+		}
+		try{
+			final long now = System.currentTimeMillis();
+			final ConcurrentMap<String, CacheGuavaEntry> cacheMap = guavaCache.asMap();
+			while (true) {
+				final CacheGuavaEntry cacheEntry = cacheMap.get(cacheKey);
+				if (cacheEntry == null || cacheEntry.isExpired(now)) {
+					// 不存在或者已经过期时创建新的计数器（并发创建时只有一个能成功）
+					final CacheCounter newCounter = new CacheCounter(expireTimeSeconds);
+					final CacheGuavaEntry newEntry = new CacheGuavaEntry(cacheKey, newCounter, now + expireTimeSeconds*1000L);
+					final boolean isCreated = (cacheEntry == null) ? cacheMap.putIfAbsent(cacheKey, newEntry) == null
+																	: cacheMap.replace(cacheKey, cacheEntry, newEntry);
+					if (isCreated) {
+						afterWrite(newEntry);
+						return newCounter.add(incrStep);
+					}
+					continue;
+				}
+				if (cacheEntry.getValue() instanceof CacheCounter) {
+					return ((CacheCounter) cacheEntry.getValue()).add(incrStep);
+				}
+				svcLog.warn(Log4jUtil.getCallLocation() + " not a counter for key: " + cacheKey);
+				return 0L;
+			}
+		} catch (Exception exp){ 
+			// 防止缓存崩溃,影响主业务逻辑
+			sysLog.error(Log4jUtil.getCallLocation() + " expire guava error for: " + exp.getMessage());
+		}
+		return 0L;
+	}
+	
+	
+	/***
+	 * 把本地计数器（incrCacheKey）累加的增量批量同步到远程实现（如Redis），同步失败的增量下次调用时重试
+	 * 注意：计数器过期或者被淘汰后，还没有同步的增量会丢失，因此同步的间隔需要小于计数器的过期时间
+	 * 
+	 * @param targetStorageService 同步的目标实现
+	 * @return 同步成功的计数器个数
+	 */
+	public int flushCounters(CacheStorageService targetStorageService) {
+		final long now = System.currentTimeMillis();
+		final Map<String, CacheCounter> counters = new HashMap<>();
+		for (Map.Entry<String, CacheGuavaEntry> entry : guavaCache.asMap().entrySet()) {
+			if (entry.getValue().getValue() instanceof CacheCounter && !entry.getValue().isExpired(now)) {
+				counters.put(entry.getKey(), (CacheCounter) entry.getValue().getValue());
+			}
+		}
+		return CacheCounter.flush(counters, targetStorageService);
 	}
 
 	
-	// 私有的构造器
+	/***
+	 * 当前缓存的个数（包括还没有被时间轮处理的过期数据）
+	 * 
+	 * @return
+	 */
+	public long getSize() {
+		return guavaCache.size();
+	}
+	
+	
+	/***
+	 * 因为过期而被时间轮删除的总次数
+	 * 
+	 * @return
+	 */
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+	
+	
+	/***
+	 * 推进时间轮，删除所有到期的缓存
+	 * 由CacheStorageServiceExpireGuavaGuardThread周期性调用（会阻塞等待锁）
+	 * 
+	 * @param now 当前时间(毫秒)
+	 * @return 本次过期删除的个数
+	 */
+	int expire(long now) {
+		int count;
+		timerLock.lock();
+		try {
+			drainTimerBuffer();
+			count = timerWheel.advance(now, expireListener);
+		} finally {
+			timerLock.unlock();
+		}
+		expiredCount.addAndGet(count);
+		return count;
+	}
+	
+	
+	// 记录需要在时间轮中调度（写入）或者取消（删除）的缓存，太多时由当前线程处理
+	private void afterWrite(CacheGuavaEntry cacheEntry) {
+		timerBuffer.add(cacheEntry);
+		// 时间轮到期删除时也会回调到这里，此时不能在推进时间轮的过程中修改时间轮
+		if (pendingTimers.incrementAndGet() >= TIMER_BUFFER_DRAIN_THRESHOLD && !timerLock.isHeldByCurrentThread() && timerLock.tryLock()) {
+			try {
+				drainTimerBuffer();
+			} finally {
+				timerLock.unlock();
+			}
+		}
+	}
+	
+	
+	// 以下方法只在timerLock内调用
+	private void drainTimerBuffer() {
+		CacheGuavaEntry cacheEntry;
+		while ((cacheEntry = timerBuffer.poll()) != null) {
+			pendingTimers.decrementAndGet();
+			if (cacheEntry.isRemoved()) {
+				// 已经被覆盖、删除或者淘汰（可能还没有调度过）
+				timerWheel.cancel(cacheEntry.timer);
+				cacheEntry.timer = null;
+			} else if (cacheEntry.timer == null) {
+				cacheEntry.timer = timerWheel.schedule(cacheEntry, cacheEntry.getExpireTime());
+			}
+		}
+	}
+	
+	
+	private long onTimerExpire(CacheGuavaEntry cacheEntry, long now) {
+		if (!cacheEntry.isExpired(now)) {
+			return cacheEntry.getExpireTime();
+		}
+		// 时间轮已经移除了Timer；key已经被覆盖时不删除新的值
+		cacheEntry.timer = null;
+		guavaCache.asMap().remove(cacheEntry.getKey(), cacheEntry);
+		return now;
+	}
+	
+	
+	/***
+	 * 当前缓存估算的内存字节数（CacheWeigher）
+	 * 
+	 * @return
+	 */
+	public long getWeightedSize() {
+		return guavaWeigher.getWeightedSize();
+	}
+	
+	
+	/***
+	 * 可以使用的最大内存字节数
+	 * 
+	 * @return
+	 */
+	public long getMaximumBytes() {
+		return maximumBytes;
+	}
+	
+	
+	/***
+	 * 注意：每个实例都会启动一个守护线程，不再使用时需要调用close()；一般使用getInstance()
+	 * 
+	 */
 	public CacheStorageServiceExpireGuavaImpl(){
+		this(SimpleCacheConfig.EXPIRE_GUAVACACHE_MAXIMUM_BYTES);
+	}
+	
+	
+	/***
+	 * 注意：每个实例都会启动一个守护线程，不再使用时需要调用close()；一般使用getInstance(maximumBytes)
+	 * 
+	 * @param maximumBytes 可以使用的最大内存字节数
+	 */
+	public CacheStorageServiceExpireGuavaImpl(long maximumBytes){
+		this.maximumBytes = maximumBytes;
 		this.guavaCache =CacheBuilder.newBuilder()
-				.maximumSize(SimpleCacheConfig.EXPIRE_GUAVACACHE_OBJECT_NUM_MAX)
-				.softValues()
-		        .build();  
+				.maximumWeight(maximumBytes)
+				.weigher(guavaWeigher)
+				.removalListener(new RemovalListener<String, CacheGuavaEntry>() {
+					@Override
+					public void onRemoval(RemovalNotification<String, CacheGuavaEntry> notification) {
+						onEntryRemoval(notification);
+					}
+				})
+		        .build();
+		
+		// 启动推进时间轮的守护线程
+		this.expireGuardThread = new CacheStorageServiceExpireGuavaGuardThread(this);
+		expireGuardThread.setDaemon(true);
+		expireGuardThread.start();
+		
+		// 内存紧张时释放一部分缓存
+		this.memoryPressureListener = new CacheMemoryPressureMonitor.Listener() {
+			@Override
+			public long onMemoryPressure(double ratio) {
+				return shed(ratio);
+			}
+		};
+		CacheMemoryPressureMonitor.getInstance().addListener(memoryPressureListener);
+	}
+	
+	
+	/***
+	 * 停止推进时间轮的守护线程，并从CacheMemoryPressureMonitor中取消注册（重复调用没有影响）
+	 * 之后仍然可以读写，读取时也会校验过期时间，但是过期的缓存不再主动删除
+	 * 关闭的是单例时，之后的getInstance()会创建新的实例
+	 * 
+	 */
+	public void close() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		CacheMemoryPressureMonitor.getInstance().removeListener(memoryPressureListener);
+		expireGuardThread.interrupt();
+		synchronized (CacheStorageServiceExpireGuavaImpl.class) {
+			if (INSTANCE == this) {
+				INSTANCE = null;
+			}
+		}
+		svcLog.info("expire guava impl closed");
+	}
+	
+	
+	// 统计字节数，并从时间轮中取消（包括覆盖、删除、淘汰和过期）
+	private void onEntryRemoval(RemovalNotification<String, CacheGuavaEntry> notification) {
+		guavaWeigher.onRemoval(notification);
+		final CacheGuavaEntry cacheEntry = notification.getValue();
+		if (cacheEntry != null) {
+			cacheEntry.markRemoved();
+			afterWrite(cacheEntry);
+		}
+	}
+	
+	
+	// 按比例删除缓存（Guava无法获取访问顺序，按迭代顺序删除，相当于随机选取）
+	private long shed(double ratio) {
+		final long shedMax = (long) (guavaCache.size() * ratio);
+		long count = 0L;
+		final Iterator<String> iterator = guavaCache.asMap().keySet().iterator();
+		while (count < shedMax && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+			count++;
+		}
+		return count;
 	}
 }
@@ -1,10 +1,26 @@
 package org.zhuduan.cache.storage.impl.guava;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.zhuduan.cache.storage.AbstractCacheStorageService;
+import org.zhuduan.cache.storage.CacheBatchValue;
+import org.zhuduan.cache.storage.CacheCounter;
+import org.zhuduan.cache.storage.CacheMemoryPressureMonitor;
 import org.zhuduan.cache.storage.CacheStorageService;
-import org.zhuduan.cache.storage.impl.redis.CacheStorageServiceRedisImpl;
+import org.zhuduan.cache.storage.ReloadableCacheStorageService;
+import org.zhuduan.config.OriginGuavaConfig;
 import org.zhuduan.config.SimpleCacheConfig;
 import org.zhuduan.utils.CacheConstants;
 import org.zhuduan.utils.CacheException;
@@ -12,54 +28,67 @@ import org.zhuduan.utils.Log4jUtil;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 
 /***
  * 
  * 使用原生的GuavaCache来缓存信息，只是在这个基础上进行了简单的使用包装
  * 考虑到GuavaCache的一些特性，采用如下配置：
- * 		1.采用SoftReference
- * 		2.Access和Write过期时间在SimpleCacheConfig中进行统一配置
+ * 		1.不使用SoftReference，内存紧张时由CacheMemoryPressureMonitor通知，主动释放一部分缓存
+ * 		2.容量、Access和Write过期时间由OriginGuavaConfig配置（默认值在SimpleCacheConfig中），每次调用传入的expireTimeSeconds不生效
+ * 		3.直接保存的对象（LocalCacheStorageService）不做包装，通过是否为byte[]和二进制的值区分
+ * 		4.默认按CacheWeigher估算的字节数限制容量（OriginGuavaConfig.maximumSize大于0时按个数限制），超过时由Guava按LRU淘汰
+ * 		5.incrCacheKey使用按线程分段的计数器（CacheCounter），可以通过flushCounters批量同步到Redis
+ * 		6.配置了refreshAfterWrite时使用LoadingCache（ReloadableCacheStorageService）：
+ * 		  值和Reloader一起保存，写入超过refreshAfterWrite之后再被读取时，在后台线程中调用Reloader重新执行方法，读取方直接拿到旧值
+ * 		  Reloader通过setCacheBytes/setCacheObject写入的新值作为LoadingCache.reload的结果（不会在刷新的同时覆盖）
+ * 		  刷新失败时保留旧值（仍然按expireAfterWrite过期）；没有Reloader的值（如直接写入的值、计数器）刷新时保留原值
+ * 		7.批量操作使用Guava的getAllPresent、putAll和invalidateAll（和单个key一样，每个值的过期时间不生效）
  * 
  * 
  * @author	zhuhaifeng
  * @date	2017年2月23日
  *
  */
-public class CacheStorageServiceOriginGuavaImpl implements CacheStorageService {
+public class CacheStorageServiceOriginGuavaImpl extends AbstractCacheStorageService implements ReloadableCacheStorageService {
 	
+	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
 	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志
 
-	private volatile Cache<String,String> guavaCahce;						// 内部使用的Guava缓存
+	private volatile Cache<String,Object> guavaCahce;						// 内部使用的Guava缓存（值为byte[]、直接保存的对象或者CacheGuavaReloadableValue）
+	
+	private final CacheGuavaWeigher<Object> guavaWeigher;					// 估算每个缓存的字节数，并统计总字节数
+	
+	private final OriginGuavaConfig	config;									// 容量、过期和刷新的配置
+	
+	private final ListeningExecutorService reloadExecutor;					// 后台刷新的线程池（没有配置refreshAfterWrite时为null）
+	
+	private static final ThreadLocal<ReloadCapture> RELOAD_CAPTURE = new ThreadLocal<>();	// 当前线程正在刷新的key和Reloader写入的新值
 	
 	private volatile static CacheStorageServiceOriginGuavaImpl INSTANCE; 			// 单例模式，声明成 volatile 的实例	
 	
 	
 	/***
-	 * 通过单例模式来获取CacheStorageServiceOriginGuavaImpl的实例
+	 * 通过单例模式来获取CacheStorageServiceOriginGuavaImpl的实例（使用默认的配置）
 	 * 
 	 * @return
-	 * @throws CacheException
 	 */
     public static CacheStorageServiceOriginGuavaImpl getInstance() {
-        // 二重锁检验，来防止多线程导致的线程安全问题
-    	if (INSTANCE == null) {                         
-            synchronized (CacheStorageServiceRedisImpl.class) {
-                if (INSTANCE == null) {
-                	INSTANCE = new CacheStorageServiceOriginGuavaImpl(SimpleCacheConfig.ORIGIN_GUAVACACHE_OBJECT_NUM_MAX,
-										                			SimpleCacheConfig.ORIGIN_GUAVACACHE_ACCESS_EXPIRE_SECONDS,
-										                			SimpleCacheConfig.ORIGIN_GUAVACACHE_WRITE_EXPIRE_SECONDS);
-                }
-            }
-        }
-        return INSTANCE;
+    	return createInstance(new OriginGuavaConfig());
     }
     
     
     /***
      * 通过单例模式来获取CacheStorageServiceOriginGuavaImpl的实例
+     * 注意：单例只会创建一次，之后传入的参数不再生效
      * 
-     * @param objectNumMax
+     * @param objectNumMax 可以缓存的最大个数
      * @param accessExpireSeconds
      * @param writeExpireSeconds
      * @return
@@ -78,14 +107,51 @@ public class CacheStorageServiceOriginGuavaImpl implements CacheStorageService {
 			svcLog.warn("origin guava中writeExpireSeconds传入值有错误,使用了默认值");
 			writeExpireSeconds = SimpleCacheConfig.ORIGIN_GUAVACACHE_WRITE_EXPIRE_SECONDS;
 		}
-    	
+		return createInstance(new OriginGuavaConfig(objectNumMax, accessExpireSeconds, writeExpireSeconds, 0L));
+    }
+    
+    
+    /***
+     * 通过单例模式来获取CacheStorageServiceOriginGuavaImpl的实例
+     * 注意：单例只会创建一次，之后传入的参数不再生效
+     * 
+     * @param config 为null时使用默认的配置
+     * @return
+     * @throws CacheException 配置错误时（如refreshAfterWrite不小于expireAfterWrite，刷新永远不会发生）
+     */
+    public static CacheStorageServiceOriginGuavaImpl getInstance(OriginGuavaConfig config) throws CacheException {
+    	if (null == config) {
+    		config = new OriginGuavaConfig();
+    	}
+    	checkConfig(config);
+    	return createInstance(config);
+    }
+    
+    
+    // 检验配置：刷新的线程数和最大字节数需要大于0，配置了刷新和Write过期时，刷新需要先于过期发生
+    private static void checkConfig(OriginGuavaConfig config) throws CacheException {
+    	if (config.getRefreshThreadNum() <= 0) {
+    		sysLog.error("origin guava中refreshThreadNum需要大于0: " + config);
+    		throw new CacheException(CacheConstants.EXCEPTION_INITIAL_PARAM, "origin guava中refreshThreadNum需要大于0");
+    	}
+    	if (config.getMaximumBytes() <= 0L) {
+    		sysLog.error("origin guava中maximumBytes需要大于0: " + config);
+    		throw new CacheException(CacheConstants.EXCEPTION_INITIAL_PARAM, "origin guava中maximumBytes需要大于0");
+    	}
+    	if (config.getRefreshAfterWriteSeconds() > 0L && config.getExpireAfterWriteSeconds() > 0L
+    			&& config.getRefreshAfterWriteSeconds() >= config.getExpireAfterWriteSeconds()) {
+    		sysLog.error("origin guava中refreshAfterWrite需要小于expireAfterWrite: " + config);
+    		throw new CacheException(CacheConstants.EXCEPTION_INITIAL_PARAM, "origin guava中refreshAfterWrite需要小于expireAfterWrite");
+    	}
+    }
+    
+    
+    private static CacheStorageServiceOriginGuavaImpl createInstance(OriginGuavaConfig config) {
         // 二重锁检验，来防止多线程导致的线程安全问题
     	if (INSTANCE == null) {                         
-            synchronized (CacheStorageServiceRedisImpl.class) {
+            synchronized (CacheStorageServiceOriginGuavaImpl.class) {
                 if (INSTANCE == null) {
-                	INSTANCE = new CacheStorageServiceOriginGuavaImpl(objectNumMax,
-										                			accessExpireSeconds,
-										                			writeExpireSeconds);
+                	INSTANCE = new CacheStorageServiceOriginGuavaImpl(config);
                 }
             }
         }
@@ -96,39 +162,268 @@ public class CacheStorageServiceOriginGuavaImpl implements CacheStorageService {
 	/***
 	 * 
 	 * 带参数的构造器
-	 * 如果入参不正确，则使用默认的缺省值
-	 * 		由于为了充分利用guava的特性，默认使用weakKeys和weakValues来处理
+	 * 		maximumSize大于0时按个数限制（Guava不能同时限制个数和字节数，此时每个缓存的权重为1，但仍然统计估算的字节数）
+	 * 		Access和Write过期时间小于等于0时不设置
+	 * 		refreshAfterWrite大于0时构造LoadingCache，并创建后台刷新的线程池
 	 * 
-	 * @param objectNumMax
-	 * @param accessExpireSeconds
-	 * @param writeExpireSeconds
+	 * @param config
 	 */
-	private CacheStorageServiceOriginGuavaImpl(Long objectNumMax, Long accessExpireSeconds, Long writeExpireSeconds){				
-		this.guavaCahce =CacheBuilder.newBuilder()
-									.maximumSize(SimpleCacheConfig.ORIGIN_GUAVACACHE_OBJECT_NUM_MAX)
-									.expireAfterAccess(SimpleCacheConfig.ORIGIN_GUAVACACHE_ACCESS_EXPIRE_SECONDS, TimeUnit.SECONDS)
-									.expireAfterWrite(SimpleCacheConfig.ORIGIN_GUAVACACHE_WRITE_EXPIRE_SECONDS, TimeUnit.SECONDS)
-									.softValues()
-							        .build();  
+	private CacheStorageServiceOriginGuavaImpl(OriginGuavaConfig config){
+		this.config = config;
+		final boolean isCountLimit = config.getMaximumSize() > 0L;
+		this.guavaWeigher = new CacheGuavaWeigher<>(isCountLimit);
+		
+		final CacheBuilder<String, Object> cacheBuilder = CacheBuilder.newBuilder()
+										.maximumWeight(isCountLimit ? config.getMaximumSize() : config.getMaximumBytes())
+										.weigher(guavaWeigher)
+										.removalListener(guavaWeigher);
+		if (config.getExpireAfterAccessSeconds() > 0L) {
+			cacheBuilder.expireAfterAccess(config.getExpireAfterAccessSeconds(), TimeUnit.SECONDS);
+		}
+		if (config.getExpireAfterWriteSeconds() > 0L) {
+			cacheBuilder.expireAfterWrite(config.getExpireAfterWriteSeconds(), TimeUnit.SECONDS);
+		}
+		
+		if (config.getRefreshAfterWriteSeconds() > 0L) {
+			this.reloadExecutor = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(
+					config.getRefreshThreadNum(), config.getRefreshThreadNum(), 
+					60L, TimeUnit.SECONDS, 
+					new ArrayBlockingQueue<Runnable>(SimpleCacheConfig.REFRESH_QUEUE_SIZE),
+					new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SimpleCache-originGuava-reload-%d").build(),
+					new ThreadPoolExecutor.AbortPolicy()));
+			this.guavaCahce = cacheBuilder.refreshAfterWrite(config.getRefreshAfterWriteSeconds(), TimeUnit.SECONDS)
+										.build(new CacheLoader<String, Object>() {
+											@Override
+											public Object load(String cacheKey) throws Exception {
+												// 只通过getIfPresent读取，不会同步加载
+												throw new CacheException(CacheConstants.EXCEPTION_NOT_SUPPORT_METHOD, "OriginGuava不支持同步加载");
+											}
+											
+											@Override
+											public ListenableFuture<Object> reload(String cacheKey, Object oldValue) throws Exception {
+												return reloadAsync(cacheKey, oldValue);
+											}
+										});
+		} else {
+			this.reloadExecutor = null;
+			this.guavaCahce = cacheBuilder.build();
+		}
+		svcLog.info("origin guava initial with " + config);
+		
+		// 内存紧张时释放一部分缓存
+		CacheMemoryPressureMonitor.getInstance().addListener(new CacheMemoryPressureMonitor.Listener() {
+			@Override
+			public long onMemoryPressure(double ratio) {
+				return shed(ratio);
+			}
+		});
+	}
+	
+	
+	// 在后台线程中调用Reloader，线程池满时放弃本次刷新（保留旧值，下次读取时再次尝试）
+	private ListenableFuture<Object> reloadAsync(final String cacheKey, final Object oldValue) {
+		if (!(oldValue instanceof CacheGuavaReloadableValue)) {
+			return Futures.immediateFuture(oldValue);
+		}
+		try {
+			return reloadExecutor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return reload(cacheKey, (CacheGuavaReloadableValue) oldValue);
+				}
+			});
+		} catch (RejectedExecutionException exception) {
+			svcLog.warn("origin guava reload queue is full, skip reload for key: " + cacheKey);
+			return Futures.immediateFailedFuture(exception);
+		}
+	}
+	
+	
+	// 重新执行方法，并获取它通过setCacheBytes/setCacheObject写入的新值
+	private Object reload(String cacheKey, CacheGuavaReloadableValue oldValue) throws Exception {
+		final ReloadCapture capture = new ReloadCapture(cacheKey);
+		RELOAD_CAPTURE.set(capture);
+		try {
+			oldValue.getReloader().reload(cacheKey);
+		} catch (Throwable throwable) {
+			sysLog.error(Log4jUtil.getCallLocation() + " origin guava reload fail for key: " + cacheKey + " , " + throwable.getMessage());
+			final CacheException exception = new CacheException(CacheConstants.EXCEPTION_STORAGE_RELOAD, "reload fail for key: " + cacheKey);
+			exception.initCause(throwable);
+			throw exception;
+		} finally {
+			RELOAD_CAPTURE.remove();
+		}
+		if (capture.value == null) {
+			// 方法没有写入新值（如返回了null），保留旧值直到过期
+			throw new CacheException(CacheConstants.EXCEPTION_STORAGE_RELOAD, "reload without value for key: " + cacheKey);
+		}
+		return capture.value;
+	}
+	
+	
+	// 保存缓存值：正在刷新这个key时作为刷新的结果，否则直接写入
+	private Boolean putValue(String cacheKey, Object cacheValue) {
+		final ReloadCapture capture = RELOAD_CAPTURE.get();
+		if (capture != null && capture.cacheKey.equals(cacheKey)) {
+			capture.value = cacheValue;
+			return true;
+		}
+		guavaCahce.put(cacheKey, cacheValue);
+		return true;
+	}
+	
+	
+	// 按比例删除缓存（Guava无法获取访问顺序，按迭代顺序删除，相当于随机选取）
+	private long shed(double ratio) {
+		final long shedMax = (long) (guavaCahce.size() * ratio);
+		long count = 0L;
+		final Iterator<String> iterator = guavaCahce.asMap().keySet().iterator();
+		while (count < shedMax && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+			count++;
+		}
+		return count;
 	}
 	
 	
 	@Override
-	public String getCache(String cacheKey) {
-		return guavaCahce.getIfPresent(cacheKey);		
+	public byte[] getCacheBytes(String cacheKey) {
+		Object cacheValue = getValue(cacheKey);
+		return (cacheValue instanceof byte[]) ? (byte[]) cacheValue : null;
+	}
+	
+	
+	@Override
+	public Object getCacheObject(String cacheKey) {
+		Object cacheValue = getValue(cacheKey);
+		if (cacheValue instanceof CacheCounter) {
+			// incrCacheKey的计数器返回当前的值
+			return ((CacheCounter) cacheValue).sum();
+		}
+		return (cacheValue instanceof byte[]) ? null : cacheValue;
 	}
 
 	
+	// 获取缓存值（去掉Reloader的包装），过期时间超过refreshAfterWrite时会触发后台刷新
+	private Object getValue(String cacheKey) {
+		Object cacheValue = guavaCahce.getIfPresent(cacheKey);
+		if (cacheValue instanceof CacheGuavaReloadableValue) {
+			return ((CacheGuavaReloadableValue) cacheValue).getValue();
+		}
+		return cacheValue;
+	}
+	
+	
 	@Override
-	public Boolean setCache(String cacheKey, String cacheValue, int expireTimeSeconds) {
-		// 这里的expireTimeSeconds实际上是不生效的
-		guavaCahce.put(cacheKey, cacheValue);
-		return true;
+	public Boolean setCacheBytes(String cacheKey, byte[] cacheBytes, int expireTimeSeconds) {
+		// 这里的expireTimeSeconds实际上是不生效的（使用OriginGuavaConfig中统一的过期时间）
+		return putValue(cacheKey, cacheBytes);
+	}
+	
+	
+	@Override
+	public Boolean setCacheObject(String cacheKey, Object cacheObject, int expireTimeSeconds) {
+		// 这里的expireTimeSeconds实际上是不生效的（使用OriginGuavaConfig中统一的过期时间）
+		return putValue(cacheKey, cacheObject);
+	}
+	
+	
+	@Override
+	public Boolean setCacheBytes(String cacheKey, byte[] cacheBytes, int expireTimeSeconds, Reloader reloader) {
+		if (reloader == null || reloadExecutor == null) {
+			return setCacheBytes(cacheKey, cacheBytes, expireTimeSeconds);
+		}
+		return putValue(cacheKey, new CacheGuavaReloadableValue(cacheBytes, reloader));
+	}
+	
+	
+	@Override
+	public Boolean setCacheObject(String cacheKey, Object cacheObject, int expireTimeSeconds, Reloader reloader) {
+		if (reloader == null || reloadExecutor == null) {
+			return setCacheObject(cacheKey, cacheObject, expireTimeSeconds);
+		}
+		return putValue(cacheKey, new CacheGuavaReloadableValue(cacheObject, reloader));
+	}
+	
+	
+	@Override
+	public Map<String, byte[]> getAll(Collection<String> cacheKeys) {
+		final Map<String, byte[]> result = new HashMap<>();
+		final List<String> validKeys = validKeys(cacheKeys);
+		if (validKeys.isEmpty()) {
+			return result;
+		}
+		for (Map.Entry<String, Object> entry : guavaCahce.getAllPresent(validKeys).entrySet()) {
+			Object cacheValue = entry.getValue();
+			if (cacheValue instanceof CacheGuavaReloadableValue) {
+				cacheValue = ((CacheGuavaReloadableValue) cacheValue).getValue();
+			}
+			if (cacheValue instanceof byte[]) {
+				result.put(entry.getKey(), (byte[]) cacheValue);
+			}
+		}
+		return result;
+	}
+	
+	
+	@Override
+	public Boolean setAll(Map<String, CacheBatchValue> cacheValues) {
+		if (cacheValues == null) {
+			return false;
+		}
+		boolean result = true;
+		final Map<String, Object> cacheBytesMap = new HashMap<>();
+		for (Map.Entry<String, CacheBatchValue> entry : cacheValues.entrySet()) {
+			if (!CacheBatchValue.isValid(entry.getKey(), entry.getValue())) {
+				result = false;
+				continue;
+			}
+			if (RELOAD_CAPTURE.get() != null) {
+				// 正在刷新的线程：刷新的key作为刷新的结果，其它key直接写入
+				putValue(entry.getKey(), entry.getValue().getCacheBytes());
+				continue;
+			}
+			cacheBytesMap.put(entry.getKey(), entry.getValue().getCacheBytes());
+		}
+		guavaCahce.putAll(cacheBytesMap);
+		return result;
+	}
+	
+	
+	@Override
+	public Boolean deleteAll(Collection<String> cacheKeys) {
+		final List<String> validKeys = validKeys(cacheKeys);
+		guavaCahce.invalidateAll(validKeys);
+		return cacheKeys != null && validKeys.size() == cacheKeys.size();
+	}
+	
+	
+	// 去掉空的key（Guava的批量方法不接受null）
+	private static List<String> validKeys(Collection<String> cacheKeys) {
+		final List<String> validKeys = new ArrayList<>(cacheKeys == null ? 0 : cacheKeys.size());
+		if (cacheKeys == null) {
+			return validKeys;
+		}
+		for (String cacheKey : cacheKeys) {
+			if(StringUtils.isEmpty(cacheKey)){
+				svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+				continue;
+			}
+			validKeys.add(cacheKey);
+		}
+		return validKeys;
+	}
+	
+	
+	@Override
+	public boolean isReloadEnabled() {
+		return reloadExecutor != null;
 	}
 
 	@Override
 	public Boolean isCacheKeyExists(String cacheKey) {
-		String cacheValue = guavaCahce.getIfPresent(cacheKey);
+		Object cacheValue = guavaCahce.getIfPresent(cacheKey);
 		if (null == cacheValue){
 			return false;
 		}
@@ -143,9 +438,117 @@ public class CacheStorageServiceOriginGuavaImpl implements CacheStorageService {
 	}
 
 	
+	/***
+	 * 当前缓存的个数
+	 * 
+	 * @return
+	 */
+	public long getSize() {
+		return guavaCahce.size();
+	}
+	
+	
+	/***
+	 * 当前缓存估算的内存字节数（CacheWeigher）
+	 * 
+	 * @return
+	 */
+	public long getWeightedSize() {
+		return guavaWeigher.getWeightedSize();
+	}
+	
+	
+	/***
+	 * 可以使用的最大内存字节数
+	 * 
+	 * @return
+	 */
+	public long getMaximumBytes() {
+		return config.getMaximumBytes();
+	}
+	
+	
+	/***
+	 * 当前使用的配置
+	 * 
+	 * @return
+	 */
+	public OriginGuavaConfig getConfig() {
+		return config;
+	}
+	
+	
+	/**
+     * 以step步长, cacheKey的自增
+     * 		计数器（CacheCounter）作为缓存值保存，和其它缓存一样使用统一配置的Access和Write过期时间
+     * 		这里的expireTimeSeconds只在flushCounters同步到远程实现时使用
+     * 		key已经保存了其它的值时不自增，返回0
+     * 
+     * @param cacheKey
+     * @param incrStep  以incrStep步长自增
+     * @param expireTimeSeconds  同步到远程实现时的过期时间, 单位秒!
+     * @return 返回增长后的值（并发自增时为近似值）, or 0 if error occur
+     */
 	@Override
-	public Long incrCacheKey(String cacheKey, long incrStep, int expireTimeSeconds) throws CacheException {
-		throw new CacheException(CacheConstants.EXCEPTION_NOT_SUPPORT_METHOD, "OriginGuava的实现中不支持值的增加功能");
+	public Long incrCacheKey(String cacheKey, long incrStep, int expireTimeSeconds) {
+		if(StringUtils.isEmpty(cacheKey)){
+			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+			return 0L;
+		}
+		try{
+			Object cacheValue = guavaCahce.getIfPresent(cacheKey);
+			if (cacheValue == null) {
+				// 并发创建时只有一个能成功
+				final CacheCounter newCounter = new CacheCounter(expireTimeSeconds);
+				cacheValue = guavaCahce.asMap().putIfAbsent(cacheKey, newCounter);
+				if (cacheValue == null) {
+					return newCounter.add(incrStep);
+				}
+			}
+			if (cacheValue instanceof CacheCounter) {
+				return ((CacheCounter) cacheValue).add(incrStep);
+			}
+			svcLog.warn(Log4jUtil.getCallLocation() + " not a counter for key: " + cacheKey);
+		} catch (Exception exp){ 
+			// 防止缓存崩溃,影响主业务逻辑
+			sysLog.error(Log4jUtil.getCallLocation() + " origin guava error for: " + exp.getMessage());
+		}
+		return 0L;
+	}
+	
+	
+	/***
+	 * 把本地计数器（incrCacheKey）累加的增量批量同步到远程实现（如Redis），同步失败的增量下次调用时重试
+	 * 注意：计数器过期或者被淘汰后，还没有同步的增量会丢失，因此同步的间隔需要小于统一配置的过期时间
+	 * 
+	 * @param targetStorageService 同步的目标实现
+	 * @return 同步成功的计数器个数
+	 */
+	public int flushCounters(CacheStorageService targetStorageService) {
+		final Map<String, CacheCounter> counters = new HashMap<>();
+		for (Map.Entry<String, Object> entry : guavaCahce.asMap().entrySet()) {
+			if (entry.getValue() instanceof CacheCounter) {
+				counters.put(entry.getKey(), (CacheCounter) entry.getValue());
+			}
+		}
+		return CacheCounter.flush(counters, targetStorageService);
 	}
 
+	
+	
+	/***
+	 * 
+	 * 当前线程正在刷新的key，以及Reloader写入的新值
+	 * 
+	 */
+	private static final class ReloadCapture {
+		
+		private final String	cacheKey;
+		
+		private Object			value;
+		
+		ReloadCapture(String cacheKey) {
+			this.cacheKey = cacheKey;
+		}
+	}
 }
@@ -0,0 +1,120 @@
+package org.zhuduan.cache.storage.impl.local;
+
+/***
+ *
+ * 用于W-TinyLFU准入策略的频率统计（4-bit的Count-Min Sketch）
+ * 		1.每个long保存16个4-bit的计数器，每个key对应4个不同位置的计数器，频率取其中的最小值（最大为15）
+ * 		2.记录的次数达到sampleSize（10倍的最大缓存个数）后，所有计数器减半，使得历史的频率逐渐衰减
+ *
+ * 注意：不是线程安全的，只能在CacheLocalEngine的锁内访问
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月24日
+ *
+ */
+final class CacheFrequencySketch {
+
+	private static final long[]	SEEDS		=	{0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+	private static final long	RESET_MASK	=	0x7777777777777777L;		// 减半之后清除每个计数器借位的最高位
+
+	private static final int	COUNTER_MAX	=	15;
+
+	private final long[]		table;
+
+	private final int			tableMask;
+
+	private final int			sampleSize;			// 达到该次数后计数器减半
+
+	private int					size;				// 当前记录的次数
+
+
+	/***
+	 *
+	 * @param maximumSize 缓存的最大个数
+	 */
+	CacheFrequencySketch(long maximumSize) {
+		final int capacity = (int) Math.min(Math.max(maximumSize, 16L), 1 << 30);
+		this.table = new long[ceilingPowerOfTwo(capacity)];
+		this.tableMask = table.length - 1;
+		this.sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+	}
+
+
+	/***
+	 * 获取key的访问频率
+	 *
+	 * @param keyHash
+	 * @return [0, 15]
+	 */
+	int frequency(int keyHash) {
+		final int hash = spread(keyHash);
+		final int start = (hash & 3) << 2;
+		int frequency = COUNTER_MAX;
+		for (int i=0; i<4; i++) {
+			final int index = indexOf(hash, i);
+			final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+
+	/***
+	 * 记录一次key的访问
+	 *
+	 * @param keyHash
+	 */
+	void increment(int keyHash) {
+		final int hash = spread(keyHash);
+		final int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i=0; i<4; i++) {
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+		if (added && ++size >= sampleSize) {
+			reset();
+		}
+	}
+
+
+	// 计数器没有达到最大值时加1
+	private boolean incrementAt(int index, int counter) {
+		final int offset = counter << 2;
+		final long mask = 0xfL << offset;
+		if ((table[index] & mask) != mask) {
+			table[index] += 1L << offset;
+			return true;
+		}
+		return false;
+	}
+
+
+	// 所有计数器减半
+	private void reset() {
+		for (int i=0; i<table.length; i++) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		size = size >>> 1;
+	}
+
+
+	private int indexOf(int hash, int i) {
+		long index = (hash + SEEDS[i]) * SEEDS[i];
+		index += index >>> 32;
+		return ((int) index) & tableMask;
+	}
+
+
+	private static int spread(int hash) {
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		return (hash >>> 16) ^ hash;
+	}
+
+
+	private static int ceilingPowerOfTwo(int value) {
+		return 1 << (32 - Integer.numberOfLeadingZeros(value - 1));
+	}
+}
@@ -0,0 +1,835 @@
+package org.zhuduan.cache.storage.impl.local;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.zhuduan.cache.storage.CacheTimerWheel;
+
+/***
+ *
+ * CacheStorageServiceLocalImpl使用的有界存储引擎（W-TinyLFU）
+ * 		1.数据保存在ConcurrentHashMap中，读写都不需要加锁
+ * 		2.淘汰策略：新写入的key先进入window(LRU，占1%)，从window淘汰的key作为候选者和probation中最久未访问的key比较
+ * 		  访问频率（CacheFrequencySketch）更高的留下；probation中再次被访问的key晋升到protected(占主区域的80%)
+ * 		  这样偶发的大量一次性访问（扫描）不会冲掉真正的热点数据
+ * 		3.读操作只是把访问记录放入按线程分段的环形缓冲区，缓冲区满时直接丢弃（只影响淘汰的精度，不影响正确性）
+ * 		  写操作放入写队列，缓冲区达到一定数量时由获得锁的线程统一处理（tryLock，不阻塞其它线程）
+ * 		4.过期由CacheTimerWheel调度：CacheStorageServiceLocalGuardThread每个tick推进一次时间轮，删除到期的key（不需要遍历整个Map）
+ * 		5.统计命中次数、未命中次数、淘汰次数和过期次数
+ * 		6.同时按个数(maximumSize)和估算的字节数(maximumWeight，由CacheWeigher计算)限制容量，任意一个超出都会淘汰
+ * 		  window和protected区域也同时按个数和字节数的比例划分
+ * 		7.值(byte[]或者直接保存的对象)、过期的时间点(long)和字节数直接保存在Node中，不使用SoftReference
+ * 		  Node创建后不再修改：更新时用新的Node替换（ConcurrentHashMap.replace），读取和过期处理不会看到新旧混合的值和过期时间
+ * 		  内存紧张时由CacheMemoryPressureMonitor调用shed按淘汰顺序主动释放一部分，而不是依赖GC回收
+ *
+ * 注意：淘汰是异步批量处理的，短时间内缓存的个数和字节数可能略微超过上限
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月24日
+ *
+ */
+final class CacheLocalEngine {
+
+	private static final int	READ_BUFFER_SIZE		=	16;				// 每个分段的读缓冲区大小
+	private static final int	READ_BUFFER_MASK		=	READ_BUFFER_SIZE - 1;
+	private static final int	READ_DRAIN_THRESHOLD	=	READ_BUFFER_SIZE / 2;	// 读缓冲区达到该数量时尝试处理
+	private static final int	WRITE_BUFFER_MAX		=	1024;			// 待处理的写操作超过该数量时阻塞等待处理
+
+	private static final int	WINDOW_PERCENT			=	1;				// window区域占总容量的百分比
+	private static final int	PROTECTED_PERCENT		=	80;				// protected区域占主区域的百分比
+	private static final int	ADMIT_HASHDOS_THRESHOLD	=	5;				// 候选者频率超过该值时有小概率直接准入（防止利用hash冲突攻击）
+
+	private static final int	WINDOW					=	0;
+	private static final int	PROBATION				=	1;
+	private static final int	PROTECTED				=	2;
+
+	/***
+	 *
+	 * 实际用于缓存的Map
+	 * Node中保存了过期的时间点，能针对不同的ExpireTime做策略
+	 * 		注意ConcurrentHashMap的一些特点，可能需要结合做业务场景的策略调整：
+	 * 				1.分段可重入锁：put,remove,contains都会加锁
+	 * 				2.读未加锁（可能脏读）
+	 * 				3.Iterator的弱一致性：考虑到缓存本身的应用场景（能容忍一些脏读），是可以接受的
+	 */
+	private final ConcurrentHashMap<String, Node>	cacheMap	=	new ConcurrentHashMap<>();
+
+	private final long					maximumSize;			// 缓存的最大个数
+
+	private final long					maximumWeight;			// 缓存的最大字节数
+
+	private final long					windowMax;				// window区域的最大个数
+
+	private final long					windowMaxWeight;		// window区域的最大字节数
+
+	private final long					protectedMax;			// protected区域的最大个数
+
+	private final long					protectedMaxWeight;		// protected区域的最大字节数
+
+	private volatile long				weightedSize;			// 当前缓存的总字节数（只在evictionLock内修改）
+
+	// 以下只能在evictionLock内访问
+	private final ReentrantLock			evictionLock	=	new ReentrantLock();
+
+	private final CacheFrequencySketch	sketch;
+
+	private final AccessDeque			windowDeque		=	new AccessDeque();
+
+	private final AccessDeque			probationDeque	=	new AccessDeque();
+
+	private final AccessDeque			protectedDeque	=	new AccessDeque();
+
+	private final CacheTimerWheel<Node>	timerWheel		=	new CacheTimerWheel<>(System.currentTimeMillis());
+
+	private final CacheTimerWheel.ExpireListener<Node>	expireListener	=	new CacheTimerWheel.ExpireListener<Node>() {
+		@Override
+		public long onExpire(Node node, long now) {
+			return onTimerExpire(node, now);
+		}
+	};
+
+	// 按线程分段的读缓冲区
+	private final AtomicReferenceArray<Node>[]	readBuffers;
+
+	private final AtomicLong[]			readBufferWrites;		// 每个分段已经写入的位置
+
+	private final AtomicLong[]			readBufferReads;		// 每个分段已经处理的位置（只在锁内修改）
+
+	private final int					readBufferMask;
+
+	// 写队列
+	private final ConcurrentLinkedQueue<Runnable>	writeBuffer		=	new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger			pendingWrites	=	new AtomicInteger();
+
+	// 统计
+	private final AtomicLong			hitCount		=	new AtomicLong();
+
+	private final AtomicLong			missCount		=	new AtomicLong();
+
+	private final AtomicLong			evictionCount	=	new AtomicLong();
+
+	private final AtomicLong			expiredCount	=	new AtomicLong();
+
+	private volatile int				lastExpiredCount;		// 最近一次推进时间轮时过期的个数
+
+
+	/***
+	 *
+	 * @param maximumSize 缓存的最大个数
+	 * @param maximumWeight 缓存的最大字节数
+	 */
+	@SuppressWarnings("unchecked")
+	CacheLocalEngine(long maximumSize, long maximumWeight) {
+		this.maximumSize = Math.max(maximumSize, 1L);
+		this.maximumWeight = Math.max(maximumWeight, 1L);
+		this.windowMax = Math.max(this.maximumSize * WINDOW_PERCENT / 100, 1L);
+		this.windowMaxWeight = Math.max(this.maximumWeight / 100 * WINDOW_PERCENT, 1L);
+		this.protectedMax = (this.maximumSize - windowMax) * PROTECTED_PERCENT / 100;
+		this.protectedMaxWeight = (this.maximumWeight - windowMaxWeight) / 100 * PROTECTED_PERCENT;
+		this.sketch = new CacheFrequencySketch(this.maximumSize);
+
+		final int stripes = Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors() * 4, 64) * 2 - 1);
+		this.readBuffers = (AtomicReferenceArray<Node>[]) new AtomicReferenceArray<?>[stripes];
+		this.readBufferWrites = new AtomicLong[stripes];
+		this.readBufferReads = new AtomicLong[stripes];
+		for (int i=0; i<stripes; i++) {
+			readBuffers[i] = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+			readBufferWrites[i] = new AtomicLong();
+			readBufferReads[i] = new AtomicLong();
+		}
+		this.readBufferMask = stripes - 1;
+	}
+
+
+	/***
+	 * 获取未过期的缓存值，过期时直接删除
+	 *
+	 * @param cacheKey
+	 * @param now 当前时间(毫秒)
+	 * @return 不存在时返回null
+	 */
+	Object get(String cacheKey, long now) {
+		final Node node = cacheMap.get(cacheKey);
+		if (node == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		final Object value = node.value;
+		if (now > node.expireTime) {
+			missCount.incrementAndGet();
+			remove(cacheKey, node);
+			return null;
+		}
+		hitCount.incrementAndGet();
+		afterRead(node);
+		return value;
+	}
+
+
+	/***
+	 * 批量获取未过期的缓存值（同一个时间点判断过期，命中率统计只更新一次）
+	 *
+	 * @param cacheKeys
+	 * @param now 当前时间(毫秒)
+	 * @return 命中的key和值
+	 */
+	Map<String, Object> getAll(Collection<String> cacheKeys, long now) {
+		final Map<String, Object> result = new HashMap<>();
+		int hits = 0;
+		int misses = 0;
+		for (String cacheKey : cacheKeys) {
+			final Node node = (cacheKey == null) ? null : cacheMap.get(cacheKey);
+			if (node == null) {
+				misses++;
+				continue;
+			}
+			final Object value = node.value;
+			if (now > node.expireTime) {
+				misses++;
+				remove(cacheKey, node);
+				continue;
+			}
+			hits++;
+			afterRead(node);
+			result.put(cacheKey, value);
+		}
+		hitCount.addAndGet(hits);
+		missCount.addAndGet(misses);
+		return result;
+	}
+
+
+	/***
+	 * 保存缓存值
+	 *
+	 * @param cacheKey
+	 * @param value byte[]或者直接保存的对象
+	 * @param expireTime 过期的时间点(毫秒)
+	 * @param weight 估算的字节数
+	 */
+	void put(String cacheKey, Object value, long expireTime, int weight) {
+		put(cacheKey, value, expireTime, weight, true);
+	}
+
+
+	/***
+	 * 保存缓存值
+	 *
+	 * @param cacheKey
+	 * @param value byte[]或者直接保存的对象
+	 * @param expireTime 过期的时间点(毫秒)
+	 * @param weight 估算的字节数
+	 * @param isMaintain 是否马上处理缓冲区（批量写入时为false，全部写入后调用一次maintain）
+	 */
+	void put(String cacheKey, Object value, long expireTime, int weight, boolean isMaintain) {
+		final Node newNode = new Node(cacheKey, value, expireTime, weight);
+		while (true) {
+			final Node node = cacheMap.get(cacheKey);
+			if (node == null) {
+				if (cacheMap.putIfAbsent(cacheKey, newNode) == null) {
+					afterWrite(new Runnable() {
+						@Override
+						public void run() {
+							onAdd(newNode);
+						}
+					}, isMaintain);
+					return;
+				}
+				continue;
+			}
+
+			// 已经存在的key用新的Node替换（相当于一次访问）；替换失败说明同时被更新、淘汰或者过期删除了，重新写入
+			if (cacheMap.replace(cacheKey, node, newNode)) {
+				afterWrite(new Runnable() {
+					@Override
+					public void run() {
+						onReplace(node, newNode);
+					}
+				}, isMaintain);
+				return;
+			}
+		}
+	}
+
+
+	/***
+	 * key不存在（或者已经过期）时保存缓存值，否则返回已经存在的值（相当于一次访问，不计入命中率）
+	 *
+	 * @param cacheKey
+	 * @param value byte[]或者直接保存的对象
+	 * @param expireTime 过期的时间点(毫秒)
+	 * @param weight 估算的字节数
+	 * @param now 当前时间(毫秒)
+	 * @return 已经存在的值，保存成功时返回null
+	 */
+	Object putIfAbsent(String cacheKey, Object value, long expireTime, int weight, long now) {
+		while (true) {
+			final Node node = cacheMap.get(cacheKey);
+			if (node == null) {
+				final Node newNode = new Node(cacheKey, value, expireTime, weight);
+				if (cacheMap.putIfAbsent(cacheKey, newNode) == null) {
+					afterWrite(new Runnable() {
+						@Override
+						public void run() {
+							onAdd(newNode);
+						}
+					}, true);
+					return null;
+				}
+				continue;
+			}
+			final Object existValue = node.value;
+			if (now > node.expireTime) {
+				remove(cacheKey, node);
+				continue;
+			}
+			afterRead(node);
+			return existValue;
+		}
+	}
+
+
+	/***
+	 * 获取所有未过期的指定类型的缓存值（弱一致性的快照，不计入命中率）
+	 *
+	 * @param valueType
+	 * @param now 当前时间(毫秒)
+	 * @return
+	 */
+	<T> Map<String, T> snapshot(Class<T> valueType, long now) {
+		final Map<String, T> result = new HashMap<>();
+		for (Node node : cacheMap.values()) {
+			final Object value = node.value;
+			if (valueType.isInstance(value) && now <= node.expireTime) {
+				result.put(node.key, valueType.cast(value));
+			}
+		}
+		return result;
+	}
+
+
+	/***
+	 * 删除缓存
+	 *
+	 * @param cacheKey
+	 */
+	void remove(String cacheKey) {
+		remove(cacheKey, true);
+	}
+
+
+	/***
+	 * 删除缓存
+	 *
+	 * @param cacheKey
+	 * @param isMaintain 是否马上处理缓冲区（批量删除时为false，全部删除后调用一次maintain）
+	 */
+	void remove(String cacheKey, boolean isMaintain) {
+		final Node node = cacheMap.remove(cacheKey);
+		if (node != null) {
+			afterRemove(node, isMaintain);
+		}
+	}
+
+
+	/***
+	 * 没有其它线程在处理时，处理读写缓冲区（批量写入、删除之后调用）
+	 *
+	 */
+	void maintain() {
+		tryMaintenance();
+	}
+
+
+	boolean containsKey(String cacheKey) {
+		return cacheMap.containsKey(cacheKey);
+	}
+
+
+	/***
+	 * 推进时间轮，删除所有到期的缓存
+	 * 由CacheStorageServiceLocalGuardThread周期性调用（会阻塞等待锁）
+	 *
+	 * @param now 当前时间(毫秒)
+	 * @return 本次过期删除的个数
+	 */
+	int expire(long now) {
+		int count;
+		evictionLock.lock();
+		try {
+			maintenance();
+			count = timerWheel.advance(now, expireListener);
+		} finally {
+			evictionLock.unlock();
+		}
+		expiredCount.addAndGet(count);
+		lastExpiredCount = count;
+		return count;
+	}
+
+
+	/***
+	 * 内存紧张时按淘汰顺序（probation、window、protected中最久未访问的）释放一部分缓存
+	 * 由CacheMemoryPressureMonitor在老年代使用率超过阈值时调用（会阻塞等待锁）
+	 *
+	 * @param ratio 需要释放的字节数比例(0,1]
+	 * @return 释放的个数
+	 */
+	int shed(double ratio) {
+		int count = 0;
+		evictionLock.lock();
+		try {
+			maintenance();
+			final long targetWeight = (long) (weightedSize * (1.0D - ratio));
+			while (weightedSize > targetWeight) {
+				Node victim = probationDeque.peekFirst();
+				if (victim == null) {
+					victim = (windowDeque.peekFirst() != null) ? windowDeque.peekFirst() : protectedDeque.peekFirst();
+				}
+				if (victim == null) {
+					break;
+				}
+				evictNode(victim);
+				count++;
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+		return count;
+	}
+
+
+	/***
+	 * 处理所有缓冲中的读写记录（会阻塞等待锁）
+	 *
+	 */
+	void cleanUp() {
+		evictionLock.lock();
+		try {
+			maintenance();
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+
+	// 统计信息
+	long size() {
+		return cacheMap.size();
+	}
+
+	long getMaximumSize() {
+		return maximumSize;
+	}
+
+	long getWeightedSize() {
+		return weightedSize;
+	}
+
+	long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	long getHitCount() {
+		return hitCount.get();
+	}
+
+	long getMissCount() {
+		return missCount.get();
+	}
+
+	long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+	int getLastExpiredCount() {
+		return lastExpiredCount;
+	}
+
+
+	// 删除指定的node（key已经对应其它node时不删除）
+	private boolean remove(String cacheKey, Node node) {
+		if (cacheMap.remove(cacheKey, node)) {
+			afterRemove(node, true);
+			return true;
+		}
+		return false;
+	}
+
+
+	// 记录一次读取：放入当前线程对应的读缓冲区，满了直接丢弃
+	private void afterRead(Node node) {
+		final int stripe = stripeOf(Thread.currentThread().getId());
+		final AtomicLong writes = readBufferWrites[stripe];
+		final long write = writes.get();
+		final long pending = write - readBufferReads[stripe].get();
+		if (pending < READ_BUFFER_SIZE && writes.compareAndSet(write, write + 1)) {
+			readBuffers[stripe].lazySet((int) (write & READ_BUFFER_MASK), node);
+		}
+		if (pending + 1 >= READ_DRAIN_THRESHOLD) {
+			tryMaintenance();
+		}
+	}
+
+
+	private void afterRemove(final Node node, boolean isMaintain) {
+		afterWrite(new Runnable() {
+			@Override
+			public void run() {
+				onRemove(node);
+			}
+		}, isMaintain);
+	}
+
+
+	// 记录一次写操作：待处理的写操作太多时阻塞等待处理，否则尝试处理（isMaintain为false时留给之后的maintain）
+	private void afterWrite(Runnable task, boolean isMaintain) {
+		writeBuffer.add(task);
+		if (pendingWrites.incrementAndGet() > WRITE_BUFFER_MAX) {
+			cleanUp();
+		} else if (isMaintain) {
+			tryMaintenance();
+		}
+	}
+
+
+	// 没有其它线程在处理时，由当前线程处理缓冲区
+	private void tryMaintenance() {
+		while (evictionLock.tryLock()) {
+			try {
+				maintenance();
+			} finally {
+				evictionLock.unlock();
+			}
+			// 释放锁之前其它线程可能又写入了，没有线程处理时需要再处理一次
+			if (writeBuffer.isEmpty()) {
+				return;
+			}
+		}
+	}
+
+
+	// 以下方法只在evictionLock内调用
+	private void maintenance() {
+		drainReadBuffers();
+		drainWriteBuffer();
+		evict();
+	}
+
+
+	private void drainReadBuffers() {
+		for (int stripe=0; stripe<readBuffers.length; stripe++) {
+			final AtomicReferenceArray<Node> buffer = readBuffers[stripe];
+			final long write = readBufferWrites[stripe].get();
+			long read = readBufferReads[stripe].get();
+			for (; read<write; read++) {
+				final int index = (int) (read & READ_BUFFER_MASK);
+				final Node node = buffer.get(index);
+				if (node == null) {
+					// 写入线程还没有完成，下次再处理
+					break;
+				}
+				buffer.lazySet(index, null);
+				onAccess(node);
+			}
+			readBufferReads[stripe].lazySet(read);
+		}
+	}
+
+
+	private void drainWriteBuffer() {
+		Runnable task;
+		while ((task = writeBuffer.poll()) != null) {
+			pendingWrites.decrementAndGet();
+			task.run();
+		}
+	}
+
+
+	private void onAdd(Node node) {
+		sketch.increment(node.key.hashCode());
+		if (node.removed) {
+			return;
+		}
+		node.queue = WINDOW;
+		node.policyWeight = node.weight;
+		windowDeque.addLast(node);
+		weightedSize += node.policyWeight;
+		node.timer = timerWheel.schedule(node, node.expireTime);
+	}
+
+
+	// 新的Node替换旧的Node：继承旧Node所在的区域，按新的字节数和过期时间重新计算和调度
+	private void onReplace(Node oldNode, Node newNode) {
+		if (oldNode.removed || oldNode.queue < 0) {
+			// 旧的Node已经被淘汰或者过期删除，按新写入处理
+			timerWheel.cancel(oldNode.timer);
+			oldNode.removed = true;
+			onAdd(newNode);
+			return;
+		}
+		final int queue = oldNode.queue;
+		unlink(oldNode);
+		timerWheel.cancel(oldNode.timer);
+		oldNode.removed = true;
+		if (newNode.removed) {
+			// 新的Node在替换之后马上又被删除了
+			return;
+		}
+		newNode.queue = queue;
+		newNode.policyWeight = newNode.weight;
+		dequeOf(queue).addLast(newNode);
+		weightedSize += newNode.policyWeight;
+		newNode.timer = timerWheel.schedule(newNode, newNode.expireTime);
+		onAccess(newNode);
+	}
+
+
+	private void onRemove(Node node) {
+		if (!node.removed && node.queue >= 0) {
+			unlink(node);
+		}
+		timerWheel.cancel(node.timer);
+		node.removed = true;
+	}
+
+
+	// 时间轮中到期的key：还没有到过期时间时返回过期时间重新调度，否则删除
+	private long onTimerExpire(Node node, long now) {
+		final long expireTime = node.expireTime;
+		if (now <= expireTime) {
+			return expireTime;
+		}
+		if (!node.removed && node.queue >= 0) {
+			unlink(node);
+		}
+		node.removed = true;
+		cacheMap.remove(node.key, node);
+		return now;
+	}
+
+
+	private void onAccess(Node node) {
+		sketch.increment(node.key.hashCode());
+		if (node.removed || node.queue < 0) {
+			return;
+		}
+		if (node.queue == PROBATION) {
+			// 再次被访问，晋升到protected
+			probationDeque.remove(node);
+			node.queue = PROTECTED;
+			protectedDeque.addLast(node);
+			demoteFromProtected();
+		} else {
+			dequeOf(node.queue).moveToLast(node);
+		}
+	}
+
+
+	// protected超出容量时，最久未访问的降级到probation
+	private void demoteFromProtected() {
+		while (protectedDeque.size > protectedMax || (protectedDeque.weight > protectedMaxWeight && protectedDeque.size > 1)) {
+			final Node node = protectedDeque.pollFirst();
+			node.queue = PROBATION;
+			probationDeque.addLast(node);
+		}
+	}
+
+
+	private void evict() {
+		// window超出容量的部分进入probation成为候选者
+		Node candidate = null;
+		while (windowDeque.size > windowMax || (windowDeque.weight > windowMaxWeight && windowDeque.size > 1)) {
+			final Node node = windowDeque.pollFirst();
+			node.queue = PROBATION;
+			probationDeque.addLast(node);
+			if (candidate == null) {
+				candidate = node;
+			}
+		}
+
+		// 总数或者总字节数超出容量时，候选者和probation中最久未访问的key按频率比较
+		while (windowDeque.size + probationDeque.size + protectedDeque.size > maximumSize || weightedSize > maximumWeight) {
+			Node victim = probationDeque.peekFirst();
+			if (victim == null) {
+				victim = (protectedDeque.peekFirst() != null) ? protectedDeque.peekFirst() : windowDeque.peekFirst();
+				if (victim == null) {
+					// 所有区域都已经为空（并发更新导致字节数的统计有偏差），没有可以淘汰的key
+					break;
+				}
+				evictNode(victim);
+				continue;
+			}
+			if (candidate == null || candidate == victim || candidate.queue != PROBATION) {
+				evictNode(victim);
+				candidate = null;
+				continue;
+			}
+			final Node nextCandidate = candidate.next;
+			if (admit(candidate, victim)) {
+				evictNode(victim);
+			} else {
+				evictNode(candidate);
+				candidate = nextCandidate;
+			}
+		}
+	}
+
+
+	private boolean admit(Node candidate, Node victim) {
+		final int candidateFrequency = sketch.frequency(candidate.key.hashCode());
+		final int victimFrequency = sketch.frequency(victim.key.hashCode());
+		if (candidateFrequency > victimFrequency) {
+			return true;
+		}
+		if (candidateFrequency <= ADMIT_HASHDOS_THRESHOLD) {
+			return false;
+		}
+		return (ThreadLocalRandom.current().nextInt() & 127) == 0;
+	}
+
+
+	private void evictNode(Node node) {
+		unlink(node);
+		timerWheel.cancel(node.timer);
+		node.removed = true;
+		if (cacheMap.remove(node.key, node)) {
+			evictionCount.incrementAndGet();
+		}
+	}
+
+
+	// 从所在的区域中删除，并减去字节数
+	private void unlink(Node node) {
+		dequeOf(node.queue).remove(node);
+		weightedSize -= node.policyWeight;
+	}
+
+
+	private AccessDeque dequeOf(int queue) {
+		return (queue == WINDOW) ? windowDeque : ((queue == PROBATION) ? probationDeque : protectedDeque);
+	}
+
+
+	private int stripeOf(long threadId) {
+		long hash = threadId * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 32) & readBufferMask;
+	}
+
+
+	/***
+	 *
+	 * 缓存中的一个key
+	 *
+	 */
+	private static final class Node {
+
+		private final String key;
+
+		private final Object value;			// byte[]或者直接保存的对象
+
+		private final long expireTime;		// 过期的时间点(毫秒)
+
+		private final int weight;			// 值的字节数
+
+		// 以下只在evictionLock内访问
+		private int queue = -1;				// 所在的区域，-1表示还没有加入
+
+		private int policyWeight;			// 已经计入区域和总字节数的字节数
+
+		private boolean removed;			// 是否已经删除
+
+		private CacheTimerWheel.Timer<Node> timer;	// 在时间轮中的调度
+
+		private Node prev;
+
+		private Node next;
+
+		Node(String key, Object value, long expireTime, int weight) {
+			this.key = key;
+			this.value = value;
+			this.expireTime = expireTime;
+			this.weight = weight;
+		}
+	}
+
+
+	/***
+	 *
+	 * 按访问顺序排列的双向链表：头部是最久未访问的
+	 *
+	 */
+	private static final class AccessDeque {
+
+		private Node head;
+
+		private Node tail;
+
+		private long size;
+
+		private long weight;			// 区域中所有key的字节数
+
+		Node peekFirst() {
+			return head;
+		}
+
+		Node pollFirst() {
+			final Node node = head;
+			if (node != null) {
+				remove(node);
+			}
+			return node;
+		}
+
+		void addLast(Node node) {
+			node.prev = tail;
+			node.next = null;
+			if (tail == null) {
+				head = node;
+			} else {
+				tail.next = node;
+			}
+			tail = node;
+			size++;
+			weight += node.policyWeight;
+		}
+
+		void moveToLast(Node node) {
+			if (node != tail) {
+				remove(node);
+				addLast(node);
+			}
+		}
+
+		void remove(Node node) {
+			if (node.prev == null) {
+				head = node.next;
+			} else {
+				node.prev.next = node.next;
+			}
+			if (node.next == null) {
+				tail = node.prev;
+			} else {
+				node.next.prev = node.prev;
+			}
+			node.prev = null;
+			node.next = null;
+			size--;
+			weight -= node.policyWeight;
+		}
+	}
+}
@@ -1,13 +1,19 @@
 package org.zhuduan.cache.storage.impl.local;
 
-import java.lang.ref.SoftReference;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.zhuduan.cache.storage.AbstractCacheStorageService;
+import org.zhuduan.cache.storage.CacheBatchValue;
+import org.zhuduan.cache.storage.CacheCounter;
+import org.zhuduan.cache.storage.CacheMemoryPressureMonitor;
 import org.zhuduan.cache.storage.CacheStorageService;
-import org.zhuduan.model.CacheInfoModel;
-import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.cache.storage.CacheWeigher;
+import org.zhuduan.cache.storage.LocalCacheStorageService;
+import org.zhuduan.config.SimpleCacheConfig;
 import org.zhuduan.utils.CacheException;
 import org.zhuduan.utils.Log4jUtil;
 
@@ -15,37 +21,35 @@ import com.google.common.base.Strings;
 
 /***
  * 
- * CacheStorageService的本地实现，由自己维护ConcurrentHashMap来实现
- * 		实现思路较为简单：使用cacheMap来缓存对象，cacheCountDown来做缓存时间的策略差异实现
- * 						因为concurrentHashMap的原因，也不能简单的采用了SoftReference来处理
- *                      虽然ConcurrentHashMap的桶策略保证了写的一致性问题，但是读的时候可能会因为写锁导致的脏读（因为读未加锁）
- *                      （但是考虑到一般场景下的读取数据准确性要求，暂时不考虑这个场景的问题）
- *      相对Guava的LocalCache实现还是存在差异，比如数据的刷新机制、hit命中率统计、LRU等策略等
+ * CacheStorageService的本地实现，由自己维护的CacheLocalEngine来实现
+ * 		实现思路：使用ConcurrentHashMap来缓存对象，每个key只对应引擎中一个紧凑的Node：
+ *                      值（byte[]或者直接保存的对象）和过期的时间点（long）直接保存在Node中，不再包装成CacheInfoModel，也不使用SoftReference
+ *                      过期由时间轮调度，不需要遍历整个Map；Node创建后不再修改，更新时整体替换，读取不会看到新旧混合的值和过期时间
+ *      缓存的个数有上限（默认为SimpleCacheConfig.LOCAL_CACHE_OBJECT_NUM_MAX），超过时按W-TinyLFU的策略淘汰
+ *      （新写入的key需要比被淘汰的key访问频率更高才能留下），并且提供命中率的统计
+ *      同时按CacheWeigher估算的字节数限制总的内存占用（默认为SimpleCacheConfig.LOCAL_CACHE_MAXIMUM_BYTES），通过getWeightedSize()获取当前的估算值
+ *      相对Guava的LocalCache实现还是存在差异，比如数据的刷新机制等
  *      但是优点是实现比较简单，无需其它第三方包引用
  *      可以作为缺省的实现方案（在初始化参数错误或者无更多配置信息时使用）
+ *      同时支持直接保存对象（LocalCacheStorageService），对象和二进制的值使用同样的过期策略
+ *      内存紧张时由CacheMemoryPressureMonitor通知，按淘汰顺序主动释放一部分缓存
+ *      incrCacheKey使用按线程分段的计数器（CacheCounter），可以通过flushCounters批量同步到Redis
+ *      批量操作使用同一个时间点，写入和删除全部完成后才处理一次淘汰的缓冲区
  * 
  * @author	zhuhaifeng
  * @date	2017年2月21日
  *
  */
-public class CacheStorageServiceLocalImpl implements CacheStorageService {
+public class CacheStorageServiceLocalImpl extends AbstractCacheStorageService implements LocalCacheStorageService {
 		
 	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
 	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志
 	
 	private volatile static CacheStorageServiceLocalImpl INSTANCE; 			// 声明成 volatile 的实例	
+	
+	private volatile static CacheStorageServiceLocalImpl NEAR_CACHE_INSTANCE;	// 近端缓存L1使用的实例（和INSTANCE的key、容量互不影响）
 		 
-	/***
-	 * 
-	 * 实际用于缓存的Map
-	 * 采用cacheInfoModel做封装，能针对不同的ExpireTime做策略
-	 * 		注意ConcurrentHashMap的一些特点，可能需要结合做业务场景的策略调整：
-	 * 				1.分段可重入锁：put,remove,contains都会加锁
-	 * 				2.读未加锁（可能脏读）
-	 * 				3.put的时候虽然通过入参检验防止value为null，但是本例中GC释放SoftReference时会导致value为null（该场景下remove直接比对key就删除了）
-	 * 				4.Iterator的弱一致性：考虑到缓存本身的应用场景（能容忍一些脏读），是可以接受的
-	 */
-	private static final ConcurrentHashMap<String, SoftReference<CacheInfoModel>> cacheMap = new ConcurrentHashMap<>();	
+	private final CacheLocalEngine	cacheEngine;							// 实际用于缓存的有界存储引擎
 	
 	
 	/***
@@ -55,78 +59,158 @@ public class CacheStorageServiceLocalImpl implements CacheStorageService {
 	 * @throws CacheException
 	 */
     public static CacheStorageServiceLocalImpl getInstance() {
+    	return getInstance(SimpleCacheConfig.LOCAL_CACHE_OBJECT_NUM_MAX, SimpleCacheConfig.LOCAL_CACHE_MAXIMUM_BYTES);
+    }
+    
+    
+    /***
+	 * 通过单例模式来获取CacheStorageServiceLocalImpl的实例
+	 * 注意：单例只会创建一次，之后传入的objectNumMax不再生效
+	 * 
+	 * @param objectNumMax 可以缓存的最大个数
+	 * @return
+	 */
+    public static CacheStorageServiceLocalImpl getInstance(Long objectNumMax) {
+    	return getInstance(objectNumMax, SimpleCacheConfig.LOCAL_CACHE_MAXIMUM_BYTES);
+    }
+    
+    
+    /***
+	 * 通过单例模式来获取CacheStorageServiceLocalImpl的实例
+	 * 注意：单例只会创建一次，之后传入的参数不再生效
+	 * 
+	 * @param objectNumMax 可以缓存的最大个数
+	 * @param maximumBytes 可以使用的最大内存字节数（按CacheWeigher估算）
+	 * @return
+	 */
+    public static CacheStorageServiceLocalImpl getInstance(Long objectNumMax, Long maximumBytes) {
+    	// 检验入参
+    	if (null==objectNumMax || objectNumMax.longValue()<=0L){
+    		svcLog.warn("local impl中objectNumMax传入值有错误,使用了默认值");
+    		objectNumMax = SimpleCacheConfig.LOCAL_CACHE_OBJECT_NUM_MAX;
+		}
+    	if (null==maximumBytes || maximumBytes.longValue()<=0L){
+    		svcLog.warn("local impl中maximumBytes传入值有错误,使用了默认值");
+    		maximumBytes = SimpleCacheConfig.LOCAL_CACHE_MAXIMUM_BYTES;
+		}
+    	
         // 二重锁检验，来防止多线程导致的线程安全问题
     	if (INSTANCE == null) {                         
             synchronized (CacheStorageServiceLocalImpl.class) {
                 if (INSTANCE == null) {
-                	INSTANCE = new CacheStorageServiceLocalImpl();
+                	INSTANCE = new CacheStorageServiceLocalImpl(objectNumMax, maximumBytes);
                 }
             }
         }
         return INSTANCE;
     }
+    
+    
+    /***
+	 * 通过单例模式来获取近端缓存（Redis前面的本地L1）使用的实例
+	 * 和getInstance()是两个独立的实例：容量按NEAR_CACHE_OBJECT_NUM_MAX和NEAR_CACHE_MAXIMUM_BYTES限制，key和淘汰也互不影响
+	 * 
+	 * @return
+	 */
+    public static CacheStorageServiceLocalImpl getNearCacheInstance() {
+    	if (NEAR_CACHE_INSTANCE == null) {                         
+            synchronized (CacheStorageServiceLocalImpl.class) {
+                if (NEAR_CACHE_INSTANCE == null) {
+                	NEAR_CACHE_INSTANCE = new CacheStorageServiceLocalImpl(SimpleCacheConfig.NEAR_CACHE_OBJECT_NUM_MAX, SimpleCacheConfig.NEAR_CACHE_MAXIMUM_BYTES);
+                }
+            }
+        }
+        return NEAR_CACHE_INSTANCE;
+    }
 	
 	
     /**
-     * 获取缓存
+     * 获取二进制的缓存
      * 
      * @param cacheKey
      * @return null if error occur
      */
 	@Override
-	public String getCache(String cacheKey) {
+	public byte[] getCacheBytes(String cacheKey) {
+		Object cacheValue = getValidValue(cacheKey);
+		return (cacheValue instanceof byte[]) ? (byte[]) cacheValue : null;
+	}
+	
+	
+	/**
+	 * 获取缓存的对象
+	 * 
+	 * @param cacheKey
+	 * @return null if error occur
+	 */
+	@Override
+	public Object getCacheObject(String cacheKey) {
+		Object cacheValue = getValidValue(cacheKey);
+		if (cacheValue instanceof CacheCounter) {
+			// incrCacheKey的计数器返回当前的值
+			return ((CacheCounter) cacheValue).sum();
+		}
+		return (cacheValue instanceof byte[]) ? null : cacheValue;
+	}
+	
+	
+	// 获取未过期的缓存值，过期时直接清理
+	private Object getValidValue(String cacheKey) {
 		if(Strings.isNullOrEmpty(cacheKey)){
 			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
 			return null;
 		}
-		
-		SoftReference<CacheInfoModel> cacheValueReference = cacheMap.get(cacheKey);
-		
-		// 如果本身key就不存在，就会返回一个null
-		if(cacheValueReference==null){			
-			return null;
-		}
-		
-		CacheInfoModel cacheInfoModel = cacheValueReference.get();
-		
-		// 去拉取实际的对象，如果被GC释放了，则可能为空
-		if(cacheInfoModel==null || cacheInfoModel.getCacheValue()==null){
-			svcLog.info(Log4jUtil.getCallLocation() + " GC release the model for key: " + cacheKey);
-			cacheMap.remove(cacheKey);
-			return null;
-		}
-		
-		//  如果过期了则需要直接清理
-		if( (System.currentTimeMillis() - cacheInfoModel.getCacheBeginTimeLong()) > cacheInfoModel.getCacheExpireTimeLong() ){
-			svcLog.info(Log4jUtil.getCallLocation() + " expired for key: " + cacheKey);
-			cacheMap.remove(cacheKey);
-			return null;
-		}
-		
-		// 正常返回缓存值
-		return cacheInfoModel.getCacheValue();
+		return cacheEngine.get(cacheKey, System.currentTimeMillis());
 	}
 
 	
 	/**
-     * 设置缓存: 返回true成功, false失败
+     * 设置二进制的缓存: 返回true成功, false失败
      * 
      * @param cacheKey 缓存key
-     * @param cacheValue 缓存value
+     * @param cacheBytes 缓存value
      * @param expireTimeSeconds 过期时间, 单位秒!
      * @return
      */
 	@Override
-	public Boolean setCache(String cacheKey, String cacheValue, int expireTimeSeconds) {
+	public Boolean setCacheBytes(String cacheKey, byte[] cacheBytes, int expireTimeSeconds) {
 		if(StringUtils.isEmpty(cacheKey)){
     		// 直接返回设置不成功，避免导致业务逻辑出错
     		svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
     		return false;
     	}
-    	if(StringUtils.isEmpty(cacheValue)){
+    	if(cacheBytes == null || cacheBytes.length == 0){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " empty value for key: " + cacheKey);
+    		return false;
+    	}
+    	return putValue(cacheKey, cacheBytes, expireTimeSeconds);
+	}
+	
+	
+	/**
+     * 设置缓存的对象: 返回true成功, false失败
+     * 
+     * @param cacheKey 缓存key
+     * @param cacheObject 缓存的对象
+     * @param expireTimeSeconds 过期时间, 单位秒!
+     * @return
+     */
+	@Override
+	public Boolean setCacheObject(String cacheKey, Object cacheObject, int expireTimeSeconds) {
+		if(StringUtils.isEmpty(cacheKey)){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+    		return false;
+    	}
+    	if(cacheObject == null){
     		svcLog.warn(Log4jUtil.getCallLocation() + " empty value for key: " + cacheKey);
     		return false;
     	}
+    	return putValue(cacheKey, cacheObject, expireTimeSeconds);
+	}
+	
+	
+	// 校验过期时间，并保存缓存值（byte[]或者对象）
+	private Boolean putValue(String cacheKey, Object cacheValue, int expireTimeSeconds) {
     	if(expireTimeSeconds <= 0){
     		svcLog.warn(Log4jUtil.getCallLocation() + " too small expire time for key: " + cacheKey);
     		return false;
@@ -135,14 +219,7 @@ public class CacheStorageServiceLocalImpl implements CacheStorageService {
     		return false;
     	}
     	try{
-    		// 将缓存信息封装起来
-    		CacheInfoModel cacheInfoModel = new CacheInfoModel();
-    		cacheInfoModel.setCacheValue(cacheValue);
-    		cacheInfoModel.setCacheExpireTimeLong(expireTimeSeconds*1000L);
-    		cacheInfoModel.setCacheBeginTimeLong(System.currentTimeMillis());
-    		SoftReference<CacheInfoModel> cacheValueReference = new SoftReference<CacheInfoModel>(cacheInfoModel);
-    		
-    		cacheMap.put(cacheKey, cacheValueReference);
+    		cacheEngine.put(cacheKey, cacheValue, System.currentTimeMillis() + expireTimeSeconds*1000L, CacheWeigher.weigh(cacheKey, cacheValue));
 			return true;
     	} catch (Exception exp){ 
     		// 防止缓存崩溃,影响主业务逻辑
@@ -164,7 +241,7 @@ public class CacheStorageServiceLocalImpl implements CacheStorageService {
 			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
 			return false;
 		}
-		return cacheMap.containsKey(cacheKey);
+		return cacheEngine.containsKey(cacheKey);
 	}
 
 
@@ -180,30 +257,252 @@ public class CacheStorageServiceLocalImpl implements CacheStorageService {
 			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
 			return false;
 		}
-		cacheMap.remove(cacheKey);
+		cacheEngine.remove(cacheKey);
 		return true;
 	}
 
 	
     /**
      * 以step步长, cacheKey的自增, 过期时间为expireTimeSeconds秒
+     * 		计数器（CacheCounter）作为缓存值保存，和其它缓存一样会被淘汰
+     * 		过期时间只在创建计数器时设置（之后的自增不会延长过期时间，适合按时间窗口限流的场景）
+     * 		key已经保存了其它的值时不自增，返回0
      * 
      * @param cacheKey
      * @param incrStep  以incrStep步长自增
      * @param expireTimeSeconds  过期时间, 单位秒!
-     * @return 返回增长后的值, or 0 if error occur
-     * @throws CacheException 
+     * @return 返回增长后的值（并发自增时为近似值）, or 0 if error occur
      */
 	@Override
-	public Long incrCacheKey(String cacheKey, long incrStep, int expireTimeSeconds) throws CacheException {
-		throw new CacheException(CacheConstants.EXCEPTION_NOT_SUPPORT_METHOD, "Local Cache的实现中不支持值的增加功能");
+	public Long incrCacheKey(String cacheKey, long incrStep, int expireTimeSeconds) {
+		if(StringUtils.isEmpty(cacheKey)){
+			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+			return 0L;
+		}
+		if(expireTimeSeconds <= 0){
+			svcLog.warn(Log4jUtil.getCallLocation() + " too small expire time for key: " + cacheKey);
+			return 0L;
+		} else if (expireTimeSeconds > MAX_EXPIRE_SECONDS){
+			svcLog.warn(Log4jUtil.getCallLocation() + " too high expire time for key: " + cacheKey);
+			return 0L;
+		}
+		try{
+			final long now = System.currentTimeMillis();
+			final CacheCounter newCounter = new CacheCounter(expireTimeSeconds);
+			final Object existValue = cacheEngine.putIfAbsent(cacheKey, newCounter, now + expireTimeSeconds*1000L, 
+																CacheWeigher.weigh(cacheKey, newCounter), now);
+			if (existValue == null) {
+				return newCounter.add(incrStep);
+			}
+			if (existValue instanceof CacheCounter) {
+				return ((CacheCounter) existValue).add(incrStep);
+			}
+			svcLog.warn(Log4jUtil.getCallLocation() + " not a counter for key: " + cacheKey);
+		} catch (Exception exp){ 
+			// 防止缓存崩溃,影响主业务逻辑
+			sysLog.error(Log4jUtil.getCallLocation() + " local impl error for: " + exp.getMessage());
+		}
+		return 0L;
 	}
-
+	
+	
+	/**
+	 * 批量获取二进制的缓存
+	 * 
+	 * @param cacheKeys
+	 * @return 命中的key和值
+	 */
+	@Override
+	public Map<String, byte[]> getAll(Collection<String> cacheKeys) {
+		final Map<String, byte[]> result = new HashMap<>();
+		if (cacheKeys == null || cacheKeys.isEmpty()) {
+			return result;
+		}
+		for (Map.Entry<String, Object> entry : cacheEngine.getAll(cacheKeys, System.currentTimeMillis()).entrySet()) {
+			if (entry.getValue() instanceof byte[]) {
+				result.put(entry.getKey(), (byte[]) entry.getValue());
+			}
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * 批量设置二进制的缓存: 全部成功时返回true
+	 * 
+	 * @param cacheValues
+	 * @return
+	 */
+	@Override
+	public Boolean setAll(Map<String, CacheBatchValue> cacheValues) {
+		if (cacheValues == null) {
+			return false;
+		}
+		boolean result = true;
+		try{
+			final long now = System.currentTimeMillis();
+			for (Map.Entry<String, CacheBatchValue> entry : cacheValues.entrySet()) {
+				final String cacheKey = entry.getKey();
+				final CacheBatchValue cacheValue = entry.getValue();
+				if (!CacheBatchValue.isValid(cacheKey, cacheValue)) {
+					result = false;
+					continue;
+				}
+				cacheEngine.put(cacheKey, cacheValue.getCacheBytes(), now + cacheValue.getExpireTimeSeconds()*1000L, 
+								CacheWeigher.weigh(cacheKey, cacheValue.getCacheBytes()), false);
+			}
+		} catch (Exception exp){ 
+			// 防止缓存崩溃,影响主业务逻辑
+			sysLog.error(Log4jUtil.getCallLocation() + " local impl error for: " + exp.getMessage());
+			result = false;
+		} finally {
+			cacheEngine.maintain();
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * 批量删除cacheKey
+	 * 
+	 * @param cacheKeys
+	 * @return
+	 */
+	@Override
+	public Boolean deleteAll(Collection<String> cacheKeys) {
+		if (cacheKeys == null) {
+			return false;
+		}
+		boolean result = true;
+		try{
+			for (String cacheKey : cacheKeys) {
+				if(Strings.isNullOrEmpty(cacheKey)){
+					svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+					result = false;
+					continue;
+				}
+				cacheEngine.remove(cacheKey, false);
+			}
+		} finally {
+			cacheEngine.maintain();
+		}
+		return result;
+	}
+	
+	
+	/***
+	 * 把本地计数器（incrCacheKey）累加的增量批量同步到远程实现（如Redis）
+	 * 每个计数器每次只调用一次远程的incrCacheKey，适合定时调用；同步失败的增量下次调用时重试
+	 * 注意：计数器过期或者被淘汰后，还没有同步的增量会丢失，因此同步的间隔需要小于计数器的过期时间
+	 * 
+	 * @param targetStorageService 同步的目标实现
+	 * @return 同步成功的计数器个数
+	 */
+	public int flushCounters(CacheStorageService targetStorageService) {
+		return CacheCounter.flush(cacheEngine.snapshot(CacheCounter.class, System.currentTimeMillis()), targetStorageService);
+	}
+	
+	
+	/***
+	 * 当前缓存的个数
+	 * 
+	 * @return
+	 */
+	public long getSize() {
+		return cacheEngine.size();
+	}
+	
+	
+	/***
+	 * 可以缓存的最大个数
+	 * 
+	 * @return
+	 */
+	public long getMaximumSize() {
+		return cacheEngine.getMaximumSize();
+	}
+	
+	
+	/***
+	 * 当前缓存估算的内存字节数（CacheWeigher）
+	 * 
+	 * @return
+	 */
+	public long getWeightedSize() {
+		return cacheEngine.getWeightedSize();
+	}
+	
+	
+	/***
+	 * 可以使用的最大内存字节数
+	 * 
+	 * @return
+	 */
+	public long getMaximumBytes() {
+		return cacheEngine.getMaximumWeight();
+	}
+	
+	
+	public long getHitCount() {
+		return cacheEngine.getHitCount();
+	}
+	
+	
+	public long getMissCount() {
+		return cacheEngine.getMissCount();
+	}
+	
+	
+	/***
+	 * 因为超过最大个数或者最大字节数而被淘汰的次数（不包括过期）
+	 * 
+	 * @return
+	 */
+	public long getEvictionCount() {
+		return cacheEngine.getEvictionCount();
+	}
+	
+	
+	/***
+	 * 因为过期而被时间轮删除的总次数
+	 * 
+	 * @return
+	 */
+	public long getExpiredCount() {
+		return cacheEngine.getExpiredCount();
+	}
+	
+	
+	/***
+	 * 最近一个tick（GUARD_THREAD_TICK_MILLIS）中过期删除的个数
+	 * 
+	 * @return
+	 */
+	public int getLastTickExpiredCount() {
+		return cacheEngine.getLastExpiredCount();
+	}
+	
+	
+	/***
+	 * 命中率，没有请求时返回1
+	 * 
+	 * @return
+	 */
+	public double getHitRate() {
+		final long hitCount = cacheEngine.getHitCount();
+		final long requestCount = hitCount + cacheEngine.getMissCount();
+		return requestCount == 0 ? 1.0D : (double) hitCount / requestCount;
+	}
+	
+	
 	/***
 	 * 私有的构造器
 	 * 
+	 * @param objectNumMax
+	 * @param maximumBytes
 	 */
-	private CacheStorageServiceLocalImpl(){
+	private CacheStorageServiceLocalImpl(long objectNumMax, long maximumBytes){
+		this.cacheEngine = new CacheLocalEngine(objectNumMax, maximumBytes);
 		initial();
 	}
 	
@@ -214,8 +513,16 @@ public class CacheStorageServiceLocalImpl implements CacheStorageService {
 	 */
 	private void initial(){
 		// 1. 启动一个清理数据的守护线程
-		CacheStorageServiceLocalGuardThread expireGuaradThread = new CacheStorageServiceLocalGuardThread();
+		CacheStorageServiceLocalGuardThread expireGuaradThread = new CacheStorageServiceLocalGuardThread(cacheEngine);
 		expireGuaradThread.setDaemon(true);
 		expireGuaradThread.start();
+		
+		// 2. 内存紧张时按淘汰顺序释放一部分缓存
+		CacheMemoryPressureMonitor.getInstance().addListener(new CacheMemoryPressureMonitor.Listener() {
+			@Override
+			public long onMemoryPressure(double ratio) {
+				return cacheEngine.shed(ratio);
+			}
+		});
 	}
 }
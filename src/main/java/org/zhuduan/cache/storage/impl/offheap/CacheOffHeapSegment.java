@@ -0,0 +1,344 @@
+package org.zhuduan.cache.storage.impl.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/***
+ *
+ * CacheStorageServiceOffHeapImpl中的一个分段：数据和索引都保存在堆外内存(direct ByteBuffer)中
+ * 		1.数据区是一个环形缓冲区，新的数据追加到tail，空间不足时从head开始按写入顺序(FIFO)淘汰
+ * 		  每条数据的格式：[int 总长度][int hash][long 过期时间][int key长度][int value长度][key][value]
+ * 		  数据区末尾放不下一条数据时，剩余的部分作为填充跳过（写入PADDING标记）
+ * 		2.索引区是开放寻址(线性探测)的hash表，每个槽位是一个long：高32位为hash，低32位为数据的位置+1（0表示空）
+ * 		  删除时将后续的槽位前移，不需要墓碑标记
+ * 		3.覆盖写和删除只修改索引，旧的数据在head经过时回收；过期的数据在读取时或者head经过时删除
+ *
+ * 注意：所有方法都在分段锁内执行
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月28日
+ *
+ */
+final class CacheOffHeapSegment {
+
+	private static final int	OFFSET_SIZE			=	0;
+	private static final int	OFFSET_HASH			=	4;
+	private static final int	OFFSET_EXPIRE		=	8;
+	private static final int	OFFSET_KEY_LENGTH	=	16;
+	private static final int	OFFSET_VALUE_LENGTH	=	20;
+	private static final int	HEADER_SIZE			=	24;
+
+	private static final int	PADDING				=	-1;			// 数据区末尾的填充标记
+
+	private static final float	INDEX_LOAD_FACTOR	=	0.75f;		// 索引的最大装载因子，超过时淘汰最早的数据
+
+	private final ReentrantLock	lock		=	new ReentrantLock();
+
+	private final ByteBuffer	data;					// 数据区
+
+	private final int			capacity;				// 数据区的字节数
+
+	private final int			maxEntrySize;			// 一条数据的最大字节数
+
+	private final ByteBuffer	index;					// 索引区
+
+	private final int			indexMask;
+
+	private final int			indexMax;				// 索引中最多的数据条数
+
+	private long				head;					// 最早的数据的位置（一直递增，取模得到实际位置）
+
+	private long				tail;					// 下一条数据写入的位置
+
+	private int					entryCount;				// 索引中的数据条数
+
+	// 统计
+	private long				hitCount;
+
+	private long				missCount;
+
+	private long				evictionCount;
+
+	private long				expiredCount;
+
+
+	/***
+	 *
+	 * @param capacity 数据区的字节数
+	 * @param indexSlots 索引的槽位数（2的幂次）
+	 */
+	CacheOffHeapSegment(int capacity, int indexSlots) {
+		this.capacity = capacity;
+		this.maxEntrySize = capacity / 4;
+		this.data = ByteBuffer.allocateDirect(capacity);
+		this.index = ByteBuffer.allocateDirect(indexSlots * 8);
+		this.indexMask = indexSlots - 1;
+		this.indexMax = (int) (indexSlots * INDEX_LOAD_FACTOR);
+	}
+
+
+	/***
+	 * 获取缓存的值
+	 *
+	 * @param keyBytes
+	 * @param hash
+	 * @param now 当前时间(毫秒)
+	 * @return 不存在或者过期时返回null
+	 */
+	byte[] get(byte[] keyBytes, int hash, long now) {
+		lock.lock();
+		try {
+			final int slot = findSlot(keyBytes, hash, now);
+			if (slot < 0) {
+				missCount++;
+				return null;
+			}
+			final int offset = offsetOf(index.getLong(slot << 3));
+			final byte[] value = new byte[data.getInt(offset + OFFSET_VALUE_LENGTH)];
+			data.position(offset + HEADER_SIZE + keyBytes.length);
+			data.get(value);
+			hitCount++;
+			return value;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	boolean containsKey(byte[] keyBytes, int hash, long now) {
+		lock.lock();
+		try {
+			return findSlot(keyBytes, hash, now) >= 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	/***
+	 * 保存缓存的值，空间不足时淘汰最早写入的数据
+	 *
+	 * @param keyBytes
+	 * @param hash
+	 * @param value
+	 * @param expireTime 过期的时间点(毫秒)
+	 * @param now 当前时间(毫秒)
+	 * @return 数据太大放不下时返回false
+	 */
+	boolean put(byte[] keyBytes, int hash, byte[] value, long expireTime, long now) {
+		final long entrySize = (long) HEADER_SIZE + keyBytes.length + value.length;
+		if (entrySize > maxEntrySize) {
+			return false;
+		}
+		final int size = (int) entrySize;
+
+		lock.lock();
+		try {
+			// 覆盖写：只删除索引，旧的数据等head经过时回收
+			final int slot = findSlot(keyBytes, hash, now);
+			if (slot >= 0) {
+				removeSlot(slot);
+			}
+
+			int offset = physical(tail);
+			while (!hasRoom(offset, size)) {
+				if (!evictHead(now)) {
+					return false;
+				}
+			}
+
+			if (capacity - offset < size) {
+				// 末尾放不下，跳过剩余的部分
+				if (capacity - offset >= 4) {
+					data.putInt(offset, PADDING);
+				}
+				tail += capacity - offset;
+				offset = 0;
+			}
+			data.putInt(offset + OFFSET_SIZE, size);
+			data.putInt(offset + OFFSET_HASH, hash);
+			data.putLong(offset + OFFSET_EXPIRE, expireTime);
+			data.putInt(offset + OFFSET_KEY_LENGTH, keyBytes.length);
+			data.putInt(offset + OFFSET_VALUE_LENGTH, value.length);
+			data.position(offset + HEADER_SIZE);
+			data.put(keyBytes);
+			data.put(value);
+			tail += size;
+			insertSlot(hash, offset);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	boolean remove(byte[] keyBytes, int hash, long now) {
+		lock.lock();
+		try {
+			final int slot = findSlot(keyBytes, hash, now);
+			if (slot < 0) {
+				return false;
+			}
+			removeSlot(slot);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	// 统计信息（读取时不加锁，只是近似值）
+	int size() {
+		return entryCount;
+	}
+
+	long getCapacity() {
+		return capacity;
+	}
+
+	long getUsedBytes() {
+		return tail - head;
+	}
+
+	long getHitCount() {
+		return hitCount;
+	}
+
+	long getMissCount() {
+		return missCount;
+	}
+
+	long getEvictionCount() {
+		return evictionCount;
+	}
+
+	long getExpiredCount() {
+		return expiredCount;
+	}
+
+
+	// 查找key对应的槽位，已经过期时直接删除
+	private int findSlot(byte[] keyBytes, int hash, long now) {
+		int slot = hash & indexMask;
+		while (true) {
+			final long slotValue = index.getLong(slot << 3);
+			if (slotValue == 0L) {
+				return -1;
+			}
+			if ((int) (slotValue >>> 32) == hash && keyEquals(offsetOf(slotValue), keyBytes)) {
+				if (now - data.getLong(offsetOf(slotValue) + OFFSET_EXPIRE) > 0L) {
+					removeSlot(slot);
+					expiredCount++;
+					return -1;
+				}
+				return slot;
+			}
+			slot = (slot + 1) & indexMask;
+		}
+	}
+
+
+	// 查找指向offset位置数据的槽位
+	private int findSlotByOffset(int hash, int offset) {
+		int slot = hash & indexMask;
+		while (true) {
+			final long slotValue = index.getLong(slot << 3);
+			if (slotValue == 0L) {
+				return -1;
+			}
+			if (offsetOf(slotValue) == offset) {
+				return slot;
+			}
+			slot = (slot + 1) & indexMask;
+		}
+	}
+
+
+	private boolean keyEquals(int offset, byte[] keyBytes) {
+		if (data.getInt(offset + OFFSET_KEY_LENGTH) != keyBytes.length) {
+			return false;
+		}
+		final int keyOffset = offset + HEADER_SIZE;
+		for (int i=0; i<keyBytes.length; i++) {
+			if (data.get(keyOffset + i) != keyBytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	private void insertSlot(int hash, int offset) {
+		int slot = hash & indexMask;
+		while (index.getLong(slot << 3) != 0L) {
+			slot = (slot + 1) & indexMask;
+		}
+		index.putLong(slot << 3, ((long) hash << 32) | ((offset + 1) & 0xffffffffL));
+		entryCount++;
+	}
+
+
+	// 删除槽位，并把后续属于之前位置的槽位前移（线性探测的删除）
+	private void removeSlot(int slot) {
+		int hole = slot;
+		int next = slot;
+		while (true) {
+			next = (next + 1) & indexMask;
+			final long slotValue = index.getLong(next << 3);
+			if (slotValue == 0L) {
+				break;
+			}
+			final int home = ((int) (slotValue >>> 32)) & indexMask;
+			// home不在(hole, next]之间时，可以移动到hole
+			if (((next - home) & indexMask) >= ((next - hole) & indexMask)) {
+				index.putLong(hole << 3, slotValue);
+				hole = next;
+			}
+		}
+		index.putLong(hole << 3, 0L);
+		entryCount--;
+	}
+
+
+	// 当前位置是否能写入size字节（包括末尾需要跳过的部分），并且索引没有满
+	private boolean hasRoom(int offset, int size) {
+		final long required = (capacity - offset >= size) ? size : (capacity - offset) + size;
+		return (capacity - (tail - head)) >= required && entryCount < indexMax;
+	}
+
+
+	// 淘汰head位置的数据（已经被覆盖或者删除的数据只回收空间）
+	private boolean evictHead(long now) {
+		if (head == tail) {
+			return false;
+		}
+		final int offset = physical(head);
+		final int remaining = capacity - offset;
+		if (remaining < HEADER_SIZE || data.getInt(offset + OFFSET_SIZE) == PADDING) {
+			head += remaining;
+			return true;
+		}
+		final int slot = findSlotByOffset(data.getInt(offset + OFFSET_HASH), offset);
+		if (slot >= 0) {
+			removeSlot(slot);
+			if (now - data.getLong(offset + OFFSET_EXPIRE) > 0L) {
+				expiredCount++;
+			} else {
+				evictionCount++;
+			}
+		}
+		head += data.getInt(offset + OFFSET_SIZE);
+		return true;
+	}
+
+
+	private int physical(long position) {
+		return (int) (position % capacity);
+	}
+
+
+	private static int offsetOf(long slotValue) {
+		return (int) slotValue - 1;
+	}
+}
@@ -0,0 +1,327 @@
+package org.zhuduan.cache.storage.impl.offheap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.zhuduan.cache.storage.AbstractCacheStorageService;
+import org.zhuduan.config.SimpleCacheConfig;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+import org.zhuduan.utils.Log4jUtil;
+
+import com.google.common.base.Strings;
+
+/***
+ *
+ * CacheStorageService的堆外内存实现：key和value都编码成byte[]保存在direct ByteBuffer中
+ * 		1.按key的hash分成多个CacheOffHeapSegment，每个分段一把锁，数据区和索引区都在堆外，启动时一次性分配
+ * 		  因此无论缓存了多少数据，堆上都只有固定的几十个对象，不会增加老年代的占用和GC的停顿时间
+ * 		2.容量按字节配置（默认SimpleCacheConfig.OFFHEAP_CAPACITY_BYTES），空间不足时按写入顺序(FIFO)淘汰
+ * 		  （命中率比LRU略低，但是写入和淘汰都是顺序的，不需要维护访问顺序）
+ * 		3.过期时间保存在每条数据中，读取时判断，过期的数据在读取时或者被淘汰时删除（空间已经预先分配，不需要守护线程清理）
+ * 		4.读取时需要从堆外复制出byte[]，比LocalImpl多一次复制；不支持直接保存对象（LocalCacheStorageService）
+ *
+ * 注意：堆外内存受-XX:MaxDirectMemorySize的限制，容量需要小于该值
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月28日
+ *
+ */
+public class CacheStorageServiceOffHeapImpl extends AbstractCacheStorageService {
+
+	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
+	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志
+
+	private static final int		SEGMENT_CAPACITY_MAX	=	1 << 30;	// 每个分段最大的字节数
+
+	private volatile static CacheStorageServiceOffHeapImpl INSTANCE; 		// 声明成 volatile 的实例
+
+	private final CacheOffHeapSegment[]	segments;							// 分段
+
+	private final int					segmentShift;						// 使用hash的高位选择分段
+
+	private final long					capacityBytes;						// 实际分配的字节数
+
+
+	/***
+	 * 通过单例模式来获取CacheStorageServiceOffHeapImpl的实例
+	 *
+	 * @return
+	 */
+    public static CacheStorageServiceOffHeapImpl getInstance() {
+    	return getInstance(SimpleCacheConfig.OFFHEAP_CAPACITY_BYTES);
+    }
+
+
+    /***
+	 * 通过单例模式来获取CacheStorageServiceOffHeapImpl的实例
+	 * 注意：单例只会创建一次，之后传入的capacityBytes不再生效
+	 *
+	 * @param capacityBytes 使用的堆外内存字节数
+	 * @return
+	 */
+    public static CacheStorageServiceOffHeapImpl getInstance(Long capacityBytes) {
+    	// 检验入参
+    	if (null==capacityBytes || capacityBytes.longValue()<=0L){
+    		svcLog.warn("offheap impl中capacityBytes传入值有错误,使用了默认值");
+    		capacityBytes = SimpleCacheConfig.OFFHEAP_CAPACITY_BYTES;
+		}
+
+        // 二重锁检验，来防止多线程导致的线程安全问题
+    	if (INSTANCE == null) {
+            synchronized (CacheStorageServiceOffHeapImpl.class) {
+                if (INSTANCE == null) {
+                	INSTANCE = new CacheStorageServiceOffHeapImpl(capacityBytes);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+
+    /**
+     * 获取二进制的缓存
+     *
+     * @param cacheKey
+     * @return null if error occur
+     */
+	@Override
+	public byte[] getCacheBytes(String cacheKey) {
+		if(Strings.isNullOrEmpty(cacheKey)){
+			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+			return null;
+		}
+		try{
+			final byte[] keyBytes = cacheKey.getBytes(UTF_8);
+			final int hash = hash(cacheKey);
+			return segmentOf(hash).get(keyBytes, hash, System.currentTimeMillis());
+		} catch (Exception exp){
+			// 防止缓存崩溃,影响主业务逻辑
+			sysLog.error(Log4jUtil.getCallLocation() + " offheap impl error for: " + exp.getMessage());
+		}
+		return null;
+	}
+
+
+	/**
+     * 设置二进制的缓存: 返回true成功, false失败
+     *
+     * @param cacheKey 缓存key
+     * @param cacheBytes 缓存value
+     * @param expireTimeSeconds 过期时间, 单位秒!
+     * @return
+     */
+	@Override
+	public Boolean setCacheBytes(String cacheKey, byte[] cacheBytes, int expireTimeSeconds) {
+		if(StringUtils.isEmpty(cacheKey)){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+    		return false;
+    	}
+    	if(cacheBytes == null || cacheBytes.length == 0){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " empty value for key: " + cacheKey);
+    		return false;
+    	}
+    	if(expireTimeSeconds <= 0){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " too small expire time for key: " + cacheKey);
+    		return false;
+    	} else if (expireTimeSeconds > MAX_EXPIRE_SECONDS){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " too high expire time for key: " + cacheKey);
+    		return false;
+    	}
+    	try{
+    		final byte[] keyBytes = cacheKey.getBytes(UTF_8);
+			final int hash = hash(cacheKey);
+			final long now = System.currentTimeMillis();
+			if (segmentOf(hash).put(keyBytes, hash, cacheBytes, now + expireTimeSeconds*1000L, now)){
+				return true;
+			}
+			svcLog.warn(Log4jUtil.getCallLocation() + " value too large for offheap segment, key: " + cacheKey + " size: " + cacheBytes.length);
+    	} catch (Exception exp){
+    		// 防止缓存崩溃,影响主业务逻辑
+    		sysLog.error(Log4jUtil.getCallLocation() + " offheap impl error for: " + exp.getMessage());
+    	}
+    	return false;
+	}
+
+
+    /**
+     * 检查KEY是否存在
+     *
+     * @param cacheKey
+     * @return
+     */
+	@Override
+	public Boolean isCacheKeyExists(String cacheKey) {
+		if(Strings.isNullOrEmpty(cacheKey)){
+			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+			return false;
+		}
+		final int hash = hash(cacheKey);
+		return segmentOf(hash).containsKey(cacheKey.getBytes(UTF_8), hash, System.currentTimeMillis());
+	}
+
+
+	/**
+     * 删除指定cacheKey
+     *
+     * @param cacheKey
+     * @return
+     */
+	@Override
+	public Boolean deleteCache(String cacheKey) {
+		if(Strings.isNullOrEmpty(cacheKey)){
+			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+			return false;
+		}
+		final int hash = hash(cacheKey);
+		segmentOf(hash).remove(cacheKey.getBytes(UTF_8), hash, System.currentTimeMillis());
+		return true;
+	}
+
+
+    /**
+     * 以step步长, cacheKey的自增, 过期时间为expireTimeSeconds秒
+     *
+     * @param cacheKey
+     * @param incrStep  以incrStep步长自增
+     * @param expireTimeSeconds  过期时间, 单位秒!
+     * @return 返回增长后的值, or 0 if error occur
+     * @throws CacheException
+     */
+	@Override
+	public Long incrCacheKey(String cacheKey, long incrStep, int expireTimeSeconds) throws CacheException {
+		throw new CacheException(CacheConstants.EXCEPTION_NOT_SUPPORT_METHOD, "OffHeap的实现中不支持值的增加功能");
+	}
+
+
+	/***
+	 * 当前缓存的个数（包括还没有被删除的过期数据）
+	 *
+	 * @return
+	 */
+	public long getSize() {
+		long size = 0L;
+		for (CacheOffHeapSegment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+
+	/***
+	 * 分配的堆外内存字节数（不包括索引）
+	 *
+	 * @return
+	 */
+	public long getCapacityBytes() {
+		return capacityBytes;
+	}
+
+
+	/***
+	 * 已经使用的字节数（包括已经被覆盖、删除但是还没有回收的空间）
+	 *
+	 * @return
+	 */
+	public long getUsedBytes() {
+		long usedBytes = 0L;
+		for (CacheOffHeapSegment segment : segments) {
+			usedBytes += segment.getUsedBytes();
+		}
+		return usedBytes;
+	}
+
+
+	public long getHitCount() {
+		long hitCount = 0L;
+		for (CacheOffHeapSegment segment : segments) {
+			hitCount += segment.getHitCount();
+		}
+		return hitCount;
+	}
+
+
+	public long getMissCount() {
+		long missCount = 0L;
+		for (CacheOffHeapSegment segment : segments) {
+			missCount += segment.getMissCount();
+		}
+		return missCount;
+	}
+
+
+	/***
+	 * 因为空间不足而被淘汰的次数（不包括过期）
+	 *
+	 * @return
+	 */
+	public long getEvictionCount() {
+		long evictionCount = 0L;
+		for (CacheOffHeapSegment segment : segments) {
+			evictionCount += segment.getEvictionCount();
+		}
+		return evictionCount;
+	}
+
+
+	public long getExpiredCount() {
+		long expiredCount = 0L;
+		for (CacheOffHeapSegment segment : segments) {
+			expiredCount += segment.getExpiredCount();
+		}
+		return expiredCount;
+	}
+
+
+	/***
+	 * 命中率，没有请求时返回1
+	 *
+	 * @return
+	 */
+	public double getHitRate() {
+		final long hitCount = getHitCount();
+		final long requestCount = hitCount + getMissCount();
+		return requestCount == 0 ? 1.0D : (double) hitCount / requestCount;
+	}
+
+
+	// 对String的hashCode再做一次混淆，低位用于索引，高位用于选择分段
+	private static int hash(String cacheKey) {
+		int hash = cacheKey.hashCode();
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+
+
+	private CacheOffHeapSegment segmentOf(int hash) {
+		return segments[hash >>> segmentShift];
+	}
+
+
+	/***
+	 * 私有的构造器
+	 * 分段数为2的幂次，并保证每个分段不超过1GB
+	 *
+	 * @param capacityBytes
+	 */
+	private CacheStorageServiceOffHeapImpl(long capacityBytes){
+		int segmentNum = Integer.highestOneBit(Math.max(SimpleCacheConfig.OFFHEAP_SEGMENT_NUM, 2) * 2 - 1);
+		while (capacityBytes / segmentNum > SEGMENT_CAPACITY_MAX) {
+			segmentNum <<= 1;
+		}
+		final int segmentCapacity = (int) Math.max(capacityBytes / segmentNum, 1024L);
+		final long indexSlots = Math.max((long) (segmentCapacity / SimpleCacheConfig.OFFHEAP_AVERAGE_ENTRY_BYTES / 0.75), 64L);
+		final int indexSlotNum = (int) Math.min(Long.highestOneBit(indexSlots * 2 - 1), 1 << 27);
+
+		this.segments = new CacheOffHeapSegment[segmentNum];
+		for (int i=0; i<segmentNum; i++) {
+			segments[i] = new CacheOffHeapSegment(segmentCapacity, indexSlotNum);
+		}
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentNum);
+		this.capacityBytes = (long) segmentCapacity * segmentNum;
+		svcLog.info("offheap impl allocated " + this.capacityBytes + " bytes in " + segmentNum + " segments");
+	}
+}
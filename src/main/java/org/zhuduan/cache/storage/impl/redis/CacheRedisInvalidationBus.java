@@ -0,0 +1,281 @@
+package org.zhuduan.cache.storage.impl.redis;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.zhuduan.cache.storage.CacheInvalidationBus;
+import org.zhuduan.config.SimpleCacheConfig;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+import org.zhuduan.utils.Log4jUtil;
+
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.util.SafeEncoder;
+
+/***
+ *
+ * 基于Redis pub/sub的CacheInvalidationBus
+ * 		1.publish直接在调用线程中发送一条PUBLISH（Redis Cluster会把消息广播到所有节点），一批key合并成一条消息
+ * 		2.第一次subscribe时启动一个daemon线程阻塞在SUBSCRIBE上，连接断开后间隔NEAR_CACHE_RESUBSCRIBE_MILLIS重新订阅
+ * 		3.每次订阅成功都会回调Listener.onInvalidateAll（断开期间的消息已经丢失）
+ * 		4.消息格式：发送方id的长度和内容、key的个数、每个key的长度和内容（UTF-8），发送方自己的消息会被忽略
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月20日
+ *
+ */
+public class CacheRedisInvalidationBus implements CacheInvalidationBus {
+
+	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
+	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志
+
+	private final JedisCluster		jedisCluster;						// 发送和订阅消息使用的JedisCluster
+
+	private final byte[]			channel;							// 失效消息的channel
+
+	private final byte[]			nodeId;								// 当前节点的id（用于忽略自己发送的消息）
+
+	private final CopyOnWriteArrayList<Listener>	listeners	=	new CopyOnWriteArrayList<>();
+
+	private final AtomicBoolean		started			=	new AtomicBoolean(false);
+
+	private volatile boolean		closed			=	false;
+
+	private volatile BinaryJedisPubSub	jedisPubSub	=	null;				// 当前的订阅（重新订阅时替换）
+
+	// 统计
+	private final AtomicLong		publishCount		=	new AtomicLong();
+
+	private final AtomicLong		publishFailCount	=	new AtomicLong();
+
+	private final AtomicLong		receiveCount		=	new AtomicLong();
+
+	private final AtomicLong		subscribeCount		=	new AtomicLong();
+
+
+	public CacheRedisInvalidationBus(JedisCluster jedisCluster) throws CacheException {
+		this(jedisCluster, SimpleCacheConfig.NEAR_CACHE_CHANNEL);
+	}
+
+
+	/***
+	 *
+	 * @param jedisCluster
+	 * @param channel 失效消息的channel（同一组共享缓存的节点需要使用同一个channel）
+	 * @throws CacheException jedisCluster或者channel为空时抛出
+	 */
+	public CacheRedisInvalidationBus(JedisCluster jedisCluster, String channel) throws CacheException {
+		if (jedisCluster == null || StringUtils.isBlank(channel)) {
+			sysLog.error("invalidation bus中jedisCluster和channel都不能为空");
+			throw new CacheException(CacheConstants.EXCEPTION_INITIAL_PARAM, "invalidation bus中jedisCluster和channel都不能为空");
+		}
+		this.jedisCluster = jedisCluster;
+		this.channel = SafeEncoder.encode(channel);
+		this.nodeId = SafeEncoder.encode(UUID.randomUUID().toString());
+	}
+
+
+	/**
+     * 广播一批key失效：合并成一条PUBLISH，失败时只记录日志
+     *
+     * @param cacheKeys
+     */
+	@Override
+	public void publish(Collection<String> cacheKeys) {
+		if (closed || cacheKeys == null || cacheKeys.isEmpty()) {
+			return;
+		}
+		try {
+			jedisCluster.publish(channel, encode(nodeId, cacheKeys));
+			publishCount.incrementAndGet();
+		} catch (Exception exp) {
+			// 消息丢失时由本地缓存的过期时间兜底
+			publishFailCount.incrementAndGet();
+			sysLog.error(Log4jUtil.getCallLocation() + " publish invalidation error for: " + exp.getMessage());
+		}
+	}
+
+
+	/**
+     * 注册Listener，第一次注册时启动订阅线程
+     *
+     * @param listener
+     */
+	@Override
+	public void subscribe(Listener listener) {
+		listeners.add(listener);
+		if (started.compareAndSet(false, true)) {
+			final Thread subscribeThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					subscribeLoop();
+				}
+			}, "SimpleCache-invalidation");
+			subscribeThread.setDaemon(true);
+			subscribeThread.start();
+		}
+	}
+
+
+	/**
+     * 停止订阅（订阅线程退出）
+     *
+     */
+	@Override
+	public void close() {
+		closed = true;
+		final BinaryJedisPubSub currentPubSub = jedisPubSub;
+		if (currentPubSub != null && currentPubSub.isSubscribed()) {
+			try {
+				currentPubSub.unsubscribe();
+			} catch (Exception exp) {
+				sysLog.warn(Log4jUtil.getCallLocation() + " unsubscribe invalidation error for: " + exp.getMessage());
+			}
+		}
+	}
+
+
+	// 订阅线程：阻塞在SUBSCRIBE上，断开后重新订阅
+	private void subscribeLoop() {
+		while (!closed) {
+			jedisPubSub = new BinaryJedisPubSub() {
+				@Override
+				public void onSubscribe(byte[] channel, int subscribedChannels) {
+					if (closed) {
+						// close()在订阅完成之前执行时没有取消订阅，在这里取消，订阅线程随后退出
+						unsubscribe();
+						return;
+					}
+					subscribeCount.incrementAndGet();
+					svcLog.info("invalidation bus subscribed to " + SafeEncoder.encode(channel));
+					for (Listener listener : listeners) {
+						try {
+							listener.onInvalidateAll();
+						} catch (Exception exp) {
+							sysLog.error(Log4jUtil.getCallLocation() + " invalidation listener error for: " + exp.getMessage());
+						}
+					}
+				}
+
+				@Override
+				public void onMessage(byte[] channel, byte[] message) {
+					receive(message);
+				}
+			};
+			try {
+				jedisCluster.subscribe(jedisPubSub, channel);
+			} catch (Exception exp) {
+				if (!closed) {
+					sysLog.warn(Log4jUtil.getCallLocation() + " invalidation subscribe broken for: " + exp.getMessage());
+				}
+			}
+			if (closed) {
+				break;
+			}
+			try {
+				Thread.sleep(SimpleCacheConfig.NEAR_CACHE_RESUBSCRIBE_MILLIS);
+			} catch (InterruptedException exp) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		svcLog.info("invalidation bus subscribe thread exit");
+	}
+
+
+	// 处理收到的消息：忽略自己发送的消息，其它的交给Listener
+	// channel是共享的，消息中的长度和个数在分配之前都要和剩余的字节数比较，格式错误的消息直接忽略
+	void receive(byte[] message) {
+		final List<String> cacheKeys;
+		try {
+			final ByteBuffer buffer = ByteBuffer.wrap(message);
+			final byte[] senderId = readBytes(buffer);
+			if (Arrays.equals(senderId, nodeId)) {
+				return;
+			}
+			final int keyNum = buffer.getInt();
+			if (keyNum < 0 || keyNum > buffer.remaining() / 4) {
+				throw new IllegalArgumentException("bad key num " + keyNum);
+			}
+			cacheKeys = new ArrayList<>(keyNum);
+			for (int i=0; i<keyNum; i++) {
+				cacheKeys.add(SafeEncoder.encode(readBytes(buffer)));
+			}
+		} catch (RuntimeException exp) {
+			sysLog.warn(Log4jUtil.getCallLocation() + " invalid invalidation message for: " + exp);
+			return;
+		}
+		receiveCount.incrementAndGet();
+		for (Listener listener : listeners) {
+			try {
+				listener.onInvalidate(cacheKeys);
+			} catch (Exception exp) {
+				sysLog.error(Log4jUtil.getCallLocation() + " invalidation listener error for: " + exp.getMessage());
+			}
+		}
+	}
+
+
+	// 读取一段内容：长度 + 内容
+	private static byte[] readBytes(ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IllegalArgumentException("bad length " + length);
+		}
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+
+	// 编码消息：发送方id + key的个数 + 每个key
+	static byte[] encode(byte[] senderId, Collection<String> cacheKeys) {
+		final List<byte[]> keyBytesList = new ArrayList<>(cacheKeys.size());
+		int length = 4 + senderId.length + 4;
+		for (String cacheKey : cacheKeys) {
+			if (cacheKey == null) {
+				continue;
+			}
+			final byte[] keyBytes = SafeEncoder.encode(cacheKey);
+			keyBytesList.add(keyBytes);
+			length += 4 + keyBytes.length;
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(senderId.length).put(senderId).putInt(keyBytesList.size());
+		for (byte[] keyBytes : keyBytesList) {
+			buffer.putInt(keyBytes.length).put(keyBytes);
+		}
+		return buffer.array();
+	}
+
+
+	public long getPublishCount() {
+		return publishCount.get();
+	}
+
+
+	public long getPublishFailCount() {
+		return publishFailCount.get();
+	}
+
+
+	public long getReceiveCount() {
+		return receiveCount.get();
+	}
+
+
+	public long getSubscribeCount() {
+		return subscribeCount.get();
+	}
+}
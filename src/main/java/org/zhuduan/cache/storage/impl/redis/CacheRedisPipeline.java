@@ -0,0 +1,742 @@
+package org.zhuduan.cache.storage.impl.redis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.zhuduan.cache.storage.CacheBatchValue;
+import org.zhuduan.cache.storage.FailureReportingCacheStorageService.FailureListener;
+import org.zhuduan.utils.Log4jUtil;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.JedisClusterCRC16;
+import redis.clients.util.SafeEncoder;
+
+/***
+ *
+ * CacheStorageServiceRedisImpl使用的管道层：把请求按节点合并成pipeline，减少网络往返
+ * 		1.管道模式（queued）下有固定个数（laneNum）的发送线程（lane），每个lane一个队列：key按slot固定分配到一个lane
+ * 		  发送线程每次取出最多batchSize个请求（有并发且不足时最多再等lingerMicros微秒），按节点分组，每个节点用一个pipeline发送
+ * 		2.单个key的写操作（SETEX、DEL）是write-behind的：放入队列即返回，不等待结果（失败只记录日志并通知FailureListener）
+ * 		  读操作（GET、EXISTS）和INCRBY放入队列后等待结果，多个线程的读取自动合并成一次往返
+ * 		3.同一个key的所有请求都在同一个lane中按顺序执行，包括退化为同步调用的请求（找不到节点、收到MOVED/ASK后通过JedisCluster重试），
+ * 		  因此slot迁移时也是按顺序的，同一个key先写后读能读到刚写入的值
+ * 		4.slot到节点的对应关系通过CLUSTER SLOTS获取；收到MOVED/ASK或者连接出错时刷新对应关系
+ * 		  lane不属于某个节点，节点上下线时不需要创建或者停止发送线程
+ * 		5.队列满（发送跟不上）时调用线程最多等待timeoutMillis，仍然放不进队列时请求失败（不再退化为同步调用，以免和队列中的请求乱序）
+ * 		6.批量操作（MGET、SETEX、DEL）按slot分组（同一个slot的key合并成一个多key命令），等待全部结果（最多timeoutMillis）
+ * 		  管道模式下放入各自的lane；同步模式下由调用线程直接按节点发送，不启动发送线程
+ * 		7.失败（出错或者等待超时）通知FailureListener：等待结果的请求在等待的线程中通知，write-behind的请求在发送线程中通知
+ * 		8.close()停止发送线程：已经取出但还没有发送的请求、队列中的请求以及之后的请求都按失败处理
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月7日
+ *
+ */
+final class CacheRedisPipeline {
+
+	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
+	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志
+
+	private static final int		SLOT_NUM	=	16384;					// Redis集群的slot个数
+
+	private final JedisCluster		jedisCluster;
+
+	private final boolean			isQueued;								// 是否通过发送线程合并发送（管道模式）
+
+	private final int				batchSize;								// 一个lane每次最多取出的请求个数
+
+	private final long				lingerNanos;							// 请求不足batchSize时最多等待的时间
+
+	private final long				timeoutMillis;							// 等待结果（以及等待队列空间）的最长时间
+
+	private final Lane[]			lanes;									// 发送线程（同步模式下为空）
+
+	private volatile String[]		slotNodes	=	new String[SLOT_NUM];	// slot对应的节点（host:port）
+
+	private volatile boolean		slotsDirty	=	true;					// 是否需要重新获取slot的对应关系
+
+	private volatile FailureListener	failureListener;						// 接收失败的Listener，为null时不报告
+
+	private volatile boolean		closed;									// 是否已经停止（停止之后的请求直接失败）
+
+	// 统计
+	private final AtomicLong		batchCount		=	new AtomicLong();	// 发送的pipeline个数
+
+	private final AtomicLong		commandCount	=	new AtomicLong();	// 通过pipeline发送的请求个数
+
+	private final AtomicLong		fallbackCount	=	new AtomicLong();	// 通过JedisCluster同步调用的个数（重定向或者找不到节点）
+
+	private final AtomicLong		rejectCount		=	new AtomicLong();	// 队列满而失败的个数
+
+
+	/***
+	 *
+	 * @param jedisCluster
+	 * @param isQueued 是否使用管道模式（为false时只用于批量操作，由调用线程直接发送）
+	 * @param laneNum 发送线程的个数
+	 * @param batchSize 一个lane每次最多取出的请求个数
+	 * @param lingerMicros 请求不足batchSize时最多等待的微秒数（0表示不等待）
+	 * @param queueSize 每个lane的队列长度
+	 * @param timeoutMillis 等待结果的最长毫秒数
+	 */
+	CacheRedisPipeline(JedisCluster jedisCluster, boolean isQueued, int laneNum, int batchSize, long lingerMicros, int queueSize, long timeoutMillis) {
+		this.jedisCluster = jedisCluster;
+		this.isQueued = isQueued;
+		this.batchSize = Math.max(batchSize, 1);
+		this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(lingerMicros, 0L));
+		this.timeoutMillis = timeoutMillis;
+		refreshSlots();
+		this.lanes = new Lane[isQueued ? Math.max(laneNum, 1) : 0];
+		for (int i=0; i<lanes.length; i++) {
+			lanes[i] = new Lane(i, Math.max(queueSize, 1));
+			lanes[i].setDaemon(true);
+			lanes[i].start();
+		}
+	}
+
+
+	boolean isQueued() {
+		return isQueued;
+	}
+
+
+	void setFailureListener(FailureListener failureListener) {
+		this.failureListener = failureListener;
+	}
+
+
+	/***
+	 * write-behind的SETEX（只在管道模式下使用）
+	 *
+	 * @return 队列满时返回false
+	 */
+	boolean setex(byte[] cacheKey, int expireTimeSeconds, byte[] cacheBytes) {
+		return enqueue(setexOperation(cacheKey, expireTimeSeconds, cacheBytes));
+	}
+
+
+	/***
+	 * write-behind的DEL（只在管道模式下使用）
+	 *
+	 * @return 队列满时返回false
+	 */
+	boolean del(byte[] cacheKey) {
+		return enqueue(delOperation(cacheKey));
+	}
+
+
+	/***
+	 * 合并发送的GET（只在管道模式下使用）
+	 *
+	 * @return 超时或者出错时返回null
+	 */
+	Object get(final byte[] cacheKey) {
+		return enqueueAndAwait(new Operation(cacheKey) {
+			@Override
+			void append(Pipeline pipeline) {
+				response = pipeline.get(cacheKey);
+			}
+
+			@Override
+			Object retry() {
+				return jedisCluster.get(cacheKey);
+			}
+		});
+	}
+
+
+	/***
+	 * 合并发送的EXISTS（只在管道模式下使用）
+	 *
+	 * @return 超时或者出错时返回null
+	 */
+	Object exists(final byte[] cacheKey) {
+		return enqueueAndAwait(new Operation(cacheKey) {
+			@Override
+			void append(Pipeline pipeline) {
+				response = pipeline.exists(cacheKey);
+			}
+
+			@Override
+			Object retry() {
+				return jedisCluster.exists(cacheKey);
+			}
+		});
+	}
+
+
+	/***
+	 * INCRBY和EXPIRE放在同一个pipeline中发送（只在管道模式下使用）
+	 *
+	 * @return 超时或者出错时返回null
+	 */
+	Object incrBy(final String cacheKey, final long incrStep, final int expireTimeSeconds) {
+		return enqueueAndAwait(new Operation(SafeEncoder.encode(cacheKey)) {
+			@Override
+			void append(Pipeline pipeline) {
+				response = pipeline.incrBy(cacheKey, incrStep);
+				pipeline.expire(cacheKey, expireTimeSeconds);
+			}
+
+			@Override
+			Object retry() {
+				final Long result = jedisCluster.incrBy(cacheKey, incrStep);
+				jedisCluster.expire(cacheKey, expireTimeSeconds);
+				return result;
+			}
+		});
+	}
+
+
+	/***
+	 * 批量GET：同一个slot的key合并成一个MGET，每个节点一个pipeline
+	 *
+	 * @param cacheKeys
+	 * @return 命中的key和值（超时或者出错的key不在结果中）
+	 */
+	Map<String, byte[]> mget(Collection<String> cacheKeys) {
+		final Map<String, byte[]> result = new HashMap<>();
+		final List<List<String>> slotKeyList = new ArrayList<>(groupBySlot(cacheKeys).values());
+		final List<Operation> operations = new ArrayList<>(slotKeyList.size());
+		for (List<String> slotKeys : slotKeyList) {
+			operations.add(mgetOperation(encode(slotKeys)));
+		}
+		executeAll(operations);
+
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		for (int i=0; i<operations.size(); i++) {
+			final List<?> values = (List<?>) await(operations.get(i), deadline);
+			if (values == null) {
+				continue;
+			}
+			final List<String> slotKeys = slotKeyList.get(i);
+			for (int j=0; j<slotKeys.size() && j<values.size(); j++) {
+				if (values.get(j) != null) {
+					result.put(slotKeys.get(j), (byte[]) values.get(j));
+				}
+			}
+		}
+		return result;
+	}
+
+
+	/***
+	 * 批量SETEX：每个节点一个pipeline，等待全部结果
+	 *
+	 * @param cacheValues 已经校验过的值
+	 * @return 全部成功时返回true（超时还没有完成的算作失败）
+	 */
+	boolean setex(Map<String, CacheBatchValue> cacheValues) {
+		final List<Operation> operations = new ArrayList<>(cacheValues.size());
+		for (Map.Entry<String, CacheBatchValue> entry : cacheValues.entrySet()) {
+			operations.add(setexOperation(SafeEncoder.encode(entry.getKey()), entry.getValue().getExpireTimeSeconds(), entry.getValue().getCacheBytes()));
+		}
+		executeAll(operations);
+		return isAllSucceeded(operations);
+	}
+
+
+	/***
+	 * 批量DEL：同一个slot的key合并成一个DEL，每个节点一个pipeline，等待全部结果
+	 *
+	 * @param cacheKeys
+	 * @return 全部成功时返回true（超时还没有完成的算作失败）
+	 */
+	boolean del(Collection<String> cacheKeys) {
+		final Collection<List<String>> slotKeyList = groupBySlot(cacheKeys).values();
+		final List<Operation> operations = new ArrayList<>(slotKeyList.size());
+		for (List<String> slotKeys : slotKeyList) {
+			operations.add(delOperation(encode(slotKeys)));
+		}
+		executeAll(operations);
+		return isAllSucceeded(operations);
+	}
+
+
+	/***
+	 * 停止发送线程，队列中还没有发送的请求按失败处理（停止之后不能再使用）
+	 */
+	void close() {
+		closed = true;
+		for (Lane lane : lanes) {
+			lane.interrupt();
+		}
+	}
+
+
+	long getBatchCount() {
+		return batchCount.get();
+	}
+
+	long getCommandCount() {
+		return commandCount.get();
+	}
+
+	long getFallbackCount() {
+		return fallbackCount.get();
+	}
+
+	long getRejectCount() {
+		return rejectCount.get();
+	}
+
+
+	private Operation setexOperation(final byte[] cacheKey, final int expireTimeSeconds, final byte[] cacheBytes) {
+		return new Operation(cacheKey) {
+			@Override
+			void append(Pipeline pipeline) {
+				response = pipeline.setex(cacheKey, expireTimeSeconds, cacheBytes);
+			}
+
+			@Override
+			Object retry() {
+				return jedisCluster.setex(cacheKey, expireTimeSeconds, cacheBytes);
+			}
+		};
+	}
+
+
+	// 同一个slot的key
+	private Operation delOperation(final byte[]... cacheKeys) {
+		return new Operation(cacheKeys[0]) {
+			@Override
+			void append(Pipeline pipeline) {
+				response = pipeline.del(cacheKeys);
+			}
+
+			@Override
+			Object retry() {
+				return jedisCluster.del(cacheKeys);
+			}
+		};
+	}
+
+
+	// 同一个slot的key
+	private Operation mgetOperation(final byte[]... cacheKeys) {
+		return new Operation(cacheKeys[0]) {
+			@Override
+			void append(Pipeline pipeline) {
+				response = pipeline.mget(cacheKeys);
+			}
+
+			@Override
+			Object retry() {
+				return jedisCluster.mget(cacheKeys);
+			}
+		};
+	}
+
+
+	// 按slot分组（同一个slot的key可以放在一个多key命令中）
+	private static Map<Integer, List<String>> groupBySlot(Collection<String> cacheKeys) {
+		final Map<Integer, List<String>> slotKeys = new HashMap<>();
+		for (String cacheKey : cacheKeys) {
+			final Integer slot = JedisClusterCRC16.getSlot(cacheKey);
+			List<String> keys = slotKeys.get(slot);
+			if (keys == null) {
+				keys = new ArrayList<>();
+				slotKeys.put(slot, keys);
+			}
+			keys.add(cacheKey);
+		}
+		return slotKeys;
+	}
+
+
+	private static byte[][] encode(List<String> cacheKeys) {
+		final byte[][] keys = new byte[cacheKeys.size()][];
+		for (int i=0; i<keys.length; i++) {
+			keys[i] = SafeEncoder.encode(cacheKeys.get(i));
+		}
+		return keys;
+	}
+
+
+	// write-behind：放入key所在lane的队列即返回
+	private boolean enqueue(Operation operation) {
+		return submit(operation);
+	}
+
+
+	// 放入key所在lane的队列，并等待结果
+	private Object enqueueAndAwait(Operation operation) {
+		operation.isWaited = true;
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		submit(operation);
+		return await(operation, deadline);
+	}
+
+
+	// 放入key所在lane的队列：队列满时最多等待timeoutMillis，仍然放不进去时请求失败
+	private boolean submit(Operation operation) {
+		final Lane lane = lanes[operation.slot % lanes.length];
+		if (closed) {
+			operation.fail(closedException(lane));
+			return false;
+		}
+		try {
+			if (lane.queue.offer(operation) || lane.queue.offer(operation, timeoutMillis, TimeUnit.MILLISECONDS)) {
+				// 放入队列的同时被停止：发送线程可能已经清空了队列，由调用线程取回
+				if (closed && lane.queue.remove(operation)) {
+					operation.fail(closedException(lane));
+					return false;
+				}
+				return true;
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		rejectCount.incrementAndGet();
+		operation.fail(new IllegalStateException("redis pipeline queue is full, lane: " + lane.getName()));
+		return false;
+	}
+
+
+	// 发送一组请求：管道模式下放入各自的lane，否则由调用线程按节点分组直接发送
+	private void executeAll(List<Operation> operations) {
+		for (Operation operation : operations) {
+			operation.isWaited = true;
+		}
+		if (isQueued) {
+			for (Operation operation : operations) {
+				submit(operation);
+			}
+			return;
+		}
+		execute(operations);
+	}
+
+
+	// 按节点分组发送（同一个key的请求保持原来的顺序）；找不到节点的请求按顺序同步调用
+	private void execute(List<Operation> operations) {
+		final String[] nodes = currentSlotNodes();
+		final Map<String, List<Operation>> nodeOperations = new LinkedHashMap<>();
+		for (Operation operation : operations) {
+			final String nodeKey = nodes[operation.slot];
+			List<Operation> list = nodeOperations.get(nodeKey);
+			if (list == null) {
+				list = new ArrayList<>();
+				nodeOperations.put(nodeKey, list);
+			}
+			list.add(operation);
+		}
+		for (Map.Entry<String, List<Operation>> entry : nodeOperations.entrySet()) {
+			final List<Operation> list = entry.getValue();
+			final JedisPool jedisPool = poolOf(entry.getKey());
+			if (jedisPool == null) {
+				for (Operation operation : list) {
+					fallbackCount.incrementAndGet();
+					operation.runSync();
+				}
+				continue;
+			}
+			for (int from=0; from<list.size(); from+=batchSize) {
+				execute(jedisPool, list.subList(from, Math.min(from + batchSize, list.size())));
+			}
+		}
+		if (slotsDirty) {
+			refreshSlots();
+		}
+	}
+
+
+	// 等待结果，超时或者出错时返回null
+	private Object await(Operation operation, long deadlineNanos) {
+		try {
+			return operation.future.get(Math.max(deadlineNanos - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+		} catch (Exception exception) {
+			// 防止缓存崩溃,影响主业务逻辑
+			sysLog.error(Log4jUtil.getCallLocation() + " redis pipeline error for: " + exception.getMessage());
+			report(exception);
+		}
+		return null;
+	}
+
+
+	// 等待全部结果：全部成功时返回true，超时还没有完成的请求算作失败
+	private boolean isAllSucceeded(List<Operation> operations) {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		boolean result = true;
+		for (Operation operation : operations) {
+			result &= await(operation, deadline) != null;
+		}
+		return result;
+	}
+
+
+	private static IllegalStateException closedException(Lane lane) {
+		return new IllegalStateException("redis pipeline closed, lane: " + lane.getName());
+	}
+
+
+	// 通知失败（Listener出错不影响主流程）
+	private void report(Exception exception) {
+		final FailureListener listener = failureListener;
+		if (listener == null || exception == null) {
+			return;
+		}
+		try {
+			listener.onFailure(exception);
+		} catch (Exception listenerException) {
+			sysLog.error(Log4jUtil.getCallLocation() + " failure listener error for: " + listenerException.getMessage());
+		}
+	}
+
+
+	// 当前slot对应的节点（需要时先刷新）
+	private String[] currentSlotNodes() {
+		if (slotsDirty) {
+			refreshSlots();
+		}
+		return slotNodes;
+	}
+
+
+	private JedisPool poolOf(String nodeKey) {
+		if (nodeKey == null) {
+			slotsDirty = true;
+			return null;
+		}
+		final JedisPool jedisPool = jedisCluster.getClusterNodes().get(nodeKey);
+		if (jedisPool == null) {
+			slotsDirty = true;
+		}
+		return jedisPool;
+	}
+
+
+	// 用一个pipeline发送同一个节点的请求，并按顺序设置每个请求的结果
+	private void execute(JedisPool jedisPool, List<Operation> batch) {
+		Jedis jedis = null;
+		try {
+			jedis = jedisPool.getResource();
+			final Pipeline pipeline = jedis.pipelined();
+			for (Operation operation : batch) {
+				operation.append(pipeline);
+			}
+			pipeline.sync();
+		} catch (Exception exception) {
+			// 整个pipeline失败（如连接断开），所有请求都失败
+			for (Operation operation : batch) {
+				operation.fail(exception);
+			}
+			slotsDirty = true;
+			return;
+		} finally {
+			if (jedis != null) {
+				jedis.close();
+			}
+		}
+		batchCount.incrementAndGet();
+		commandCount.addAndGet(batch.size());
+		for (Operation operation : batch) {
+			operation.complete();
+		}
+	}
+
+
+	// 通过CLUSTER SLOTS重新获取slot对应的节点（任意一个节点可用即可）
+	private synchronized void refreshSlots() {
+		if (!slotsDirty) {
+			return;
+		}
+		for (JedisPool jedisPool : jedisCluster.getClusterNodes().values()) {
+			Jedis jedis = null;
+			try {
+				jedis = jedisPool.getResource();
+				final String[] newSlotNodes = new String[SLOT_NUM];
+				for (Object slotInfoObj : jedis.clusterSlots()) {
+					// [起始slot, 结束slot, [master的host, port, ...], [slave...]...]
+					final List<?> slotInfo = (List<?>) slotInfoObj;
+					final List<?> master = (List<?>) slotInfo.get(2);
+					final String nodeKey = SafeEncoder.encode((byte[]) master.get(0)) + ":" + master.get(1);
+					for (int slot=((Long) slotInfo.get(0)).intValue(); slot<=((Long) slotInfo.get(1)).intValue(); slot++) {
+						newSlotNodes[slot] = nodeKey;
+					}
+				}
+				slotNodes = newSlotNodes;
+				slotsDirty = false;
+				return;
+			} catch (Exception exception) {
+				sysLog.error(Log4jUtil.getCallLocation() + " redis cluster slots fail for : " + exception.getMessage());
+			} finally {
+				if (jedis != null) {
+					jedis.close();
+				}
+			}
+		}
+	}
+
+
+	/***
+	 *
+	 * 放入pipeline中的一个请求
+	 *
+	 */
+	private abstract class Operation {
+
+		final byte[]					cacheKey;			// 用于找到节点的key（多key命令中的key都在同一个slot）
+
+		final int						slot;
+
+		final SettableFuture<Object>	future		=	SettableFuture.create();
+
+		Response<?>						response;
+
+		volatile boolean				isWaited;			// 是否有线程等待结果（等待的线程负责通知失败）
+
+		Operation(byte[] cacheKey) {
+			this.cacheKey = cacheKey;
+			this.slot = JedisClusterCRC16.getSlot(cacheKey);
+		}
+
+		/***
+		 * 把请求加入pipeline，并记录需要的Response
+		 *
+		 * @param pipeline
+		 */
+		abstract void append(Pipeline pipeline);
+
+		/***
+		 * slot迁移后（或者找不到节点时），通过JedisCluster同步调用
+		 *
+		 * @return
+		 */
+		abstract Object retry();
+
+		// pipeline返回之后读取结果（在lane或者调用线程中按顺序调用，重试也是按顺序的）
+		void complete() {
+			try {
+				future.set(response.get());
+			} catch (JedisRedirectionException exception) {
+				slotsDirty = true;
+				fallbackCount.incrementAndGet();
+				runSync();
+			} catch (Exception exception) {
+				fail(exception);
+			}
+		}
+
+		// 通过JedisCluster同步调用，并设置结果
+		void runSync() {
+			try {
+				future.set(retry());
+			} catch (Exception exception) {
+				fail(exception);
+			}
+		}
+
+		void fail(Exception exception) {
+			if (!future.setException(exception)) {
+				return;
+			}
+			sysLog.error(Log4jUtil.getCallLocation() + " redis pipeline error for key: " + SafeEncoder.encode(cacheKey) + " , " + exception.getMessage());
+			if (!isWaited) {
+				report(exception);
+			}
+		}
+	}
+
+
+	/***
+	 *
+	 * 一个发送线程：负责固定的一部分slot，按放入的顺序执行
+	 *
+	 */
+	private final class Lane extends Thread {
+
+		private final LinkedBlockingQueue<Operation>	queue;
+
+		Lane(int index, int queueSize) {
+			super("SimpleCache-redisPipeline-" + index);
+			this.queue = new LinkedBlockingQueue<>(queueSize);
+		}
+
+		@Override
+		public void run() {
+			final List<Operation> batch = new ArrayList<>(batchSize);
+			while (!isInterrupted()) {
+				try {
+					final Operation first = queue.poll(1L, TimeUnit.SECONDS);
+					if (first == null) {
+						continue;
+					}
+					batch.add(first);
+					queue.drainTo(batch, batchSize - batch.size());
+					linger(batch);
+					execute(batch);
+				} catch (InterruptedException exception) {
+					// 已经从队列中取出（如linger期间）但还没有发送的请求同样按失败处理
+					failAll(batch, closedException(this));
+					break;
+				} catch (Exception exception) {
+					// 如果出错，则需要catch到错误，避免发送线程退出（没有完成的请求按失败处理）
+					sysLog.error(Log4jUtil.getCallLocation() + " redis pipeline fail for : " + exception.getMessage());
+					failAll(batch, exception);
+				} finally {
+					batch.clear();
+				}
+			}
+			// 停止之后队列中的请求不再发送
+			final List<Operation> remains = new ArrayList<>();
+			queue.drainTo(remains);
+			failAll(remains, closedException(this));
+		}
+
+		// 已经完成的请求不受影响
+		private void failAll(List<Operation> operations, Exception exception) {
+			for (Operation operation : operations) {
+				operation.fail(exception);
+			}
+		}
+
+		// 请求不足batchSize时再等待一小段时间，让更多的请求合并到同一个pipeline
+		// 只有一个请求时说明没有并发，直接发送（避免单线程调用时每次多等lingerMicros）
+		private void linger(List<Operation> batch) throws InterruptedException {
+			if (batch.size() <= 1) {
+				return;
+			}
+			final long deadline = System.nanoTime() + lingerNanos;
+			while (batch.size() < batchSize) {
+				final long remainNanos = deadline - System.nanoTime();
+				if (remainNanos <= 0L) {
+					return;
+				}
+				final Operation operation = queue.poll(remainNanos, TimeUnit.NANOSECONDS);
+				if (operation == null) {
+					return;
+				}
+				batch.add(operation);
+				queue.drainTo(batch, batchSize - batch.size());
+			}
+		}
+	}
+
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder("CacheRedisPipeline [queued=").append(isQueued).append(", lanes=");
+		for (Lane lane : lanes) {
+			builder.append(lane.queue.size()).append(' ');
+		}
+		return builder.append("batchCount=").append(batchCount.get()).append(", commandCount=").append(commandCount.get())
+					.append(", fallbackCount=").append(fallbackCount.get()).append(", rejectCount=").append(rejectCount.get()).append(']').toString();
+	}
+}
@@ -1,36 +1,79 @@
 package org.zhuduan.cache.storage.impl.redis;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
-import org.zhuduan.cache.storage.CacheStorageService;
+import org.zhuduan.cache.storage.CacheBatchValue;
+import org.zhuduan.cache.storage.CacheHotKeyDetector;
+import org.zhuduan.cache.storage.FailureReportingCacheStorageService;
+import org.zhuduan.config.RedisPipelineConfig;
+import org.zhuduan.config.SimpleCacheConfig;
 import org.zhuduan.utils.CacheConstants;
 import org.zhuduan.utils.CacheException;
 import org.zhuduan.utils.Log4jUtil;
 
 import redis.clients.jedis.JedisCluster;
+import redis.clients.util.SafeEncoder;
 
 /***
  * 
  * CacheStorageService的redis实现
  * 采用Redis的特性来实现相关的缓存机制
+ * 		1.默认每个操作同步调用一次JedisCluster，写入使用SETEX一条命令完成值和过期时间的设置
+ * 		2.管道模式（getInstance(jedisCluster, true)，或者通过RedisPipelineConfig配置发送线程数、batchSize和linger）下请求交给CacheRedisPipeline，按节点合并成pipeline发送：
+ * 		  写入和删除是write-behind的（放入队列即返回true），读取和自增等待合并后的结果
+ * 		  同一个key的请求在同一个发送线程中按顺序执行；队列满时请求失败（不退化为同步调用，以免乱序）
+ * 		3.批量操作按slot分组：同一个slot的key合并成一个MGET/DEL，每个节点一个pipeline（同步模式下由调用线程直接发送）
+ * 		4.设置了CacheHotKeyDetector时统计每个key的读取频率，热点key的值在本地保存HOT_KEY_LOCAL_EXPIRE_MILLIS毫秒，
+ * 		  期间的读取不再访问Redis（当前节点的写入、删除和自增会删除本地副本，其它节点的写入最多延迟这么久可见）
+ * 		  写入之后增加key所在分段的写入代数，读取Redis期间代数发生变化时不保存副本，避免并发的读取把写入之前的旧值放回本地
+ * 		5.出错时按未命中/false返回（自增返回0），同时通知设置的FailureListener（如熔断器），管道模式下超时也算作失败
+ * 		6.不再使用时调用close()停止管道层的发送线程（JedisCluster由调用方关闭），之后getInstance会创建新的实例
  * 
  * 
  * @author	zhuhaifeng
  * @date	2017年2月16日
  *
  */
-public class CacheStorageServiceRedisImpl implements CacheStorageService{
+public class CacheStorageServiceRedisImpl implements FailureReportingCacheStorageService{
 	
 	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
 	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志
 
 	private JedisCluster jedisCluster;										// 实际操作Redis的Jedis对象
 	
+	private final CacheRedisPipeline pipeline;								// 按节点合并请求的管道层（同步模式下只用于批量操作）
+	
+	private volatile CacheHotKeyDetector hotKeyDetector;					// 热点key的统计，为null时不统计
+	
+	private final ConcurrentHashMap<String, HotValue> hotValueMap = new ConcurrentHashMap<>();	// 热点key在本地的副本
+	
+	private final AtomicLong hotHitCount = new AtomicLong();				// 命中本地副本的次数
+	
+	private final AtomicLongArray hotKeyGenerations = new AtomicLongArray(HOT_KEY_GENERATION_STRIPES);	// 按key的hash分段的写入代数（每次写入后增加）
+	
+	private volatile FailureListener failureListener;						// 接收失败的Listener（如熔断器），为null时不报告
+	
+	private final AtomicBoolean closed = new AtomicBoolean();				// 是否已经close
+	
+	private static final int HOT_KEY_GENERATION_STRIPES = 1024;				// 写入代数的分段数（2的幂次）
+	
 	private volatile static CacheStorageServiceRedisImpl INSTANCE; 			// 声明成 volatile 的实例
 	
 	
 	/***
-	 * 通过单例模式来获取CacheStorageServiceRedisImpl的实例
+	 * 通过单例模式来获取CacheStorageServiceRedisImpl的实例（同步模式）
 	 * 如果没有传入jedisCluster对象则抛出 CacheException
 	 * 
 	 * @param jedisCluster
@@ -38,6 +81,34 @@ public class CacheStorageServiceRedisImpl implements CacheStorageService{
 	 * @throws CacheException
 	 */
     public static CacheStorageServiceRedisImpl getInstance(JedisCluster jedisCluster) throws CacheException {
+    	return getInstance(jedisCluster, false);
+    }
+    
+    
+	/***
+	 * 通过单例模式来获取CacheStorageServiceRedisImpl的实例
+	 * 如果没有传入jedisCluster对象则抛出 CacheException
+	 * 
+	 * @param jedisCluster
+	 * @param pipelined 是否使用管道模式（write-behind的写入，合并发送的读取）
+	 * @return
+	 * @throws CacheException
+	 */
+    public static CacheStorageServiceRedisImpl getInstance(JedisCluster jedisCluster, boolean pipelined) throws CacheException {
+    	return getInstance(jedisCluster, pipelined ? new RedisPipelineConfig() : null);
+    }
+    
+    
+	/***
+	 * 通过单例模式来获取管道模式的CacheStorageServiceRedisImpl的实例
+	 * 如果没有传入jedisCluster对象则抛出 CacheException
+	 * 
+	 * @param jedisCluster
+	 * @param pipelineConfig 管道模式的配置（发送线程数、batchSize、linger等），为null时使用同步模式
+	 * @return
+	 * @throws CacheException
+	 */
+    public static CacheStorageServiceRedisImpl getInstance(JedisCluster jedisCluster, RedisPipelineConfig pipelineConfig) throws CacheException {
         // TODO: 因为happens-before原则的问题，可能导致二重锁隐患（但考虑到这种场景十分有限而且这时发生在初始化的阶段，是否有必要调整）
     	// 二重锁检验，来防止多线程导致的线程安全问题
     	if (INSTANCE == null) {                         
@@ -47,7 +118,7 @@ public class CacheStorageServiceRedisImpl implements CacheStorageService{
                 		sysLog.error("未传入jedisCluster对象");
                 		throw new CacheException(CacheConstants.EXCEPTION_INITIAL_PARAM, "未传入jedisCluster对象");                		
                 	}
-                	INSTANCE = new CacheStorageServiceRedisImpl(jedisCluster);
+                	INSTANCE = new CacheStorageServiceRedisImpl(jedisCluster, pipelineConfig);
                 }
             }
         }
@@ -81,12 +152,18 @@ public class CacheStorageServiceRedisImpl implements CacheStorageService{
     		return false;
     	}
     	try{
-    		jedisCluster.set(cacheKey, cacheValue);
-    		jedisCluster.expire(cacheKey, expireTimeSeconds);
+    		if (pipeline.isQueued()) {
+    			// 放入队列即返回（队列满时失败，不退化为同步调用，以免和队列中的请求乱序）
+    			return pipeline.setex(SafeEncoder.encode(cacheKey), expireTimeSeconds, SafeEncoder.encode(cacheValue));
+    		}
+    		jedisCluster.setex(cacheKey, expireTimeSeconds, cacheValue);
 			return true;
     	} catch (Exception exp){ 
     		// 防止缓存崩溃,影响主业务逻辑
     		sysLog.error(Log4jUtil.getCallLocation() + " redis error for: " + exp.getMessage());
+    		reportFailure(exp);
+    	} finally {
+    		invalidateHotValue(cacheKey);
     	}
     	return false;
     }
@@ -100,15 +177,105 @@ public class CacheStorageServiceRedisImpl implements CacheStorageService{
      */
     public String getCache(String cacheKey){
     	try{
+    		if (pipeline.isQueued()) {
+    			final Object result = pipeline.get(SafeEncoder.encode(cacheKey));
+    			return result == null ? null : SafeEncoder.encode((byte[]) result);
+    		}
     		return jedisCluster.get(cacheKey);
     	} catch (Exception exp){ 
     		// 防止缓存崩溃,影响主业务逻辑
     		sysLog.error(Log4jUtil.getCallLocation() + " redis error for: " + exp.getMessage());
+    		reportFailure(exp);
+    	}
+    	return null;
+    }
+
+    
+    /**
+     * 设置二进制的缓存: 返回true成功, false失败
+     * 使用SETEX一次完成值和过期时间的设置
+     * 
+     * @param cacheKey 缓存key
+     * @param cacheBytes 缓存value
+     * @param expireTimeSeconds 过期时间, 单位秒!
+     * @return
+     */
+    public Boolean setCacheBytes(String cacheKey, byte[] cacheBytes, int expireTimeSeconds){
+    	if(StringUtils.isEmpty(cacheKey)){
+    		// 直接返回设置不成功，避免导致业务逻辑出错
+    		svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+    		return false;
+    	}
+    	if(cacheBytes == null || cacheBytes.length == 0){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " empty value for key: " + cacheKey);
+    		return false;
+    	}
+    	if(expireTimeSeconds <= 0){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " too small expire time for key: " + cacheKey);
+    		return false;
+    	} else if (expireTimeSeconds > MAX_EXPIRE_SECONDS){
+    		svcLog.warn(Log4jUtil.getCallLocation() + " too high expire time for key: " + cacheKey);
+    		return false;
+    	}
+    	try{
+    		final byte[] keyBytes = SafeEncoder.encode(cacheKey);
+    		if (pipeline.isQueued()) {
+    			return pipeline.setex(keyBytes, expireTimeSeconds, cacheBytes);
+    		}
+    		jedisCluster.setex(keyBytes, expireTimeSeconds, cacheBytes);
+			return true;
+    	} catch (Exception exp){ 
+    		// 防止缓存崩溃,影响主业务逻辑
+    		sysLog.error(Log4jUtil.getCallLocation() + " redis error for: " + exp.getMessage());
+    		reportFailure(exp);
+    	} finally {
+    		invalidateHotValue(cacheKey);
+    	}
+    	return false;
+    }
+
+    
+    /**
+     * 获取二进制的缓存（统计热点时，热点key优先读取本地副本）
+     * 
+     * @param cacheKey
+     * @return null if error occur
+     */
+    public byte[] getCacheBytes(String cacheKey){
+    	try{
+    		final CacheHotKeyDetector detector = hotKeyDetector;
+    		if (detector != null) {
+    			detector.record(cacheKey);
+    			final byte[] hotBytes = getHotValue(cacheKey);
+    			if (hotBytes != null) {
+    				return hotBytes;
+    			}
+    		}
+    		// 读取之前记录key的写入代数，读取期间有写入时不保存本地副本
+    		final long generation = (detector != null) ? hotKeyGeneration(cacheKey) : 0L;
+    		final byte[] cacheBytes = getRemoteBytes(SafeEncoder.encode(cacheKey));
+    		if (detector != null) {
+    			promote(detector, cacheKey, cacheBytes, generation);
+    		}
+    		return cacheBytes;
+    	} catch (Exception exp){ 
+    		// 防止缓存崩溃,影响主业务逻辑
+    		sysLog.error(Log4jUtil.getCallLocation() + " redis error for: " + exp.getMessage());
+    		reportFailure(exp);
     	}
     	return null;
     }
 
     
+    // 从Redis读取（管道模式下交给pipeline）
+    private byte[] getRemoteBytes(byte[] keyBytes){
+    	if (pipeline.isQueued()) {
+    		return (byte[]) pipeline.get(keyBytes);
+    	}
+    	return jedisCluster.get(keyBytes);
+    }
+
+    
     /**
      * 检查KEY是否存在
      * 
@@ -117,10 +284,17 @@ public class CacheStorageServiceRedisImpl implements CacheStorageService{
      */
 	public Boolean isCacheKeyExists(String cacheKey) {
 		try{
+			if (hotKeyDetector != null && getHotValue(cacheKey) != null) {
+				return true;
+			}
+			if (pipeline.isQueued()) {
+				return Boolean.TRUE.equals(pipeline.exists(SafeEncoder.encode(cacheKey)));
+			}
 			return jedisCluster.exists(cacheKey);
     	} catch (Exception exp){ 
     		// 防止缓存崩溃,影响主业务逻辑
     		sysLog.error(Log4jUtil.getCallLocation() + " redis error for: " + exp.getMessage());
+    		reportFailure(exp);
     	}
     	return false;
 	}
@@ -128,25 +302,142 @@ public class CacheStorageServiceRedisImpl implements CacheStorageService{
 	
 	/**
      * 删除指定cacheKey
+     * 直接DEL（不再先EXISTS），管道模式下放入队列即返回true（队列满时返回false）
      * 
      * @param cacheKey
      * @return
      */
 	public Boolean deleteCache(String cacheKey) {
 		try{
-			if (isCacheKeyExists(cacheKey)) {
-				boolean delResult = jedisCluster.del(cacheKey) > 0;
-	            return delResult;
-	        }
-	        return false;
+			if (pipeline.isQueued()) {
+				return pipeline.del(SafeEncoder.encode(cacheKey));
+			}
+			return jedisCluster.del(cacheKey) > 0;
     	} catch (Exception exp){ 
     		// 防止缓存崩溃,影响主业务逻辑
     		sysLog.error(Log4jUtil.getCallLocation() + " redis error for: " + exp.getMessage());
+    		reportFailure(exp);
+    	} finally {
+    		invalidateHotValue(cacheKey);
     	}
     	return false;
 	}
 
 	
+    /**
+     * 批量获取二进制的缓存：按slot分组MGET，每个节点一次往返
+     * 
+     * @param cacheKeys
+     * @return 命中的key和值, 出错时返回空的Map
+     */
+	public Map<String, byte[]> getAll(Collection<String> cacheKeys) {
+		final List<String> validKeys = validKeys(cacheKeys);
+		if (validKeys.isEmpty()) {
+			return new HashMap<>();
+		}
+		try{
+			final CacheHotKeyDetector detector = hotKeyDetector;
+			if (detector == null) {
+				return pipeline.mget(validKeys);
+			}
+			// 热点key读取本地副本，其它的key一起MGET
+			final Map<String, byte[]> result = new HashMap<>();
+			final Map<String, Long> remoteGenerations = new HashMap<>();
+			for (String cacheKey : validKeys) {
+				detector.record(cacheKey);
+				final byte[] hotBytes = getHotValue(cacheKey);
+				if (hotBytes != null) {
+					result.put(cacheKey, hotBytes);
+				} else {
+					remoteGenerations.put(cacheKey, hotKeyGeneration(cacheKey));
+				}
+			}
+			if (!remoteGenerations.isEmpty()) {
+				for (Map.Entry<String, byte[]> entry : pipeline.mget(new ArrayList<>(remoteGenerations.keySet())).entrySet()) {
+					result.put(entry.getKey(), entry.getValue());
+					promote(detector, entry.getKey(), entry.getValue(), remoteGenerations.get(entry.getKey()));
+				}
+			}
+			return result;
+    	} catch (Exception exp){ 
+    		// 防止缓存崩溃,影响主业务逻辑
+    		sysLog.error(Log4jUtil.getCallLocation() + " redis error for: " + exp.getMessage());
+    		reportFailure(exp);
+    	}
+		return new HashMap<>();
+	}
+	
+	
+    /**
+     * 批量设置二进制的缓存：每个节点一个pipeline的SETEX（管道模式下放入各自的发送线程，并等待全部结果）
+     * 
+     * @param cacheValues
+     * @return 全部成功时返回true
+     */
+	public Boolean setAll(Map<String, CacheBatchValue> cacheValues) {
+		if (cacheValues == null) {
+			return false;
+		}
+		final Map<String, CacheBatchValue> validValues = new HashMap<>();
+		for (Map.Entry<String, CacheBatchValue> entry : cacheValues.entrySet()) {
+			if (CacheBatchValue.isValid(entry.getKey(), entry.getValue())) {
+				validValues.put(entry.getKey(), entry.getValue());
+			}
+		}
+		try{
+			return pipeline.setex(validValues) && validValues.size() == cacheValues.size();
+    	} catch (Exception exp){ 
+    		// 防止缓存崩溃,影响主业务逻辑
+    		sysLog.error(Log4jUtil.getCallLocation() + " redis error for: " + exp.getMessage());
+    		reportFailure(exp);
+    	} finally {
+    		invalidateHotValues(validValues.keySet());
+    	}
+		return false;
+	}
+	
+	
+    /**
+     * 批量删除cacheKey：按slot分组DEL（管道模式下放入各自的发送线程，并等待全部结果）
+     * 
+     * @param cacheKeys
+     * @return 全部成功时返回true
+     */
+	public Boolean deleteAll(Collection<String> cacheKeys) {
+		if (cacheKeys == null) {
+			return false;
+		}
+		final List<String> validKeys = validKeys(cacheKeys);
+		try{
+			return pipeline.del(validKeys) && validKeys.size() == cacheKeys.size();
+    	} catch (Exception exp){ 
+    		// 防止缓存崩溃,影响主业务逻辑
+    		sysLog.error(Log4jUtil.getCallLocation() + " redis error for: " + exp.getMessage());
+    		reportFailure(exp);
+    	} finally {
+    		invalidateHotValues(validKeys);
+    	}
+		return false;
+	}
+	
+	
+	// 去掉空的key
+	private static List<String> validKeys(Collection<String> cacheKeys) {
+		final List<String> validKeys = new ArrayList<>(cacheKeys == null ? 0 : cacheKeys.size());
+		if (cacheKeys == null) {
+			return validKeys;
+		}
+		for (String cacheKey : cacheKeys) {
+			if(StringUtils.isEmpty(cacheKey)){
+	    		svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+	    		continue;
+			}
+			validKeys.add(cacheKey);
+		}
+		return validKeys;
+	}
+
+	
     /**
      * 以step步长, cacheKey的自增, 过期时间为expireTimeSeconds秒
      * 
@@ -156,37 +447,239 @@ public class CacheStorageServiceRedisImpl implements CacheStorageService{
      * @return 返回增长后的值, or 0 if error occur
      */
 	public Long incrCacheKey(String cacheKey, long incrStep, int expireTimeSeconds) {
+		try{
+			return incrCacheKeyOrThrow(cacheKey, incrStep, expireTimeSeconds);
+		} catch (CacheException exp){
+			// 防止业务奔溃，直接返回失败值（错误已经记录日志并通知FailureListener）
+		}
+		return 0L; // 需要业务程序手动处理!!!
+	}
+
+
+    /**
+     * 自增：和incrCacheKey相同，但是失败时抛出异常（而不是返回0）
+     * 供CacheCounter.flush判断增量是否已经同步（结果为0和出错需要区分）
+     * 注意：超时的INCRBY可能已经在Redis执行，重试时会重复累加（至少一次）
+     * 
+     * @param cacheKey
+     * @param incrStep  以incrStep步长自增
+     * @param expireTimeSeconds  过期时间, 单位秒!
+     * @return 返回增长后的值
+     * @throws CacheException 参数错误或者Redis出错、超时
+     */
+	@Override
+	public Long incrCacheKeyOrThrow(String cacheKey, long incrStep, int expireTimeSeconds) throws CacheException {
 		if(StringUtils.isEmpty(cacheKey)){
-			// 防止业务奔溃，直接返回失败值
     		svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
-    		return 0L;
+    		throw new CacheException(CacheConstants.EXCEPTION_STORAGE_OPERATION, "empty key");
     	}
     	if(expireTimeSeconds <= 0){
     		svcLog.warn(Log4jUtil.getCallLocation() + " expireTimeSeconds <= 0! ");
-    		return 0L;
+    		throw new CacheException(CacheConstants.EXCEPTION_STORAGE_OPERATION, "expireTimeSeconds <= 0");
     	} else if (expireTimeSeconds > MAX_EXPIRE_SECONDS){
     		svcLog.warn(Log4jUtil.getCallLocation() + " expireTimeSeconds > MAX_EXPIRE_SECONDS! ");
-    		return 0L;
+    		throw new CacheException(CacheConstants.EXCEPTION_STORAGE_OPERATION, "expireTimeSeconds > MAX_EXPIRE_SECONDS");
     	}
     	
     	try{
+    		if (pipeline.isQueued()) {
+    			// INCRBY和EXPIRE在同一个pipeline中发送
+    			final Object result = pipeline.incrBy(cacheKey, incrStep, expireTimeSeconds);
+    			if (result == null) {
+    				// 超时或者出错
+    				throw new CacheException(CacheConstants.EXCEPTION_STORAGE_OPERATION, "pipeline incrBy fail for key: " + cacheKey);
+    			}
+    			return (Long) result;
+    		}
     		final long result = jedisCluster.incrBy(cacheKey, incrStep);
     		jedisCluster.expire(cacheKey, expireTimeSeconds);
     		return result;
+    	} catch (CacheException exp){
+    		sysLog.error(Log4jUtil.getCallLocation() + " redis error for: " + exp.getMessage());
+    		reportFailure(exp);
+    		throw exp;
     	} catch (Exception exp){
     		// 防止缓存崩溃,影响主业务逻辑
     		sysLog.error(Log4jUtil.getCallLocation() + " redis error for: " + exp.getMessage());
+    		reportFailure(exp);
+    		throw new CacheException(CacheConstants.EXCEPTION_STORAGE_OPERATION, "redis error for: " + exp.getMessage());
+    	} finally {
+    		invalidateHotValue(cacheKey);
     	}
-    	
-		return 0L; // 需要业务程序手动处理!!!
+	}
+	
+	/***
+	 * 管道层的统计信息（各发送线程的队列长度、pipeline个数、请求个数、重试的个数、队列满而失败的个数）
+	 * 
+	 * @return
+	 */
+	public String getPipelineStats() {
+		return pipeline.toString();
+	}
+	
+	/***
+	 * 停止管道层的发送线程（还没有发送的请求按失败处理），JedisCluster由调用方关闭
+	 * 单例被close之后，getInstance会重新创建实例
+	 * 
+	 */
+	public void close() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		pipeline.close();
+		synchronized (CacheStorageServiceRedisImpl.class) {
+			if (INSTANCE == this) {
+				INSTANCE = null;
+			}
+		}
+		svcLog.info("redis impl closed, " + pipeline);
+	}
+	
+	/***
+	 * 设置接收失败的Listener（管道模式下同时设置给管道层）
+	 * 
+	 * @param failureListener
+	 */
+	@Override
+	public void setFailureListener(FailureListener failureListener) {
+		this.failureListener = failureListener;
+		pipeline.setFailureListener(failureListener);
+	}
+	
+	// 通知失败（Listener出错不影响主流程）
+	private void reportFailure(Exception exp) {
+		final FailureListener listener = failureListener;
+		if (listener == null) {
+			return;
+		}
+		try {
+			listener.onFailure(exp);
+		} catch (Exception exception) {
+			sysLog.error(Log4jUtil.getCallLocation() + " failure listener error for: " + exception.getMessage());
+		}
+	}
+	
+	/***
+	 * 设置热点key的统计（为null时关闭），同时清空本地副本
+	 * 
+	 * @param hotKeyDetector
+	 */
+	public void setHotKeyDetector(CacheHotKeyDetector hotKeyDetector) {
+		this.hotKeyDetector = hotKeyDetector;
+		hotValueMap.clear();
+		svcLog.info("redis impl hot key detector: " + hotKeyDetector);
+	}
+	
+	public CacheHotKeyDetector getHotKeyDetector() {
+		return hotKeyDetector;
+	}
+	
+	/***
+	 * 当前的top-K热点key和每秒的访问次数（没有开启统计时返回空的List）
+	 * 
+	 * @return
+	 */
+	public List<CacheHotKeyDetector.HotKey> getHotKeys() {
+		final CacheHotKeyDetector detector = hotKeyDetector;
+		return detector == null ? Collections.<CacheHotKeyDetector.HotKey>emptyList() : detector.getHotKeys();
+	}
+	
+	/***
+	 * 命中热点key本地副本的次数
+	 * 
+	 * @return
+	 */
+	public long getHotHitCount() {
+		return hotHitCount.get();
+	}
+	
+	// 读取热点key的本地副本，过期时删除
+	private byte[] getHotValue(String cacheKey) {
+		final HotValue hotValue = hotValueMap.get(cacheKey);
+		if (hotValue == null) {
+			return null;
+		}
+		if (hotValue.expireMillis <= System.currentTimeMillis()) {
+			hotValueMap.remove(cacheKey, hotValue);
+			return null;
+		}
+		hotHitCount.incrementAndGet();
+		return hotValue.cacheBytes;
+	}
+	
+	// 热点key从Redis读到值之后保存本地副本（副本个数不超过2倍的topK）
+	// generation为读取Redis之前的写入代数：读取期间有写入时，读到的值可能已经过时，不保存
+	private void promote(CacheHotKeyDetector detector, String cacheKey, byte[] cacheBytes, long generation) {
+		if (cacheBytes == null || !detector.isHot(cacheKey) || hotKeyGeneration(cacheKey) != generation) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		if (hotValueMap.size() >= 2 * detector.getTopK()) {
+			for (Iterator<HotValue> iterator = hotValueMap.values().iterator(); iterator.hasNext(); ) {
+				if (iterator.next().expireMillis <= now) {
+					iterator.remove();
+				}
+			}
+			if (hotValueMap.size() >= 2 * detector.getTopK()) {
+				return;
+			}
+		}
+		final HotValue hotValue = new HotValue(cacheBytes, now + SimpleCacheConfig.HOT_KEY_LOCAL_EXPIRE_MILLIS);
+		hotValueMap.put(cacheKey, hotValue);
+		// 保存的同时有写入（写入方删除副本时这个副本还没有放入）：删除自己放入的副本
+		if (hotKeyGeneration(cacheKey) != generation) {
+			hotValueMap.remove(cacheKey, hotValue);
+		}
+	}
+	
+	// key所在分段的写入代数
+	private long hotKeyGeneration(String cacheKey) {
+		return hotKeyGenerations.get(cacheKey.hashCode() & (HOT_KEY_GENERATION_STRIPES - 1));
+	}
+	
+	// 当前节点修改了key之后（写入已经发出）：先增加写入代数，再删除本地副本
+	private void invalidateHotValue(String cacheKey) {
+		if (hotKeyDetector == null) {
+			return;
+		}
+		hotKeyGenerations.incrementAndGet(cacheKey.hashCode() & (HOT_KEY_GENERATION_STRIPES - 1));
+		if (!hotValueMap.isEmpty()) {
+			hotValueMap.remove(cacheKey);
+		}
+	}
+	
+	private void invalidateHotValues(Collection<String> cacheKeys) {
+		for (String cacheKey : cacheKeys) {
+			invalidateHotValue(cacheKey);
+		}
+	}
+	
+	/***
+	 * 热点key的本地副本
+	 * 
+	 */
+	private static final class HotValue {
+		
+		private final byte[]	cacheBytes;
+		
+		private final long		expireMillis;			// 过期的时间点
+		
+		HotValue(byte[] cacheBytes, long expireMillis) {
+			this.cacheBytes = cacheBytes;
+			this.expireMillis = expireMillis;
+		}
 	}
 	
 	/***
 	 * 私有的构造参数，配合单例模式使用
 	 * 
 	 * @param jedisCluster
+	 * @param pipelineConfig 为null时使用同步模式（管道层只用于批量操作）
 	 */
-	private CacheStorageServiceRedisImpl(JedisCluster jedisCluster){
+	private CacheStorageServiceRedisImpl(JedisCluster jedisCluster, RedisPipelineConfig pipelineConfig){
 		this.jedisCluster = jedisCluster;
+		final RedisPipelineConfig config = pipelineConfig != null ? pipelineConfig : new RedisPipelineConfig();
+		this.pipeline = new CacheRedisPipeline(jedisCluster, pipelineConfig != null, config.getLaneNum(), config.getBatchSize(), config.getLingerMicros(), 
+				config.getQueueSize(), config.getTimeoutMillis());
 	}
 }
@@ -0,0 +1,402 @@
+package org.zhuduan.cache.storage.impl.tiered;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.zhuduan.cache.storage.AbstractCacheStorageService;
+import org.zhuduan.cache.storage.CacheBatchValue;
+import org.zhuduan.cache.storage.CacheInvalidationBus;
+import org.zhuduan.cache.storage.CacheStorageService;
+import org.zhuduan.config.SimpleCacheConfig;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+import org.zhuduan.utils.Log4jUtil;
+
+import com.google.common.base.Strings;
+
+/***
+ *
+ * 两层的CacheStorageService：L1一般为内存的实现（LocalImpl、OffHeapImpl），L2为容量更大的实现（如DiskImpl）
+ * 		1.读取时先读L1，L1不存在时读L2，L2命中后写回L1（过期时间为promoteExpireSeconds）
+ * 		2.写入和删除同时作用于L1和L2
+ * 		3.incrCacheKey由L2执行，并删除L1中的旧值
+ * 		4.批量读取时L1中不存在的key一起从L2读取，L2命中的值一起写回L1
+ * 		5.传入CacheInvalidationBus时作为近端缓存使用（如本地L1 + Redis L2）：
+ * 		  写入、删除和自增之后广播失效消息，其它节点收到后删除自己L1中的旧值
+ * 		  L1的过期时间不超过promoteExpireSeconds，失效消息丢失时L1中的旧值最多保留这么久
+ * 		  订阅重新建立时更换L1的key前缀，之前写入L1的值不再被读取（等待过期或者被淘汰）
+ *
+ * 注意：写回L1时不知道L2中剩余的过期时间，所以L1中的值最多会比L2晚promoteExpireSeconds秒过期
+ * 		对过期时间比较敏感的场景，需要把promoteExpireSeconds设置得小一些
+ * 		近端缓存模式下，其它节点在失效消息到达之前从L2读到的旧值仍然可能写回L1，同样由promoteExpireSeconds兜底
+ *
+ * @author	zhuhaifeng
+ * @date	2017年4月30日
+ *
+ */
+public class CacheStorageServiceTieredImpl extends AbstractCacheStorageService {
+
+	private static final Logger		sysLog		=	Log4jUtil.sysLog;		// 系统日志
+	private static final Logger		svcLog		=	Log4jUtil.svcLog;		// service日志
+
+	private final CacheStorageService	l1StorageService;				// 第一层（小而快）
+
+	private final CacheStorageService	l2StorageService;				// 第二层（大而慢）
+
+	private final int				promoteExpireSeconds;				// L2命中后写回L1的过期时间（近端缓存模式下也是L1的最长过期时间）
+
+	private final CacheInvalidationBus	invalidationBus;				// 近端缓存模式下广播失效消息的通道，为null时不广播
+
+	private volatile String			l1KeyPrefix		=	"";				// L1中key的前缀，订阅重新建立时更换
+
+	private final AtomicLong		l1Generation	=	new AtomicLong();	// 生成L1的key前缀
+
+	// 统计
+	private final AtomicLong		l1HitCount		=	new AtomicLong();
+
+	private final AtomicLong		l2HitCount		=	new AtomicLong();
+
+	private final AtomicLong		missCount		=	new AtomicLong();
+
+	private final AtomicLong		invalidateCount	=	new AtomicLong();	// 收到的失效消息中的key个数
+
+
+	public CacheStorageServiceTieredImpl(CacheStorageService l1StorageService, CacheStorageService l2StorageService) throws CacheException {
+		this(l1StorageService, l2StorageService, SimpleCacheConfig.TIERED_PROMOTE_EXPIRE_SECONDS);
+	}
+
+
+	/***
+	 *
+	 * @param l1StorageService 第一层
+	 * @param l2StorageService 第二层
+	 * @param promoteExpireSeconds L2命中后写回L1的过期时间(秒)
+	 * @throws CacheException l1或者l2为空时抛出
+	 */
+	public CacheStorageServiceTieredImpl(CacheStorageService l1StorageService, CacheStorageService l2StorageService, int promoteExpireSeconds) throws CacheException {
+		this(l1StorageService, l2StorageService, promoteExpireSeconds, null);
+	}
+
+
+	/***
+	 * 近端缓存：L1为较小的本地实现，L2为远程实现（如Redis），通过invalidationBus保持各个节点L1的一致
+	 *
+	 * @param l1StorageService 第一层
+	 * @param l2StorageService 第二层
+	 * @param promoteExpireSeconds L2命中后写回L1的过期时间，也是L1的最长过期时间(秒)
+	 * @param invalidationBus 为null时和普通的分层实现一样
+	 * @throws CacheException l1或者l2为空时抛出
+	 */
+	public CacheStorageServiceTieredImpl(CacheStorageService l1StorageService, CacheStorageService l2StorageService, int promoteExpireSeconds, 
+										CacheInvalidationBus invalidationBus) throws CacheException {
+		if (l1StorageService == null || l2StorageService == null) {
+			throw new CacheException(CacheConstants.EXCEPTION_INITIAL_PARAM, "tiered impl中l1和l2都不能为空");
+		}
+		if (promoteExpireSeconds <= 0 || promoteExpireSeconds > MAX_EXPIRE_SECONDS) {
+			svcLog.warn("tiered impl中promoteExpireSeconds传入值有错误,使用了默认值");
+			promoteExpireSeconds = SimpleCacheConfig.TIERED_PROMOTE_EXPIRE_SECONDS;
+		}
+		this.l1StorageService = l1StorageService;
+		this.l2StorageService = l2StorageService;
+		this.promoteExpireSeconds = promoteExpireSeconds;
+		this.invalidationBus = invalidationBus;
+		if (invalidationBus != null) {
+			invalidationBus.subscribe(new CacheInvalidationBus.Listener() {
+				@Override
+				public void onInvalidate(Collection<String> cacheKeys) {
+					invalidateCount.addAndGet(cacheKeys.size());
+					CacheStorageServiceTieredImpl.this.l1StorageService.deleteAll(l1Keys(l1KeyPrefix, cacheKeys));
+				}
+
+				@Override
+				public void onInvalidateAll() {
+					l1KeyPrefix = "near" + l1Generation.incrementAndGet() + ":";
+				}
+			});
+		}
+		svcLog.info("tiered impl use " + l1StorageService.getClass().getSimpleName() + " as l1 and "
+					+ l2StorageService.getClass().getSimpleName() + " as l2" 
+					+ (invalidationBus == null ? "" : ", invalidate by " + invalidationBus.getClass().getSimpleName()));
+	}
+
+
+    /**
+     * 获取二进制的缓存：先读L1，再读L2
+     *
+     * @param cacheKey
+     * @return null if error occur
+     */
+	@Override
+	public byte[] getCacheBytes(String cacheKey) {
+		if(Strings.isNullOrEmpty(cacheKey)){
+			svcLog.warn(Log4jUtil.getCallLocation() + " empty key ");
+			return null;
+		}
+		final String l1Key = l1Key(cacheKey);
+		byte[] cacheBytes = l1StorageService.getCacheBytes(l1Key);
+		if (cacheBytes != null) {
+			l1HitCount.incrementAndGet();
+			return cacheBytes;
+		}
+		cacheBytes = l2StorageService.getCacheBytes(cacheKey);
+		if (cacheBytes == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		l2HitCount.incrementAndGet();
+		try{
+			l1StorageService.setCacheBytes(l1Key, cacheBytes, promoteExpireSeconds);
+		} catch (Exception exp){
+			// 写回L1失败不影响本次读取
+			sysLog.error(Log4jUtil.getCallLocation() + " tiered impl promote error for: " + exp.getMessage());
+		}
+		return cacheBytes;
+	}
+
+
+	/**
+     * 设置二进制的缓存: L1和L2都写入成功时返回true
+     *
+     * @param cacheKey 缓存key
+     * @param cacheBytes 缓存value
+     * @param expireTimeSeconds 过期时间, 单位秒!
+     * @return
+     */
+	@Override
+	public Boolean setCacheBytes(String cacheKey, byte[] cacheBytes, int expireTimeSeconds) {
+		final Boolean l2Result = l2StorageService.setCacheBytes(cacheKey, cacheBytes, expireTimeSeconds);
+		final Boolean l1Result = l1StorageService.setCacheBytes(l1Key(cacheKey), cacheBytes, l1Expire(expireTimeSeconds));
+		publish(cacheKey);
+		return Boolean.TRUE.equals(l1Result) && Boolean.TRUE.equals(l2Result);
+	}
+
+
+    /**
+     * 检查KEY是否存在
+     *
+     * @param cacheKey
+     * @return
+     */
+	@Override
+	public Boolean isCacheKeyExists(String cacheKey) {
+		return Boolean.TRUE.equals(l1StorageService.isCacheKeyExists(l1Key(cacheKey)))
+				|| Boolean.TRUE.equals(l2StorageService.isCacheKeyExists(cacheKey));
+	}
+
+
+	/**
+     * 删除指定cacheKey（L1和L2都删除）
+     *
+     * @param cacheKey
+     * @return
+     */
+	@Override
+	public Boolean deleteCache(String cacheKey) {
+		final Boolean l2Result = l2StorageService.deleteCache(cacheKey);
+		final Boolean l1Result = l1StorageService.deleteCache(l1Key(cacheKey));
+		publish(cacheKey);
+		return Boolean.TRUE.equals(l1Result) && Boolean.TRUE.equals(l2Result);
+	}
+
+
+    /**
+     * 批量获取二进制的缓存：先批量读L1，L1中不存在的key再批量读L2
+     *
+     * @param cacheKeys
+     * @return 命中的key和值
+     */
+	@Override
+	public Map<String, byte[]> getAll(Collection<String> cacheKeys) {
+		final Map<String, byte[]> result = new HashMap<>();
+		if (cacheKeys == null || cacheKeys.isEmpty()) {
+			return result;
+		}
+		final String prefix = l1KeyPrefix;
+		if (prefix.isEmpty()) {
+			result.putAll(l1StorageService.getAll(cacheKeys));
+		} else {
+			for (Map.Entry<String, byte[]> entry : l1StorageService.getAll(l1Keys(prefix, cacheKeys)).entrySet()) {
+				result.put(entry.getKey().substring(prefix.length()), entry.getValue());
+			}
+		}
+		l1HitCount.addAndGet(result.size());
+		final List<String> l2Keys = new ArrayList<>();
+		for (String cacheKey : cacheKeys) {
+			if (!result.containsKey(cacheKey)) {
+				l2Keys.add(cacheKey);
+			}
+		}
+		if (l2Keys.isEmpty()) {
+			return result;
+		}
+		final Map<String, byte[]> l2Result = l2StorageService.getAll(l2Keys);
+		l2HitCount.addAndGet(l2Result.size());
+		missCount.addAndGet(l2Keys.size() - l2Result.size());
+		if (l2Result.isEmpty()) {
+			return result;
+		}
+		result.putAll(l2Result);
+		final Map<String, CacheBatchValue> promoteValues = new HashMap<>();
+		for (Map.Entry<String, byte[]> entry : l2Result.entrySet()) {
+			promoteValues.put(prefix + entry.getKey(), new CacheBatchValue(entry.getValue(), promoteExpireSeconds));
+		}
+		try{
+			l1StorageService.setAll(promoteValues);
+		} catch (Exception exp){
+			// 写回L1失败不影响本次读取
+			sysLog.error(Log4jUtil.getCallLocation() + " tiered impl promote error for: " + exp.getMessage());
+		}
+		return result;
+	}
+
+
+	/**
+     * 批量设置二进制的缓存: L1和L2都写入成功时返回true
+     *
+     * @param cacheValues
+     * @return
+     */
+	@Override
+	public Boolean setAll(Map<String, CacheBatchValue> cacheValues) {
+		final Boolean l2Result = l2StorageService.setAll(cacheValues);
+		if (invalidationBus == null) {
+			final Boolean l1Result = l1StorageService.setAll(cacheValues);
+			return Boolean.TRUE.equals(l1Result) && Boolean.TRUE.equals(l2Result);
+		}
+		// 近端缓存模式：L1的过期时间不超过promoteExpireSeconds
+		final String prefix = l1KeyPrefix;
+		final Map<String, CacheBatchValue> l1Values = new HashMap<>();
+		for (Map.Entry<String, CacheBatchValue> entry : cacheValues.entrySet()) {
+			if (CacheBatchValue.isValid(entry.getKey(), entry.getValue())) {
+				l1Values.put(prefix + entry.getKey(), new CacheBatchValue(entry.getValue().getCacheBytes(), l1Expire(entry.getValue().getExpireTimeSeconds())));
+			}
+		}
+		final Boolean l1Result = l1StorageService.setAll(l1Values);
+		invalidationBus.publish(cacheValues.keySet());
+		return Boolean.TRUE.equals(l1Result) && Boolean.TRUE.equals(l2Result);
+	}
+
+
+	/**
+     * 批量删除cacheKey（L1和L2都删除）
+     *
+     * @param cacheKeys
+     * @return
+     */
+	@Override
+	public Boolean deleteAll(Collection<String> cacheKeys) {
+		final Boolean l2Result = l2StorageService.deleteAll(cacheKeys);
+		final Boolean l1Result = l1StorageService.deleteAll(l1Keys(l1KeyPrefix, cacheKeys));
+		if (invalidationBus != null && cacheKeys != null) {
+			invalidationBus.publish(cacheKeys);
+		}
+		return Boolean.TRUE.equals(l1Result) && Boolean.TRUE.equals(l2Result);
+	}
+
+
+    /**
+     * 以step步长, cacheKey的自增, 过期时间为expireTimeSeconds秒（由L2执行）
+     *
+     * @param cacheKey
+     * @param incrStep  以incrStep步长自增
+     * @param expireTimeSeconds  过期时间, 单位秒!
+     * @return 返回增长后的值
+     * @throws CacheException L2不支持时抛出
+     */
+	@Override
+	public Long incrCacheKey(String cacheKey, long incrStep, int expireTimeSeconds) throws CacheException {
+		final Long result = l2StorageService.incrCacheKey(cacheKey, incrStep, expireTimeSeconds);
+		l1StorageService.deleteCache(l1Key(cacheKey));
+		publish(cacheKey);
+		return result;
+	}
+
+
+	// L1中的过期时间：近端缓存模式下不超过promoteExpireSeconds
+	private int l1Expire(int expireTimeSeconds) {
+		return (invalidationBus == null) ? expireTimeSeconds : Math.min(expireTimeSeconds, promoteExpireSeconds);
+	}
+
+
+	// L1中的key：加上当前的前缀
+	private String l1Key(String cacheKey) {
+		final String prefix = l1KeyPrefix;
+		return (cacheKey == null || prefix.isEmpty()) ? cacheKey : prefix + cacheKey;
+	}
+
+
+	// 广播单个key的失效消息
+	private void publish(String cacheKey) {
+		if (invalidationBus != null && cacheKey != null) {
+			invalidationBus.publish(Collections.singletonList(cacheKey));
+		}
+	}
+
+
+	// 加上L1的key前缀
+	private static Collection<String> l1Keys(String prefix, Collection<String> cacheKeys) {
+		if (prefix.isEmpty() || cacheKeys == null) {
+			return cacheKeys;
+		}
+		final List<String> l1Keys = new ArrayList<>(cacheKeys.size());
+		for (String cacheKey : cacheKeys) {
+			if (cacheKey != null) {
+				l1Keys.add(prefix + cacheKey);
+			}
+		}
+		return l1Keys;
+	}
+
+
+	public CacheStorageService getL1StorageService() {
+		return l1StorageService;
+	}
+
+
+	public CacheStorageService getL2StorageService() {
+		return l2StorageService;
+	}
+
+
+	public long getL1HitCount() {
+		return l1HitCount.get();
+	}
+
+
+	public long getL2HitCount() {
+		return l2HitCount.get();
+	}
+
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+
+	public long getInvalidateCount() {
+		return invalidateCount.get();
+	}
+
+
+	public CacheInvalidationBus getInvalidationBus() {
+		return invalidationBus;
+	}
+
+
+	/***
+	 * 命中率（L1或者L2命中都算），没有请求时返回1
+	 *
+	 * @return
+	 */
+	public double getHitRate() {
+		final long hits = l1HitCount.get() + l2HitCount.get();
+		final long requestCount = hits + missCount.get();
+		return requestCount == 0 ? 1.0D : (double) hits / requestCount;
+	}
+}
@@ -0,0 +1,113 @@
+package org.zhuduan.config;
+
+/***
+ *
+ * 熔断器（CacheStorageServiceCircuitBreakerImpl）的配置，可以通过Spring的bean配置传入
+ * 		1.每次操作的耗时超过latencyBudgetMillis算作慢调用，抛出异常算作失败
+ * 		2.最近windowSeconds秒内的调用次数达到minimumCalls，且失败率达到failureRateThreshold或者慢调用率达到slowCallRateThreshold时熔断
+ * 		3.熔断openMillis毫秒后进入半开状态，放行halfOpenProbes次探测调用：全部成功（且没有超过耗时预算）时恢复，否则重新熔断
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月22日
+ *
+ */
+public class CircuitBreakerConfig {
+
+	private long	latencyBudgetMillis			=	SimpleCacheConfig.CIRCUIT_BREAKER_LATENCY_BUDGET_MILLIS;	// 每次操作的耗时预算
+
+	private int		windowSeconds				=	SimpleCacheConfig.CIRCUIT_BREAKER_WINDOW_SECONDS;			// 滑动窗口的秒数
+
+	private int		minimumCalls				=	SimpleCacheConfig.CIRCUIT_BREAKER_MINIMUM_CALLS;			// 判断是否熔断需要的最少调用次数
+
+	private double	failureRateThreshold		=	SimpleCacheConfig.CIRCUIT_BREAKER_FAILURE_RATE;				// 熔断的失败率
+
+	private double	slowCallRateThreshold		=	SimpleCacheConfig.CIRCUIT_BREAKER_SLOW_CALL_RATE;			// 熔断的慢调用率
+
+	private long	openMillis					=	SimpleCacheConfig.CIRCUIT_BREAKER_OPEN_MILLIS;				// 熔断后多久开始半开探测
+
+	private int		halfOpenProbes				=	SimpleCacheConfig.CIRCUIT_BREAKER_HALF_OPEN_PROBES;			// 半开状态下的探测次数
+
+
+	public CircuitBreakerConfig() {
+	}
+
+
+	/***
+	 *
+	 * @param latencyBudgetMillis 每次操作的耗时预算（毫秒）
+	 * @param slowCallRateThreshold 熔断的慢调用率
+	 * @param openMillis 熔断后多久开始半开探测
+	 */
+	public CircuitBreakerConfig(long latencyBudgetMillis, double slowCallRateThreshold, long openMillis) {
+		this.latencyBudgetMillis = latencyBudgetMillis;
+		this.slowCallRateThreshold = slowCallRateThreshold;
+		this.openMillis = openMillis;
+	}
+
+
+	@Override
+	public String toString() {
+		return "CircuitBreakerConfig [latencyBudgetMillis=" + latencyBudgetMillis + ", windowSeconds=" + windowSeconds
+				+ ", minimumCalls=" + minimumCalls + ", failureRateThreshold=" + failureRateThreshold
+				+ ", slowCallRateThreshold=" + slowCallRateThreshold + ", openMillis=" + openMillis + ", halfOpenProbes=" + halfOpenProbes + "]";
+	}
+
+
+	// getter & setter
+	public long getLatencyBudgetMillis() {
+		return latencyBudgetMillis;
+	}
+
+	public void setLatencyBudgetMillis(long latencyBudgetMillis) {
+		this.latencyBudgetMillis = latencyBudgetMillis;
+	}
+
+	public int getWindowSeconds() {
+		return windowSeconds;
+	}
+
+	public void setWindowSeconds(int windowSeconds) {
+		this.windowSeconds = windowSeconds;
+	}
+
+	public int getMinimumCalls() {
+		return minimumCalls;
+	}
+
+	public void setMinimumCalls(int minimumCalls) {
+		this.minimumCalls = minimumCalls;
+	}
+
+	public double getFailureRateThreshold() {
+		return failureRateThreshold;
+	}
+
+	public void setFailureRateThreshold(double failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	public double getSlowCallRateThreshold() {
+		return slowCallRateThreshold;
+	}
+
+	public void setSlowCallRateThreshold(double slowCallRateThreshold) {
+		this.slowCallRateThreshold = slowCallRateThreshold;
+	}
+
+	public long getOpenMillis() {
+		return openMillis;
+	}
+
+	public void setOpenMillis(long openMillis) {
+		this.openMillis = openMillis;
+	}
+
+	public int getHalfOpenProbes() {
+		return halfOpenProbes;
+	}
+
+	public void setHalfOpenProbes(int halfOpenProbes) {
+		this.halfOpenProbes = halfOpenProbes;
+	}
+}
@@ -0,0 +1,106 @@
+package org.zhuduan.config;
+
+/***
+ * 
+ * 原生GuavaCache方案（CacheStorageServiceOriginGuavaImpl）的配置，可以通过SimpleCacheAspect的构造器传入（如Spring的bean配置）
+ * 		1.maximumSize大于0时按个数限制容量，否则按maximumBytes（CacheWeigher估算的字节数）限制
+ * 		2.expireAfterAccessSeconds、expireAfterWriteSeconds小于等于0时不设置对应的过期时间
+ * 		3.refreshAfterWriteSeconds大于0时使用LoadingCache：写入超过该时间后再被读取时，在后台线程中重新执行方法（读取方直接拿到旧值）
+ * 		  需要小于expireAfterWriteSeconds，否则在刷新之前就已经过期了
+ * 
+ * 
+ * @author	zhuhaifeng
+ * @date	2017年5月6日
+ *
+ */
+public class OriginGuavaConfig {
+
+	private long	maximumSize					=	0L;													// 可以缓存的最大个数（小于等于0时按字节数限制）
+	
+	private long	maximumBytes				=	SimpleCacheConfig.ORIGIN_GUAVACACHE_MAXIMUM_BYTES;		// 可以使用的最大内存字节数
+	
+	private long	expireAfterAccessSeconds	=	SimpleCacheConfig.ORIGIN_GUAVACACHE_ACCESS_EXPIRE_SECONDS;	// Access过期时间
+	
+	private long	expireAfterWriteSeconds		=	SimpleCacheConfig.ORIGIN_GUAVACACHE_WRITE_EXPIRE_SECONDS;	// Write过期时间
+	
+	private long	refreshAfterWriteSeconds	=	0L;													// 写入后多久开始后台刷新（小于等于0时不刷新）
+	
+	private int		refreshThreadNum			=	SimpleCacheConfig.REFRESH_THREAD_NUM;					// 后台刷新的线程数
+	
+	
+	public OriginGuavaConfig() {
+	}
+	
+	
+	/***
+	 * 
+	 * @param maximumSize 可以缓存的最大个数（小于等于0时按字节数限制）
+	 * @param expireAfterAccessSeconds
+	 * @param expireAfterWriteSeconds
+	 * @param refreshAfterWriteSeconds
+	 */
+	public OriginGuavaConfig(long maximumSize, long expireAfterAccessSeconds, long expireAfterWriteSeconds, long refreshAfterWriteSeconds) {
+		this.maximumSize = maximumSize;
+		this.expireAfterAccessSeconds = expireAfterAccessSeconds;
+		this.expireAfterWriteSeconds = expireAfterWriteSeconds;
+		this.refreshAfterWriteSeconds = refreshAfterWriteSeconds;
+	}
+
+
+	@Override
+	public String toString() {
+		return "OriginGuavaConfig [maximumSize=" + maximumSize + ", maximumBytes=" + maximumBytes 
+				+ ", expireAfterAccessSeconds=" + expireAfterAccessSeconds + ", expireAfterWriteSeconds=" + expireAfterWriteSeconds 
+				+ ", refreshAfterWriteSeconds=" + refreshAfterWriteSeconds + ", refreshThreadNum=" + refreshThreadNum + "]";
+	}
+
+
+	// getter & setter
+	public long getMaximumSize() {
+		return maximumSize;
+	}
+
+	public void setMaximumSize(long maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+
+	public long getMaximumBytes() {
+		return maximumBytes;
+	}
+
+	public void setMaximumBytes(long maximumBytes) {
+		this.maximumBytes = maximumBytes;
+	}
+
+	public long getExpireAfterAccessSeconds() {
+		return expireAfterAccessSeconds;
+	}
+
+	public void setExpireAfterAccessSeconds(long expireAfterAccessSeconds) {
+		this.expireAfterAccessSeconds = expireAfterAccessSeconds;
+	}
+
+	public long getExpireAfterWriteSeconds() {
+		return expireAfterWriteSeconds;
+	}
+
+	public void setExpireAfterWriteSeconds(long expireAfterWriteSeconds) {
+		this.expireAfterWriteSeconds = expireAfterWriteSeconds;
+	}
+
+	public long getRefreshAfterWriteSeconds() {
+		return refreshAfterWriteSeconds;
+	}
+
+	public void setRefreshAfterWriteSeconds(long refreshAfterWriteSeconds) {
+		this.refreshAfterWriteSeconds = refreshAfterWriteSeconds;
+	}
+
+	public int getRefreshThreadNum() {
+		return refreshThreadNum;
+	}
+
+	public void setRefreshThreadNum(int refreshThreadNum) {
+		this.refreshThreadNum = refreshThreadNum;
+	}
+}
@@ -0,0 +1,84 @@
+package org.zhuduan.config;
+
+/***
+ *
+ * Redis方案的配置，通过SimpleCacheAspect(jedisCluster, redisCacheConfig)传入（如Spring的bean配置），各项可以任意组合
+ * 		1.pipelineConfig不为null时使用管道模式（write-behind的写入，合并发送的读取），为null时同步调用JedisCluster
+ * 		2.nearCache为true时在Redis前面加一层本地的近端缓存（通过Redis pub/sub广播失效消息）
+ * 		3.circuitBreakerConfig不为null时Redis使用熔断（只包装Redis，近端缓存的L1在熔断时仍然可用）
+ * 		4.hotKey为true时统计热点key（CacheHotKeyDetector），热点key的值在本地保存HOT_KEY_LOCAL_EXPIRE_MILLIS毫秒
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class RedisCacheConfig {
+
+	private RedisPipelineConfig		pipelineConfig			=	null;		// 管道模式的配置（为null时使用同步模式）
+
+	private boolean					nearCache				=	false;		// 是否使用近端缓存
+
+	private CircuitBreakerConfig	circuitBreakerConfig	=	null;		// 熔断的配置（为null时不熔断）
+
+	private boolean					hotKey					=	false;		// 是否统计热点key，并在本地短暂保存热点key的值
+
+
+	public RedisCacheConfig() {
+	}
+
+
+	@Override
+	public String toString() {
+		return "RedisCacheConfig [pipelineConfig=" + pipelineConfig + ", nearCache=" + nearCache
+				+ ", circuitBreakerConfig=" + circuitBreakerConfig + ", hotKey=" + hotKey + "]";
+	}
+
+
+	/***
+	 * 使用默认配置的管道模式（或者关闭管道模式）
+	 *
+	 * @param pipelined
+	 */
+	public void setPipelined(boolean pipelined) {
+		this.pipelineConfig = pipelined ? new RedisPipelineConfig() : null;
+	}
+
+	public boolean isPipelined() {
+		return pipelineConfig != null;
+	}
+
+
+	// getter & setter
+	public RedisPipelineConfig getPipelineConfig() {
+		return pipelineConfig;
+	}
+
+	public void setPipelineConfig(RedisPipelineConfig pipelineConfig) {
+		this.pipelineConfig = pipelineConfig;
+	}
+
+	public boolean isNearCache() {
+		return nearCache;
+	}
+
+	public void setNearCache(boolean nearCache) {
+		this.nearCache = nearCache;
+	}
+
+	public CircuitBreakerConfig getCircuitBreakerConfig() {
+		return circuitBreakerConfig;
+	}
+
+	public void setCircuitBreakerConfig(CircuitBreakerConfig circuitBreakerConfig) {
+		this.circuitBreakerConfig = circuitBreakerConfig;
+	}
+
+	public boolean isHotKey() {
+		return hotKey;
+	}
+
+	public void setHotKey(boolean hotKey) {
+		this.hotKey = hotKey;
+	}
+}
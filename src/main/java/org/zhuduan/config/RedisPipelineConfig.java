@@ -0,0 +1,93 @@
+package org.zhuduan.config;
+
+/***
+ *
+ * Redis管道模式（CacheStorageServiceRedisImpl.getInstance(jedisCluster, config)）的配置，默认值在SimpleCacheConfig中
+ * 		1.laneNum为发送线程的个数，key按slot固定分配到一个发送线程（同一个key的请求按顺序执行）
+ * 		2.batchSize为一个pipeline最多的请求个数；lingerMicros大于0时，有并发但不足batchSize的请求最多再等待这么久，用延迟换更大的pipeline
+ * 		3.queueSize为每个发送线程的队列长度，队列满时最多等待timeoutMillis，仍然放不进去时请求失败
+ * 		4.timeoutMillis同时是等待结果（读操作、INCRBY和批量操作）的最长毫秒数
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月7日
+ *
+ */
+public class RedisPipelineConfig {
+
+	private int		laneNum			=	SimpleCacheConfig.REDIS_PIPELINE_LANES;				// 发送线程的个数
+
+	private int		batchSize		=	SimpleCacheConfig.REDIS_PIPELINE_BATCH_SIZE;		// 一个pipeline最多的请求个数
+
+	private long	lingerMicros	=	SimpleCacheConfig.REDIS_PIPELINE_LINGER_MICROS;		// 请求不足batchSize时最多再等待的微秒数（0表示不等待）
+
+	private int		queueSize		=	SimpleCacheConfig.REDIS_PIPELINE_QUEUE_SIZE;		// 每个发送线程的队列长度
+
+	private long	timeoutMillis	=	SimpleCacheConfig.REDIS_PIPELINE_TIMEOUT_MILLIS;	// 等待结果（以及等待队列空间）的最长毫秒数
+
+
+	public RedisPipelineConfig() {
+	}
+
+
+	/***
+	 *
+	 * @param laneNum 发送线程的个数
+	 * @param batchSize 一个pipeline最多的请求个数
+	 * @param lingerMicros 请求不足batchSize时最多再等待的微秒数（0表示不等待）
+	 */
+	public RedisPipelineConfig(int laneNum, int batchSize, long lingerMicros) {
+		this.laneNum = laneNum;
+		this.batchSize = batchSize;
+		this.lingerMicros = lingerMicros;
+	}
+
+
+	@Override
+	public String toString() {
+		return "RedisPipelineConfig [laneNum=" + laneNum + ", batchSize=" + batchSize + ", lingerMicros=" + lingerMicros
+				+ ", queueSize=" + queueSize + ", timeoutMillis=" + timeoutMillis + "]";
+	}
+
+
+	// getter & setter
+	public int getLaneNum() {
+		return laneNum;
+	}
+
+	public void setLaneNum(int laneNum) {
+		this.laneNum = laneNum;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public long getLingerMicros() {
+		return lingerMicros;
+	}
+
+	public void setLingerMicros(long lingerMicros) {
+		this.lingerMicros = lingerMicros;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	public void setTimeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+}
@@ -2,15 +2,83 @@ package org.zhuduan.config;
 
 public class SimpleCacheConfig {
 
-	public static final int 	GUARD_THREAD_SLEEP_SECONDS				=	3600;			// 守护线程的sleep时间（不用太过频繁，因为这里主要是清理一些长期不同的对象）
+	@Deprecated
+	public static final int 	GUARD_THREAD_SLEEP_SECONDS				=	3600;			// 已改为按GUARD_THREAD_TICK_MILLIS推进时间轮（不再使用）
+	public static final long 	GUARD_THREAD_TICK_MILLIS				=	1000L;			// 守护线程推进过期时间轮的间隔（每次只处理到期的对象，因此可以比较频繁）
 	public static final long	OBJ_CLEAN_THREDHOLD						=	10000000;		// 需要开始清理的阈值（小于该阈值则不用开始清理： 可选）	
 	
 	
 	public static final long 	ORIGIN_GUAVACACHE_OBJECT_NUM_MAX		=	1000000000L;		// 可以缓存的最大个数，默认 1亿个
 	public static final long 	ORIGIN_GUAVACACHE_ACCESS_EXPIRE_SECONDS	=	3600L;				// 缓存的Access过期时间，默认 3600s
 	public static final long 	ORIGIN_GUAVACACHE_WRITE_EXPIRE_SECONDS	=	3600L;				// 缓存的Write过期时间，默认 3600s
+	public static final long 	ORIGIN_GUAVACACHE_MAXIMUM_BYTES			=	Runtime.getRuntime().maxMemory() / 4;	// 可以使用的最大内存字节数（按CacheWeigher估算），默认为最大堆的1/4
 	
 	
-	public static final long 	EXPIRE_GUAVACACHE_OBJECT_NUM_MAX		=	1000000000L;		// 可以缓存的最大个数，默认 1亿个
+	@Deprecated
+	public static final long 	EXPIRE_GUAVACACHE_OBJECT_NUM_MAX		=	1000000000L;		// 已改为按字节数限制（EXPIRE_GUAVACACHE_MAXIMUM_BYTES）
+	public static final long 	EXPIRE_GUAVACACHE_MAXIMUM_BYTES			=	Runtime.getRuntime().maxMemory() / 4;	// 可以使用的最大内存字节数（按CacheWeigher估算），默认为最大堆的1/4
+	
+	
+	public static final long 	LOCAL_CACHE_OBJECT_NUM_MAX				=	1000000L;			// 默认本地实现可以缓存的最大个数，默认 100万个（超过时按W-TinyLFU淘汰）
+	public static final long 	LOCAL_CACHE_MAXIMUM_BYTES				=	Runtime.getRuntime().maxMemory() / 4;	// 默认本地实现可以使用的最大内存字节数（按CacheWeigher估算），默认为最大堆的1/4
+	
+	
+	public static final double 	MEMORY_PRESSURE_THRESHOLD_RATIO			=	0.85D;				// 老年代GC之后的使用率超过该值时，本地缓存主动释放一部分
+	public static final double 	MEMORY_PRESSURE_SHED_RATIO				=	0.25D;				// 内存紧张时每个本地实现释放的比例
+	
+	
+	public static final long 	OFFHEAP_CAPACITY_BYTES					=	256L * 1024 * 1024;	// 堆外实现默认使用的内存字节数，默认 256MB（受-XX:MaxDirectMemorySize限制）
+	public static final int 	OFFHEAP_SEGMENT_NUM						=	16;					// 堆外实现的分段数（每个分段一把锁）
+	public static final int 	OFFHEAP_AVERAGE_ENTRY_BYTES				=	128;				// 估计的平均每条数据的字节数（用于确定索引的大小）
+	
+	
+	public static final String 	DISK_CACHE_DIR							=	System.getProperty("java.io.tmpdir") + "/simplecache";	// 磁盘实现默认的数据目录
+	public static final long 	DISK_CAPACITY_BYTES						=	4L * 1024 * 1024 * 1024;	// 磁盘实现默认使用的最大空间，默认 4GB
+	public static final int 	DISK_SEGMENT_BYTES						=	64 * 1024 * 1024;	// 磁盘实现每个数据文件的大小，默认 64MB
+	public static final int 	DISK_COMPACT_INTERVAL_SECONDS			=	60;					// 磁盘实现整理数据文件的间隔
+	public static final double 	DISK_COMPACT_LIVE_RATIO					=	0.5D;				// 数据文件中有效数据的比例低于该值时整理
+	
+	
+	public static final int 	TIERED_PROMOTE_EXPIRE_SECONDS			=	60;					// 分层实现中L2命中后写回L1的过期时间
+	
+	
+	public static final long 	NEAR_CACHE_OBJECT_NUM_MAX				=	10000L;				// 近端缓存（Redis前面的本地L1）默认的最大个数
+	public static final long 	NEAR_CACHE_MAXIMUM_BYTES				=	Runtime.getRuntime().maxMemory() / 16;	// 近端缓存中L1可以使用的最大内存字节数（按CacheWeigher估算），默认为最大堆的1/16
+	public static final int 	NEAR_CACHE_EXPIRE_SECONDS				=	5;					// 近端缓存中L1的最长过期时间（失效消息丢失时的兜底）
+	public static final String 	NEAR_CACHE_CHANNEL						=	"simplecache:invalidation";	// 近端缓存失效消息的Redis channel
+	public static final long 	NEAR_CACHE_RESUBSCRIBE_MILLIS			=	1000L;				// 失效消息的订阅断开后重新订阅的间隔
+	
+	
+	public static final int 	REFRESH_THREAD_NUM						=	4;					// 后台刷新缓存的线程数
+	public static final int 	REFRESH_QUEUE_SIZE						=	1024;				// 后台刷新的等待队列长度（队列满时放弃本次刷新）
+	
+	
+	public static final int 	REDIS_PIPELINE_LANES					=	4;					// Redis管道模式下的发送线程数（key按slot固定分配到一个发送线程），以下为RedisPipelineConfig的默认值
+	public static final int 	REDIS_PIPELINE_BATCH_SIZE				=	128;				// Redis管道模式下一个pipeline最多的请求个数
+	public static final long 	REDIS_PIPELINE_LINGER_MICROS			=	0L;					// 请求不足一个pipeline时最多再等待的微秒数（默认不等待：上一个pipeline往返期间到达的请求自然合并）
+	public static final int 	REDIS_PIPELINE_QUEUE_SIZE				=	65536;				// 每个发送线程的等待队列长度（队列满时最多等待REDIS_PIPELINE_TIMEOUT_MILLIS，仍然放不进去时请求失败）
+	public static final long 	REDIS_PIPELINE_TIMEOUT_MILLIS			=	1000L;				// 等待pipeline结果的最长毫秒数（读操作、INCRBY和批量操作）
+	
+	
+	public static final int 	HOT_KEY_SKETCH_WIDTH					=	4096;				// 热点key统计中Count-Min Sketch每一行的计数器个数
+	public static final int 	HOT_KEY_TOP_K							=	32;					// 统计的热点key个数（top-K）
+	public static final int 	HOT_KEY_THRESHOLD						=	1000;				// 一个窗口内访问次数达到该值的key为热点（默认每秒1000次）
+	public static final long 	HOT_KEY_WINDOW_MILLIS					=	1000L;				// 热点key统计的窗口
+	public static final long 	HOT_KEY_LOCAL_EXPIRE_MILLIS				=	1000L;				// 热点key在本地副本的过期毫秒数（其它节点的写入最多延迟这么久可见）
+	
+	
+	public static final long 	CIRCUIT_BREAKER_LATENCY_BUDGET_MILLIS	=	50L;				// 熔断器中每次操作的耗时预算，超过的算作慢调用
+	public static final int 	CIRCUIT_BREAKER_WINDOW_SECONDS			=	10;					// 熔断器统计失败率和慢调用率的滑动窗口
+	public static final int 	CIRCUIT_BREAKER_MINIMUM_CALLS			=	20;					// 窗口内至少有这么多次调用才判断是否熔断
+	public static final double 	CIRCUIT_BREAKER_FAILURE_RATE			=	0.5D;				// 失败率达到该值时熔断
+	public static final double 	CIRCUIT_BREAKER_SLOW_CALL_RATE			=	0.5D;				// 慢调用率达到该值时熔断
+	public static final long 	CIRCUIT_BREAKER_OPEN_MILLIS				=	5000L;				// 熔断后多久开始半开探测
+	public static final int 	CIRCUIT_BREAKER_HALF_OPEN_PROBES		=	5;					// 半开状态下的探测次数（全部成功才恢复）
+	public static final int 	CIRCUIT_BREAKER_REPLAY_KEYS_MAX			=	100000;				// 熔断器最多记录的没有写入被保护实现的key个数（恢复后删除）
+	public static final int 	CIRCUIT_BREAKER_REPLAY_BATCH			=	1000;				// 熔断器每次删除记录的key的最大个数
+	
+	
+	public static final int 	COMPRESS_THRESHOLD_BYTES				=	16 * 1024;			// 编码后超过该字节数的值会被压缩（可以通过SimpleCacheAspect修改）
+	public static final int 	DECOMPRESS_MAX_BYTES					=	64 * 1024 * 1024;	// 解压后的值允许的最大字节数（超过的值当作损坏）
 	
 }
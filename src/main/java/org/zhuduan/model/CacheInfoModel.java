@@ -1,26 +1,33 @@
 package org.zhuduan.model;
 
 import java.io.Serializable;
+import java.nio.charset.Charset;
 
 /***
  * 
  * 用于对整个cacheValue做一个封装，增加过期时间等信息从而实现差异化的过期配置
- * 同时在本地内存模型中可以通过SoftReference或者WeakReference来做引用从而增加程序的健壮性
+ * 
+ * 已废弃：本地实现改为在自己的节点中直接保存值和过期的时间点（基本类型），不再使用该类和SoftReference
  * 
  * 
  * @author	zhuhaifeng
  * @date	2017年2月23日
  *
  */
+@Deprecated
 public class CacheInfoModel implements Serializable{
 
 	private static final long serialVersionUID = 367498860451494489L;
 
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	private Long cacheBeginTimeLong;		// set缓存的开始时间
 	
 	private Long cacheExpireTimeLong;		// 该对象的过期时间
 	
-	private String cacheValue;				// 序列化成String的实际存储对象
+	private byte[] cacheBytes;				// 序列化之后的实际存储对象
+	
+	private transient Object cacheObject;	// 本地对象缓存中直接保存的对象（和cacheBytes只会有一个不为空）
 	
 
 	public Long getCacheBeginTimeLong() {
@@ -39,11 +46,41 @@ public class CacheInfoModel implements Serializable{
 		this.cacheExpireTimeLong = cacheExpireTimeLong;
 	}
 
+	public byte[] getCacheBytes() {
+		return cacheBytes;
+	}
+
+	public void setCacheBytes(byte[] cacheBytes) {
+		this.cacheBytes = cacheBytes;
+	}
+
+	/***
+	 * 旧版本的String值：按UTF-8读取cacheBytes
+	 * 
+	 * @return
+	 * @deprecated 使用getCacheBytes()
+	 */
+	@Deprecated
 	public String getCacheValue() {
-		return cacheValue;
+		return (cacheBytes == null) ? null : new String(cacheBytes, UTF_8);
 	}
 
+	/***
+	 * 旧版本的String值：按UTF-8保存到cacheBytes
+	 * 
+	 * @param cacheValue
+	 * @deprecated 使用setCacheBytes(byte[])
+	 */
+	@Deprecated
 	public void setCacheValue(String cacheValue) {
-		this.cacheValue = cacheValue;
+		this.cacheBytes = (cacheValue == null) ? null : cacheValue.getBytes(UTF_8);
+	}
+
+	public Object getCacheObject() {
+		return cacheObject;
+	}
+
+	public void setCacheObject(Object cacheObject) {
+		this.cacheObject = cacheObject;
 	}
 }
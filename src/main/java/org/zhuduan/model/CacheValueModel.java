@@ -0,0 +1,127 @@
+package org.zhuduan.model;
+
+import java.nio.ByteBuffer;
+
+/***
+ * 
+ * 存储到CacheStorageService中的值的解析结果
+ * 除了序列化后的值之外，还包含了值的元信息（如：软过期时间等）
+ * 		具体的编码方式参见CacheValueUtils
+ * 
+ * 
+ * @author	zhuhaifeng
+ * @date	2017年3月25日
+ *
+ */
+public class CacheValueModel {
+
+	private long refreshTimeLong;			// 软过期的时间点(毫秒)，超过之后仍然返回旧值，但需要后台刷新；0表示不需要刷新
+	
+	private long expireTimeLong;			// 实际过期的时间点(毫秒)，用于提前概率刷新；0表示未记录
+	
+	private long loadCostLong;				// 生成该值时执行方法的耗时(毫秒)，用于提前概率刷新
+	
+	private boolean nullValue;				// 是否是缓存的空结果（方法返回了null）
+	
+	private boolean compressed;				// cacheBuffer是否是压缩后的值
+	
+	private int rawLength;					// 压缩前的长度（compressed为true时有效）
+	
+	private ByteBuffer cacheBuffer;			// 编码后的实际存储对象（position到limit之间的部分）
+	
+	private Object cacheObject;				// 本地对象缓存中直接保存的对象（此时整个CacheValueModel保存在本地缓存中）
+	
+	
+	/***
+	 * 判断在now时刻是否需要后台刷新
+	 * 
+	 * @param now
+	 * @return
+	 */
+	public boolean isNeedRefresh(long now){
+		return refreshTimeLong > 0 && now > refreshTimeLong;
+	}
+	
+
+	/***
+	 * 按照XFetch的方式判断在now时刻是否需要提前刷新：
+	 * 		now - loadCost * beta * ln(random) >= expireTime
+	 * 加载越慢、越接近过期时间，提前刷新的概率越大
+	 * 
+	 * @param now
+	 * @param beta 大于1时更倾向于提前刷新，小于等于0表示不开启
+	 * @param random (0, 1]之间的随机数
+	 * @return
+	 */
+	public boolean isNeedEarlyRefresh(long now, double beta, double random){
+		if (beta <= 0 || expireTimeLong <= 0){
+			return false;
+		}
+		return now - loadCostLong * beta * Math.log(random) >= expireTimeLong;
+	}
+	
+
+	public long getRefreshTimeLong() {
+		return refreshTimeLong;
+	}
+
+	public void setRefreshTimeLong(long refreshTimeLong) {
+		this.refreshTimeLong = refreshTimeLong;
+	}
+
+	public long getExpireTimeLong() {
+		return expireTimeLong;
+	}
+
+	public void setExpireTimeLong(long expireTimeLong) {
+		this.expireTimeLong = expireTimeLong;
+	}
+
+	public long getLoadCostLong() {
+		return loadCostLong;
+	}
+
+	public void setLoadCostLong(long loadCostLong) {
+		this.loadCostLong = loadCostLong;
+	}
+
+	public boolean isNullValue() {
+		return nullValue;
+	}
+
+	public void setNullValue(boolean nullValue) {
+		this.nullValue = nullValue;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
+	public int getRawLength() {
+		return rawLength;
+	}
+
+	public void setRawLength(int rawLength) {
+		this.rawLength = rawLength;
+	}
+
+	public ByteBuffer getCacheBuffer() {
+		return cacheBuffer;
+	}
+
+	public void setCacheBuffer(ByteBuffer cacheBuffer) {
+		this.cacheBuffer = cacheBuffer;
+	}
+
+	public Object getCacheObject() {
+		return cacheObject;
+	}
+
+	public void setCacheObject(Object cacheObject) {
+		this.cacheObject = cacheObject;
+	}
+}
@@ -14,5 +14,11 @@ public class CacheConstants {
 
 	public static final int	EXCEPTION_INITIAL_PARAM			=	1;				// 初始化时参数错误
 	public static final int	EXCEPTION_NOT_SUPPORT_METHOD	=	11;				// 不支持的操作
+	public static final int	EXCEPTION_KEY_EXPRESSION		=	21;				// key表达式错误
+	public static final int	EXCEPTION_CODEC_ENCODE			=	31;				// 缓存值编码(序列化)失败
+	public static final int	EXCEPTION_CODEC_DECODE			=	32;				// 缓存值解码(反序列化)失败
+	public static final int	EXCEPTION_CODEC_COPY			=	33;				// 缓存对象复制失败
+	public static final int	EXCEPTION_STORAGE_OPERATION		=	41;				// 存储实现的操作失败（如Redis出错、超时）
+	public static final int	EXCEPTION_STORAGE_RELOAD		=	42;				// 存储实现后台重新加载缓存值失败（如方法出错或者没有写入新值）
 	
 }
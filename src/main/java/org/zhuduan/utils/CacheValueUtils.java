@@ -0,0 +1,254 @@
+package org.zhuduan.utils;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.zhuduan.config.SimpleCacheConfig;
+import org.zhuduan.model.CacheValueModel;
+
+/***
+ *
+ * 用于处理缓存值的编码和解码的功能类
+ * 缓存值需要携带元信息（如：软过期时间、实际过期时间、加载耗时）或者被压缩时，会在编码后的值前面加上一个头部：
+ * 		\u0001 \u0004 + 标记(1字节) + 元信息个数(1字节) + 元信息(每个8字节) + [压缩前的长度(4字节)] + 编码后的值
+ * 标记中的FLAG_DEFLATE表示值使用Deflater压缩过，读取时先解压
+ * 没有元信息且没有压缩时直接保存编码后的值
+ * 方法返回null时（负缓存），保存一个固定的空值标记：\u0001\u0003
+ * 以\u0001开头但无法识别的头部当作未命中
+ *
+ * 注意：CacheCodec编码的结果不能以\u0001开头（fastJson和BinaryCacheCodec都不会），否则会和头部产生冲突
+ *
+ * @author	zhuhaifeng
+ * @date	2017年3月25日
+ *
+ */
+public class CacheValueUtils {
+
+	private static final byte	META_BEGIN		=	0x01;				// 元信息开始的标记
+	private static final byte	META_NULL		=	0x03;				// 空值的标记
+	private static final byte	META_BINARY		=	0x04;				// 二进制元信息的标记
+
+	private static final byte	FLAG_DEFLATE	=	0x01;				// 标记：值使用Deflater压缩
+
+	private static final int	META_COUNT		=	3;					// 当前版本写入的元信息个数
+
+	private static final int	META_HEADER_LENGTH	=	4;				// 头部固定部分的长度：开始标记 + 二进制标记 + 标记 + 个数
+
+	private static final int	DEFLATE_MAX_RATIO	=	1032;			// Deflater理论上的最大压缩比，头部中的长度超过时说明值已经损坏
+
+	public static final byte[]	NULL_VALUE		=	new byte[]{META_BEGIN, META_NULL};	// 缓存的空值（方法返回null）
+
+	// 每个线程复用Deflater/Inflater（创建时需要分配native内存）
+	private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>(){
+		@Override
+		protected Deflater initialValue(){
+			return new Deflater(Deflater.BEST_SPEED);
+		}
+	};
+
+	private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>(){
+		@Override
+		protected Inflater initialValue(){
+			return new Inflater();
+		}
+	};
+
+
+	/**
+	 *
+	 * 将编码后的值和元信息编码成实际存储的值
+	 *
+	 * @param valueModel
+	 * @param cacheBytes 编码后的值（valueModel.isCompressed()为true时是压缩后的值）
+	 * @return
+	 */
+	public static final byte[] wrap(final CacheValueModel valueModel, final byte[] cacheBytes){
+		final boolean hasMeta = valueModel.getRefreshTimeLong() > 0 || valueModel.getExpireTimeLong() > 0;
+		if (!hasMeta && !valueModel.isCompressed()){
+			return cacheBytes;
+		}
+		final int metaCount = hasMeta ? META_COUNT : 0;
+		final int rawLengthBytes = valueModel.isCompressed() ? 4 : 0;
+		ByteBuffer storeBuffer = ByteBuffer.allocate(META_HEADER_LENGTH + metaCount * 8 + rawLengthBytes + cacheBytes.length);
+		storeBuffer.put(META_BEGIN).put(META_BINARY)
+				   .put(valueModel.isCompressed() ? FLAG_DEFLATE : 0).put((byte) metaCount);
+		if (hasMeta){
+			storeBuffer.putLong(valueModel.getRefreshTimeLong())
+					   .putLong(valueModel.getExpireTimeLong())
+					   .putLong(valueModel.getLoadCostLong());
+		}
+		if (valueModel.isCompressed()){
+			storeBuffer.putInt(valueModel.getRawLength());
+		}
+		storeBuffer.put(cacheBytes);
+		return storeBuffer.array();
+	}
+
+
+	/**
+	 *
+	 * 使用Deflater压缩编码后的值
+	 *
+	 * @param rawBytes
+	 * @return 压缩后的值；压缩后没有变小时返回null（此时应该保存原值）
+	 */
+	public static final byte[] compress(final byte[] rawBytes){
+		if (rawBytes.length < 2){
+			return null;
+		}
+		final Deflater deflater = DEFLATER.get();
+		try {
+			deflater.setInput(rawBytes);
+			deflater.finish();
+			// 压缩后不小于原值时没有意义，最多只输出rawBytes.length - 1个字节
+			byte[] outputBytes = new byte[rawBytes.length - 1];
+			int length = 0;
+			while (!deflater.finished() && length < outputBytes.length){
+				length += deflater.deflate(outputBytes, length, outputBytes.length - length);
+			}
+			if (!deflater.finished()){
+				return null;
+			}
+			byte[] compressedBytes = new byte[length];
+			System.arraycopy(outputBytes, 0, compressedBytes, 0, length);
+			return compressedBytes;
+		} finally {
+			deflater.reset();
+		}
+	}
+
+
+	/**
+	 *
+	 * 将压缩过的值解压，解压后valueModel中的cacheBuffer指向解压后的值
+	 * 没有压缩过的值不做任何处理
+	 *
+	 * @param valueModel
+	 * @throws CacheException 值损坏无法解压时抛出
+	 */
+	public static final void decompress(final CacheValueModel valueModel) throws CacheException {
+		if (!valueModel.isCompressed()){
+			return;
+		}
+		final ByteBuffer compressedBuffer = valueModel.getCacheBuffer();
+		// 长度来自存储的头部：损坏或者外部写入的值不能导致分配过大的数组
+		final long maxRawLength = Math.min((long) compressedBuffer.remaining() * DEFLATE_MAX_RATIO, SimpleCacheConfig.DECOMPRESS_MAX_BYTES);
+		if (valueModel.getRawLength() < 0 || valueModel.getRawLength() > maxRawLength){
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "decompress failed for: bad length " + valueModel.getRawLength());
+		}
+		final Inflater inflater = INFLATER.get();
+		try {
+			if (compressedBuffer.hasArray()){
+				inflater.setInput(compressedBuffer.array(), compressedBuffer.arrayOffset() + compressedBuffer.position(), 
+								  compressedBuffer.remaining());
+			} else {
+				byte[] compressedBytes = new byte[compressedBuffer.remaining()];
+				compressedBuffer.duplicate().get(compressedBytes);
+				inflater.setInput(compressedBytes);
+			}
+			byte[] rawBytes = new byte[valueModel.getRawLength()];
+			int length = 0;
+			while (!inflater.finished() && length < rawBytes.length){
+				int inflated = inflater.inflate(rawBytes, length, rawBytes.length - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+					break;
+				}
+				length += inflated;
+			}
+			if (length != rawBytes.length || !inflater.finished()){
+				throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "decompress failed for: length mismatch");
+			}
+			valueModel.setCacheBuffer(ByteBuffer.wrap(rawBytes));
+			valueModel.setCompressed(false);
+		} catch (DataFormatException exception) {
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "decompress failed for: " + exception.getMessage());
+		} finally {
+			inflater.reset();
+		}
+	}
+
+
+	/**
+	 *
+	 * 将实际存储的值解码成编码后的值(不复制，直接指向storeBytes)和元信息
+	 * 无法识别的元信息会被忽略，缺少的元信息默认为0
+	 * 压缩过的值不会在这里解压，需要再调用decompress
+	 *
+	 * @param storeBytes
+	 * @return 头部无法识别时返回null（当作未命中）
+	 */
+	public static final CacheValueModel unwrap(final byte[] storeBytes){
+		return unwrap(ByteBuffer.wrap(storeBytes));
+	}
+
+
+	/**
+	 *
+	 * 将实际存储的值解码成编码后的值和元信息
+	 * 不复制，返回的cacheBuffer直接指向storeBuffer的内容（可以是只读的或者内存映射的buffer）
+	 *
+	 * @param storeBuffer 读取的范围是position到limit
+	 * @return 头部无法识别时返回null（当作未命中）
+	 */
+	public static final CacheValueModel unwrap(final ByteBuffer storeBuffer){
+		final ByteBuffer buffer = storeBuffer.slice();
+		final int length = buffer.remaining();
+		CacheValueModel valueModel = new CacheValueModel();
+		if (length < 2 || buffer.get(0) != META_BEGIN){
+			valueModel.setCacheBuffer(buffer);
+			return valueModel;
+		}
+		if (buffer.get(1) == META_NULL){
+			valueModel.setNullValue(true);
+			return valueModel;
+		}
+		if (buffer.get(1) == META_BINARY && length >= META_HEADER_LENGTH){
+			final boolean compressed = (buffer.get(2) & FLAG_DEFLATE) != 0;
+			final int metaCount = buffer.get(3) & 0xFF;
+			final int payloadOffset = META_HEADER_LENGTH + metaCount * 8 + (compressed ? 4 : 0);
+			if (payloadOffset <= length){
+				int metaOffset = META_HEADER_LENGTH;
+				for (int i=0; i<metaCount; i++){
+					setMetaField(valueModel, i, buffer.getLong(metaOffset));
+					metaOffset += 8;
+				}
+				if (compressed){
+					valueModel.setCompressed(true);
+					valueModel.setRawLength(buffer.getInt(metaOffset));
+				}
+				valueModel.setCacheBuffer(sliceFrom(buffer, payloadOffset));
+				return valueModel;
+			}
+		}
+		return null;
+	}
+
+
+	// 从offset开始到结尾的视图（buffer的position为0）
+	private static ByteBuffer sliceFrom(ByteBuffer buffer, int offset){
+		ByteBuffer payloadBuffer = buffer.duplicate();
+		payloadBuffer.position(offset);
+		return payloadBuffer.slice();
+	}
+
+
+	// 按位置设置元信息
+	private static void setMetaField(CacheValueModel valueModel, int fieldIndex, long fieldValue){
+		switch (fieldIndex) {
+			case 0:
+				valueModel.setRefreshTimeLong(fieldValue);
+				break;
+			case 1:
+				valueModel.setExpireTimeLong(fieldValue);
+				break;
+			case 2:
+				valueModel.setLoadCostLong(fieldValue);
+				break;
+			default:
+				// 更新版本写入的元信息，直接忽略
+				break;
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package org.zhuduan.utils;
 
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
 import com.alibaba.fastjson.serializer.JSONSerializer;
 import com.alibaba.fastjson.serializer.SerializeWriter;
 import com.alibaba.fastjson.serializer.SerializerFeature;
@@ -16,6 +19,9 @@ import com.alibaba.fastjson.serializer.SerializerFeature;
  *
  */
 public class SerializeUtils {
+	
+	private static final Charset	UTF_8	=	Charset.forName("UTF-8");
+	
 
 	/**
 	 * 
@@ -42,6 +48,18 @@ public class SerializeUtils {
 	}
 	
 	
+	/**
+	 * 
+	 * 将缓存数据序列化成UTF-8编码的byte[]
+	 * 
+	 * @param cacheObject
+	 * @return
+	 */
+	public static final byte[] serializeToBytes(final Object cacheObject){
+		return serialize(cacheObject).getBytes(UTF_8);
+	}
+	
+	
 	/**
 	 * 缓存数据反序列化
 	 * 
@@ -52,4 +70,30 @@ public class SerializeUtils {
 	public static final <T> T deserialize(String cacheValue, Class<T> clazz) {
         return com.alibaba.fastjson.JSON.parseObject(cacheValue, clazz);
     }	
+	
+	
+	/**
+	 * 缓存数据反序列化(带泛型信息, 如List<T>)
+	 * 
+	 * @param cacheValue
+	 * @param type
+	 * @return
+	 */
+	public static final <T> T deserialize(String cacheValue, Type type) {
+		return com.alibaba.fastjson.JSON.parseObject(cacheValue, type);
+	}
+	
+	
+	/**
+	 * UTF-8编码的缓存数据反序列化(带泛型信息, 如List<T>)
+	 * 
+	 * @param cacheBytes
+	 * @param offset
+	 * @param length
+	 * @param type
+	 * @return
+	 */
+	public static final <T> T deserialize(byte[] cacheBytes, int offset, int length, Type type) {
+		return com.alibaba.fastjson.JSON.parseObject(cacheBytes, offset, length, UTF_8, type);
+	}
 }
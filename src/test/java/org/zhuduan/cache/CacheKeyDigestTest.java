@@ -0,0 +1,85 @@
+package org.zhuduan.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+
+/***
+ *
+ * CacheKeyDigest的摘要：相等的Set/Map和迭代顺序无关，List等有序的Collection和顺序相关
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheKeyDigestTest {
+
+	@Test
+	public void testSetIsOrderIndependent() {
+		final Set<String> first = new LinkedHashSet<>(Arrays.asList("a", "b", "c"));
+		final Set<String> second = new LinkedHashSet<>(Arrays.asList("c", "a", "b"));
+		assertEquals(digest(first), digest(second));
+
+		// 同样的元素，HashSet扩容后的迭代顺序可能不同
+		final Set<Integer> small = new HashSet<>();
+		final Set<Integer> large = new HashSet<>(1024);
+		for (int i=0; i<100; i++) {
+			small.add(i * 31);
+			large.add(i * 31);
+		}
+		assertEquals(digest(small), digest(large));
+
+		assertNotEquals(digest(first), digest(new LinkedHashSet<>(Arrays.asList("a", "b", "d"))));
+		assertNotEquals(digest(first), digest(new LinkedHashSet<>(Arrays.asList("a", "b"))));
+	}
+
+
+	@Test
+	public void testMapIsOrderIndependent() {
+		final Map<String, Integer> first = new LinkedHashMap<>();
+		first.put("x", 1);
+		first.put("y", 2);
+		final Map<String, Integer> second = new TreeMap<>(Collections.<String>reverseOrder());
+		second.put("x", 1);
+		second.put("y", 2);
+		assertEquals(digest(first), digest(second));
+
+		// key和value交换、value不同时摘要不同
+		final Map<String, Integer> swapped = new LinkedHashMap<>();
+		swapped.put("x", 2);
+		swapped.put("y", 1);
+		assertNotEquals(digest(first), digest(swapped));
+
+		// 嵌套在List中的Map同样和顺序无关
+		assertEquals(digest(Arrays.asList(first, "z")), digest(Arrays.asList(second, "z")));
+	}
+
+
+	@Test
+	public void testOrderedCollections() {
+		assertNotEquals(digest(Arrays.asList("a", "b")), digest(Arrays.asList("b", "a")));
+		assertNotEquals(digest(new String[]{"a", "b"}), digest(new String[]{"b", "a"}));
+		// 元素相同的Set和List不冲突
+		assertNotEquals(digest(Arrays.asList("a", "b")), digest(new LinkedHashSet<>(Arrays.asList("a", "b"))));
+	}
+
+
+	private static HashCode digest(Object value) {
+		final Hasher hasher = CacheKeyDigest.newHasher();
+		CacheKeyDigest.putValue(hasher, value);
+		return hasher.hash();
+	}
+}
@@ -0,0 +1,138 @@
+package org.zhuduan.cache;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.zhuduan.cache.codec.BinaryCacheCodec;
+import org.zhuduan.cache.storage.CacheStorageService;
+import org.zhuduan.cache.storage.impl.local.CacheStorageServiceLocalImpl;
+import org.zhuduan.utils.Log4jUtil;
+
+/***
+ *
+ * 切面命中时每次调用的耗时和内存分配
+ * 		1.aspectHit：通过Spring AOP代理调用，命中本地缓存（包括key的生成、读取和解码）；directCall为不经过切面的调用
+ * 		2.perCallResolution：每次调用都重新解析注解、返回值类型、类名并拼接key（生成执行计划之前的做法）
+ * 		  planResolution：一次Map查找得到执行计划，再用线程复用的StringBuilder拼接key
+ * 		3.运行：mvn -B test-compile，然后
+ * 		  java -cp target/test-classes:target/classes:<依赖的classpath> org.zhuduan.cache.SimpleCacheAspectBenchmark -prof gc
+ * 		  （-prof gc输出每次调用分配的字节数gc.alloc.rate.norm）
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleCacheAspectBenchmark {
+
+	private final Object[]		args		=	{Long.valueOf(42L), "zh"};
+
+	private final ConcurrentHashMap<Method, CacheMethodPlan>	planMap	=	new ConcurrentHashMap<>();
+
+	private BenchmarkService	target;
+
+	private BenchmarkService	proxy;
+
+	private Method				method;
+
+
+	@Setup
+	public void setUp() throws Exception {
+		// 命中时的info日志会掩盖切面本身的开销
+		Log4jUtil.cacheLog.setLevel(Level.WARN);
+		final CacheStorageService storageService = CacheStorageServiceLocalImpl.getInstance();
+		final SimpleCacheAspect aspect = new SimpleCacheAspect(storageService);
+
+		// 使用JDK动态代理（Spring 4.1的cglib在新版本的JDK上需要额外的--add-opens参数）
+		target = new BenchmarkServiceImpl();
+		final AspectJProxyFactory proxyFactory = new AspectJProxyFactory(target);
+		proxyFactory.addAspect(aspect);
+		proxy = proxyFactory.getProxy();
+		proxy.find(42L, "zh");
+
+		method = BenchmarkService.class.getMethod("find", Long.class, String.class);
+		planMap.put(method, new CacheMethodPlan(method, BenchmarkServiceImpl.class, storageService, new BinaryCacheCodec(), 0));
+	}
+
+
+	@Benchmark
+	public Object aspectHit() {
+		return proxy.find(42L, "zh");
+	}
+
+
+	@Benchmark
+	public Object directCall() {
+		return target.find(42L, "zh");
+	}
+
+
+	@Benchmark
+	public void perCallResolution(Blackhole blackhole) {
+		final SimpleCache cacheAnnotation = method.getAnnotation(SimpleCache.class);
+		blackhole.consume(cacheAnnotation.expire());
+		blackhole.consume(method.getReturnType());
+		final StringBuilder builder = new StringBuilder();
+		builder.append("cache.").append(target.getClass().getSimpleName()).append('_').append(method.getName());
+		for (Object arg : args) {
+			if (arg != null) {
+				builder.append('_').append(arg.toString());
+			}
+		}
+		blackhole.consume(builder.toString());
+	}
+
+
+	@Benchmark
+	public void planResolution(Blackhole blackhole) {
+		final CacheMethodPlan plan = planMap.get(method);
+		blackhole.consume(plan.getExpire());
+		blackhole.consume(plan.getReturnType());
+		blackhole.consume(plan.generateCacheKey(BenchmarkServiceImpl.class, args));
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).include(SimpleCacheAspectBenchmark.class.getSimpleName()).build()).run();
+	}
+
+
+	public interface BenchmarkService {
+
+		@SimpleCache(expire=3600)
+		String find(Long id, String lang);
+	}
+
+
+	public static class BenchmarkServiceImpl implements BenchmarkService {
+
+		@Override
+		@SimpleCache(expire=3600)
+		public String find(Long id, String lang) {
+			return lang + "-" + id;
+		}
+	}
+}
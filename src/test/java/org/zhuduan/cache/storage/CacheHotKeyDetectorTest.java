@@ -0,0 +1,94 @@
+package org.zhuduan.cache.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/***
+ *
+ * CacheHotKeyDetector的Space-Saving准入和窗口切换时的减半
+ * 		窗口为1分钟，测试中直接调用rotate切换窗口
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheHotKeyDetectorTest {
+
+	private static final long	WINDOW_MILLIS	=	60000L;
+
+
+	@Test
+	public void testSpaceSavingReplacesMinimumKey() {
+		final CacheHotKeyDetector detector = new CacheHotKeyDetector(1024, 2, 1000, WINDOW_MILLIS);
+		record(detector, "a", 5);
+		record(detector, "b", 3);
+		assertEquals(keysOf(detector.getHotKeys()), set("a", "b"));
+
+		// 估计值没有超过top-K中的最小计数（b的3次）时不准入
+		record(detector, "c", 3);
+		assertEquals(keysOf(detector.getHotKeys()), set("a", "b"));
+
+		// 超过之后替换计数最小的b
+		record(detector, "c", 1);
+		final List<CacheHotKeyDetector.HotKey> hotKeys = detector.getHotKeys();
+		assertEquals(keysOf(hotKeys), set("a", "c"));
+		for (CacheHotKeyDetector.HotKey hotKey : hotKeys) {
+			assertEquals(hotKey.getKey().equals("a") ? 5 : 4, hotKey.getCount());
+		}
+	}
+
+
+	@Test
+	public void testRotateHalvesCountsAndExpiresHotState() {
+		final CacheHotKeyDetector detector = new CacheHotKeyDetector(1024, 4, 4, WINDOW_MILLIS);
+		record(detector, "k", 10);
+		assertTrue(detector.isHot("k"));
+
+		// 新的窗口：计数减半，上一个窗口达到阈值的热点状态保持一个窗口
+		final long now = System.currentTimeMillis() + WINDOW_MILLIS;
+		detector.rotate(now);
+		assertTrue(detector.isHot("k"));
+		assertEquals(0, detector.getHotKeys().get(0).getCount());
+
+		// 减半后的sketch估计值为5+1，当前窗口只计入新增的1次
+		record(detector, "k", 1);
+		assertEquals(1, detector.getHotKeys().get(0).getCount());
+		assertTrue(detector.getHotKeys().get(0).getRate() > 0.0D);
+
+		// 下一个窗口没有达到阈值，不再是热点
+		detector.rotate(now + WINDOW_MILLIS);
+		assertFalse(detector.isHot("k"));
+	}
+
+
+	private static void record(CacheHotKeyDetector detector, String cacheKey, int times) {
+		for (int i=0; i<times; i++) {
+			detector.record(cacheKey);
+		}
+	}
+
+
+	private static Set<String> keysOf(List<CacheHotKeyDetector.HotKey> hotKeys) {
+		final Set<String> keys = new HashSet<>();
+		for (CacheHotKeyDetector.HotKey hotKey : hotKeys) {
+			keys.add(hotKey.getKey());
+		}
+		return keys;
+	}
+
+
+	private static Set<String> set(String... keys) {
+		final Set<String> set = new HashSet<>();
+		for (String key : keys) {
+			set.add(key);
+		}
+		return set;
+	}
+}
@@ -0,0 +1,173 @@
+package org.zhuduan.cache.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/***
+ *
+ * CacheTimerWheel的分层调度：高层格子降级到低层、重新调度、已经过期的元素和取消
+ * 		开始时间对齐到所有层的格子边界，按固定的步长推进，记录每个元素被处理的时间
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheTimerWheelTest {
+
+	private static final long	START		=	1L << 32;
+
+	private static final long	PRECISION	=	1L << 10;			// 第0层一个格子的毫秒数
+
+
+	@Test
+	public void testCascadeFromHigherWheels() {
+		final CacheTimerWheel<String> timerWheel = new CacheTimerWheel<>(START);
+		final RecordingListener listener = new RecordingListener();
+		final long[] delays = {
+			3 * 1000L,						// 第0层
+			3 * 60 * 1000L,					// 第1层
+			2 * 60 * 60 * 1000L,			// 第2层
+			24 * 60 * 60 * 1000L,			// 第3层
+			7 * 24 * 60 * 60 * 1000L		// 第4层
+		};
+		for (long delay : delays) {
+			timerWheel.schedule("key-" + delay, START + delay);
+		}
+		assertEquals(delays.length, timerWheel.size());
+
+		// 每次推进1秒：每个元素都不早于过期时间、并且在第0层的精度内被处理，只处理一次
+		final long end = START + delays[delays.length - 1] + 2 * PRECISION;
+		for (long now = START + 1000L; now <= end; now += 1000L) {
+			timerWheel.advance(now, listener);
+		}
+		for (long delay : delays) {
+			final Long expiredAt = listener.expiredAt.get("key-" + delay);
+			assertTrue("delay: " + delay, expiredAt != null && expiredAt >= START + delay && expiredAt <= START + delay + PRECISION + 1000L);
+		}
+		assertEquals(delays.length, listener.count);
+		assertEquals(0L, timerWheel.size());
+	}
+
+
+	@Test
+	public void testReschedule() {
+		final CacheTimerWheel<String> timerWheel = new CacheTimerWheel<>(START);
+		final RecordingListener listener = new RecordingListener();
+		final CacheTimerWheel.Timer<String> later = timerWheel.schedule("later", START + 10000L);
+		final CacheTimerWheel.Timer<String> earlier = timerWheel.schedule("earlier", START + 60 * 60 * 1000L);
+
+		// 从第0层延后到第1层，从第2层提前到第0层
+		timerWheel.reschedule(later, START + 100000L);
+		timerWheel.reschedule(earlier, START + 5000L);
+		assertEquals(2L, timerWheel.size());
+
+		advance(timerWheel, listener, START + 20000L);
+		assertNull(listener.expiredAt.get("later"));
+		assertTrue(listener.expiredAt.get("earlier") >= START + 5000L);
+
+		advance(timerWheel, listener, START + 100000L + PRECISION);
+		assertTrue(listener.expiredAt.get("later") >= START + 100000L);
+		assertEquals(2, listener.count);
+
+		// 已经处理过的元素不再调度
+		timerWheel.reschedule(later, START + 200000L);
+		advance(timerWheel, listener, START + 300000L);
+		assertEquals(2, listener.count);
+		assertEquals(0L, timerWheel.size());
+	}
+
+
+	@Test
+	public void testListenerExtendsExpireTime() {
+		final CacheTimerWheel<String> timerWheel = new CacheTimerWheel<>(START);
+		final RecordingListener listener = new RecordingListener();
+		timerWheel.schedule("k", START + 2000L);
+		// 到期时返回新的过期时间：重新调度，之后再处理
+		listener.extendTo.put("k", START + 80000L);
+
+		advance(timerWheel, listener, START + 10000L);
+		assertEquals(0, listener.count);
+		assertEquals(1L, timerWheel.size());
+
+		advance(timerWheel, listener, START + 80000L + PRECISION);
+		assertEquals(1, listener.count);
+		assertTrue(listener.expiredAt.get("k") >= START + 80000L);
+	}
+
+
+	@Test
+	public void testDeadlineInThePast() {
+		final CacheTimerWheel<String> timerWheel = new CacheTimerWheel<>(START);
+		final RecordingListener listener = new RecordingListener();
+		timerWheel.schedule("past", START - 5000L);
+
+		// 放入当前的格子：同一个格子内推进不处理，走过这个格子时处理
+		assertEquals(0, timerWheel.advance(START + 1L, listener));
+		assertEquals(1, timerWheel.advance(START + PRECISION, listener));
+		assertEquals(Long.valueOf(START + PRECISION), listener.expiredAt.get("past"));
+		assertEquals(0L, timerWheel.size());
+	}
+
+
+	@Test
+	public void testCancelBeforeExpire() {
+		final CacheTimerWheel<String> timerWheel = new CacheTimerWheel<>(START);
+		final RecordingListener listener = new RecordingListener();
+		final CacheTimerWheel.Timer<String> cancelled = timerWheel.schedule("cancelled", START + 3 * 60 * 1000L);
+		timerWheel.schedule("kept", START + 3 * 60 * 1000L);
+
+		timerWheel.cancel(cancelled);
+		timerWheel.cancel(cancelled);
+		timerWheel.cancel(null);
+		assertEquals(1L, timerWheel.size());
+
+		advance(timerWheel, listener, START + 4 * 60 * 1000L);
+		assertEquals(1, listener.count);
+		assertNull(listener.expiredAt.get("cancelled"));
+		assertTrue(listener.expiredAt.containsKey("kept"));
+		assertEquals(0L, timerWheel.size());
+	}
+
+
+	// 从上一次推进到的时间开始，每次推进1秒到end
+	private static void advance(CacheTimerWheel<String> timerWheel, RecordingListener listener, long end) {
+		while (listener.time < end) {
+			listener.time = Math.min(listener.time + 1000L, end);
+			timerWheel.advance(listener.time, listener);
+		}
+	}
+
+
+	/***
+	 *
+	 * 记录每个元素被处理为过期的时间，extendTo中的元素第一次到期时延长过期时间
+	 *
+	 */
+	private static class RecordingListener implements CacheTimerWheel.ExpireListener<String> {
+
+		private final Map<String, Long>	expiredAt	=	new HashMap<>();
+
+		private final Map<String, Long>	extendTo	=	new HashMap<>();
+
+		private int						count;
+
+		private long					time		=	START;		// 上一次推进到的时间
+
+		@Override
+		public long onExpire(String key, long now) {
+			final Long extendTime = extendTo.remove(key);
+			if (extendTime != null) {
+				return extendTime;
+			}
+			assertNull("expired twice: " + key, expiredAt.put(key, now));
+			count++;
+			return now;
+		}
+	}
+}
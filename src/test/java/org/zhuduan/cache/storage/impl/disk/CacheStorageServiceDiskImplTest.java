@@ -0,0 +1,183 @@
+package org.zhuduan.cache.storage.impl.disk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.zhuduan.utils.CacheException;
+
+/***
+ *
+ * CacheStorageServiceDiskImpl的重启恢复、删除标记和整理
+ * 		每个数据文件4KB，方便写几条数据就切换到新的文件
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheStorageServiceDiskImplTest {
+
+	private static final int	SEGMENT_BYTES	=	4096;
+
+	private static final long	CAPACITY_BYTES	=	1024 * 1024L;
+
+	private static final int	EXPIRE_SECONDS	=	3600;
+
+	@Rule
+	public final TemporaryFolder	temporaryFolder	=	new TemporaryFolder();
+
+	private File						directory;
+
+	private CacheStorageServiceDiskImpl	diskImpl;
+
+
+	@Before
+	public void setUp() throws CacheException {
+		directory = temporaryFolder.getRoot();
+		diskImpl = open();
+	}
+
+
+	@After
+	public void tearDown() {
+		diskImpl.close();
+	}
+
+
+	@Test
+	public void testDataSurvivesReopen() throws CacheException {
+		assertTrue(diskImpl.setCacheBytes("k1", value(1, 100), EXPIRE_SECONDS));
+		assertTrue(diskImpl.setCacheBytes("k2", value(2, 100), EXPIRE_SECONDS));
+		assertTrue(diskImpl.setCacheBytes("k2", value(3, 200), EXPIRE_SECONDS));
+		// 写满切换文件之后的数据也能恢复
+		for (int i=0; i<40; i++) {
+			assertTrue(diskImpl.setCacheBytes("filler-" + i, value(i, 100), EXPIRE_SECONDS));
+		}
+		assertTrue(diskImpl.getSegmentCount() > 1);
+
+		reopen();
+		assertArrayEquals(value(1, 100), diskImpl.getCacheBytes("k1"));
+		assertArrayEquals(value(3, 200), diskImpl.getCacheBytes("k2"));
+		assertArrayEquals(value(39, 100), diskImpl.getCacheBytes("filler-39"));
+		assertEquals(42L, diskImpl.getSize());
+
+		// 恢复后继续写入最新的文件
+		assertTrue(diskImpl.setCacheBytes("k3", value(4, 100), EXPIRE_SECONDS));
+		reopen();
+		assertArrayEquals(value(4, 100), diskImpl.getCacheBytes("k3"));
+	}
+
+
+	@Test
+	public void testDeleteSurvivesReopen() throws CacheException {
+		assertTrue(diskImpl.setCacheBytes("deleted", value(1, 100), EXPIRE_SECONDS));
+		assertTrue(diskImpl.setCacheBytes("kept", value(2, 100), EXPIRE_SECONDS));
+		assertTrue(diskImpl.deleteCache("deleted"));
+		assertNull(diskImpl.getCacheBytes("deleted"));
+
+		// 删除标记在重启后仍然生效
+		reopen();
+		assertNull(diskImpl.getCacheBytes("deleted"));
+		assertFalse(diskImpl.isCacheKeyExists("deleted"));
+		assertArrayEquals(value(2, 100), diskImpl.getCacheBytes("kept"));
+	}
+
+
+	@Test
+	public void testWritesFailAfterClose() {
+		diskImpl.close();
+		assertFalse(diskImpl.setCacheBytes("k", value(1, 10), EXPIRE_SECONDS));
+		assertFalse(diskImpl.deleteCache("k"));
+	}
+
+
+	@Test
+	public void testCompactDropsExpiredAndKeepsLive() {
+		final long now = System.currentTimeMillis();
+		fillFirstSegment();
+		final File firstSegmentFile = new File(directory, CacheDiskSegment.fileName(0L));
+		assertTrue(firstSegmentFile.exists());
+
+		// 2秒之后整理：过期的key被删除，有效的key复制到最新的文件，旧文件被删除
+		assertEquals(1, diskImpl.compact(now + 2000L));
+		assertEquals(1L, diskImpl.getCompactionCount());
+		assertEquals(1L, diskImpl.getExpiredCount());
+		assertFalse(firstSegmentFile.exists());
+		assertArrayEquals(value(1, 500), diskImpl.getCacheBytes("live"));
+		assertArrayEquals(value(9, 500), diskImpl.getCacheBytes("filler"));
+		assertEquals(2L, diskImpl.getSize());
+	}
+
+
+	@Test
+	public void testReadBufferOfCompactedSegment() {
+		fillFirstSegment();
+		final ByteBuffer liveBuffer = diskImpl.getCacheBuffer("live");
+
+		// 文件被整理删除后，之前读取到的buffer仍然可以使用，之后的读取指向新的文件
+		assertEquals(1, diskImpl.compact(System.currentTimeMillis() + 2000L));
+		assertFalse(new File(directory, CacheDiskSegment.fileName(0L)).exists());
+		final byte[] liveBytes = new byte[liveBuffer.remaining()];
+		liveBuffer.get(liveBytes);
+		assertArrayEquals(value(1, 500), liveBytes);
+		assertArrayEquals(value(1, 500), diskImpl.getCacheBytes("live"));
+	}
+
+
+	@Test
+	public void testDirectoryCanNotBeOpenedTwice() throws CacheException {
+		assertTrue(diskImpl.setCacheBytes("k", value(1, 100), EXPIRE_SECONDS));
+		try {
+			open();
+			fail("directory is in use");
+		} catch (CacheException exception) {
+			assertTrue(exception.getMessage(), exception.getMessage().contains("directory is in use"));
+		}
+
+		// 打开失败不影响已经打开的实例，关闭之后可以重新打开
+		assertArrayEquals(value(1, 100), diskImpl.getCacheBytes("k"));
+		reopen();
+		assertArrayEquals(value(1, 100), diskImpl.getCacheBytes("k"));
+	}
+
+
+	// 第一个文件：live(1小时)、expired(1秒)和多次覆盖的filler，有效数据不到一半；最后一次filler写入第二个文件
+	private void fillFirstSegment() {
+		assertTrue(diskImpl.setCacheBytes("live", value(1, 500), EXPIRE_SECONDS));
+		assertTrue(diskImpl.setCacheBytes("expired", value(2, 500), 1));
+		for (int i=3; i<=9; i++) {
+			assertTrue(diskImpl.setCacheBytes("filler", value(i, 500), EXPIRE_SECONDS));
+		}
+		assertEquals(2, diskImpl.getSegmentCount());
+	}
+
+
+	private CacheStorageServiceDiskImpl open() throws CacheException {
+		return new CacheStorageServiceDiskImpl(directory, CAPACITY_BYTES, SEGMENT_BYTES);
+	}
+
+
+	private void reopen() throws CacheException {
+		diskImpl.close();
+		diskImpl = open();
+	}
+
+
+	private static byte[] value(int i, int length) {
+		final byte[] value = new byte[length];
+		Arrays.fill(value, (byte) i);
+		return value;
+	}
+}
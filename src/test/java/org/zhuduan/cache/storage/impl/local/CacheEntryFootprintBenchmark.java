@@ -0,0 +1,168 @@
+package org.zhuduan.cache.storage.impl.local;
+
+import java.lang.ref.SoftReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.zhuduan.cache.storage.impl.guava.CacheStorageServiceExpireGuavaImpl;
+import org.zhuduan.cache.storage.impl.guava.CacheStorageServiceOriginGuavaImpl;
+import org.zhuduan.config.OriginGuavaConfig;
+import org.zhuduan.utils.CacheException;
+import org.zhuduan.utils.Log4jUtil;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/***
+ *
+ * 本地缓存每个元素占用的内存字节数：原来的SoftReference<CacheInfoModel>布局和现在的实现对比
+ * 		1.legacyLocal/legacyExpireGuava/legacyOriginGuava按原来的方式构造（ConcurrentHashMap或者softValues的Guava，值包装成CacheInfoModel）
+ * 		  local/expireGuava/originGuava为现在的CacheLocalEngine、CacheStorageServiceExpireGuavaImpl和CacheStorageServiceOriginGuavaImpl
+ * 		2.key和value提前创建并一直被数组引用，两次Full GC之后的堆大小差值除以个数，就是每个元素在key和value之外的开销
+ * 		3.内存占用不是JMH擅长的指标，所以直接用main运行：mvn -B test-compile，然后
+ * 		  java -cp target/test-classes:target/classes:<依赖的classpath> org.zhuduan.cache.storage.impl.local.CacheEntryFootprintBenchmark [元素个数]
+ * 		  （结果和JVM的参数有关，如-XX:-UseCompressedOops时指针为8字节）
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheEntryFootprintBenchmark {
+
+	private static final int	DEFAULT_ENTRY_NUM	=	1000000;		// 默认的元素个数
+
+	private static final int	VALUE_BYTES			=	16;				// 每个value的字节数
+
+	private static final int	EXPIRE_SECONDS		=	3600;
+
+
+	public static void main(String[] args) throws Exception {
+		// 写入时的info日志不是这里要测量的内容
+		Log4jUtil.svcLog.setLevel(Level.WARN);
+		final int entryNum = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRY_NUM;
+		final String[] keys = new String[entryNum];
+		final byte[][] values = new byte[entryNum][];
+		for (int i=0; i<entryNum; i++) {
+			keys[i] = "cache.FootprintService_find_" + i;
+			values[i] = new byte[VALUE_BYTES];
+		}
+
+		System.out.println("entries: " + entryNum + ", bytes per entry (excluding key and value):");
+		measureLegacyLocal(keys, values);
+		measureLegacyExpireGuava(keys, values);
+		measureLegacyOriginGuava(keys, values);
+		measureLocal(keys, values);
+		measureExpireGuava(keys, values);
+		measureOriginGuava(keys, values);
+	}
+
+
+	@SuppressWarnings("deprecation")
+	private static void measureLegacyLocal(String[] keys, byte[][] values) {
+		final long before = usedHeap();
+		final ConcurrentHashMap<String, SoftReference<org.zhuduan.model.CacheInfoModel>> cacheMap = new ConcurrentHashMap<>();
+		for (int i=0; i<keys.length; i++) {
+			cacheMap.put(keys[i], new SoftReference<org.zhuduan.model.CacheInfoModel>(newInfoModel(values[i])));
+		}
+		report("legacyLocal", before, keys.length, cacheMap);
+	}
+
+
+	@SuppressWarnings("deprecation")
+	private static void measureLegacyExpireGuava(String[] keys, byte[][] values) {
+		final long before = usedHeap();
+		final Cache<String, org.zhuduan.model.CacheInfoModel> guavaCache = CacheBuilder.newBuilder()
+				.maximumSize(keys.length)
+				.softValues()
+				.build();
+		for (int i=0; i<keys.length; i++) {
+			guavaCache.put(keys[i], newInfoModel(values[i]));
+		}
+		report("legacyExpireGuava", before, keys.length, guavaCache);
+	}
+
+
+	private static void measureLegacyOriginGuava(String[] keys, byte[][] values) {
+		final long before = usedHeap();
+		final Cache<String, Object> guavaCache = CacheBuilder.newBuilder()
+				.maximumSize(keys.length)
+				.expireAfterAccess(EXPIRE_SECONDS, TimeUnit.SECONDS)
+				.expireAfterWrite(EXPIRE_SECONDS, TimeUnit.SECONDS)
+				.softValues()
+				.build();
+		for (int i=0; i<keys.length; i++) {
+			guavaCache.put(keys[i], values[i]);
+		}
+		report("legacyOriginGuava", before, keys.length, guavaCache);
+	}
+
+
+	private static void measureLocal(String[] keys, byte[][] values) {
+		final long before = usedHeap();
+		final CacheLocalEngine engine = new CacheLocalEngine(keys.length, Long.MAX_VALUE / 2);
+		final long expireTime = System.currentTimeMillis() + EXPIRE_SECONDS*1000L;
+		for (int i=0; i<keys.length; i++) {
+			engine.put(keys[i], values[i], expireTime, VALUE_BYTES);
+		}
+		engine.cleanUp();
+		report("local", before, keys.length, engine);
+	}
+
+
+	private static void measureExpireGuava(String[] keys, byte[][] values) {
+		final long before = usedHeap();
+		final CacheStorageServiceExpireGuavaImpl storageService = new CacheStorageServiceExpireGuavaImpl(Long.MAX_VALUE / 2);
+		for (int i=0; i<keys.length; i++) {
+			storageService.setCacheBytes(keys[i], values[i], EXPIRE_SECONDS);
+		}
+		report("expireGuava", before, keys.length, storageService);
+		storageService.close();
+	}
+
+
+	private static void measureOriginGuava(String[] keys, byte[][] values) throws CacheException {
+		final OriginGuavaConfig config = new OriginGuavaConfig(keys.length, EXPIRE_SECONDS, EXPIRE_SECONDS, 0L);
+		final long before = usedHeap();
+		final CacheStorageServiceOriginGuavaImpl storageService = CacheStorageServiceOriginGuavaImpl.getInstance(config);
+		for (int i=0; i<keys.length; i++) {
+			storageService.setCacheBytes(keys[i], values[i], EXPIRE_SECONDS);
+		}
+		report("originGuava", before, keys.length, storageService);
+	}
+
+
+	@SuppressWarnings("deprecation")
+	private static org.zhuduan.model.CacheInfoModel newInfoModel(byte[] value) {
+		final org.zhuduan.model.CacheInfoModel cacheInfoModel = new org.zhuduan.model.CacheInfoModel();
+		cacheInfoModel.setCacheBytes(value);
+		cacheInfoModel.setCacheExpireTimeLong(EXPIRE_SECONDS*1000L);
+		cacheInfoModel.setCacheBeginTimeLong(System.currentTimeMillis());
+		return cacheInfoModel;
+	}
+
+
+	// reachable保证测量时被测的结构还没有被回收
+	private static void report(String name, long before, int entryNum, Object reachable) {
+		final long after = usedHeap();
+		System.out.println(String.format("  %-20s %6d", name, (after - before) / entryNum));
+		if (reachable.hashCode() == 0) {
+			System.out.println("  " + name + " unexpected hashCode");
+		}
+	}
+
+
+	private static long usedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i=0; i<2; i++) {
+			System.gc();
+			try {
+				Thread.sleep(100L);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
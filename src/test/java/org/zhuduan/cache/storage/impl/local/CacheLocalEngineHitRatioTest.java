@@ -0,0 +1,124 @@
+package org.zhuduan.cache.storage.impl.local;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/***
+ *
+ * Zipf分布的访问下，CacheLocalEngine(W-TinyLFU)和LRU（LinkedHashMap的访问顺序）的命中率对比
+ * 		1.KEY_NUM个key按Zipf分布访问（第i热的key的概率正比于1/i^s），缓存容量为CACHE_SIZE，未命中时写入
+ * 		2.前WARMUP_NUM次访问用于预热，不计入命中率；随机数使用固定的种子，结果可以重复
+ * 		3.W-TinyLFU的命中率比LRU高出10个百分点左右，这里只要求高出5个百分点（准入时有少量随机）
+ * 		4.zipfWithScan在Zipf访问中穿插只访问一次的key（扫描），LRU会被冲掉热点，W-TinyLFU不准入这些key
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheLocalEngineHitRatioTest {
+
+	private static final int	KEY_NUM			=	100000;
+
+	private static final int	CACHE_SIZE		=	1000;
+
+	private static final int	WARMUP_NUM		=	100000;
+
+	private static final int	REQUEST_NUM		=	500000;
+
+	private static final double	ZIPF_EXPONENT	=	0.9;
+
+	private static final long	EXPIRE_TIME		=	Long.MAX_VALUE;		// 不过期
+
+
+	@Test
+	public void testZipfHitRatio() {
+		final String[] trace = zipfTrace(WARMUP_NUM + REQUEST_NUM, 0, 20170523L);
+		final double tinyLfuRatio = tinyLfuHitRatio(trace);
+		final double lruRatio = lruHitRatio(trace);
+		assertTrue("tinyLfu: " + tinyLfuRatio + ", lru: " + lruRatio, tinyLfuRatio > lruRatio + 0.05D);
+	}
+
+
+	@Test
+	public void testZipfWithScanHitRatio() {
+		// 每4次访问有1次是只访问一次的key
+		final String[] trace = zipfTrace(WARMUP_NUM + REQUEST_NUM, 4, 20170524L);
+		final double tinyLfuRatio = tinyLfuHitRatio(trace);
+		final double lruRatio = lruHitRatio(trace);
+		assertTrue("tinyLfu: " + tinyLfuRatio + ", lru: " + lruRatio, tinyLfuRatio > lruRatio + 0.05D);
+	}
+
+
+	private static double tinyLfuHitRatio(String[] trace) {
+		final CacheLocalEngine engine = new CacheLocalEngine(CACHE_SIZE, Long.MAX_VALUE / 2);
+		long hits = 0;
+		for (int i=0; i<trace.length; i++) {
+			if (engine.get(trace[i], 0L) != null) {
+				hits += (i >= WARMUP_NUM) ? 1 : 0;
+			} else {
+				engine.put(trace[i], "v", EXPIRE_TIME, 1);
+			}
+		}
+		engine.cleanUp();
+		assertTrue(engine.size() <= CACHE_SIZE);
+		return (double) hits / (trace.length - WARMUP_NUM);
+	}
+
+
+	private static double lruHitRatio(String[] trace) {
+		final Map<String, String> lruMap = new LinkedHashMap<String, String>(CACHE_SIZE * 2, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+		long hits = 0;
+		for (int i=0; i<trace.length; i++) {
+			if (lruMap.get(trace[i]) != null) {
+				hits += (i >= WARMUP_NUM) ? 1 : 0;
+			} else {
+				lruMap.put(trace[i], "v");
+			}
+		}
+		return (double) hits / (trace.length - WARMUP_NUM);
+	}
+
+
+	/***
+	 * 生成Zipf分布的访问序列
+	 *
+	 * @param length 访问次数
+	 * @param scanInterval 大于0时每scanInterval次访问中有1次是只访问一次的key
+	 * @param seed 随机数种子
+	 * @return
+	 */
+	private static String[] zipfTrace(int length, int scanInterval, long seed) {
+		// 累积分布，按二分查找把均匀分布的随机数映射为key的排名
+		final double[] cumulative = new double[KEY_NUM];
+		double sum = 0.0D;
+		for (int i=0; i<KEY_NUM; i++) {
+			sum += 1.0D / Math.pow(i + 1, ZIPF_EXPONENT);
+			cumulative[i] = sum;
+		}
+
+		final Random random = new Random(seed);
+		final String[] trace = new String[length];
+		for (int i=0; i<length; i++) {
+			if (scanInterval > 0 && i % scanInterval == 0) {
+				trace[i] = "scan-" + i;
+				continue;
+			}
+			final int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+			trace[i] = "key-" + (index >= 0 ? index : -index - 1);
+		}
+		return trace;
+	}
+}
@@ -0,0 +1,135 @@
+package org.zhuduan.cache.storage.impl.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/***
+ *
+ * CacheLocalEngine的W-TinyLFU准入和淘汰顺序
+ * 		maximumSize为100时window为1个，新写入的key从window淘汰后作为候选者，和probation中最久未访问的key比较频率
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheLocalEngineTest {
+
+	private static final long	EXPIRE_TIME		=	Long.MAX_VALUE;		// 不过期
+
+	private static final long	NO_WEIGHT_LIMIT	=	Long.MAX_VALUE / 2;
+
+
+	@Test
+	public void testCandidateNeedsHigherFrequency() {
+		final CacheLocalEngine engine = new CacheLocalEngine(100L, NO_WEIGHT_LIMIT);
+		for (int i=0; i<100; i++) {
+			engine.put("key-" + i, "v", EXPIRE_TIME, 1);
+		}
+		engine.cleanUp();
+		assertEquals(100L, engine.size());
+		assertEquals(0L, engine.getEvictionCount());
+
+		// 频率相同：候选者（从window淘汰的key-99）不被准入，probation中最久未访问的key-0留下
+		engine.put("once", "v", EXPIRE_TIME, 1);
+		engine.cleanUp();
+		assertFalse(engine.containsKey("key-99"));
+		assertTrue(engine.containsKey("key-0"));
+		assertTrue(engine.containsKey("once"));
+
+		// 候选者在window期间被多次访问：频率更高，淘汰probation中最久未访问的key-0
+		for (int i=0; i<5; i++) {
+			engine.get("once", 0L);
+		}
+		engine.put("next", "v", EXPIRE_TIME, 1);
+		engine.cleanUp();
+		assertFalse(engine.containsKey("key-0"));
+		assertTrue(engine.containsKey("once"));
+		assertTrue(engine.containsKey("key-1"));
+		assertEquals(2L, engine.getEvictionCount());
+		assertEquals(100L, engine.size());
+	}
+
+
+	@Test
+	public void testScanDoesNotFlushHotKeys() {
+		final CacheLocalEngine engine = new CacheLocalEngine(100L, NO_WEIGHT_LIMIT);
+		for (int i=0; i<90; i++) {
+			engine.put("hot-" + i, "v", EXPIRE_TIME, 1);
+		}
+		for (int round=0; round<3; round++) {
+			for (int i=0; i<90; i++) {
+				engine.get("hot-" + i, 0L);
+			}
+			engine.cleanUp();
+		}
+
+		// 大量只访问一次的key（扫描）
+		for (int i=0; i<1000; i++) {
+			engine.put("scan-" + i, "v", EXPIRE_TIME, 1);
+		}
+		engine.cleanUp();
+
+		int hotCount = 0;
+		for (int i=0; i<90; i++) {
+			hotCount += engine.containsKey("hot-" + i) ? 1 : 0;
+		}
+		// CacheFrequencySketch是估算值，hash冲突时个别扫描的key会被准入；纯LRU时热点key会全部被冲掉
+		assertTrue("hotCount: " + hotCount, hotCount >= 80);
+		assertTrue(engine.size() <= 100L);
+	}
+
+
+	@Test
+	public void testWeightLimit() {
+		final CacheLocalEngine engine = new CacheLocalEngine(1000L, 10000L);
+		for (int i=0; i<50; i++) {
+			engine.put("key-" + i, new byte[1000], EXPIRE_TIME, 1000);
+		}
+		engine.cleanUp();
+		assertTrue(engine.getWeightedSize() <= 10000L);
+		assertTrue(engine.size() <= 10L);
+		assertTrue(engine.getEvictionCount() >= 40L);
+	}
+
+
+	@Test
+	public void testUpdateReplacesValueExpireAndWeight() {
+		final CacheLocalEngine engine = new CacheLocalEngine(100L, NO_WEIGHT_LIMIT);
+		final long now = System.currentTimeMillis();
+		engine.put("k", "v1", now + 1000L, 10);
+		engine.cleanUp();
+		assertEquals(10L, engine.getWeightedSize());
+
+		// 更新后值、过期时间和字节数一起生效，旧的过期时间不会删除新写入的值
+		engine.put("k", "v2", now + 5000L, 30);
+		engine.cleanUp();
+		assertEquals(30L, engine.getWeightedSize());
+		assertEquals(0, engine.expire(now + 2000L));
+		assertEquals("v2", engine.get("k", now + 2000L));
+
+		assertEquals(1, engine.expire(now + 6000L));
+		assertFalse(engine.containsKey("k"));
+		assertEquals(0L, engine.getWeightedSize());
+	}
+
+
+	@Test
+	public void testUpdateBeforeAddIsProcessed() {
+		final CacheLocalEngine engine = new CacheLocalEngine(100L, NO_WEIGHT_LIMIT);
+		// 写入和更新都还在写队列中时，按顺序处理后只计入最新的Node
+		engine.put("k", "v1", EXPIRE_TIME, 10, false);
+		engine.put("k", "v2", EXPIRE_TIME, 20, false);
+		engine.remove("other", false);
+		engine.cleanUp();
+		assertEquals(20L, engine.getWeightedSize());
+		assertEquals("v2", engine.get("k", 0L));
+
+		engine.remove("k");
+		engine.cleanUp();
+		assertEquals(0L, engine.getWeightedSize());
+		assertEquals(0L, engine.size());
+	}
+}
@@ -0,0 +1,156 @@
+package org.zhuduan.cache.storage.impl.offheap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/***
+ *
+ * CacheOffHeapSegment的环形数据区和线性探测索引
+ * 		数据区为1024字节，每条数据 = 头部24字节 + key + value，hash直接指定以便构造冲突
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheOffHeapSegmentTest {
+
+	private static final int	CAPACITY	=	1024;
+
+	private static final long	NOW			=	1000000L;
+
+	private static final long	EXPIRE_TIME	=	NOW + 60000L;
+
+
+	@Test
+	public void testSetAndGetAcrossRingWrap() {
+		final CacheOffHeapSegment segment = new CacheOffHeapSegment(CAPACITY, 64);
+		// 每条154字节，数据区末尾剩余100字节放不下时作为填充跳过，head之后也会经过填充
+		for (int i=0; i<16; i++) {
+			assertTrue(segment.put(key(i), i, value(i, 126), EXPIRE_TIME, NOW));
+		}
+		for (int i=0; i<16; i++) {
+			if (i < 10) {
+				assertNull(segment.get(key(i), i, NOW));
+			} else {
+				assertArrayEquals(value(i, 126), segment.get(key(i), i, NOW));
+			}
+		}
+		assertEquals(6, segment.size());
+		assertEquals(10L, segment.getEvictionCount());
+		assertTrue(segment.getUsedBytes() <= CAPACITY);
+	}
+
+
+	@Test
+	public void testEvictsOldestWhenFull() {
+		final CacheOffHeapSegment segment = new CacheOffHeapSegment(CAPACITY, 64);
+		// 每条128字节，8条正好写满数据区
+		for (int i=0; i<8; i++) {
+			assertTrue(segment.put(key(i), i, value(i, 100), EXPIRE_TIME, NOW));
+		}
+		assertEquals(0L, segment.getEvictionCount());
+
+		// 空间不足时只淘汰最早写入的key-0
+		assertTrue(segment.put(key(8), 8, value(8, 100), EXPIRE_TIME, NOW));
+		assertNull(segment.get(key(0), 0, NOW));
+		for (int i=1; i<=8; i++) {
+			assertArrayEquals(value(i, 100), segment.get(key(i), i, NOW));
+		}
+		assertEquals(1L, segment.getEvictionCount());
+		assertEquals(8, segment.size());
+	}
+
+
+	@Test
+	public void testOverwriteReturnsLatestValue() {
+		final CacheOffHeapSegment segment = new CacheOffHeapSegment(CAPACITY, 64);
+		assertTrue(segment.put(key(1), 1, value(1, 10), EXPIRE_TIME, NOW));
+		assertTrue(segment.put(key(1), 1, value(2, 20), EXPIRE_TIME, NOW));
+		// 旧的数据只删除索引，空间等head经过时回收
+		assertArrayEquals(value(2, 20), segment.get(key(1), 1, NOW));
+		assertEquals(1, segment.size());
+		assertEquals(2L * (24 + 4) + 10 + 20, segment.getUsedBytes());
+	}
+
+
+	@Test
+	public void testDeleteKeepsCollidingKeysReachable() {
+		// 16个槽位：hash为15的key从最后一个槽位绕回到0、1
+		final CacheOffHeapSegment segment = new CacheOffHeapSegment(CAPACITY, 16);
+		final int home = 15;
+		assertTrue(segment.put(key(0), home, value(0, 8), EXPIRE_TIME, NOW));			// 槽位15
+		assertTrue(segment.put(key(1), home, value(1, 8), EXPIRE_TIME, NOW));			// 槽位0
+		assertTrue(segment.put(key(2), 0, value(2, 8), EXPIRE_TIME, NOW));				// 槽位1（本来在0）
+		assertTrue(segment.put(key(3), home, value(3, 8), EXPIRE_TIME, NOW));			// 槽位2
+
+		// 删除链的开头，后续的槽位前移后都还能探测到
+		assertTrue(segment.remove(key(0), home, NOW));
+		assertNull(segment.get(key(0), home, NOW));
+		assertArrayEquals(value(1, 8), segment.get(key(1), home, NOW));
+		assertArrayEquals(value(2, 8), segment.get(key(2), 0, NOW));
+		assertArrayEquals(value(3, 8), segment.get(key(3), home, NOW));
+
+		// 删除链的中间
+		assertTrue(segment.remove(key(2), 0, NOW));
+		assertArrayEquals(value(1, 8), segment.get(key(1), home, NOW));
+		assertArrayEquals(value(3, 8), segment.get(key(3), home, NOW));
+		assertFalse(segment.remove(key(2), 0, NOW));
+		assertEquals(2, segment.size());
+
+		// 删除后重新写入
+		assertTrue(segment.put(key(0), home, value(4, 8), EXPIRE_TIME, NOW));
+		assertArrayEquals(value(4, 8), segment.get(key(0), home, NOW));
+		assertEquals(3, segment.size());
+	}
+
+
+	@Test
+	public void testExpiry() {
+		final CacheOffHeapSegment segment = new CacheOffHeapSegment(CAPACITY, 64);
+		assertTrue(segment.put(key(1), 1, value(1, 10), NOW + 100L, NOW));
+		assertTrue(segment.put(key(2), 2, value(2, 10), EXPIRE_TIME, NOW));
+		assertTrue(segment.containsKey(key(1), 1, NOW + 100L));
+
+		// 过期的数据在读取时删除
+		assertNull(segment.get(key(1), 1, NOW + 101L));
+		assertFalse(segment.containsKey(key(1), 1, NOW + 101L));
+		assertEquals(1L, segment.getExpiredCount());
+		assertEquals(1, segment.size());
+		assertArrayEquals(value(2, 10), segment.get(key(2), 2, NOW + 101L));
+	}
+
+
+	@Test
+	public void testRejectsValueLargerThanSegmentLimit() {
+		final CacheOffHeapSegment segment = new CacheOffHeapSegment(CAPACITY, 64);
+		// 一条数据最多为数据区的1/4：256字节
+		assertTrue(segment.put(key(1), 1, value(1, 256 - 24 - 4), EXPIRE_TIME, NOW));
+		assertFalse(segment.put(key(2), 2, value(2, 256 - 24 - 4 + 1), EXPIRE_TIME, NOW));
+		assertNull(segment.get(key(2), 2, NOW));
+
+		// 太大的覆盖写不影响原来的值
+		assertFalse(segment.put(key(1), 1, value(3, CAPACITY), EXPIRE_TIME, NOW));
+		assertArrayEquals(value(1, 256 - 24 - 4), segment.get(key(1), 1, NOW));
+		assertEquals(1, segment.size());
+	}
+
+
+	// 4字节的key
+	private static byte[] key(int i) {
+		return String.format("k-%02d", i).getBytes();
+	}
+
+
+	private static byte[] value(int i, int length) {
+		final byte[] value = new byte[length];
+		Arrays.fill(value, (byte) i);
+		return value;
+	}
+}
@@ -0,0 +1,102 @@
+package org.zhuduan.cache.storage.impl.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zhuduan.cache.storage.CacheHotKeyDetector;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.util.SafeEncoder;
+
+/***
+ *
+ * CacheStorageServiceRedisImpl的热点key本地副本：当前节点的写入和删除使副本失效（使用StubRedisCluster）
+ * 		其它节点的写入用jedisCluster直接修改Redis模拟，此时读取的仍然是本地副本
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheRedisHotKeyTest {
+
+	private static final int	EXPIRE_SECONDS	=	60;
+
+	private StubRedisCluster				cluster;
+
+	private JedisCluster					jedisCluster;
+
+	private CacheStorageServiceRedisImpl	redisImpl;
+
+
+	@Before
+	public void setUp() throws Exception {
+		cluster = new StubRedisCluster();
+		jedisCluster = new JedisCluster(Collections.singleton(new HostAndPort("127.0.0.1", cluster.getPort(0))));
+		redisImpl = CacheStorageServiceRedisImpl.getInstance(jedisCluster);
+		// 一个窗口内读取2次即为热点
+		redisImpl.setHotKeyDetector(new CacheHotKeyDetector(1024, 4, 2, 60000L));
+	}
+
+
+	@After
+	public void tearDown() throws Exception {
+		redisImpl.close();
+		jedisCluster.close();
+		cluster.close();
+	}
+
+
+	@Test
+	public void testSetCacheInvalidatesLocalCopy() {
+		assertTrue(redisImpl.setCache("k", "v1", EXPIRE_SECONDS));
+		promote("k", "v1");
+
+		assertTrue(redisImpl.setCache("k", "v2", EXPIRE_SECONDS));
+		assertArrayEquals(bytes("v2"), redisImpl.getCacheBytes("k"));
+	}
+
+
+	@Test
+	public void testDeleteCacheInvalidatesLocalCopy() {
+		assertTrue(redisImpl.setCacheBytes("k", bytes("v1"), EXPIRE_SECONDS));
+		promote("k", "v1");
+
+		redisImpl.deleteCache("k");
+		assertNull(redisImpl.getCacheBytes("k"));
+	}
+
+
+	@Test
+	public void testDisabledDetectorDropsLocalCopies() {
+		assertTrue(redisImpl.setCache("k", "v1", EXPIRE_SECONDS));
+		promote("k", "v1");
+
+		redisImpl.setHotKeyDetector(null);
+		assertArrayEquals(bytes("v-remote"), redisImpl.getCacheBytes("k"));
+	}
+
+
+	// 读取到成为热点并保存本地副本，之后其它节点修改Redis，读取的仍然是本地副本
+	private void promote(String cacheKey, String value) {
+		for (int i=0; i<3; i++) {
+			assertArrayEquals(bytes(value), redisImpl.getCacheBytes(cacheKey));
+		}
+		jedisCluster.setex(cacheKey, EXPIRE_SECONDS, "v-remote");
+		final long hotHitCount = redisImpl.getHotHitCount();
+		assertArrayEquals(bytes(value), redisImpl.getCacheBytes(cacheKey));
+		assertEquals(hotHitCount + 1, redisImpl.getHotHitCount());
+	}
+
+
+	private static byte[] bytes(String value) {
+		return SafeEncoder.encode(value);
+	}
+}
@@ -0,0 +1,71 @@
+package org.zhuduan.cache.storage.impl.redis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.util.SafeEncoder;
+
+/***
+ *
+ * CacheRedisInvalidationBus对收到的消息的解析：共享channel上格式错误的消息被忽略，不会按消息中的长度分配内存
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheRedisInvalidationBusTest {
+
+	private StubRedisCluster			cluster;
+
+	private JedisCluster				jedisCluster;
+
+	private CacheRedisInvalidationBus	bus;
+
+
+	@Before
+	public void setUp() throws Exception {
+		cluster = new StubRedisCluster();
+		jedisCluster = new JedisCluster(Collections.singleton(new HostAndPort("127.0.0.1", cluster.getPort(0))));
+		bus = new CacheRedisInvalidationBus(jedisCluster, "test-invalidation");
+	}
+
+
+	@After
+	public void tearDown() throws Exception {
+		bus.close();
+		jedisCluster.close();
+		cluster.close();
+	}
+
+
+	@Test
+	public void testReceiveMessageFromOtherNode() {
+		bus.receive(CacheRedisInvalidationBus.encode(SafeEncoder.encode("other-node"), Arrays.asList("k1", "k2")));
+		assertEquals(1L, bus.getReceiveCount());
+	}
+
+
+	@Test
+	public void testMalformedMessagesAreIgnored() {
+		// 发送方id的长度远超过消息本身
+		bus.receive(ByteBuffer.allocate(8).putInt(Integer.MAX_VALUE).putInt(0).array());
+		// 负的长度
+		bus.receive(ByteBuffer.allocate(8).putInt(-1).putInt(0).array());
+		// key的个数远超过剩余的字节数
+		bus.receive(ByteBuffer.allocate(9).putInt(1).put((byte) 'x').putInt(Integer.MAX_VALUE).array());
+		// key的长度远超过剩余的字节数
+		bus.receive(ByteBuffer.allocate(13).putInt(1).put((byte) 'x').putInt(1).putInt(Integer.MAX_VALUE - 1).array());
+		// 截断的消息
+		bus.receive(new byte[]{0, 0});
+		assertEquals(0L, bus.getReceiveCount());
+	}
+}
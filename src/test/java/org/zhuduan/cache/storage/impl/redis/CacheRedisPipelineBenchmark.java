@@ -0,0 +1,119 @@
+package org.zhuduan.cache.storage.impl.redis;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.util.SafeEncoder;
+
+/***
+ *
+ * 多线程读写时，同步调用JedisCluster和CacheRedisPipeline（不等待/linger）的吞吐量对比
+ * 		1.使用本地的StubRedisCluster（两个节点，按命令串行处理）代替Redis，只用于比较相对的差别，绝对值和真实的Redis不同
+ * 		2.管道模式的setex是write-behind的，队列满之前只包括放入队列的时间，之后受发送线程的速度限制
+ * 		3.运行：mvn -B test-compile，然后
+ * 		  java -cp target/test-classes:target/classes:<依赖的classpath> org.zhuduan.cache.storage.impl.redis.CacheRedisPipelineBenchmark
+ * 		  可以加上JMH的命令行参数（如 -p mode=pipeline -t 32）
+ *
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+public class CacheRedisPipelineBenchmark {
+
+	private static final int	KEY_NUM		=	1024;
+
+	@Param({"sync", "pipeline", "pipelineLinger"})
+	public String				mode;						// sync：每个请求同步调用一次JedisCluster
+
+	private StubRedisCluster	cluster;
+
+	private JedisCluster		jedisCluster;
+
+	private CacheRedisPipeline	pipeline;					// sync时为null
+
+	private byte[][]			keys;
+
+	private byte[]				value;
+
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		cluster = new StubRedisCluster();
+		final GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
+		poolConfig.setMaxTotal(64);
+		poolConfig.setMaxIdle(64);
+		jedisCluster = new JedisCluster(Collections.singleton(new HostAndPort("127.0.0.1", cluster.getPort(0))), poolConfig);
+		if ("pipeline".equals(mode)) {
+			pipeline = new CacheRedisPipeline(jedisCluster, true, 4, 128, 0L, 65536, 1000L);
+		} else if ("pipelineLinger".equals(mode)) {
+			pipeline = new CacheRedisPipeline(jedisCluster, true, 4, 128, 100L, 65536, 1000L);
+		}
+
+		value = new byte[128];
+		keys = new byte[KEY_NUM][];
+		for (int i=0; i<KEY_NUM; i++) {
+			keys[i] = SafeEncoder.encode("bench-" + i);
+			jedisCluster.setex(keys[i], 3600, value);
+		}
+	}
+
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		if (pipeline != null) {
+			pipeline.close();
+		}
+		jedisCluster.close();
+		cluster.close();
+	}
+
+
+	@Benchmark
+	public Object get() {
+		final byte[] key = keys[ThreadLocalRandom.current().nextInt(KEY_NUM)];
+		return pipeline == null ? jedisCluster.get(key) : pipeline.get(key);
+	}
+
+
+	@Benchmark
+	public Object setex() {
+		final byte[] key = keys[ThreadLocalRandom.current().nextInt(KEY_NUM)];
+		return pipeline == null ? jedisCluster.setex(key, 3600, value) : pipeline.setex(key, 3600, value);
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).include(CacheRedisPipelineBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,193 @@
+package org.zhuduan.cache.storage.impl.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zhuduan.cache.storage.CacheBatchValue;
+import org.zhuduan.cache.storage.FailureReportingCacheStorageService.FailureListener;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.util.SafeEncoder;
+
+/***
+ *
+ * CacheRedisPipeline的合并发送、slot迁移后的顺序和批量操作的结果（使用StubRedisCluster）
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheRedisPipelineTest {
+
+	private StubRedisCluster	cluster;
+
+	private JedisCluster		jedisCluster;
+
+	private CacheRedisPipeline	pipeline;
+
+
+	@Before
+	public void setUp() throws Exception {
+		cluster = new StubRedisCluster();
+		jedisCluster = new JedisCluster(Collections.singleton(new HostAndPort("127.0.0.1", cluster.getPort(0))));
+	}
+
+
+	@After
+	public void tearDown() throws Exception {
+		if (pipeline != null) {
+			pipeline.close();
+		}
+		jedisCluster.close();
+		cluster.close();
+	}
+
+
+	@Test
+	public void testQueuedRequestsShareOnePipelinePerNode() throws Exception {
+		pipeline = new CacheRedisPipeline(jedisCluster, true, 1, 128, 0L, 1024, 2000L);
+
+		// 第一个请求在Redis中等待时，后面的请求都在队列中，下一次按节点合并发送
+		cluster.stallMillis = 200L;
+		assertTrue(pipeline.setex(bytes("first"), 60, bytes("v")));
+		Thread.sleep(50L);
+		cluster.stallMillis = 0L;
+		for (int i=0; i<20; i++) {
+			assertTrue(pipeline.setex(bytes("key-" + i), 60, bytes("v" + i)));
+		}
+		assertArrayEquals(bytes("v19"), (byte[]) pipeline.get(bytes("key-19")));
+		// 另一个节点的pipeline可能还在返回的路上
+		for (int i=0; i<100 && pipeline.getCommandCount() < 22L; i++) {
+			Thread.sleep(10L);
+		}
+
+		assertEquals(22L, pipeline.getCommandCount());
+		assertTrue("batchCount: " + pipeline.getBatchCount(), pipeline.getBatchCount() <= 3L);
+	}
+
+
+	@Test
+	public void testRedirectKeepsPerKeyOrder() throws Exception {
+		pipeline = new CacheRedisPipeline(jedisCluster, true, 1, 128, 0L, 1024, 2000L);
+		assertTrue(pipeline.setex(bytes("moving"), 60, bytes("v1")));
+		assertArrayEquals(bytes("v1"), (byte[]) pipeline.get(bytes("moving")));
+
+		// slot迁移后管道层的对应关系已经过期：收到MOVED的请求在发送线程中按顺序重试
+		cluster.migrate("moving");
+		cluster.writeLog.clear();
+		cluster.stallMillis = 100L;
+		assertTrue(pipeline.setex(bytes("moving"), 60, bytes("v2")));
+		Thread.sleep(20L);
+		cluster.stallMillis = 0L;
+		assertTrue(pipeline.del(bytes("moving")));
+		assertTrue(pipeline.setex(bytes("moving"), 60, bytes("v3")));
+		assertArrayEquals(bytes("v3"), (byte[]) pipeline.get(bytes("moving")));
+
+		assertEquals(3, cluster.writeLog.size());
+		assertEquals("SETEX moving v2", cluster.writeLog.get(0));
+		assertEquals("DEL moving", cluster.writeLog.get(1));
+		assertEquals("SETEX moving v3", cluster.writeLog.get(2));
+		assertTrue(pipeline.getFallbackCount() > 0L);
+	}
+
+
+	@Test
+	public void testBatchWriteWaitsForResults() throws Exception {
+		pipeline = new CacheRedisPipeline(jedisCluster, true, 2, 128, 0L, 1024, 100L);
+		final AtomicInteger failureCount = new AtomicInteger();
+		pipeline.setFailureListener(new FailureListener() {
+			@Override
+			public void onFailure(Exception exception) {
+				failureCount.incrementAndGet();
+			}
+		});
+
+		final Map<String, CacheBatchValue> cacheValues = new HashMap<>();
+		for (int i=0; i<10; i++) {
+			cacheValues.put("batch-" + i, new CacheBatchValue(bytes("v" + i), 60));
+		}
+		assertTrue(pipeline.setex(cacheValues));
+		assertEquals(0, failureCount.get());
+		assertEquals(10, pipeline.mget(cacheValues.keySet()).size());
+
+		// 超时还没有完成的请求算作失败
+		cluster.stallMillis = 300L;
+		assertFalse(pipeline.setex(cacheValues));
+		assertTrue(failureCount.get() > 0);
+		cluster.stallMillis = 0L;
+	}
+
+
+	@Test
+	public void testSyncBatchGroupsByNode() throws Exception {
+		pipeline = new CacheRedisPipeline(jedisCluster, false, 4, 128, 0L, 1024, 2000L);
+		final Map<String, CacheBatchValue> cacheValues = new HashMap<>();
+		final List<String> cacheKeys = new ArrayList<>();
+		for (int i=0; i<50; i++) {
+			cacheValues.put("sync-" + i, new CacheBatchValue(bytes("v" + i), 60));
+			cacheKeys.add("sync-" + i);
+		}
+		assertTrue(pipeline.setex(cacheValues));
+		assertEquals(50L, pipeline.getCommandCount());
+		assertEquals(2L, pipeline.getBatchCount());
+
+		final Map<String, byte[]> result = pipeline.mget(cacheKeys);
+		assertEquals(50, result.size());
+		assertArrayEquals(bytes("v7"), result.get("sync-7"));
+
+		assertTrue(pipeline.del(cacheKeys));
+		assertNull(jedisCluster.get("sync-7"));
+	}
+
+
+	@Test
+	public void testCloseFailsDrainedOperations() throws Exception {
+		pipeline = new CacheRedisPipeline(jedisCluster, true, 1, 128, TimeUnit.SECONDS.toMicros(5L), 1024, 2000L);
+		final AtomicInteger failureCount = new AtomicInteger();
+		pipeline.setFailureListener(new FailureListener() {
+			@Override
+			public void onFailure(Exception exception) {
+				failureCount.incrementAndGet();
+			}
+		});
+
+		// 第一个请求在Redis中等待时放入3个请求，之后发送线程一起取出并linger
+		cluster.stallMillis = 200L;
+		assertTrue(pipeline.setex(bytes("first"), 60, bytes("v")));
+		Thread.sleep(50L);
+		cluster.stallMillis = 0L;
+		for (int i=0; i<3; i++) {
+			assertTrue(pipeline.setex(bytes("linger-" + i), 60, bytes("v" + i)));
+		}
+		Thread.sleep(300L);
+
+		// linger期间停止：已经取出的请求按失败处理，而不是被丢弃
+		pipeline.close();
+		for (int i=0; i<100 && failureCount.get() < 3; i++) {
+			Thread.sleep(10L);
+		}
+		assertEquals(3, failureCount.get());
+		assertNull(jedisCluster.get("linger-0"));
+		assertFalse(pipeline.setex(bytes("after"), 60, bytes("v")));
+	}
+
+
+	private static byte[] bytes(String text) {
+		return SafeEncoder.encode(text);
+	}
+}
@@ -0,0 +1,268 @@
+package org.zhuduan.cache.storage.impl.redis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import redis.clients.util.JedisClusterCRC16;
+import redis.clients.util.SafeEncoder;
+
+/***
+ *
+ * 测试用的Redis集群：两个节点共用一份数据，slot的归属可以修改（模拟slot迁移）
+ * 		1.只支持CacheRedisPipeline和JedisCluster用到的命令（CLUSTER SLOTS、GET、SETEX、DEL、MGET、EXISTS、INCRBY、EXPIRE、QUIT）
+ * 		2.key所在的slot不属于收到请求的节点时返回MOVED
+ * 		3.stallMillis大于0时每个命令先等待这么久（模拟Redis变慢）
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+final class StubRedisCluster {
+
+	private static final int	SLOT_NUM	=	16384;
+
+	private final ServerSocket[]	serverSockets	=	new ServerSocket[2];
+
+	private final int[]				slotOwners		=	new int[SLOT_NUM];	// slot所属节点的下标
+
+	private final ConcurrentHashMap<String, byte[]>	data	=	new ConcurrentHashMap<>();
+
+	private final CopyOnWriteArrayList<Socket>		sockets	=	new CopyOnWriteArrayList<>();
+
+	volatile long	stallMillis;
+
+	final List<String>	writeLog	=	new CopyOnWriteArrayList<>();	// 按执行顺序记录的写命令（命令 key 值）
+
+
+	// 前一半slot属于节点0，后一半属于节点1
+	StubRedisCluster() throws IOException {
+		for (int slot=0; slot<SLOT_NUM; slot++) {
+			slotOwners[slot] = slot < SLOT_NUM / 2 ? 0 : 1;
+		}
+		for (int i=0; i<serverSockets.length; i++) {
+			serverSockets[i] = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+			final int node = i;
+			final Thread acceptor = new Thread("StubRedisCluster-" + i) {
+				@Override
+				public void run() {
+					accept(node);
+				}
+			};
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+	}
+
+
+	int getPort(int node) {
+		return serverSockets[node].getLocalPort();
+	}
+
+
+	// 把key所在的slot迁移到另一个节点（数据是共用的）
+	synchronized void migrate(String cacheKey) {
+		final int slot = JedisClusterCRC16.getSlot(cacheKey);
+		slotOwners[slot] = 1 - slotOwners[slot];
+	}
+
+
+	synchronized int ownerOf(String cacheKey) {
+		return slotOwners[JedisClusterCRC16.getSlot(cacheKey)];
+	}
+
+
+	void close() {
+		for (ServerSocket serverSocket : serverSockets) {
+			try {
+				serverSocket.close();
+			} catch (IOException exception) {
+				// 忽略
+			}
+		}
+		for (Socket socket : sockets) {
+			try {
+				socket.close();
+			} catch (IOException exception) {
+				// 忽略
+			}
+		}
+	}
+
+
+	private void accept(final int node) {
+		while (true) {
+			final Socket socket;
+			try {
+				socket = serverSockets[node].accept();
+			} catch (IOException exception) {
+				return;
+			}
+			sockets.add(socket);
+			final Thread worker = new Thread("StubRedisCluster-" + node + "-conn") {
+				@Override
+				public void run() {
+					try {
+						serve(node, socket);
+					} catch (Exception exception) {
+						// 连接关闭
+					}
+				}
+			};
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+
+	private void serve(int node, Socket socket) throws IOException, InterruptedException {
+		final InputStream in = new BufferedInputStream(socket.getInputStream());
+		final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+		while (true) {
+			final List<byte[]> command = readCommand(in);
+			if (command == null) {
+				return;
+			}
+			if (stallMillis > 0) {
+				Thread.sleep(stallMillis);
+			}
+			handle(node, command, out);
+			if (in.available() == 0) {
+				out.flush();
+			}
+		}
+	}
+
+
+	private synchronized void handle(int node, List<byte[]> command, OutputStream out) throws IOException {
+		final String name = SafeEncoder.encode(command.get(0)).toUpperCase();
+		if ("CLUSTER".equals(name)) {
+			writeSlots(out);
+			return;
+		}
+		if (command.size() == 1) {
+			// QUIT、PING等没有key的命令（关闭连接池时发送QUIT）
+			write(out, "+OK\r\n");
+			return;
+		}
+		final String cacheKey = SafeEncoder.encode(command.get(1));
+		final int slot = JedisClusterCRC16.getSlot(cacheKey);
+		if (slotOwners[slot] != node) {
+			write(out, "-MOVED " + slot + " 127.0.0.1:" + getPort(slotOwners[slot]) + "\r\n");
+			return;
+		}
+		switch (name) {
+		case "GET":
+			writeBulk(out, data.get(cacheKey));
+			break;
+		case "SETEX":
+			data.put(cacheKey, command.get(3));
+			writeLog.add("SETEX " + cacheKey + " " + SafeEncoder.encode(command.get(3)));
+			write(out, "+OK\r\n");
+			break;
+		case "DEL":
+			int count = 0;
+			for (int i=1; i<command.size(); i++) {
+				final String key = SafeEncoder.encode(command.get(i));
+				writeLog.add("DEL " + key);
+				count += data.remove(key) == null ? 0 : 1;
+			}
+			write(out, ":" + count + "\r\n");
+			break;
+		case "MGET":
+			write(out, "*" + (command.size() - 1) + "\r\n");
+			for (int i=1; i<command.size(); i++) {
+				writeBulk(out, data.get(SafeEncoder.encode(command.get(i))));
+			}
+			break;
+		case "EXISTS":
+		case "EXPIRE":
+			write(out, ":" + (data.containsKey(cacheKey) ? 1 : 0) + "\r\n");
+			break;
+		case "INCRBY":
+			final byte[] value = data.get(cacheKey);
+			final long result = (value == null ? 0L : Long.parseLong(SafeEncoder.encode(value))) + Long.parseLong(SafeEncoder.encode(command.get(2)));
+			data.put(cacheKey, SafeEncoder.encode(String.valueOf(result)));
+			write(out, ":" + result + "\r\n");
+			break;
+		default:
+			write(out, "-ERR unknown command " + name + "\r\n");
+		}
+	}
+
+
+	// CLUSTER SLOTS：按连续的slot区间返回
+	private void writeSlots(OutputStream out) throws IOException {
+		final List<int[]> ranges = new ArrayList<>();
+		int start = 0;
+		for (int slot=1; slot<=SLOT_NUM; slot++) {
+			if (slot == SLOT_NUM || slotOwners[slot] != slotOwners[start]) {
+				ranges.add(new int[]{start, slot - 1, slotOwners[start]});
+				start = slot;
+			}
+		}
+		write(out, "*" + ranges.size() + "\r\n");
+		for (int[] range : ranges) {
+			write(out, "*3\r\n:" + range[0] + "\r\n:" + range[1] + "\r\n*2\r\n");
+			writeBulk(out, SafeEncoder.encode("127.0.0.1"));
+			write(out, ":" + getPort(range[2]) + "\r\n");
+		}
+	}
+
+
+	private static List<byte[]> readCommand(InputStream in) throws IOException {
+		if (in.read() < 0) {
+			return null;
+		}
+		final int count = Integer.parseInt(readLine(in));
+		final List<byte[]> command = new ArrayList<>(count);
+		for (int i=0; i<count; i++) {
+			in.read();
+			final byte[] bytes = new byte[Integer.parseInt(readLine(in))];
+			int offset = 0;
+			while (offset < bytes.length) {
+				offset += in.read(bytes, offset, bytes.length - offset);
+			}
+			in.read();
+			in.read();
+			command.add(bytes);
+		}
+		return command;
+	}
+
+
+	private static String readLine(InputStream in) throws IOException {
+		final StringBuilder builder = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\r') {
+			builder.append((char) c);
+		}
+		in.read();
+		return builder.toString();
+	}
+
+
+	private static void writeBulk(OutputStream out, byte[] bytes) throws IOException {
+		if (bytes == null) {
+			write(out, "$-1\r\n");
+			return;
+		}
+		write(out, "$" + bytes.length + "\r\n");
+		out.write(bytes);
+		write(out, "\r\n");
+	}
+
+
+	private static void write(OutputStream out, String text) throws IOException {
+		out.write(SafeEncoder.encode(text));
+	}
+}
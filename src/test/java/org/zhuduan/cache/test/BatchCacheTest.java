@@ -0,0 +1,126 @@
+package org.zhuduan.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.zhuduan.cache.SimpleCache;
+
+/***
+ *
+ * @SimpleCache(batchArg)：部分命中时只用未命中的元素调用方法，按参数的顺序合并结果；返回值不是List/Map时不使用缓存
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class BatchCacheTest {
+
+	@Test
+	public void testPartialHitKeepsArgumentOrder() {
+		final StubCacheStorageService storage = new StubCacheStorageService();
+		final UserServiceImpl target = new UserServiceImpl();
+		final UserService service = CacheAspectProxy.create(target, storage);
+
+		// 单个查询的方法和批量方法使用相同的key模板，共享缓存
+		assertEquals("user-2", service.getName(2));
+		assertEquals("user-4", service.getName(4));
+		target.calls.clear();
+
+		final Map<Integer, String> names = service.getNames(Arrays.asList(1, 2, 3, 4));
+		assertEquals(Arrays.asList(1, 2, 3, 4), new ArrayList<>(names.keySet()));
+		assertEquals(Arrays.asList("user-1", "user-2", "user-3", "user-4"), new ArrayList<>(names.values()));
+		assertEquals(Arrays.asList(Arrays.asList(1, 3)), target.calls);
+
+		// List返回值按batchResultKey匹配（方法返回的顺序和参数相反），第二次未命中的只有5
+		assertEquals(2, service.getUsers(Arrays.asList(1, 4)).size());
+		target.calls.clear();
+		final List<TestPojo> users = service.getUsers(Arrays.asList(4, 5, 1));
+		assertEquals(3, users.size());
+		assertEquals(Integer.valueOf(4), users.get(0).getId());
+		assertEquals(Integer.valueOf(5), users.get(1).getId());
+		assertEquals(Integer.valueOf(1), users.get(2).getId());
+		assertEquals(Arrays.asList(Arrays.asList(5)), target.calls);
+	}
+
+
+	@Test
+	public void testObjectReturnTypeDisablesBatchCache() {
+		final StubCacheStorageService storage = new StubCacheStorageService();
+		final UserServiceImpl target = new UserServiceImpl();
+		final UserService service = CacheAspectProxy.create(target, storage);
+
+		// Object也能接收List，但没有声明为List/Map：配置错误，直接执行方法，不写入缓存
+		assertEquals("raw", service.getObject(Arrays.asList(1, 2)));
+		assertEquals("raw", service.getObject(Arrays.asList(1, 2)));
+		assertEquals(2, target.calls.size());
+		assertTrue(storage.values.isEmpty());
+	}
+
+
+	public interface UserService {
+
+		String getName(Integer id);
+
+		Map<Integer, String> getNames(List<Integer> ids);
+
+		List<TestPojo> getUsers(List<Integer> ids);
+
+		Object getObject(List<Integer> ids);
+	}
+
+
+	public static class UserServiceImpl implements UserService {
+
+		final List<List<Integer>>	calls	=	new ArrayList<>();		// 批量方法每次执行时的参数
+
+
+		@Override
+		@SimpleCache(key="name:#0", expire=60)
+		public String getName(Integer id) {
+			return "user-" + id;
+		}
+
+
+		@Override
+		@SimpleCache(key="name:#0", expire=60, batchArg=0)
+		public Map<Integer, String> getNames(List<Integer> ids) {
+			calls.add(new ArrayList<>(ids));
+			final Map<Integer, String> names = new LinkedHashMap<>();
+			for (Integer id : ids) {
+				names.put(id, "user-" + id);
+			}
+			return names;
+		}
+
+
+		@Override
+		@SimpleCache(key="pojo:#0", expire=60, batchArg=0, batchResultKey="id")
+		public List<TestPojo> getUsers(List<Integer> ids) {
+			calls.add(new ArrayList<>(ids));
+			final List<TestPojo> users = new ArrayList<>();
+			// 返回的顺序和参数不同
+			for (int i=ids.size()-1; i>=0; i--) {
+				final TestPojo user = new TestPojo();
+				user.setId(ids.get(i));
+				user.setName("user-" + ids.get(i));
+				users.add(user);
+			}
+			return users;
+		}
+
+
+		@Override
+		@SimpleCache(key="object:#0", expire=60, batchArg=0)
+		public Object getObject(List<Integer> ids) {
+			calls.add(new ArrayList<>(ids));
+			return "raw";
+		}
+	}
+}
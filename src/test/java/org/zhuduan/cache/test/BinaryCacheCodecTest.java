@@ -0,0 +1,332 @@
+package org.zhuduan.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.zhuduan.cache.codec.BinaryCacheCodec;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+import org.zhuduan.utils.SerializeUtils;
+
+/***
+ *
+ * BinaryCacheCodec的编解码测试
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class BinaryCacheCodecTest {
+
+	private final BinaryCacheCodec codec = new BinaryCacheCodec();
+
+
+	@Test
+	public void testScalarRoundTrip() throws CacheException {
+		assertNull(roundTrip(null, Object.class));
+		assertEquals("中文abc", roundTrip("中文abc", String.class));
+		assertEquals(Integer.valueOf(-123), roundTrip(-123, Integer.class));
+		assertEquals(Long.valueOf(Long.MIN_VALUE), roundTrip(Long.MIN_VALUE, Long.class));
+		assertEquals(Double.valueOf(1.5D), roundTrip(1.5D, Double.class));
+		assertEquals(new Date(1495500000000L), roundTrip(new Date(1495500000000L), Date.class));
+		assertArrayEquals(new int[]{1, -2, 3}, (int[]) roundTrip(new int[]{1, -2, 3}, int[].class));
+
+		final Timestamp timestamp = new Timestamp(1495500000123L);
+		timestamp.setNanos(123456789);
+		assertEquals(timestamp, roundTrip(timestamp, Timestamp.class));
+		final UUID uuid = UUID.randomUUID();
+		assertEquals(uuid, roundTrip(uuid, UUID.class));
+	}
+
+
+	@Test
+	public void testNestedCollectionsRoundTrip() throws CacheException {
+		final Map<String, List<Integer>> map = new LinkedHashMap<>();
+		map.put("a", Arrays.asList(1, 2, null));
+		map.put("b", new LinkedList<Integer>());
+		map.put(null, null);
+		final List<Object> value = new ArrayList<>();
+		value.add(map);
+		value.add(new TreeSet<>(Arrays.asList("z", "x", "y")));
+		value.add(new String[]{"s", null});
+
+		final List<?> result = (List<?>) roundTrip(value, List.class);
+		assertEquals(3, result.size());
+		assertEquals(map, result.get(0));
+		assertTrue(result.get(0) instanceof LinkedHashMap);
+		assertEquals(Arrays.asList("x", "y", "z"), new ArrayList<>((TreeSet<?>) result.get(1)));
+		assertArrayEquals(new String[]{"s", null}, (String[]) result.get(2));
+	}
+
+
+	@Test
+	public void testPojoRoundTrip() throws CacheException {
+		final Node node = new Node("root", 3);
+		node.attributes = new HashMap<>();
+		node.attributes.put("k", 1L);
+
+		final Node result = (Node) roundTrip(node, Node.class);
+		assertEquals("root", result.name);
+		assertEquals(3, result.weight);
+		assertEquals(Long.valueOf(1L), result.attributes.get("k"));
+		assertNull(result.parent);
+	}
+
+
+	@Test
+	public void testCyclicReferences() throws CacheException {
+		final Node root = new Node("root", 1);
+		final Node child = new Node("child", 2);
+		child.parent = root;
+		root.children.add(child);
+		root.children.add(root);
+
+		final Node result = (Node) roundTrip(root, Node.class);
+		assertEquals(2, result.children.size());
+		assertSame(result, result.children.get(1));
+		assertSame(result, result.children.get(0).parent);
+		assertEquals("child", result.children.get(0).name);
+
+		// 集合引用自己
+		final List<Object> list = new ArrayList<>();
+		list.add(list);
+		final List<?> listResult = (List<?>) roundTrip(list, List.class);
+		assertSame(listResult, listResult.get(0));
+	}
+
+
+	@Test
+	public void testSharedReferences() throws CacheException {
+		final Node shared = new Node("shared", 1);
+		final List<Node> value = Arrays.asList(shared, shared, new Node("other", 2));
+
+		final List<?> result = (List<?>) roundTrip(value, nodeListType());
+		assertSame(result.get(0), result.get(1));
+		assertEquals("other", ((Node) result.get(2)).name);
+	}
+
+
+	@Test
+	public void testClassesOfReturnTypeAreTrusted() throws CacheException {
+		// 泛型参数、字段类型和它们的子类
+		final List<Node> value = new ArrayList<>();
+		value.add(new LeafNode("leaf", 1));
+		final List<?> result = (List<?>) roundTrip(value, nodeListType());
+		assertEquals(LeafNode.class, result.get(0).getClass());
+	}
+
+
+	@Test
+	public void testUntrustedClassIsRejected() throws CacheException {
+		final byte[] bytes = codec.encode(new Node("root", 1));
+		try {
+			codec.decode(ByteBuffer.wrap(bytes), Object.class);
+			fail("decode should reject class not in return type");
+		} catch (CacheException exception) {
+			assertEquals(CacheConstants.EXCEPTION_CODEC_DECODE, exception.getErrCode());
+		}
+		try {
+			codec.decode(ByteBuffer.wrap(bytes), String.class);
+			fail("decode should reject class not in return type");
+		} catch (CacheException exception) {
+			assertEquals(CacheConstants.EXCEPTION_CODEC_DECODE, exception.getErrCode());
+		}
+
+		// 配置了包名前缀时允许
+		final BinaryCacheCodec prefixCodec = new BinaryCacheCodec("org.zhuduan.cache.test.");
+		assertEquals("root", ((Node) prefixCodec.decode(ByteBuffer.wrap(bytes), Object.class)).name);
+	}
+
+
+	@Test
+	public void testJdkSerializationIsRejected() {
+		// 旧版本的JDK序列化标记
+		final byte[] bytes = {BinaryCacheCodec.MAGIC, 22, 4, (byte) 0xAC, (byte) 0xED, 0, 5};
+		try {
+			codec.decode(ByteBuffer.wrap(bytes), Object.class);
+			fail("decode should reject jdk serialization");
+		} catch (CacheException exception) {
+			assertEquals(CacheConstants.EXCEPTION_CODEC_DECODE, exception.getErrCode());
+		}
+		try {
+			codec.encode(new Thread());
+			fail("encode should reject unsupported jdk type");
+		} catch (CacheException exception) {
+			assertEquals(CacheConstants.EXCEPTION_CODEC_ENCODE, exception.getErrCode());
+		}
+	}
+
+
+	@Test
+	public void testTooDeepNestingFailsWithCacheException() {
+		Node node = new Node("leaf", 0);
+		for (int i=0; i<10000; i++) {
+			final Node parent = new Node("n" + i, i);
+			parent.children.add(node);
+			node = parent;
+		}
+		try {
+			codec.encode(node);
+			fail("encode should fail for deep nesting");
+		} catch (CacheException exception) {
+			assertEquals(CacheConstants.EXCEPTION_CODEC_ENCODE, exception.getErrCode());
+		}
+	}
+
+
+	@Test
+	public void testBadReferenceFailsWithCacheException() {
+		final byte[] bytes = {BinaryCacheCodec.MAGIC, 23, 5};
+		try {
+			codec.decode(ByteBuffer.wrap(bytes), Object.class);
+			fail("decode should fail for bad reference");
+		} catch (CacheException exception) {
+			assertEquals(CacheConstants.EXCEPTION_CODEC_DECODE, exception.getErrCode());
+		}
+	}
+
+
+	@Test
+	public void testEnumAndArrayTypesAreChecked() throws CacheException {
+		// 枚举和数组元素的类型和普通对象一样需要受信任
+		final byte[] enumBytes = codec.encode(Level.HIGH);
+		assertSame(Level.HIGH, codec.decode(ByteBuffer.wrap(enumBytes), Level.class));
+		assertDecodeFails(enumBytes, Object.class);
+
+		final byte[] arrayBytes = codec.encode(new Node[]{new Node("a", 1)});
+		assertEquals("a", ((Node[]) codec.decode(ByteBuffer.wrap(arrayBytes), Node[].class))[0].name);
+		assertDecodeFails(arrayBytes, Object.class);
+
+		// JDK中的枚举和数组元素类型只用来取常量和创建数组
+		assertSame(TimeUnit.SECONDS, roundTrip(TimeUnit.SECONDS, Object.class));
+		assertArrayEquals(new Integer[]{1, 2}, (Integer[]) roundTrip(new Integer[]{1, 2}, Object.class));
+	}
+
+
+	@Test
+	public void testUnsupportedCollectionTypesAreNotEncoded() throws CacheException {
+		final TreeSet<String> reversedSet = new TreeSet<>(Collections.<String>reverseOrder());
+		reversedSet.add("a");
+		final TreeMap<String, String> reversedMap = new TreeMap<>(Collections.<String>reverseOrder());
+		reversedMap.put("a", "b");
+		final List<Object> unsupportedValues = Arrays.<Object>asList(reversedSet, reversedMap,
+				EnumSet.of(Level.HIGH), new CopyOnWriteArrayList<>(Arrays.asList("a")), new ConcurrentSkipListMap<String, String>());
+		for (Object value : unsupportedValues) {
+			try {
+				codec.encode(value);
+				fail("encode should reject " + value.getClass().getName());
+			} catch (CacheException exception) {
+				assertEquals(CacheConstants.EXCEPTION_CODEC_ENCODE, exception.getErrCode());
+			}
+		}
+
+		// 只能通过接口使用的JDK实现解码成常用的实现类型
+		final Collection<?> readOnlyList = (Collection<?>) roundTrip(Collections.unmodifiableList(Arrays.asList("a", "b")), List.class);
+		assertEquals(ArrayList.class, readOnlyList.getClass());
+		assertEquals(Arrays.asList("a", "b"), readOnlyList);
+		final Set<?> sortedSet = (Set<?>) roundTrip(Collections.unmodifiableSortedSet(new TreeSet<>(Arrays.asList("b", "a"))), Set.class);
+		assertEquals(TreeSet.class, sortedSet.getClass());
+		assertEquals(Arrays.asList("a", "b"), new ArrayList<>(sortedSet));
+	}
+
+
+	@Test
+	public void testFastjsonFallbackIsExplicit() throws CacheException {
+		final byte[] jsonBytes = SerializeUtils.serializeToBytes("value");
+		assertDecodeFails(jsonBytes, String.class);
+		assertEquals("value", new BinaryCacheCodec(true).decode(ByteBuffer.wrap(jsonBytes), String.class));
+	}
+
+
+	private void assertDecodeFails(byte[] bytes, Type type) {
+		try {
+			codec.decode(ByteBuffer.wrap(bytes), type);
+			fail("decode should fail for " + type);
+		} catch (CacheException exception) {
+			assertEquals(CacheConstants.EXCEPTION_CODEC_DECODE, exception.getErrCode());
+		}
+	}
+
+
+	private Object roundTrip(Object value, Type type) throws CacheException {
+		return codec.decode(ByteBuffer.wrap(codec.encode(value)), type);
+	}
+
+
+	// List<Node>
+	private static Type nodeListType() {
+		try {
+			return BinaryCacheCodecTest.class.getDeclaredField("nodeList").getGenericType();
+		} catch (NoSuchFieldException exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private List<Node> nodeList;
+
+
+	public enum Level {
+		LOW, HIGH
+	}
+
+
+	public static class Node {
+
+		private String				name;
+
+		private int					weight;
+
+		private Node				parent;
+
+		private List<Node>			children	=	new ArrayList<>();
+
+		private Map<String, Long>	attributes;
+
+		public Node() {
+		}
+
+		Node(String name, int weight) {
+			this.name = name;
+			this.weight = weight;
+		}
+	}
+
+
+	public static class LeafNode extends Node {
+
+		public LeafNode() {
+		}
+
+		LeafNode(String name, int weight) {
+			super(name, weight);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package org.zhuduan.cache.test;
+
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.zhuduan.cache.SimpleCacheAspect;
+import org.zhuduan.cache.storage.CacheStorageService;
+
+/***
+ *
+ * 测试用：给目标对象织入SimpleCacheAspect，使用指定的存储实现
+ * 		1.使用JDK动态代理（Spring 4.1的cglib在新版本的JDK上需要额外的--add-opens参数），因此通过接口调用
+ * 		2.@SimpleCache需要写在实现类的方法上（切点按目标类的方法匹配）
+ * 注意：方法的执行计划(CacheMethodPlan)按Method缓存在SimpleCacheAspect中，第一次调用时绑定存储实现，
+ * 		同一个方法在不同的测试中需要使用同一个存储实现
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public final class CacheAspectProxy {
+
+	private CacheAspectProxy() {
+	}
+
+
+	/***
+	 *
+	 * @param target 目标对象
+	 * @param storageService 存储实现
+	 * @return 目标对象实现的接口的代理
+	 */
+	public static <T> T create(Object target, CacheStorageService storageService) {
+		final AspectJProxyFactory proxyFactory = new AspectJProxyFactory(target);
+		proxyFactory.addAspect(new SimpleCacheAspect(storageService));
+		return proxyFactory.getProxy();
+	}
+}
@@ -0,0 +1,150 @@
+package org.zhuduan.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.zhuduan.cache.storage.CacheCounter;
+import org.zhuduan.cache.storage.FailureReportingCacheStorageService;
+import org.zhuduan.utils.CacheException;
+
+/***
+ *
+ * CacheCounter的累加和flush测试
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheCounterTest {
+
+	@Test
+	public void testFlushOnce() {
+		final CacheCounter counter = new CacheCounter(60);
+		counter.add(3L);
+		counter.add(4L);
+		final StubCacheStorageService target = new StubCacheStorageService();
+
+		assertEquals(1, CacheCounter.flush(counters("k", counter), target));
+		assertEquals(Long.valueOf(7L), target.counters.get("k"));
+		assertEquals(1, target.callCount.get());
+
+		// 没有新的增量时不再同步
+		assertEquals(0, CacheCounter.flush(counters("k", counter), target));
+		assertEquals(1, target.callCount.get());
+	}
+
+
+	@Test
+	public void testFailedFlushIsRetried() {
+		final CacheCounter counter = new CacheCounter(60);
+		counter.add(5L);
+		final StubCacheStorageService target = new StubCacheStorageService();
+		target.failing = true;
+
+		assertEquals(0, CacheCounter.flush(counters("k", counter), target));
+		assertEquals(null, target.counters.get("k"));
+
+		// 失败的增量和之后的增量一起同步
+		counter.add(2L);
+		target.failing = false;
+		assertEquals(1, CacheCounter.flush(counters("k", counter), target));
+		assertEquals(Long.valueOf(7L), target.counters.get("k"));
+		assertEquals(7L, counter.sum());
+	}
+
+
+	@Test
+	public void testFlushUsesFailureReportingIncr() {
+		final CacheCounter counter = new CacheCounter(60);
+		counter.add(5L);
+		final ZeroOnErrorStorageService target = new ZeroOnErrorStorageService();
+		target.failing = true;
+
+		// incrCacheKey出错时返回0（和Redis实现一致），flush使用incrCacheKeyOrThrow才能发现失败
+		assertEquals(0, CacheCounter.flush(counters("k", counter), target));
+		target.failing = false;
+		assertEquals(1, CacheCounter.flush(counters("k", counter), target));
+		assertEquals(Long.valueOf(5L), target.counters.get("k"));
+	}
+
+
+	@Test
+	public void testCellsAreAllocatedLazily() throws InterruptedException {
+		final CacheCounter counter = new CacheCounter(60);
+		counter.add(1L);
+		// 没有竞争时只有对象本身，计入容量的大小在第一次计算时固定
+		final long initialSize = counter.sizeOf();
+		assertTrue(initialSize < 64L);
+		assertEquals(initialSize, counter.weighedSize());
+
+		final int threadNum = 8;
+		final int addNum = 100000;
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final Thread[] threads = new Thread[threadNum];
+		for (int i=0; i<threadNum; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						startLatch.await();
+					} catch (InterruptedException exception) {
+						return;
+					}
+					for (int j=0; j<addNum; j++) {
+						counter.add(1L);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		startLatch.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(1L + threadNum * addNum, counter.sum());
+		// 分段最多64个（每个160字节）；计入容量的大小不随分段增加而变化
+		assertTrue(counter.sizeOf() >= initialSize);
+		assertTrue(counter.sizeOf() <= initialSize + 16 + 64 * 4 + 64 * 160);
+		assertEquals(initialSize, counter.weighedSize());
+	}
+
+
+	private static Map<String, CacheCounter> counters(String cacheKey, CacheCounter counter) {
+		final Map<String, CacheCounter> counters = new HashMap<>();
+		counters.put(cacheKey, counter);
+		return counters;
+	}
+
+
+	/***
+	 *
+	 * 和Redis实现一样：incrCacheKey出错时返回0，incrCacheKeyOrThrow出错时抛出异常
+	 *
+	 */
+	private static class ZeroOnErrorStorageService extends StubCacheStorageService implements FailureReportingCacheStorageService {
+
+		@Override
+		public void setFailureListener(FailureListener failureListener) {
+		}
+
+		@Override
+		public Long incrCacheKey(String cacheKey, long incrStep, int expireTimeSeconds) {
+			try {
+				return incrCacheKeyOrThrow(cacheKey, incrStep, expireTimeSeconds);
+			} catch (CacheException exception) {
+				return 0L;
+			}
+		}
+
+		@Override
+		public Long incrCacheKeyOrThrow(String cacheKey, long incrStep, int expireTimeSeconds) throws CacheException {
+			return super.incrCacheKey(cacheKey, incrStep, expireTimeSeconds);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package org.zhuduan.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import org.zhuduan.cache.codec.CacheObjectCopier;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+
+/***
+ *
+ * CacheObjectCopier复制后的集合类型和原来的类型相同（CLONE_ON_READ时方法声明的返回值可能是具体的类型）
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheObjectCopierTest {
+
+	private enum Color {
+		RED, GREEN, BLUE
+	}
+
+
+	@Test
+	public void testListTypesArePreserved() throws CacheException {
+		final CopyOnWriteArrayList<Date> list = new CopyOnWriteArrayList<>(Arrays.asList(new Date(1L), new Date(2L)));
+		final Object copy = CacheObjectCopier.deepCopy(list);
+		assertSame(CopyOnWriteArrayList.class, copy.getClass());
+		assertEquals(list, copy);
+		assertNotSame(list.get(0), ((List<?>) copy).get(0));
+
+		final ArrayDeque<String> deque = new ArrayDeque<>(Arrays.asList("a", "b", "c"));
+		final Object dequeCopy = CacheObjectCopier.deepCopy(deque);
+		assertSame(ArrayDeque.class, dequeCopy.getClass());
+		assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>((ArrayDeque<?>) dequeCopy));
+	}
+
+
+	@Test
+	public void testComparatorIsPreserved() throws CacheException {
+		final PriorityQueue<Integer> queue = new PriorityQueue<>(4, Collections.<Integer>reverseOrder());
+		queue.addAll(Arrays.asList(1, 3, 2));
+		final PriorityQueue<?> queueCopy = (PriorityQueue<?>) CacheObjectCopier.deepCopy(queue);
+		assertSame(PriorityQueue.class, queueCopy.getClass());
+		assertEquals(3, queueCopy.peek());
+
+		final TreeSet<String> set = new TreeSet<>(Collections.<String>reverseOrder());
+		set.addAll(Arrays.asList("a", "c", "b"));
+		final TreeSet<?> setCopy = (TreeSet<?>) CacheObjectCopier.deepCopy(set);
+		assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<>(setCopy));
+
+		final ConcurrentSkipListMap<String, Integer> map = new ConcurrentSkipListMap<>(Collections.<String>reverseOrder());
+		map.put("a", 1);
+		map.put("b", 2);
+		final Object mapCopy = CacheObjectCopier.deepCopy(map);
+		assertSame(ConcurrentSkipListMap.class, mapCopy.getClass());
+		assertEquals("b", ((ConcurrentSkipListMap<?, ?>) mapCopy).firstKey());
+	}
+
+
+	@Test
+	public void testEnumCollections() throws CacheException {
+		final EnumSet<Color> set = EnumSet.of(Color.RED, Color.BLUE);
+		final Object setCopy = CacheObjectCopier.deepCopy(set);
+		assertSame(set.getClass(), setCopy.getClass());
+		assertEquals(set, setCopy);
+
+		final EnumMap<Color, Date> map = new EnumMap<>(Color.class);
+		map.put(Color.GREEN, new Date(1L));
+		@SuppressWarnings("unchecked")
+		final EnumMap<Color, Date> mapCopy = (EnumMap<Color, Date>) CacheObjectCopier.deepCopy(map);
+		assertEquals(map, mapCopy);
+		assertNotSame(map.get(Color.GREEN), mapCopy.get(Color.GREEN));
+	}
+
+
+	@Test
+	public void testUnconstructableCollections() throws CacheException {
+		// 没有public无参构造方法：通过JDK序列化复制，类型不变
+		final List<String> fixedList = Arrays.asList("a", "b");
+		assertSame(fixedList.getClass(), CacheObjectCopier.deepCopy(fixedList).getClass());
+		final List<String> readOnlyList = Collections.unmodifiableList(new ArrayList<>(fixedList));
+		assertSame(readOnlyList.getClass(), CacheObjectCopier.deepCopy(readOnlyList).getClass());
+
+		// 既不能创建也不能序列化：复制失败，而不是换成其它类型
+		final List<String> customList = new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				return "a";
+			}
+
+			@Override
+			public int size() {
+				return 1;
+			}
+		};
+		try {
+			CacheObjectCopier.deepCopy(customList);
+			fail();
+		} catch (CacheException exception) {
+			assertEquals(CacheConstants.EXCEPTION_CODEC_COPY, exception.getErrCode());
+		}
+	}
+}
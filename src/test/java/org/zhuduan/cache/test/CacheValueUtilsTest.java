@@ -0,0 +1,112 @@
+package org.zhuduan.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.zhuduan.model.CacheValueModel;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+import org.zhuduan.utils.CacheValueUtils;
+
+/***
+ *
+ * CacheValueUtils的头部和压缩测试
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CacheValueUtilsTest {
+
+	@Test
+	public void testPlainValue() {
+		final byte[] cacheBytes = "{\"id\":1}".getBytes();
+		final CacheValueModel valueModel = CacheValueUtils.unwrap(CacheValueUtils.wrap(new CacheValueModel(), cacheBytes));
+		assertFalse(valueModel.isNullValue());
+		assertArrayEquals(cacheBytes, toBytes(valueModel.getCacheBuffer()));
+	}
+
+
+	@Test
+	public void testMetaRoundTrip() {
+		final CacheValueModel valueModel = new CacheValueModel();
+		valueModel.setRefreshTimeLong(1000L);
+		valueModel.setExpireTimeLong(2000L);
+		valueModel.setLoadCostLong(30L);
+
+		final CacheValueModel result = CacheValueUtils.unwrap(CacheValueUtils.wrap(valueModel, new byte[]{7, 8}));
+		assertEquals(1000L, result.getRefreshTimeLong());
+		assertEquals(2000L, result.getExpireTimeLong());
+		assertEquals(30L, result.getLoadCostLong());
+		assertArrayEquals(new byte[]{7, 8}, toBytes(result.getCacheBuffer()));
+	}
+
+
+	@Test
+	public void testNullValue() {
+		assertTrue(CacheValueUtils.unwrap(CacheValueUtils.NULL_VALUE).isNullValue());
+	}
+
+
+	@Test
+	public void testUnknownHeaderIsMiss() {
+		// 旧的文本头部和截断的二进制头部都不再识别
+		assertNull(CacheValueUtils.unwrap(new byte[]{1, '1', ',', '2', 2, 'v'}));
+		assertNull(CacheValueUtils.unwrap(new byte[]{1, 4, 0, 3, 0, 0}));
+	}
+
+
+	@Test
+	public void testCompressRoundTrip() throws CacheException {
+		final byte[] rawBytes = new byte[4096];
+		Arrays.fill(rawBytes, (byte) 'a');
+		final byte[] compressedBytes = CacheValueUtils.compress(rawBytes);
+		assertNotNull(compressedBytes);
+		assertTrue(compressedBytes.length < rawBytes.length);
+
+		final CacheValueModel valueModel = new CacheValueModel();
+		valueModel.setCompressed(true);
+		valueModel.setRawLength(rawBytes.length);
+		final CacheValueModel result = CacheValueUtils.unwrap(CacheValueUtils.wrap(valueModel, compressedBytes));
+		assertTrue(result.isCompressed());
+		CacheValueUtils.decompress(result);
+		assertArrayEquals(rawBytes, toBytes(result.getCacheBuffer()));
+	}
+
+
+	@Test
+	public void testCorruptRawLengthIsRejected() {
+		final byte[] rawBytes = new byte[4096];
+		Arrays.fill(rawBytes, (byte) 'a');
+		final byte[] compressedBytes = CacheValueUtils.compress(rawBytes);
+
+		// 头部中的长度远超过压缩后的值能解压出的长度：直接拒绝，不分配数组
+		final CacheValueModel valueModel = new CacheValueModel();
+		valueModel.setCompressed(true);
+		valueModel.setRawLength(Integer.MAX_VALUE);
+		final CacheValueModel result = CacheValueUtils.unwrap(CacheValueUtils.wrap(valueModel, compressedBytes));
+		assertEquals(Integer.MAX_VALUE, result.getRawLength());
+		try {
+			CacheValueUtils.decompress(result);
+			fail("corrupt raw length should be rejected");
+		} catch (CacheException exception) {
+			assertEquals(CacheConstants.EXCEPTION_CODEC_DECODE, exception.getErrCode());
+		}
+	}
+
+
+	private static byte[] toBytes(ByteBuffer buffer) {
+		final byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,275 @@
+package org.zhuduan.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+
+import org.junit.Test;
+import org.zhuduan.cache.storage.FailureReportingCacheStorageService;
+import org.zhuduan.cache.storage.impl.breaker.CacheCircuitBreaker;
+import org.zhuduan.cache.storage.impl.breaker.CacheStorageServiceCircuitBreakerImpl;
+import org.zhuduan.config.CircuitBreakerConfig;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+
+/***
+ *
+ * 熔断器的状态切换（CLOSED -> OPEN -> HALF_OPEN -> OPEN/CLOSED）、失败报告和熔断期间写入的key的删除
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class CircuitBreakerTest {
+
+	private static final long	OPEN_MILLIS	=	50L;
+
+
+	@Test
+	public void testStateTransitions() throws Exception {
+		final StubCacheStorageService remote = new StubCacheStorageService();
+		final CacheStorageServiceCircuitBreakerImpl breakerImpl = new CacheStorageServiceCircuitBreakerImpl(remote, config(), null);
+		final CacheCircuitBreaker circuitBreaker = breakerImpl.getCircuitBreaker();
+
+		remote.failing = true;
+		assertNull(breakerImpl.getCacheBytes("k"));
+		assertEquals(CacheCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+		assertNull(breakerImpl.getCacheBytes("k"));
+		assertEquals(CacheCircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+		// 熔断期间直接短路
+		final int callCount = remote.callCount.get();
+		assertNull(breakerImpl.getCacheBytes("k"));
+		assertEquals(callCount, remote.callCount.get());
+		assertEquals(1L, circuitBreaker.getShortCircuitCount());
+
+		// 半开状态探测失败，重新熔断
+		Thread.sleep(OPEN_MILLIS + 10L);
+		assertNull(breakerImpl.getCacheBytes("k"));
+		assertEquals(callCount + 1, remote.callCount.get());
+		assertEquals(CacheCircuitBreaker.State.OPEN, circuitBreaker.getState());
+		assertEquals(2L, circuitBreaker.getTripCount());
+
+		// 半开状态只放行一次探测，探测成功后恢复
+		Thread.sleep(OPEN_MILLIS + 10L);
+		remote.failing = false;
+		remote.values.put("k", new byte[]{1});
+		assertArrayEquals(new byte[]{1}, breakerImpl.getCacheBytes("k"));
+		assertEquals(CacheCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+		assertTrue(circuitBreaker.getOpenMillisTotal() >= 2 * OPEN_MILLIS);
+	}
+
+
+	@Test
+	public void testHalfOpenOnlyAllowsProbes() throws Exception {
+		final StubCacheStorageService remote = new StubCacheStorageService();
+		final CircuitBreakerConfig config = config();
+		config.setHalfOpenProbes(2);
+		final CacheStorageServiceCircuitBreakerImpl breakerImpl = new CacheStorageServiceCircuitBreakerImpl(remote, config, null);
+		final CacheCircuitBreaker circuitBreaker = breakerImpl.getCircuitBreaker();
+		trip(breakerImpl, remote);
+
+		Thread.sleep(OPEN_MILLIS + 10L);
+		remote.failing = false;
+		breakerImpl.getCacheBytes("k");
+		assertEquals(CacheCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+		breakerImpl.getCacheBytes("k");
+		assertEquals(CacheCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+	}
+
+
+	@Test
+	public void testReportedFailureTripsBreaker() throws CacheException {
+		// 出错时不抛出异常，只返回null并报告失败（和Redis实现一样）
+		final ReportingStorageService remote = new ReportingStorageService();
+		final CacheStorageServiceCircuitBreakerImpl breakerImpl = new CacheStorageServiceCircuitBreakerImpl(remote, config(), null);
+		remote.quietFailing = true;
+		breakerImpl.getCacheBytes("k");
+		breakerImpl.getCacheBytes("k");
+		assertEquals(CacheCircuitBreaker.State.OPEN, breakerImpl.getCircuitBreaker().getState());
+		assertEquals(2L, breakerImpl.getCircuitBreaker().getFailureCount());
+	}
+
+
+	@Test
+	public void testWritesDuringOpenAreDeletedAfterRecovery() throws Exception {
+		final StubCacheStorageService remote = new StubCacheStorageService();
+		final CacheStorageServiceCircuitBreakerImpl breakerImpl = new CacheStorageServiceCircuitBreakerImpl(remote, config(), null);
+		remote.values.put("deleted", new byte[]{1});
+		remote.values.put("updated", new byte[]{1});
+		remote.values.put("other", new byte[]{1});
+		trip(breakerImpl, remote);
+
+		// 没有fallback时熔断期间的写入和删除返回false，但是记录下key
+		remote.failing = false;
+		assertFalse(breakerImpl.deleteCache("deleted"));
+		assertFalse(breakerImpl.setCacheBytes("updated", new byte[]{2}, 60));
+		assertEquals(2, breakerImpl.getPendingKeyCount());
+		assertArrayEquals(new byte[]{1}, remote.values.get("deleted"));
+
+		// 恢复后第一个调用先删除这些key
+		Thread.sleep(OPEN_MILLIS + 10L);
+		assertArrayEquals(new byte[]{1}, breakerImpl.getCacheBytes("other"));
+		assertNull(remote.values.get("deleted"));
+		assertNull(remote.values.get("updated"));
+		assertEquals(0, breakerImpl.getPendingKeyCount());
+		assertEquals(CacheCircuitBreaker.State.CLOSED, breakerImpl.getCircuitBreaker().getState());
+	}
+
+
+	@Test
+	public void testReplayIsNotCountedAsProbe() throws Exception {
+		final StubCacheStorageService remote = new StubCacheStorageService();
+		final CircuitBreakerConfig config = config();
+		config.setHalfOpenProbes(2);
+		final CacheStorageServiceCircuitBreakerImpl breakerImpl = new CacheStorageServiceCircuitBreakerImpl(remote, config, null);
+		final CacheCircuitBreaker circuitBreaker = breakerImpl.getCircuitBreaker();
+		remote.values.put("updated", new byte[]{1});
+		trip(breakerImpl, remote);
+		remote.failing = false;
+		assertFalse(breakerImpl.setCacheBytes("updated", new byte[]{2}, 60));
+
+		// 第一次探测之前删除记录的key，但只有探测本身算作一次结果
+		Thread.sleep(OPEN_MILLIS + 10L);
+		final long callCount = circuitBreaker.getCallCount();
+		assertNull(breakerImpl.getCacheBytes("updated"));
+		assertEquals(0, breakerImpl.getPendingKeyCount());
+		assertEquals(callCount + 1, circuitBreaker.getCallCount());
+		assertEquals(CacheCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+		breakerImpl.getCacheBytes("other");
+		assertEquals(CacheCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+	}
+
+
+	@Test
+	public void testFailedReplayDoesNotFailProbe() throws Exception {
+		final FailingDeleteStorageService remote = new FailingDeleteStorageService();
+		final CacheStorageServiceCircuitBreakerImpl breakerImpl = new CacheStorageServiceCircuitBreakerImpl(remote, config(), null);
+		final CacheCircuitBreaker circuitBreaker = breakerImpl.getCircuitBreaker();
+		trip(breakerImpl, remote);
+		remote.failing = false;
+		assertFalse(breakerImpl.deleteCache("deleted"));
+
+		// 删除记录的key失败：记录保留，探测本身成功时仍然恢复
+		Thread.sleep(OPEN_MILLIS + 10L);
+		remote.deleteFailing = true;
+		final long failureCount = circuitBreaker.getFailureCount();
+		breakerImpl.getCacheBytes("other");
+		assertEquals(1, breakerImpl.getPendingKeyCount());
+		assertEquals(failureCount, circuitBreaker.getFailureCount());
+		assertEquals(CacheCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+		// 恢复后的下一次调用再删除
+		remote.deleteFailing = false;
+		breakerImpl.getCacheBytes("other");
+		assertEquals(0, breakerImpl.getPendingKeyCount());
+	}
+
+
+	@Test
+	public void testWritesDuringOpenGoToFallback() throws Exception {
+		final StubCacheStorageService remote = new StubCacheStorageService();
+		final StubCacheStorageService fallback = new StubCacheStorageService();
+		final CacheStorageServiceCircuitBreakerImpl breakerImpl = new CacheStorageServiceCircuitBreakerImpl(remote, config(), fallback);
+		remote.values.put("k", new byte[]{1});
+		trip(breakerImpl, remote);
+
+		remote.failing = false;
+		assertTrue(breakerImpl.setCacheBytes("k", new byte[]{2}, 60));
+		assertArrayEquals(new byte[]{2}, breakerImpl.getCacheBytes("k"));
+
+		// 恢复后Redis中的旧值被删除，不会读到熔断之前的值
+		Thread.sleep(OPEN_MILLIS + 10L);
+		assertNull(breakerImpl.getCacheBytes("k"));
+	}
+
+
+	@Test
+	public void testIncrFailsWhenOpen() throws Exception {
+		final StubCacheStorageService remote = new StubCacheStorageService();
+		final CacheStorageServiceCircuitBreakerImpl breakerImpl = new CacheStorageServiceCircuitBreakerImpl(remote, config(), null);
+		trip(breakerImpl, remote);
+		try {
+			breakerImpl.incrCacheKey("n", 1L, 60);
+			fail("incr should fail when open");
+		} catch (CacheException exception) {
+			assertEquals(CacheConstants.EXCEPTION_STORAGE_OPERATION, exception.getErrCode());
+		}
+	}
+
+
+	// 连续两次失败，进入OPEN
+	private static void trip(CacheStorageServiceCircuitBreakerImpl breakerImpl, StubCacheStorageService remote) {
+		remote.failing = true;
+		breakerImpl.getCacheBytes("trip");
+		breakerImpl.getCacheBytes("trip");
+		assertEquals(CacheCircuitBreaker.State.OPEN, breakerImpl.getCircuitBreaker().getState());
+	}
+
+
+	private static CircuitBreakerConfig config() {
+		final CircuitBreakerConfig config = new CircuitBreakerConfig();
+		config.setLatencyBudgetMillis(1000L);
+		config.setMinimumCalls(2);
+		config.setFailureRateThreshold(0.5D);
+		config.setOpenMillis(OPEN_MILLIS);
+		config.setHalfOpenProbes(1);
+		return config;
+	}
+
+
+	/***
+	 *
+	 * 批量删除可以单独出错的存储实现
+	 *
+	 */
+	private static class FailingDeleteStorageService extends StubCacheStorageService {
+
+		volatile boolean	deleteFailing;
+
+		@Override
+		public Boolean deleteAll(Collection<String> cacheKeys) {
+			if (deleteFailing) {
+				throw new IllegalStateException("delete failing");
+			}
+			return super.deleteAll(cacheKeys);
+		}
+	}
+
+
+	/***
+	 *
+	 * 出错时报告失败而不抛出异常的存储实现
+	 *
+	 */
+	private static class ReportingStorageService extends StubCacheStorageService implements FailureReportingCacheStorageService {
+
+		private volatile FailureListener	failureListener;
+
+		volatile boolean					quietFailing;
+
+		@Override
+		public void setFailureListener(FailureListener failureListener) {
+			this.failureListener = failureListener;
+		}
+
+		@Override
+		public Long incrCacheKeyOrThrow(String cacheKey, long incrStep, int expireTimeSeconds) throws CacheException {
+			return super.incrCacheKey(cacheKey, incrStep, expireTimeSeconds);
+		}
+
+		@Override
+		public byte[] getCacheBytes(String cacheKey) {
+			if (quietFailing) {
+				failureListener.onFailure(new IllegalStateException("connection refused"));
+				return null;
+			}
+			return super.getCacheBytes(cacheKey);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.zhuduan.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.zhuduan.cache.storage.CacheMemoryPressureMonitor;
+import org.zhuduan.cache.storage.impl.guava.CacheStorageServiceExpireGuavaImpl;
+
+/***
+ *
+ * CacheStorageServiceExpireGuavaImpl关闭后释放守护线程和内存压力的Listener
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class ExpireGuavaCloseTest {
+
+	private static final String	GUARD_THREAD_NAME	=	"SimpleCache-expireGuava-guard";
+
+
+	@Test
+	public void testCloseStopsGuardThreadAndListener() throws InterruptedException {
+		final CacheMemoryPressureMonitor monitor = CacheMemoryPressureMonitor.getInstance();
+		final int guardCount = countGuardThreads();
+		final int listenerCount = monitor.getListenerCount();
+		final CacheStorageServiceExpireGuavaImpl expireGuava = new CacheStorageServiceExpireGuavaImpl(1024L * 1024L);
+		assertEquals(guardCount + 1, countGuardThreads());
+		assertEquals(listenerCount + 1, monitor.getListenerCount());
+		expireGuava.setCacheBytes("k", new byte[]{1}, 60);
+
+		expireGuava.close();
+		expireGuava.close();
+		for (int i=0; i<100 && countGuardThreads() > guardCount; i++) {
+			Thread.sleep(10L);
+		}
+		assertEquals(guardCount, countGuardThreads());
+
+		// 不再响应内存压力（不调用全局的shed，避免释放同一个JVM中其它测试的缓存），但是仍然可以读写
+		assertEquals(listenerCount, monitor.getListenerCount());
+		assertArrayEquals(new byte[]{1}, expireGuava.getCacheBytes("k"));
+		assertFalse(expireGuava.deleteCache(""));
+		assertTrue(expireGuava.deleteCache("k"));
+		assertNull(expireGuava.getCacheBytes("k"));
+	}
+
+
+	@Test
+	public void testCloseSingleton() {
+		final CacheStorageServiceExpireGuavaImpl instance = CacheStorageServiceExpireGuavaImpl.getInstance();
+		assertSame(instance, CacheStorageServiceExpireGuavaImpl.getInstance());
+		instance.close();
+		final CacheStorageServiceExpireGuavaImpl newInstance = CacheStorageServiceExpireGuavaImpl.getInstance();
+		assertNotSame(instance, newInstance);
+		newInstance.close();
+	}
+
+
+	private static int countGuardThreads() {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (GUARD_THREAD_NAME.equals(thread.getName()) && thread.isAlive()) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,73 @@
+package org.zhuduan.cache.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+import org.zhuduan.cache.SimpleCache;
+
+/***
+ *
+ * JDK动态代理：同一个接口方法的不同实现类使用各自@SimpleCache的配置
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class InterfaceMethodPlanTest {
+
+	@Test
+	public void testImplementationsKeepTheirOwnExpire() {
+		final ExpireRecordingStorage storage = new ExpireRecordingStorage();
+		final NameService shortService = CacheAspectProxy.create(new ShortNameServiceImpl(), storage);
+		final NameService longService = CacheAspectProxy.create(new LongNameServiceImpl(), storage);
+
+		assertEquals("short-1", shortService.name(1));
+		assertEquals("long-1", longService.name(1));
+		assertEquals(2, storage.expires.size());
+		for (String cacheKey : storage.expires.keySet()) {
+			final int expectedExpire = cacheKey.contains(ShortNameServiceImpl.class.getSimpleName()) ? 30 : 600;
+			assertEquals(cacheKey, Integer.valueOf(expectedExpire), storage.expires.get(cacheKey));
+		}
+	}
+
+
+	public interface NameService {
+
+		String name(int id);
+	}
+
+
+	public static class ShortNameServiceImpl implements NameService {
+
+		@Override
+		@SimpleCache(expire=30)
+		public String name(int id) {
+			return "short-" + id;
+		}
+	}
+
+
+	public static class LongNameServiceImpl implements NameService {
+
+		@Override
+		@SimpleCache(expire=600)
+		public String name(int id) {
+			return "long-" + id;
+		}
+	}
+
+
+	// 记录每个key写入时的过期时间
+	static class ExpireRecordingStorage extends StubCacheStorageService {
+
+		final ConcurrentHashMap<String, Integer> expires = new ConcurrentHashMap<>();
+
+		@Override
+		public Boolean setCacheBytes(String cacheKey, byte[] cacheBytes, int expireTimeSeconds) {
+			expires.put(cacheKey, expireTimeSeconds);
+			return super.setCacheBytes(cacheKey, cacheBytes, expireTimeSeconds);
+		}
+	}
+}
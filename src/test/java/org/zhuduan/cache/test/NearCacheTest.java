@@ -0,0 +1,125 @@
+package org.zhuduan.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import org.zhuduan.cache.storage.CacheInvalidationBus;
+import org.zhuduan.cache.storage.impl.local.CacheStorageServiceLocalImpl;
+import org.zhuduan.cache.storage.impl.tiered.CacheStorageServiceTieredImpl;
+import org.zhuduan.config.SimpleCacheConfig;
+import org.zhuduan.utils.CacheException;
+
+/***
+ *
+ * 近端缓存（本地L1 + 远程L2 + 失效消息）的测试，用StubCacheStorageService模拟Redis
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class NearCacheTest {
+
+	@Test
+	public void testNearCacheInstanceIsDedicated() {
+		final CacheStorageServiceLocalImpl nearCache = CacheStorageServiceLocalImpl.getNearCacheInstance();
+		assertNotSame(CacheStorageServiceLocalImpl.getInstance(), nearCache);
+		assertEquals(SimpleCacheConfig.NEAR_CACHE_OBJECT_NUM_MAX, nearCache.getMaximumSize());
+		assertEquals(SimpleCacheConfig.NEAR_CACHE_MAXIMUM_BYTES, nearCache.getMaximumBytes());
+
+		// 本地方案的key不会出现在近端缓存中
+		CacheStorageServiceLocalImpl.getInstance().setCacheBytes("near:dedicated", new byte[]{1}, 60);
+		assertNull(nearCache.getCacheBytes("near:dedicated"));
+	}
+
+
+	@Test
+	public void testWriteInvalidatesOtherNodes() throws CacheException {
+		final StubCacheStorageService remote = new StubCacheStorageService();
+		final List<LocalBus> peers = new CopyOnWriteArrayList<>();
+		final StubCacheStorageService l1A = new StubCacheStorageService();
+		final StubCacheStorageService l1B = new StubCacheStorageService();
+		final CacheStorageServiceTieredImpl nodeA = new CacheStorageServiceTieredImpl(l1A, remote, 5, new LocalBus(peers));
+		final CacheStorageServiceTieredImpl nodeB = new CacheStorageServiceTieredImpl(l1B, remote, 5, new LocalBus(peers));
+
+		nodeA.setCacheBytes("k", new byte[]{1}, 60);
+		assertArrayEquals(new byte[]{1}, nodeB.getCacheBytes("k"));
+		assertEquals(1, l1B.values.size());
+
+		// A写入新值后B的L1被删除，下次从L2读到新值
+		nodeA.setCacheBytes("k", new byte[]{2}, 60);
+		assertEquals(0, l1B.values.size());
+		assertArrayEquals(new byte[]{2}, nodeB.getCacheBytes("k"));
+		assertEquals(2, nodeB.getInvalidateCount());
+
+		// 删除和自增同样广播
+		nodeA.deleteCache("k");
+		assertNull(nodeB.getCacheBytes("k"));
+		nodeB.setCacheBytes("n", new byte[]{3}, 60);
+		nodeA.getCacheBytes("n");
+		nodeB.incrCacheKey("n", 1L, 60);
+		assertEquals(0, l1A.values.size());
+	}
+
+
+	@Test
+	public void testResubscribeDropsOldL1Values() throws CacheException {
+		final StubCacheStorageService remote = new StubCacheStorageService();
+		final List<LocalBus> peers = new CopyOnWriteArrayList<>();
+		final StubCacheStorageService l1 = new StubCacheStorageService();
+		final LocalBus bus = new LocalBus(peers);
+		final CacheStorageServiceTieredImpl node = new CacheStorageServiceTieredImpl(l1, remote, 5, bus);
+
+		node.setCacheBytes("k", new byte[]{1}, 60);
+		// 订阅断开期间其它节点修改了L2
+		remote.values.put("k", new byte[]{2});
+		assertArrayEquals(new byte[]{1}, node.getCacheBytes("k"));
+
+		bus.listener.onInvalidateAll();
+		assertArrayEquals(new byte[]{2}, node.getCacheBytes("k"));
+	}
+
+
+	/***
+	 *
+	 * 同一个进程内的失效消息通道：消息发给peers中的其它节点
+	 *
+	 */
+	private static class LocalBus implements CacheInvalidationBus {
+
+		private final List<LocalBus>	peers;
+
+		private volatile Listener		listener;
+
+		LocalBus(List<LocalBus> peers) {
+			this.peers = peers;
+			peers.add(this);
+		}
+
+		@Override
+		public void publish(Collection<String> cacheKeys) {
+			for (LocalBus peer : peers) {
+				if (peer != this && peer.listener != null) {
+					peer.listener.onInvalidate(new ArrayList<>(cacheKeys));
+				}
+			}
+		}
+
+		@Override
+		public void subscribe(Listener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void close() {
+			peers.remove(this);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package org.zhuduan.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.zhuduan.cache.SimpleCache;
+
+/***
+ *
+ * @SimpleCache(nullExpire)：null结果按nullExpire缓存，命中时返回null（而不是空值标记），过期后重新执行方法
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class NullCacheTest {
+
+	@Test
+	public void testNullResultIsCachedWithNullExpire() {
+		final InterfaceMethodPlanTest.ExpireRecordingStorage storage = new InterfaceMethodPlanTest.ExpireRecordingStorage();
+		final UserServiceImpl target = new UserServiceImpl();
+		final UserService service = CacheAspectProxy.create(target, storage);
+
+		assertNull(service.find("missing"));
+		assertEquals(1, target.calls.get());
+		assertEquals(1, storage.expires.size());
+		final String cacheKey = storage.expires.keySet().iterator().next();
+		assertEquals(Integer.valueOf(5), storage.expires.get(cacheKey));
+
+		// 命中负缓存：返回null，不再执行方法
+		assertNull(service.find("missing"));
+		assertEquals(1, target.calls.get());
+
+		// 过期之后重新执行方法，有值时按expire缓存
+		storage.values.remove(cacheKey);
+		target.value = "found";
+		assertEquals("found", service.find("missing"));
+		assertEquals(2, target.calls.get());
+		assertEquals(Integer.valueOf(60), storage.expires.get(cacheKey));
+		assertEquals("found", service.find("missing"));
+		assertEquals(2, target.calls.get());
+	}
+
+
+	@Test
+	public void testNullResultIsNotCachedByDefault() {
+		final InterfaceMethodPlanTest.ExpireRecordingStorage storage = new InterfaceMethodPlanTest.ExpireRecordingStorage();
+		final UserServiceImpl target = new UserServiceImpl();
+		final UserService service = CacheAspectProxy.create(target, storage);
+
+		assertNull(service.findUncached("missing"));
+		assertNull(service.findUncached("missing"));
+		assertEquals(2, target.calls.get());
+		assertEquals(0, storage.expires.size());
+	}
+
+
+	public interface UserService {
+
+		String find(String id);
+
+		String findUncached(String id);
+	}
+
+
+	public static class UserServiceImpl implements UserService {
+
+		final AtomicInteger		calls	=	new AtomicInteger();		// 方法实际执行的次数
+
+		volatile String			value;								// 方法的返回值
+
+
+		@Override
+		@SimpleCache(expire=60, nullExpire=5)
+		public String find(String id) {
+			calls.incrementAndGet();
+			return value;
+		}
+
+
+		@Override
+		@SimpleCache(expire=60)
+		public String findUncached(String id) {
+			calls.incrementAndGet();
+			return value;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package org.zhuduan.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.zhuduan.cache.storage.ReloadableCacheStorageService.Reloader;
+import org.zhuduan.cache.storage.impl.guava.CacheStorageServiceOriginGuavaImpl;
+import org.zhuduan.config.OriginGuavaConfig;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+
+/***
+ *
+ * CacheStorageServiceOriginGuavaImpl的配置检验和refreshAfterWrite的后台刷新
+ * 		1.Reloader在刷新线程中对同一个key的写入作为刷新的结果（ReloadCapture），对其它key的写入直接生效
+ * 		2.Reloader没有写入新值时保留旧值
+ * 注意：单例只会创建一次，这里的单例配置了1秒的refreshAfterWrite
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class OriginGuavaReloadTest {
+
+	private static final int	EXPIRE_SECONDS	=	60;
+
+
+	@Test
+	public void testInvalidConfigRejected() {
+		final OriginGuavaConfig noThread = new OriginGuavaConfig(100L, 0L, EXPIRE_SECONDS, 1L);
+		noThread.setRefreshThreadNum(0);
+		assertInitialFails(noThread);
+
+		final OriginGuavaConfig noBytes = new OriginGuavaConfig();
+		noBytes.setMaximumBytes(0L);
+		assertInitialFails(noBytes);
+
+		// 刷新不早于过期：值在刷新之前就已经过期了
+		assertInitialFails(new OriginGuavaConfig(100L, 0L, EXPIRE_SECONDS, EXPIRE_SECONDS));
+		assertInitialFails(new OriginGuavaConfig(100L, 0L, EXPIRE_SECONDS, EXPIRE_SECONDS + 1));
+	}
+
+
+	@Test
+	public void testReloadCapturesWrittenValue() throws Exception {
+		final CacheStorageServiceOriginGuavaImpl originGuava = reloadableInstance();
+		final AtomicReference<Thread> reloadThread = new AtomicReference<>();
+		final AtomicReference<byte[]> duringReload = new AtomicReference<>();
+		final CountDownLatch oldValueRead = new CountDownLatch(1);
+		final CountDownLatch reloaded = new CountDownLatch(1);
+		originGuava.setCacheBytes("reload-key", new byte[]{1}, EXPIRE_SECONDS, new Reloader() {
+			@Override
+			public void reload(String cacheKey) throws Throwable {
+				reloadThread.set(Thread.currentThread());
+				oldValueRead.await(5L, TimeUnit.SECONDS);
+				// 同一个key的写入作为刷新结果，其它key直接写入
+				originGuava.setCacheBytes(cacheKey, new byte[]{2}, EXPIRE_SECONDS);
+				originGuava.setCacheBytes("reload-other", new byte[]{3}, EXPIRE_SECONDS);
+				duringReload.set(originGuava.getCacheBytes(cacheKey));
+				reloaded.countDown();
+			}
+		});
+
+		Thread.sleep(1100L);
+		// 超过refreshAfterWrite之后的读取直接拿到旧值，刷新在后台线程中进行
+		assertArrayEquals(new byte[]{1}, originGuava.getCacheBytes("reload-key"));
+		oldValueRead.countDown();
+		assertTrue(reloaded.await(5L, TimeUnit.SECONDS));
+		assertNotSame(Thread.currentThread(), reloadThread.get());
+		// 刷新结束之前新值没有直接写入缓存
+		assertArrayEquals(new byte[]{1}, duringReload.get());
+		assertArrayEquals(new byte[]{2}, waitForValue(originGuava, "reload-key", new byte[]{2}));
+		assertArrayEquals(new byte[]{3}, originGuava.getCacheBytes("reload-other"));
+	}
+
+
+	@Test
+	public void testReloadWithoutValueKeepsOldValue() throws Exception {
+		final CacheStorageServiceOriginGuavaImpl originGuava = reloadableInstance();
+		final CountDownLatch reloaded = new CountDownLatch(1);
+		originGuava.setCacheBytes("reload-none", new byte[]{1}, EXPIRE_SECONDS, new Reloader() {
+			@Override
+			public void reload(String cacheKey) throws Throwable {
+				// 方法返回null时不会写入
+				reloaded.countDown();
+			}
+		});
+
+		Thread.sleep(1100L);
+		assertArrayEquals(new byte[]{1}, originGuava.getCacheBytes("reload-none"));
+		assertTrue(reloaded.await(5L, TimeUnit.SECONDS));
+		Thread.sleep(100L);
+		assertArrayEquals(new byte[]{1}, originGuava.getCacheBytes("reload-none"));
+	}
+
+
+	private static CacheStorageServiceOriginGuavaImpl reloadableInstance() throws CacheException {
+		final CacheStorageServiceOriginGuavaImpl originGuava = CacheStorageServiceOriginGuavaImpl.getInstance(
+				new OriginGuavaConfig(1000L, 0L, EXPIRE_SECONDS, 1L));
+		assertTrue(originGuava.isReloadEnabled());
+		return originGuava;
+	}
+
+
+	private static byte[] waitForValue(CacheStorageServiceOriginGuavaImpl originGuava, String cacheKey, byte[] expected) throws InterruptedException {
+		byte[] value = originGuava.getCacheBytes(cacheKey);
+		for (int i=0; i<100 && (value == null || value[0] != expected[0]); i++) {
+			Thread.sleep(10L);
+			value = originGuava.getCacheBytes(cacheKey);
+		}
+		return value;
+	}
+
+
+	private static void assertInitialFails(OriginGuavaConfig config) {
+		try {
+			CacheStorageServiceOriginGuavaImpl.getInstance(config);
+			fail(config.toString());
+		} catch (CacheException exception) {
+			assertEquals(CacheConstants.EXCEPTION_INITIAL_PARAM, exception.getErrCode());
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package org.zhuduan.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.zhuduan.cache.SimpleCache;
+import org.zhuduan.cache.codec.CacheCodec;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+
+/***
+ *
+ * @SimpleCache(singleFlight=true)：同一个key的并发未命中只执行一次方法，等待超时后调用方自己执行
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class SingleFlightTest {
+
+	private static final StubCacheStorageService	storage		=	new StubCacheStorageService();
+
+	private static final int						THREAD_NUM	=	8;
+
+
+	@Test
+	public void testConcurrentMissesShareOneLoad() throws Exception {
+		final SlowServiceImpl target = new SlowServiceImpl();
+		final SlowService service = CacheAspectProxy.create(target, storage);
+		final ExecutorService executor = Executors.newFixedThreadPool(THREAD_NUM);
+		try {
+			final List<Future<String>> futures = new ArrayList<>();
+			for (int i=0; i<THREAD_NUM; i++) {
+				futures.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						return service.load("shared");
+					}
+				}));
+			}
+			// leader开始执行后，等其它线程都进入等待再放行
+			assertTrue(target.started.await(5L, TimeUnit.SECONDS));
+			Thread.sleep(200L);
+			target.release.countDown();
+			for (Future<String> future : futures) {
+				assertEquals("v-shared", future.get(5L, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, target.calls.get());
+	}
+
+
+	@Test
+	public void testWaitTimeoutFallsBackToOwnLoad() throws Exception {
+		final SlowServiceImpl target = new SlowServiceImpl();
+		final SlowService service = CacheAspectProxy.create(target, storage);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<String> leader = executor.submit(new Callable<String>() {
+				@Override
+				public String call() {
+					return service.loadWithTimeout("timeout");
+				}
+			});
+			assertTrue(target.started.await(5L, TimeUnit.SECONDS));
+
+			// leader还在执行：等待50毫秒后自己执行方法
+			assertEquals("v-timeout", service.loadWithTimeout("timeout"));
+			assertEquals(2, target.calls.get());
+
+			target.release.countDown();
+			assertEquals("v-timeout", leader.get(5L, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+
+	@Test
+	public void testUnencodableResultIsNotShared() throws Exception {
+		final SlowServiceImpl target = new SlowServiceImpl();
+		final SlowService service = CacheAspectProxy.create(target, storage);
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final Future<List<String>> leader = executor.submit(new Callable<List<String>>() {
+				@Override
+				public List<String> call() {
+					return service.loadList("list");
+				}
+			});
+			assertTrue(target.started.await(5L, TimeUnit.SECONDS));
+			final Future<List<String>> waiter = executor.submit(new Callable<List<String>>() {
+				@Override
+				public List<String> call() {
+					return service.loadList("list");
+				}
+			});
+			Thread.sleep(200L);
+			target.release.countDown();
+
+			// 无法编码时等待者得到leader结果的副本：修改自己的结果不影响其它调用方
+			final List<String> leaderResult = leader.get(5L, TimeUnit.SECONDS);
+			final List<String> waiterResult = waiter.get(5L, TimeUnit.SECONDS);
+			assertNotSame(leaderResult, waiterResult);
+			assertEquals(Arrays.asList("v-list"), waiterResult);
+			waiterResult.add("changed");
+			assertEquals(Arrays.asList("v-list"), leaderResult);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, target.calls.get());
+	}
+
+
+	public interface SlowService {
+
+		String load(String id);
+
+		String loadWithTimeout(String id);
+
+		List<String> loadList(String id);
+	}
+
+
+	public static class SlowServiceImpl implements SlowService {
+
+		final AtomicInteger		calls		=	new AtomicInteger();		// 方法实际执行的次数
+
+		final CountDownLatch	started		=	new CountDownLatch(1);		// 第一次执行开始
+
+		final CountDownLatch	release		=	new CountDownLatch(1);		// 放行第一次执行
+
+
+		@Override
+		@SimpleCache(expire=60, singleFlight=true)
+		public String load(String id) {
+			return slowLoad(id);
+		}
+
+
+		@Override
+		@SimpleCache(expire=60, singleFlight=true, singleFlightTimeout=50)
+		public String loadWithTimeout(String id) {
+			return slowLoad(id);
+		}
+
+
+		@Override
+		@SimpleCache(expire=60, singleFlight=true, codec=FailingCodec.class)
+		public List<String> loadList(String id) {
+			return new ArrayList<>(Arrays.asList(slowLoad(id)));
+		}
+
+
+		// 只有第一次执行会阻塞到release
+		private String slowLoad(String id) {
+			if (calls.incrementAndGet() == 1) {
+				started.countDown();
+				try {
+					release.await(5L, TimeUnit.SECONDS);
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return "v-" + id;
+		}
+	}
+
+
+	/***
+	 *
+	 * 无法编码任何值的codec
+	 *
+	 */
+	public static class FailingCodec implements CacheCodec {
+
+		@Override
+		public byte[] encode(Object cacheObject) throws CacheException {
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_ENCODE, "not encodable");
+		}
+
+		@Override
+		public Object decode(ByteBuffer cacheBuffer, Type type) throws CacheException {
+			throw new CacheException(CacheConstants.EXCEPTION_CODEC_DECODE, "not decodable");
+		}
+	}
+}
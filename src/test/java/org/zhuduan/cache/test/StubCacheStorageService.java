@@ -0,0 +1,78 @@
+package org.zhuduan.cache.test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.zhuduan.cache.storage.AbstractCacheStorageService;
+import org.zhuduan.utils.CacheConstants;
+import org.zhuduan.utils.CacheException;
+
+/***
+ *
+ * 测试用的存储实现：用Map保存值，failing为true时所有操作都失败（模拟Redis出错）
+ *
+ * @author	zhuhaifeng
+ * @date	2017年5月23日
+ *
+ */
+public class StubCacheStorageService extends AbstractCacheStorageService {
+
+	final ConcurrentHashMap<String, byte[]>	values		=	new ConcurrentHashMap<>();	// 保存的值
+
+	final ConcurrentHashMap<String, Long>	counters	=	new ConcurrentHashMap<>();	// 自增的值
+
+	final AtomicInteger						callCount	=	new AtomicInteger();		// 调用次数
+
+	volatile boolean						failing;									// 是否模拟出错
+
+
+	@Override
+	public byte[] getCacheBytes(String cacheKey) {
+		check();
+		return values.get(cacheKey);
+	}
+
+
+	@Override
+	public Boolean setCacheBytes(String cacheKey, byte[] cacheBytes, int expireTimeSeconds) {
+		check();
+		values.put(cacheKey, cacheBytes);
+		return true;
+	}
+
+
+	@Override
+	public Boolean isCacheKeyExists(String cacheKey) {
+		check();
+		return values.containsKey(cacheKey);
+	}
+
+
+	@Override
+	public Boolean deleteCache(String cacheKey) {
+		check();
+		values.remove(cacheKey);
+		return true;
+	}
+
+
+	@Override
+	public synchronized Long incrCacheKey(String cacheKey, long incrStep, int expireTimeSeconds) throws CacheException {
+		callCount.incrementAndGet();
+		if (failing) {
+			throw new CacheException(CacheConstants.EXCEPTION_STORAGE_OPERATION, "stub failing");
+		}
+		final Long value = counters.get(cacheKey);
+		final long result = (value == null ? 0L : value) + incrStep;
+		counters.put(cacheKey, result);
+		return result;
+	}
+
+
+	private void check() {
+		callCount.incrementAndGet();
+		if (failing) {
+			throw new IllegalStateException("stub failing");
+		}
+	}
+}